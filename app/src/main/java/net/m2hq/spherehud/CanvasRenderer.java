@@ -0,0 +1,173 @@
+package net.m2hq.spherehud;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+
+/**
+ * {@link HudRenderer} that draws onto an Android Canvas with one Paint.
+ * The PATH_* and TYPEFACE_* ids of {@link HudScene} are looked up in the given arrays.
+ */
+public class CanvasRenderer implements HudRenderer
+{
+    private static final Paint.Style[] STYLES = { Paint.Style.FILL, Paint.Style.STROKE };
+    private static final Paint.Align[] ALIGNS = { Paint.Align.LEFT, Paint.Align.CENTER, Paint.Align.RIGHT };
+    private static final Path.FillType[] FILL_TYPES = { Path.FillType.WINDING, Path.FillType.EVEN_ODD };
+
+    private final Paint mPaint;
+    private final Path[] mPaths;
+    private final Typeface[] mTypefaces;
+    private Canvas mCanvas;
+
+    // 毎回作り直すパス(使い回す)
+    private final Path mPath = new Path();
+    private final Path mLinePath = new Path();
+    private final RectF mRect = new RectF();
+
+    public CanvasRenderer(Paint paint, Path[] paths, Typeface[] typefaces)
+    {
+        mPaint = paint;
+        mPaths = paths;
+        mTypefaces = typefaces;
+    }
+
+    public void setCanvas(Canvas canvas)
+    {
+        mCanvas = canvas;
+    }
+
+    @Override
+    public void setColor(int alpha, int red, int green, int blue)
+    {
+        mPaint.setARGB(alpha, red, green, blue);
+    }
+
+    @Override
+    public void setStyle(int style)
+    {
+        mPaint.setStyle(STYLES[style]);
+    }
+
+    @Override
+    public void setStrokeWidth(float width)
+    {
+        mPaint.setStrokeWidth(width);
+    }
+
+    @Override
+    public void setTypeface(int typeface)
+    {
+        mPaint.setTypeface(mTypefaces[typeface]);
+    }
+
+    @Override
+    public void setTextSize(float size)
+    {
+        mPaint.setTextSize(size);
+    }
+
+    @Override
+    public void setTextAlign(int align)
+    {
+        mPaint.setTextAlign(ALIGNS[align]);
+    }
+
+    @Override
+    public void drawLine(float x0, float y0, float x1, float y1)
+    {
+        mCanvas.drawLine(x0, y0, x1, y1, mPaint);
+    }
+
+    @Override
+    public void drawLines(float[] points, int offset, int count)
+    {
+        mCanvas.drawLines(points, offset, count, mPaint);
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom)
+    {
+        mRect.set(left, top, right, bottom);
+        mCanvas.drawOval(mRect, mPaint);
+    }
+
+    @Override
+    public void drawPath(int path)
+    {
+        mCanvas.drawPath(mPaths[path], mPaint);
+    }
+
+    @Override
+    public void beginPath()
+    {
+        mPath.rewind();
+    }
+
+    @Override
+    public void moveTo(float x, float y)
+    {
+        mPath.moveTo(x, y);
+    }
+
+    @Override
+    public void lineTo(float x, float y)
+    {
+        mPath.lineTo(x, y);
+    }
+
+    @Override
+    public void arcTo(float left, float top, float right, float bottom, float startAngle, float sweepAngle)
+    {
+        mRect.set(left, top, right, bottom);
+        mPath.arcTo(mRect, startAngle, sweepAngle);
+    }
+
+    @Override
+    public void closePath()
+    {
+        mPath.close();
+    }
+
+    @Override
+    public void endPath(int fillType)
+    {
+        mPath.setFillType(FILL_TYPES[fillType]);
+        mCanvas.drawPath(mPath, mPaint);
+    }
+
+    @Override
+    public void drawText(char[] text, int start, int count, float x, float y)
+    {
+        mCanvas.drawText(text, start, count, x, y, mPaint);
+    }
+
+    @Override
+    public void drawTextOnLine(char[] text, int start, int count, float x0, float y0, float x1, float y1,
+                               float hOffset, float vOffset)
+    {
+        mLinePath.rewind();
+        mLinePath.moveTo(x0, y0);
+        mLinePath.lineTo(x1, y1);
+        mCanvas.drawTextOnPath(text, start, count, mLinePath, hOffset, vOffset, mPaint);
+    }
+
+    @Override
+    public void save()
+    {
+        mCanvas.save();
+    }
+
+    @Override
+    public void restore()
+    {
+        mCanvas.restore();
+    }
+
+    @Override
+    public void clipPath(int path)
+    {
+        mCanvas.clipPath(mPaths[path]);
+    }
+}
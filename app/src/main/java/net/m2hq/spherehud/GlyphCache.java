@@ -0,0 +1,112 @@
+package net.m2hq.spherehud;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * Advance widths and ink bounds of the printable ASCII glyphs for one typeface and text size.
+ * Measures char[] text without going through Paint (which allocates for getTextBounds).
+ */
+public class GlyphCache implements HudScene.TextMeasurer
+{
+    private static final char FIRST_CHAR = 0x20;
+    private static final char LAST_CHAR = 0x7e;
+    private static final int CHAR_COUNT = LAST_CHAR - FIRST_CHAR + 1;
+
+    private final Typeface mTypeface;
+    private final float mTextSize;
+
+    private final float[] mWidths = new float[CHAR_COUNT];
+    private final int[] mLeft = new int[CHAR_COUNT];
+    private final int[] mTop = new int[CHAR_COUNT];
+    private final int[] mRight = new int[CHAR_COUNT];
+    private final int[] mBottom = new int[CHAR_COUNT];
+    private final Rect mBounds = new Rect();
+
+    public GlyphCache(Typeface typeface, float textSize)
+    {
+        mTypeface = typeface;
+        mTextSize = textSize;
+
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setTypeface(typeface);
+        paint.setTextSize(textSize);
+
+        char[] c = new char[1];
+        float[] width = new float[1];
+        Rect bounds = new Rect();
+        for(int i = 0; i < CHAR_COUNT; i++)
+        {
+            c[0] = (char)(FIRST_CHAR + i);
+            paint.getTextWidths(c, 0, 1, width);
+            paint.getTextBounds(c, 0, 1, bounds);
+            mWidths[i] = width[0];
+            mLeft[i] = bounds.left;
+            mTop[i] = bounds.top;
+            mRight[i] = bounds.right;
+            mBottom[i] = bounds.bottom;
+        }
+    }
+
+    public boolean matches(Typeface typeface, float textSize)
+    {
+        return mTypeface == typeface && mTextSize == textSize;
+    }
+
+    public float measureText(char[] text, int start, int count)
+    {
+        float width = 0;
+        for(int i = start; i < start + count; i++)
+        {
+            int index = text[i] - FIRST_CHAR;
+            if(index >= 0 && index < CHAR_COUNT)
+            {
+                width += mWidths[index];
+            }
+        }
+        return width;
+    }
+
+    /**
+     * Same as Paint.getTextBounds (without kerning). Characters outside ASCII are ignored.
+     */
+    public void getTextBounds(char[] text, int start, int count, Rect bounds)
+    {
+        bounds.set(0, 0, 0, 0);
+        boolean isEmpty = true;
+        float x = 0;
+        for(int i = start; i < start + count; i++)
+        {
+            int index = text[i] - FIRST_CHAR;
+            if(index < 0 || index >= CHAR_COUNT)
+            {
+                continue;
+            }
+            // 空白など描画範囲のない文字は幅だけ進める
+            if(mRight[index] > mLeft[index] && mBottom[index] > mTop[index])
+            {
+                int left = (int)x + mLeft[index];
+                int right = (int)x + mRight[index];
+                if(isEmpty)
+                {
+                    bounds.set(left, mTop[index], right, mBottom[index]);
+                    isEmpty = false;
+                }
+                else
+                {
+                    bounds.union(left, mTop[index], right, mBottom[index]);
+                }
+            }
+            x += mWidths[index];
+        }
+    }
+
+    @Override
+    public int getTextHeight(char[] text, int start, int count)
+    {
+        getTextBounds(text, start, count, mBounds);
+        return mBounds.height();
+    }
+}
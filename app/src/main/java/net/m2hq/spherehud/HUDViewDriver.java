@@ -4,33 +4,49 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.location.Location;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.v7.preference.PreferenceManager;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.Locale;
 
 public class HUDViewDriver implements ServiceConnection
 {
+    private static final String TAG = "HUDViewDriver";
+
     private Context mContext;
     private HUDView mHudView;
 
-    private Handler mUpdateViewHandler = new Handler();
-    private Runnable mUpdateViewRunnable;
-
-    private Handler mUpdatePathHandler = new Handler();
-    private Runnable mUpdatePathRunnable;
+    private Choreographer.FrameCallback mFrameCallback;
+    private final FramePacer mFramePacer = new FramePacer();
+    private final FrameStats mFrameStats = new FrameStats();
+    private long mLastStatsReportNanos;
 
     private Messenger mServiceMessenger;
     private Messenger mMyMessenger;
 
+    // サービスが同一プロセスにあるときはMessengerを使わずにこちらから読む
+    private TelemetrySnapshot mTelemetry;
+    private final ListenerService.ListenerData mLocalData = new ListenerService.ListenerData();
+
     private static ListenerService.ListenerData mData;
+    // Messenger経由で受け取った回数(変化の検出用)
+    private static int mReplySequence;
+    // 最後に問い合わせた時刻(往復時間の計測用)
+    private static long mRequestNanos;
+
+    private static final PipelineProfiler mProfiler = PipelineProfiler.getInstance();
 
-    private double mPrevLatitude;
-    private double mPrevLongitude;
-    private boolean mPrevLocationAvailability = false;
+    // Messenger経由のときは受け取った測位から軌跡を作る
+    private static final TrailStore mRemoteTrail = new TrailStore();
 
     private static class ReplyHandler extends Handler
     {
@@ -39,14 +55,30 @@ public class HUDViewDriver implements ServiceConnection
         {
             Bundle bundle = msg.getData();
             mData = (ListenerService.ListenerData)bundle.getSerializable("data");
+            mReplySequence++;
+            if(mProfiler.isEnabled() && mRequestNanos > 0)
+            {
+                mProfiler.record(PipelineProfiler.MESSENGER_ROUND_TRIP, System.nanoTime() - mRequestNanos);
+            }
+            if(null != mData && mData.isLocationUpdated && mData.isLocationAvailable)
+            {
+                // 測位時刻は届かないので受信時刻で代用する
+                mRemoteTrail.onFix(SystemClock.elapsedRealtimeNanos(), mData.latitude, mData.longitude, mData.accuracy);
+            }
         }
     }
 
-    private int mSweepCount;
+    // 測位の間の速度と位置をフレームごとに補間する
+    private final DeadReckoning mDeadReckoning = new DeadReckoning();
+    private int mLastLocationCount = -1;
+
+    // 描画した姿勢が画面に出るまでの遅れを角速度で先読みして補う
+    private final AttitudePredictor mAttitudePredictor = new AttitudePredictor();
 
-    private static final int HUDVIEW_UPDATE_INTERVAL = 50;
-    private static final int PATH_UPDATE_INTERVAL = 500;
-    private static final int SWEEP_DURATION = 30;
+    private long mSweepStartNanos = -1;
+
+    private static final long SWEEP_DURATION_NANOS = 1500000000L;
+    private static final long STATS_REPORT_INTERVAL_NANOS = 10000000000L;
 
     public HUDViewDriver(Context context, HUDView hudView)
     {
@@ -58,17 +90,61 @@ public class HUDViewDriver implements ServiceConnection
     {
         mHudView.setNoiseAlpha(255);
 
-        mUpdateViewRunnable = new Runnable()
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mHudView.setLayeredRendering(sharedPreferences.getBoolean("layered_rendering", false));
+        mHudView.setCompassResolution(Integer.parseInt(sharedPreferences.getString("compass_resolution", "24")));
+        mFramePacer.setTargetRate(getFrameRate(sharedPreferences.getString("frame_rate", "adaptive")));
+        mFramePacer.reset();
+        mFrameStats.reset();
+        setAttitudePrediction(sharedPreferences.getString("attitude_prediction", "off"));
+        mAttitudePredictor.setMeasuring(sharedPreferences.getBoolean("latency_measurement", false));
+        boolean debugOverlay = sharedPreferences.getBoolean("debug_overlay", false);
+        mProfiler.setEnabled(debugOverlay);
+        mHudView.setDebugOverlay(debugOverlay);
+        mSweepStartNanos = -1;
+
+        mFrameCallback = new Choreographer.FrameCallback()
         {
             @Override
-            public void run()
+            public void doFrame(long frameTimeNanos)
             {
-                if(null != mServiceMessenger)
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+
+                // frameTimeNanosはSystem.nanoTimeの時計なのでセンサの時計に直す
+                long now = SystemClock.elapsedRealtimeNanos();
+                long frameTime = now - (System.nanoTime() - frameTimeNanos);
+
+                int sequence = (null != mTelemetry ? mTelemetry.getSequence() : mReplySequence);
+                boolean isSweeping = (null != mData && (mSweepStartNanos < 0 || frameTimeNanos - mSweepStartNanos <= SWEEP_DURATION_NANOS));
+                // 測位の間の補間や姿勢の先読みは入力が変わらなくてもフレームごとに表示が動く
+                boolean isPredicting = (mDeadReckoning.isExtrapolating(now)
+                        || (null != mData && mAttitudePredictor.isExtrapolating(frameTime, mData.attitudeTimestamp,
+                                mData.rollRate, mData.pitchRate, mData.yawRate)));
+                if(null != mData)
+                {
+                    mFramePacer.setBatteryPercent(mData.batteryPercent);
+                }
+                if(!mFramePacer.onFrame(frameTimeNanos, sequence, isSweeping || isPredicting))
+                {
+                    return;
+                }
+                boolean profiling = mProfiler.isEnabled();
+                long start = (profiling ? System.nanoTime() : 0);
+                mFrameStats.onFrame(frameTimeNanos);
+                reportFrameStats(frameTimeNanos);
+
+                if(null != mTelemetry)
+                {
+                    mTelemetry.read(mLocalData);
+                    mData = mLocalData;
+                }
+                else if(null != mServiceMessenger)
                 {
                     Message msg = Message.obtain();
                     msg.replyTo = mMyMessenger;
                     try
                     {
+                        mRequestNanos = System.nanoTime();
                         mServiceMessenger.send(msg);
                     }
                     catch (RemoteException e)
@@ -79,9 +155,15 @@ public class HUDViewDriver implements ServiceConnection
 
                 if(null != mHudView && null != mData)
                 {
-                    if(mSweepCount <= SWEEP_DURATION)
+                    if(mSweepStartNanos < 0)
                     {
-                        float sweep = (SWEEP_DURATION - mSweepCount) / (float)SWEEP_DURATION;
+                        mSweepStartNanos = frameTimeNanos;
+                    }
+
+                    long sweepElapsed = frameTimeNanos - mSweepStartNanos;
+                    if(sweepElapsed <= SWEEP_DURATION_NANOS)
+                    {
+                        float sweep = (SWEEP_DURATION_NANOS - sweepElapsed) / (float)SWEEP_DURATION_NANOS;
                         if(sweep < 0) { sweep = 0; }
 
                         mHudView.setNoiseAlpha((int)(sweep * 255));
@@ -91,8 +173,6 @@ public class HUDViewDriver implements ServiceConnection
                         mHudView.setAltitudeDeltaPerSecond(-100);
                         mHudView.setBatteryPercent((int)((1.0 - sweep) * 100));
                         mHudView.setAccuracy(sweep * 500);
-
-                        mSweepCount++;
                     }
                     else
                     {
@@ -101,68 +181,142 @@ public class HUDViewDriver implements ServiceConnection
 
                         mHudView.setSatellitesCount(mData.satsUsedInFixCount, mData.satsCount);
 
-                        mHudView.setSpeed((int)mData.speed);
+                        updateDeadReckoning();
+                        mHudView.setSpeed((int)(mDeadReckoning.hasFix() ? mDeadReckoning.getSpeed() * 60 * 60 / 1000 : mData.speed));
                         mHudView.setSpeedDeltaPerSecond(mData.speedDeltaPerSecond);
                         mHudView.setAltitude((int)mData.altitude);
                         mHudView.setAltitudeDeltaPerSecond(mData.altitudeDeltaPerSecond);
                         mHudView.setAccuracy(mData.accuracy);
                     }
 
-                    mHudView.setRoll((int)(mData.roll % 360));
-                    mHudView.setPitch((int)(mData.pitch % 360));
-                    mHudView.setYaw((int)(mData.yaw % 360));
+                    mAttitudePredictor.predict(frameTime, mData.attitudeTimestamp, mData.roll, mData.pitch, mData.yaw,
+                            mData.rollRate, mData.pitchRate, mData.yawRate);
+                    mHudView.setRoll((int)(mAttitudePredictor.getRoll() % 360));
+                    mHudView.setPitch((int)(mAttitudePredictor.getPitch() % 360));
+                    mHudView.setYaw((int)(mAttitudePredictor.getYaw() % 360));
+                    mHudView.setAttitudeTimestamp(mData.attitudeTimestamp);
 
                     mHudView.setFlipVertical(mData.isFlipVertical);
                     mHudView.setHiddenGauges(mData.isHiddenGauges);
 
-                    mHudView.invalidate();
+                    mHudView.requestRender();
                 }
-                mUpdateViewHandler.removeCallbacks(mUpdateViewRunnable);
-                mUpdateViewHandler.postDelayed(mUpdateViewRunnable, HUDVIEW_UPDATE_INTERVAL);
-            }
-        };
-        mUpdateViewHandler.postDelayed(mUpdateViewRunnable, HUDVIEW_UPDATE_INTERVAL);
 
-        mUpdatePathRunnable = new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                if(null != mHudView && null != mData)
+                if(profiling)
                 {
-                    float distance[] = new float[3];
-                    Location.distanceBetween(mPrevLatitude, mPrevLongitude, mData.latitude, mData.longitude, distance);
-
-                    if(distance[0] > mData.accuracy)
-                    {
-                        if (mPrevLocationAvailability && mData.isLocationAvailable)
-                        {
-                            mHudView.addPathElement(distance[0], distance[2]);
-                        }
-
-                        mPrevLatitude = mData.latitude;
-                        mPrevLongitude = mData.longitude;
-                        mPrevLocationAvailability = mData.isLocationAvailable;
-                    }
+                    mProfiler.lap(PipelineProfiler.FRAME_CALLBACK, start);
                 }
-                mUpdatePathHandler.removeCallbacks(mUpdatePathRunnable);
-                mUpdatePathHandler.postDelayed(mUpdatePathRunnable, PATH_UPDATE_INTERVAL);
             }
         };
-        mUpdatePathHandler.postDelayed(mUpdatePathRunnable, PATH_UPDATE_INTERVAL);
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
 
         mContext.bindService(new Intent(mContext.getApplicationContext(), ListenerService.class), this, Context.BIND_AUTO_CREATE);
     }
 
     public void stop()
     {
-        mUpdateViewHandler.removeCallbacks(mUpdateViewRunnable);
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
         mContext.unbindService(this);
     }
 
+    private void updateDeadReckoning()
+    {
+        // 測位時刻は再生中だと別の時計なので，受け取った時刻を測位の時刻とみなす
+        long now = SystemClock.elapsedRealtimeNanos();
+        if(mData.locationCount != mLastLocationCount)
+        {
+            mLastLocationCount = mData.locationCount;
+            if(mData.isLocationAvailable)
+            {
+                mDeadReckoning.onFix(now, mData.latitude, mData.longitude, mData.speed * 1000 / 60 / 60,
+                        mData.speedDeltaPerSecond * 1000 / 60 / 60, mData.bearing, mData.fusedYaw);
+            }
+        }
+        mDeadReckoning.predict(now, mData.fusedYaw);
+        if(mDeadReckoning.hasFix())
+        {
+            mHudView.setPosition(mDeadReckoning.getLatitude(), mDeadReckoning.getLongitude());
+        }
+    }
+
+    public FrameStats getFrameStats()
+    {
+        return mFrameStats;
+    }
+
+    private static int getFrameRate(String value)
+    {
+        if("adaptive".equals(value))
+        {
+            return FramePacer.RATE_ADAPTIVE;
+        }
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch(NumberFormatException e)
+        {
+            return FramePacer.RATE_ADAPTIVE;
+        }
+    }
+
+    private void setAttitudePrediction(String value)
+    {
+        if("off".equals(value))
+        {
+            mAttitudePredictor.setPrediction(false, 0);
+            return;
+        }
+        try
+        {
+            mAttitudePredictor.setPrediction(true, Integer.parseInt(value) * 1000000L);
+        }
+        catch(NumberFormatException e)
+        {
+            mAttitudePredictor.setPrediction(false, 0);
+        }
+    }
+
+    private void reportFrameStats(long frameTimeNanos)
+    {
+        if(frameTimeNanos - mLastStatsReportNanos < STATS_REPORT_INTERVAL_NANOS)
+        {
+            return;
+        }
+        mLastStatsReportNanos = frameTimeNanos;
+
+        Log.d(TAG, String.format(Locale.ROOT, "%.1f fps (limit %d), frame time p50=%.1fms p90=%.1fms p99=%.1fms",
+                mFrameStats.getFps(), mFramePacer.getEffectiveRate(),
+                mFrameStats.getFrameTimeMillis(50), mFrameStats.getFrameTimeMillis(90), mFrameStats.getFrameTimeMillis(99)));
+        if(mDeadReckoning.getErrorCount() > 0)
+        {
+            Log.d(TAG, String.format(Locale.ROOT, "dead reckoning error at next fix: position rms=%.2fm, speed rms=%.2fm/s (%d fixes)",
+                    mDeadReckoning.getRmsPositionError(), mDeadReckoning.getRmsSpeedError(), mDeadReckoning.getErrorCount()));
+            mDeadReckoning.resetErrors();
+        }
+        if(mAttitudePredictor.isMeasuring() && mAttitudePredictor.getLatencyCount() > 0)
+        {
+            Log.d(TAG, String.format(Locale.ROOT, "attitude latency to display p50=%.1fms p90=%.1fms, after prediction p50=%.1fms p90=%.1fms (%d of %d frames clamped)",
+                    mAttitudePredictor.getLatencyMillis(50), mAttitudePredictor.getLatencyMillis(90),
+                    mAttitudePredictor.getResidualLatencyMillis(50), mAttitudePredictor.getResidualLatencyMillis(90),
+                    mAttitudePredictor.getClampedCount(), mAttitudePredictor.getLatencyCount()));
+            mAttitudePredictor.resetLatencies();
+        }
+    }
+
     @Override
     public void onServiceConnected(ComponentName name, IBinder service)
     {
+        mTelemetry = ListenerService.getLocalTelemetry(service);
+        TrailStore trail = ListenerService.getLocalTrail(service);
+        if(null == trail)
+        {
+            trail = mRemoteTrail;
+        }
+        if(null != mHudView)
+        {
+            mHudView.setTrail(trail);
+        }
         mServiceMessenger = new Messenger(service);
         mMyMessenger = new Messenger(new ReplyHandler());
     }
@@ -170,6 +324,7 @@ public class HUDViewDriver implements ServiceConnection
     @Override
     public void onServiceDisconnected(ComponentName name)
     {
+        mTelemetry = null;
         mServiceMessenger = null;
         mMyMessenger = null;
     }
@@ -0,0 +1,55 @@
+package net.m2hq.spherehud;
+
+import android.content.SharedPreferences;
+
+/**
+ * Immutable snapshot of the preferences ListenerService uses while running.
+ * A new one is built whenever a preference changes and published through a volatile
+ * field, so the sensor callbacks read plain fields instead of SharedPreferences.
+ */
+public final class HudConfig
+{
+    public static final String KEY_ROLL_OFFSET = "roll_offset";
+    public static final String KEY_PITCH_OFFSET = "pitch_offset";
+    public static final String KEY_USE_BEARING = "use_bearing";
+    public static final String KEY_FLIP_VERTICAL = "flip_vertical";
+    public static final String KEY_HIDE_GAUGES = "hide_gauges";
+    public static final String KEY_FUSION_MODE = "fusion_mode";
+    public static final String KEY_RECORD_TRACK = "record_track";
+    public static final String KEY_REPLAY_SPEED = "replay_speed";
+
+    public final int rollOffset;
+    public final int pitchOffset;
+    public final boolean useBearing;
+    public final boolean isFlipVertical;
+    public final boolean isHiddenGauges;
+    // ジャイロが無い端末ではこれがtrueでも使わない
+    public final boolean preferGyroscope;
+    public final boolean recordTrack;
+    public final String replaySpeed;
+
+    private HudConfig(SharedPreferences sharedPreferences)
+    {
+        rollOffset = sharedPreferences.getInt(KEY_ROLL_OFFSET, 0);
+        pitchOffset = sharedPreferences.getInt(KEY_PITCH_OFFSET, 0);
+        useBearing = sharedPreferences.getBoolean(KEY_USE_BEARING, true);
+        isFlipVertical = sharedPreferences.getBoolean(KEY_FLIP_VERTICAL, false);
+        isHiddenGauges = sharedPreferences.getBoolean(KEY_HIDE_GAUGES, false);
+        preferGyroscope = "gyroscope".equals(sharedPreferences.getString(KEY_FUSION_MODE, "accelerometer"));
+        recordTrack = sharedPreferences.getBoolean(KEY_RECORD_TRACK, true);
+        replaySpeed = sharedPreferences.getString(KEY_REPLAY_SPEED, "off");
+    }
+
+    public static HudConfig from(SharedPreferences sharedPreferences)
+    {
+        return new HudConfig(sharedPreferences);
+    }
+
+    public static void resetOffset(SharedPreferences sharedPreferences)
+    {
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putInt(KEY_ROLL_OFFSET, 0);
+        editor.putInt(KEY_PITCH_OFFSET, 0);
+        editor.apply();
+    }
+}
@@ -11,61 +11,142 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.display.DisplayManager;
 import android.location.GpsSatellite;
 import android.location.GpsStatus;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.preference.PreferenceManager;
-import android.view.Surface;
-import android.view.WindowManager;
-
+import android.util.Log;
+import android.view.Display;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 public class ListenerService extends Service implements LocationListener, SensorEventListener
 {
+    /** Message to the service's Messenger: take the current attitude as the new level. */
+    public static final int MSG_CAPTURE_OFFSET = 1;
+
     private LocationManager mLocationManager;
     private SensorManager mSensorManager;
     private Sensor mAccelerometerSensor;
     private Sensor mMagneticFieldSensor;
-    private float[] mAccelerometerValues = new float[3];
-    private float[] mMagneticFieldValues = new float[3];
+    private Sensor mGyroscopeSensor;
+    private Sensor mPressureSensor;
 
     private static SharedPreferences mSharedPreferences;
 
-    private double mPrevRawRoll;
-    private double mPrevRawPitch;
-    private double mPrevRawYaw;
+    // 速度・加速度・高度・昇降率
+    private final MotionEstimator mMotionEstimator = new MotionEstimator();
+    // 描画側で姿勢を先読みするための角速度
+    private final AttitudeRate mAttitudeRate = new AttitudeRate();
+
+    // mBusに渡す値(センサのスレッドだけが触る)
+    private final double[] mBusFrame = new double[TelemetryBus.FIELD_COUNT];
 
-    private long mLastLocationChangedTime;
+    private final PipelineProfiler mProfiler = PipelineProfiler.getInstance();
 
-    private int mYawRotate;
-    private int mPitchRotate;
-    private int mRollRotate;
+    private OrientationFusion mFusion;
+    private QuaternionFusion mQuaternionFusion;
+    private boolean mUseGyroscope;
 
-    private float mYawDeclination;
-    private double mYaw;
-    private double mPitch;
-    private double mRoll;
+    // センサイベント毎にSharedPreferencesを引かないように，変わったときだけ作り直して差し替える
+    private volatile HudConfig mConfig;
+
+    private DisplayManager mDisplayManager;
+    private DisplayManager.DisplayListener mDisplayListener;
 
-    private BroadcastReceiver mPreferenceChangedReceiver;
     private BroadcastReceiver mBatteryChangedReceiver;
 
+    private SharedPreferences.OnSharedPreferenceChangeListener mSharedPreferenceChangeListener;
+
     private Messenger mMyMessenger;
 
-    public class ListenerData implements Serializable
+    // センサ/GPSのコールバックと姿勢計算はこのスレッドで行い，描画するUIスレッドとは
+    // TelemetrySnapshotでだけやりとりする．mDataとフュージョンの状態はこのスレッドだけが触る
+    private HandlerThread mSensorThread;
+    private Handler mSensorHandler;
+    private GpsStatus.Listener mGpsStatusListener;
+
+    private SamplingGovernor mGovernor;
+    private Runnable mSamplingRunnable;
+    private long mLastSamplingReportNanos;
+
+    private static final long SAMPLING_UPDATE_INTERVAL = 1000;
+    private static final long SAMPLING_REPORT_INTERVAL_NANOS = 60000000000L;
+    // これだけ描画側が読みに来なければHUDは表示されていない(画面オフなど)
+    private static final long HUD_VISIBLE_TIMEOUT_NANOS = 2000000000L;
+
+    private TrackRecorder mTrackRecorder;
+    // 記録の姿勢はバスから記録の書き込みスレッドが直接受け取る
+    private TelemetryBus.Subscription mTrackSubscription;
+    // 記録する姿勢は20Hzまでに間引く(センサのイベントごとだと1時間で十数MBになる)
+    private static final long TRACK_ATTITUDE_INTERVAL_NANOS = 50000000L;
+    // 書き込みスレッドは0.2秒毎に読むので，数秒分あれば足りる
+    private static final int TRACK_ATTITUDE_CAPACITY = 64;
+    // 古い記録はこれを超えた分から消す
+    private static final int MAX_TRACK_SESSIONS = 20;
+    private static final long MAX_TRACK_BYTES = 64L * 1024 * 1024;
+
+    // 偏角は格子点でだけGeomagneticFieldを求め，間は補間する
+    private DeclinationCache mDeclinationCache;
+    private static final String DECLINATION_CACHE_FILE_NAME = "declination.bin";
+
+    private static final String TAG = "ListenerService";
+
+    // 再生するトレース(getExternalFilesDirに置く)
+    private static final String REPLAY_FILE_NAME = "replay.csv";
+    // 描画が止まらないように1回に配るイベント数
+    private static final int REPLAY_EVENTS_PER_STEP = 256;
+
+    private boolean mIsReplaying = false;
+    private TraceReplayer mReplayer;
+    private int mReplaySpeed;
+    // 再生を始めたときのelapsedRealtimeNanosとトレースの最初の時刻
+    private long mReplayStartRealtime;
+    private long mReplayStartTimestamp;
+    private Runnable mReplayRunnable;
+    private final float[] mReplayValues = new float[3];
+    private Location mReplayLocation;
+
+    public static class ListenerData implements Serializable
     {
         public double roll;
         public double pitch;
         public double yaw;
+        // roll/pitch/yawが表す時刻(elapsedRealtimeNanos，フィルタの遅れを引いたもの)と角速度[deg/s]
+        public long attitudeTimestamp;
+        public double rollRate;
+        public double pitchRate;
+        public double yawRate;
+        // 表示のヨーは方位のことがあり整数に丸めてあるので，測位の間の旋回にはこちらを使う
+        public double fusedYaw;
         public float bearing;
         public int batteryPercent;
         public int satsUsedInFixCount;
@@ -75,6 +156,8 @@ public class ListenerService extends Service implements LocationListener, Sensor
         public double altitude;
         public double altitudeDeltaPerSecond;
         public float accuracy;
+        // 測位ごとに増える(描画側で新しい測位を見分ける)
+        public int locationCount;
         public boolean isLocationAvailable = false;
         public boolean isLocationUpdated = false;
         public double latitude;
@@ -85,19 +168,38 @@ public class ListenerService extends Service implements LocationListener, Sensor
 
     private static ListenerData mData;
 
+    private static TelemetrySnapshot mTelemetry = new TelemetrySnapshot();
+    // 記録や外部への送信など，それぞれの頻度で受け取りたい購読者向け
+    private static TelemetryBus mBus = new TelemetryBus();
+    // レーダーの軌跡(測位ごとに追加)
+    private static TrailStore mTrail = new TrailStore();
+    private static IBinder mLocalBinder;
+
     private static class ListenerHandler extends Handler
     {
+        private final Runnable mCaptureOffset;
+
+        ListenerHandler(Looper looper, Runnable captureOffset)
+        {
+            super(looper);
+            mCaptureOffset = captureOffset;
+        }
+
         @Override
         public void handleMessage(Message msg)
         {
             //Toast.makeText(getApplicationContext(), "Server: handleMessage", Toast.LENGTH_SHORT).show();
             //super.handleMessage(msg);
 
-            if(null != msg.replyTo)
+            if(MSG_CAPTURE_OFFSET == msg.what)
             {
-                mData.isFlipVertical = mSharedPreferences.getBoolean("flip_vertical", false);
-                mData.isHiddenGauges = mSharedPreferences.getBoolean("hide_gauges", false);
+                mCaptureOffset.run();
+                return;
+            }
 
+            if(null != msg.replyTo)
+            {
+                mTelemetry.markRead();
                 Bundle bundle = new Bundle();
                 bundle.putSerializable("data", mData);
                 Message replyMsg = Message.obtain();
@@ -123,10 +225,84 @@ public class ListenerService extends Service implements LocationListener, Sensor
         mData = new ListenerData();
 
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        mConfig = HudConfig.from(mSharedPreferences);
+        mData.isFlipVertical = mConfig.isFlipVertical;
+        mData.isHiddenGauges = mConfig.isHiddenGauges;
+        if(mConfig.recordTrack)
+        {
+            startTrackRecording();
+        }
+
+        mDeclinationCache = new DeclinationCache(new DeclinationCache.Model()
+        {
+            @Override
+            public float getDeclination(double latitude, double longitude, long timeMillis)
+            {
+                return new GeomagneticField((float)latitude, (float)longitude, 0, timeMillis).getDeclination();
+            }
+        }, AsyncTask.THREAD_POOL_EXECUTOR);
+
+        mGovernor = new SamplingGovernor(SamplingGovernor.SENSOR_DELAY_UI_US);
+        mGovernor.setBatteryPercent(mData.batteryPercent);
+        // 起動直後は表示中とみなす
+        mTelemetry.markRead();
+
+        mSensorThread = new HandlerThread("ListenerService", Process.THREAD_PRIORITY_DISPLAY);
+        mSensorThread.start();
+        mSensorHandler = new Handler(mSensorThread.getLooper());
+
+        // SharedPreferencesは弱参照でリスナを保持するのでフィールドに持っておく
+        mSharedPreferenceChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener()
+        {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, final String key)
+            {
+                // 読む側は次のイベントから新しい値を使う
+                mConfig = HudConfig.from(sharedPreferences);
+                // それに伴う処理はUIスレッドで呼ばれるのでセンサのスレッドへ回す
+                mSensorHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        onPreferenceChanged(key);
+                    }
+                });
+            }
+        };
+        mSharedPreferences.registerOnSharedPreferenceChangeListener(mSharedPreferenceChangeListener);
+
+        mFusion = new OrientationFusion();
+        mQuaternionFusion = new QuaternionFusion();
+
+        // 画面の向きはセンサイベント毎に問い合わせず，変わったときだけ取り直す
+        mDisplayManager = (DisplayManager)getSystemService(Service.DISPLAY_SERVICE);
+        mDisplayListener = new DisplayManager.DisplayListener()
+        {
+            @Override
+            public void onDisplayAdded(int displayId)
+            {
+            }
+
+            @Override
+            public void onDisplayRemoved(int displayId)
+            {
+            }
+
+            @Override
+            public void onDisplayChanged(int displayId)
+            {
+                if(Display.DEFAULT_DISPLAY == displayId)
+                {
+                    updateDisplayRotation();
+                }
+            }
+        };
+        mDisplayManager.registerDisplayListener(mDisplayListener, mSensorHandler);
 
         mLocationManager = (LocationManager)getSystemService(Service.LOCATION_SERVICE);
 
-        GpsStatus.Listener listener = new GpsStatus.Listener()
+        mGpsStatusListener = new GpsStatus.Listener()
         {
             public void onGpsStatusChanged(int event)
             {
@@ -147,6 +323,7 @@ public class ListenerService extends Service implements LocationListener, Sensor
                         }
                         mData.satsCount = satsCount;
                         mData.satsUsedInFixCount = satsUsedInFixCount;
+                        publishData();
                     }
                     catch(SecurityException e)
                     {
@@ -156,42 +333,23 @@ public class ListenerService extends Service implements LocationListener, Sensor
             }
         };
 
-        try {
-            mLocationManager.addGpsStatusListener(listener);
-            mLocationManager.requestLocationUpdates(
-                    LocationManager.GPS_PROVIDER,
-                    500,
-                    0,
-                    this
-            );
-        }
-        catch(SecurityException e) {
-            e.printStackTrace();
-        }
-
-        registerSensorListeners();
-
-        mPreferenceChangedReceiver = new BroadcastReceiver()
+        mSensorHandler.post(new Runnable()
         {
             @Override
-            public void onReceive(Context context, Intent intent)
+            public void run()
             {
-                int message_id = intent.getIntExtra("Message", 0);
+                loadDeclinationCache();
+                updateDisplayRotation();
+                publishData();
 
-                switch(message_id)
+                // トレースの再生中は実際のセンサ/GPSの代わりにそちらを使う
+                mIsReplaying = startReplay();
+                if(!mIsReplaying)
                 {
-                    case SettingsFragment.SET_OFFSET:
-                        updateOffset();
-                        break;
-                    case SettingsFragment.RESET_OFFSET:
-                        resetOffset();
-                        break;
-                    default:
-                        break;
+                    startListening();
                 }
             }
-        };
-        LocalBroadcastManager.getInstance(this).registerReceiver(mPreferenceChangedReceiver, new IntentFilter("PreferenceChangedEvent"));
+        });
 
         mBatteryChangedReceiver = new BroadcastReceiver()
         {
@@ -202,12 +360,23 @@ public class ListenerService extends Service implements LocationListener, Sensor
                 {
                     float percent = intent.getIntExtra("level", 0) / (float)intent.getIntExtra("scale", 100);
                     mData.batteryPercent = (int)(percent * 100);
+                    mGovernor.setBatteryPercent(mData.batteryPercent);
+                    publishData();
                 }
             }
         };
-        registerReceiver(mBatteryChangedReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        registerReceiver(mBatteryChangedReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, mSensorHandler);
 
-        mMyMessenger = new Messenger(new ListenerHandler());
+        // Messengerへの応答もmDataを読むのでセンサのスレッドで行う
+        mMyMessenger = new Messenger(new ListenerHandler(mSensorThread.getLooper(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                captureOffset();
+            }
+        }));
+        mLocalBinder = mMyMessenger.getBinder();
     }
 
     @Override
@@ -222,10 +391,32 @@ public class ListenerService extends Service implements LocationListener, Sensor
     {
         super.onDestroy();
 
-        unregisterSensorListeners();
+        mLocalBinder = null;
+        mSharedPreferences.unregisterOnSharedPreferenceChangeListener(mSharedPreferenceChangeListener);
+        mDisplayManager.unregisterDisplayListener(mDisplayListener);
 
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(mPreferenceChangedReceiver);
         unregisterReceiver(mBatteryChangedReceiver);
+
+        // 後片付けもセンサのスレッドで，溜まっているイベントを処理し終えてから
+        mSensorHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if(mIsReplaying)
+                {
+                    mSensorHandler.removeCallbacks(mReplayRunnable);
+                }
+                else
+                {
+                    mSensorHandler.removeCallbacks(mSamplingRunnable);
+                    stopListening();
+                }
+                stopTrackRecording();
+                saveDeclinationCache();
+            }
+        });
+        mSensorThread.quitSafely();
     }
 
     @Nullable
@@ -253,7 +444,9 @@ public class ListenerService extends Service implements LocationListener, Sensor
         double latitude = location.getLatitude();
         double longitude = location.getLongitude();
         double altitude = location.getAltitude();
-        mYawDeclination = new GeomagneticField((float)latitude, (float)longitude, (float)altitude, System.currentTimeMillis()).getDeclination();
+        float declination = mDeclinationCache.getDeclination(latitude, longitude, System.currentTimeMillis());
+        mFusion.setDeclination(declination);
+        mQuaternionFusion.setDeclination(declination);
 
         if(location.hasBearing())
         {
@@ -268,26 +461,36 @@ public class ListenerService extends Service implements LocationListener, Sensor
             mData.bearing = -1.0f;
         }
 
+        mGovernor.onLocation(location.getSpeed());
+
         mData.accuracy = location.getAccuracy();
         mData.latitude = latitude;
         mData.longitude = longitude;
         mData.isLocationAvailable = true;
         mData.isLocationUpdated = true;
+        mData.locationCount++;
 
-        long currentTime = System.currentTimeMillis();
-        long deltaTime = (currentTime - mLastLocationChangedTime);
-        if(0 == deltaTime) { deltaTime = 1; }
+        // 再生時も測位の時刻で推定する
+        mMotionEstimator.onLocation(location.getElapsedRealtimeNanos(),
+                (location.hasSpeed() ? location.getSpeed() : -1.0f),
+                (location.hasAltitude() ? altitude : Double.NaN), location.getAccuracy());
+        if(mMotionEstimator.hasSpeed())
+        {
+            // km/h, km/h/s
+            mData.speed = mMotionEstimator.getSpeed() * 60 * 60 / 1000;
+            mData.speedDeltaPerSecond = mMotionEstimator.getAcceleration() * 60 * 60 / 1000;
+        }
+        updateAltitude();
 
-        int speed = (int)(location.getSpeed() * 60 * 60 / 1000);
-        //int speed = (int)mData.speed + 2;
-        int alt = (int)altitude;
-        //int alt = (int)mData.altitude + 2;
-        mData.speedDeltaPerSecond = (speed - mData.speed) * 1000 / deltaTime;
-        mData.speed = speed;
-        mData.altitudeDeltaPerSecond = (alt - mData.altitude) * 1000 / deltaTime;
-        mData.altitude = alt;
+        mTrail.onFix(location.getElapsedRealtimeNanos(), latitude, longitude, location.getAccuracy());
+        publishData();
 
-        mLastLocationChangedTime = currentTime;
+        if(null != mTrackRecorder)
+        {
+            mTrackRecorder.recordFix(location.getElapsedRealtimeNanos(), latitude, longitude, altitude,
+                    location.getSpeed(), (location.hasBearing() ? location.getBearing() : -1.0f), mData.accuracy,
+                    mData.satsUsedInFixCount, mData.satsCount, mData.roll, mData.pitch, mData.yaw);
+        }
     }
 
     @Override
@@ -308,111 +511,517 @@ public class ListenerService extends Service implements LocationListener, Sensor
     @Override
     public void onSensorChanged(SensorEvent event)
     {
-        if(mAccelerometerSensor == event.sensor)
+        long now = SystemClock.elapsedRealtimeNanos();
+        mGovernor.onSensorDelivery(now);
+        if(mProfiler.isEnabled())
+        {
+            mProfiler.record(PipelineProfiler.SENSOR_DELIVERY, now - event.timestamp);
+            onSensor(event.sensor.getType(), event.values, event.timestamp);
+            mProfiler.record(PipelineProfiler.SENSOR_CALLBACK, SystemClock.elapsedRealtimeNanos() - now);
+        }
+        else
+        {
+            onSensor(event.sensor.getType(), event.values, event.timestamp);
+        }
+    }
+
+    private void updateAltitude()
+    {
+        if(mMotionEstimator.hasAltitude())
+        {
+            mData.altitude = mMotionEstimator.getAltitude();
+            mData.altitudeDeltaPerSecond = mMotionEstimator.getClimbRate();
+        }
+    }
+
+    private void updateAttitudeRate(long timestamp, double fusedYaw, boolean isBearingYaw)
+    {
+        // 表示のヨーは整数に丸めてあり，方位のときは測位ごとに飛ぶので，微分はフュージョンのヨーで取る
+        mAttitudeRate.update(timestamp, mData.roll, mData.pitch, fusedYaw);
+        mData.rollRate = mAttitudeRate.getRollRate();
+        mData.pitchRate = mAttitudeRate.getPitchRate();
+        // 方位は次の測位まで動かないので先読みしない
+        mData.yawRate = (isBearingYaw ? 0 : mAttitudeRate.getYawRate());
+        // ジャイロを使わないときはローパスフィルタの分だけ古い姿勢になっている
+        long lag = (mUseGyroscope ? 0 : (long)(OrientationFusion.LAG_UPDATES * mAttitudeRate.getIntervalNanos()));
+        mData.attitudeTimestamp = toRealtime(timestamp - lag);
+    }
+
+    /**
+     * @return {@code timestamp} on the elapsedRealtimeNanos clock the renderer uses (differs only while replaying)
+     */
+    private long toRealtime(long timestamp)
+    {
+        if(!mIsReplaying)
+        {
+            return timestamp;
+        }
+        // 最大速度で再生しているときは時刻の対応が取れないので受け取った時刻とする
+        if(TraceReplayer.SPEED_UNLIMITED == mReplaySpeed)
         {
-            mAccelerometerValues = event.values;
+            return SystemClock.elapsedRealtimeNanos();
         }
-        if(mMagneticFieldSensor == event.sensor)
+        return mReplayStartRealtime + (timestamp - mReplayStartTimestamp) / mReplaySpeed;
+    }
+
+    // センサの種類ごとの処理(トレースの再生からも呼ぶ)
+    private void onSensor(int type, float[] values, long timestamp)
+    {
+        if(Sensor.TYPE_PRESSURE == type)
         {
-            mMagneticFieldValues = event.values;
+            // 気圧高度はGPSより速く高度計に反映する
+            mMotionEstimator.onPressure(timestamp, values[0]);
+            updateAltitude();
+            publishData();
+            return;
         }
 
-        float[] orientationValues = new float[3];
+        if(Sensor.TYPE_ACCELEROMETER == type)
+        {
+            mGovernor.onAccelerometer(values[0], values[1], values[2]);
+        }
 
-        if(null != mAccelerometerValues && null != mMagneticFieldValues)
+        if(mUseGyroscope)
+        {
+            // ジャイロで姿勢を積分し，加速度/地磁気はその補正にだけ使う
+            if(Sensor.TYPE_ACCELEROMETER == type)
+            {
+                mQuaternionFusion.setAccelerometer(values);
+            }
+            if(Sensor.TYPE_MAGNETIC_FIELD == type)
+            {
+                mQuaternionFusion.setMagneticField(values);
+            }
+            if(Sensor.TYPE_GYROSCOPE != type)
+            {
+                return;
+            }
+            mQuaternionFusion.onGyroscope(values, timestamp);
+            if(!mQuaternionFusion.isInitialized())
+            {
+                return;
+            }
+        }
+        else
+        {
+            if(Sensor.TYPE_ACCELEROMETER == type)
+            {
+                mFusion.setAccelerometer(values);
+            }
+            if(Sensor.TYPE_MAGNETIC_FIELD == type)
+            {
+                mFusion.setMagneticField(values);
+            }
+
+            if(!mFusion.update())
+            {
+                return;
+            }
+        }
+
+        HudConfig config = mConfig;
+        mData.roll = getFusedRoll() - config.rollOffset;
+        mData.pitch = getFusedPitch() - config.pitchOffset;
+        mData.yaw = getYaw(config.useBearing);
+        double fusedYaw = getFusedYaw();
+        mData.fusedYaw = fusedYaw;
+        // 表示の方位はGPSの測位ごとにしか変わらず整数に丸めてあるので，旋回の判定にはフュージョンの方位を使う
+        mGovernor.onYaw(fusedYaw, timestamp);
+        updateAttitudeRate(timestamp, fusedYaw, isBearingYaw(config.useBearing));
+
+        publishData();
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy)
+    {
+        // nothing to do
+    }
+
+
+    /**
+     * Returns the in-process telemetry channel if {@code binder} was handed out by
+     * this process' ListenerService, or null if the caller has to fall back to Messenger.
+     */
+    public static TelemetrySnapshot getLocalTelemetry(IBinder binder)
+    {
+        if(null != binder && binder == mLocalBinder)
+        {
+            return mTelemetry;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the trail written by this process' ListenerService, or null like {@link #getLocalTelemetry}.
+     */
+    public static TrailStore getLocalTrail(IBinder binder)
+    {
+        if(null != binder && binder == mLocalBinder)
+        {
+            return mTrail;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the telemetry bus of this process' ListenerService, or null like {@link #getLocalTelemetry}.
+     */
+    public static TelemetryBus getLocalTelemetryBus(IBinder binder)
+    {
+        if(null != binder && binder == mLocalBinder)
+        {
+            return mBus;
+        }
+        return null;
+    }
+
+    private void publishData()
+    {
+        mTelemetry.publish(mData);
+        publishToBus();
+    }
+
+    private void publishToBus()
+    {
+        // 購読者がいなければ詰め替えもしない
+        if(0 == mBus.getSubscriberCount())
         {
-            float[] inR = new float[16];
-            float[] outR = new float[16];
-            float[] I = new float[16];
+            return;
+        }
+        double[] frame = mBusFrame;
+        frame[TelemetryBus.ROLL] = mData.roll;
+        frame[TelemetryBus.PITCH] = mData.pitch;
+        frame[TelemetryBus.YAW] = mData.yaw;
+        frame[TelemetryBus.ROLL_RATE] = mData.rollRate;
+        frame[TelemetryBus.PITCH_RATE] = mData.pitchRate;
+        frame[TelemetryBus.YAW_RATE] = mData.yawRate;
+        frame[TelemetryBus.BEARING] = mData.bearing;
+        frame[TelemetryBus.SPEED] = mData.speed;
+        frame[TelemetryBus.SPEED_DELTA_PER_SECOND] = mData.speedDeltaPerSecond;
+        frame[TelemetryBus.ALTITUDE] = mData.altitude;
+        frame[TelemetryBus.ALTITUDE_DELTA_PER_SECOND] = mData.altitudeDeltaPerSecond;
+        frame[TelemetryBus.ACCURACY] = mData.accuracy;
+        frame[TelemetryBus.LATITUDE] = mData.latitude;
+        frame[TelemetryBus.LONGITUDE] = mData.longitude;
+        frame[TelemetryBus.BATTERY_PERCENT] = mData.batteryPercent;
+        frame[TelemetryBus.SATS_USED_IN_FIX_COUNT] = mData.satsUsedInFixCount;
+        frame[TelemetryBus.SATS_COUNT] = mData.satsCount;
+        frame[TelemetryBus.LOCATION_COUNT] = mData.locationCount;
+        mBus.publish(SystemClock.elapsedRealtimeNanos(), frame);
+    }
 
-            SensorManager.getRotationMatrix(inR, I, mAccelerometerValues, mMagneticFieldValues);
+    private void loadDeclinationCache()
+    {
+        File file = new File(getFilesDir(), DECLINATION_CACHE_FILE_NAME);
+        if(!file.isFile())
+        {
+            return;
+        }
+        try
+        {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try
+            {
+                mDeclinationCache.read(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
 
-            int rotation = ((WindowManager)getSystemService(Service.WINDOW_SERVICE)).getDefaultDisplay().getRotation();
-            switch(rotation)
+    private void saveDeclinationCache()
+    {
+        try
+        {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(getFilesDir(), DECLINATION_CACHE_FILE_NAME)));
+            try
             {
-                case Surface.ROTATION_90:
-                    // 反時計回りに90°
-                    //   x
-                    //   |
-                    // y-+
-                    SensorManager.remapCoordinateSystem(inR, SensorManager.AXIS_Z, SensorManager.AXIS_MINUS_X, outR);
-                    break;
-                case Surface.ROTATION_180:
-                    // 反時計回りに180°
-                    // x-+
-                    //   |
-                    //   y
-                    SensorManager.remapCoordinateSystem(inR, SensorManager.AXIS_MINUS_X, SensorManager.AXIS_MINUS_Z, outR);
-                    break;
-                case Surface.ROTATION_270:
-                    // 反時計回りに270°
-                    // +-y
-                    // |
-                    // x
-                    SensorManager.remapCoordinateSystem(inR, SensorManager.AXIS_MINUS_Z, SensorManager.AXIS_X, outR);
-                    break;
-                default:
-                    // y
-                    // |
-                    // +-x
-                    SensorManager.remapCoordinateSystem(inR, SensorManager.AXIS_X, SensorManager.AXIS_Z, outR);
-                    break;
+                mDeclinationCache.write(out);
             }
-            SensorManager.getOrientation(outR, orientationValues);
+            finally
+            {
+                out.close();
+            }
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
         }
+    }
 
-        // [0]: Azimuth -π to π
-        // [1]: Pitch   -π to π
-        // [2]: Roll    -π/2 to π/2
-        double rawYaw = Math.toDegrees(orientationValues[0]);
-        double rawPitch = Math.toDegrees(orientationValues[1]);
-        double rawRoll = Math.toDegrees(orientationValues[2]);
+    private void startTrackRecording()
+    {
+        // 走行ごとに1ファイル
+        File dir = new File(getFilesDir(), "tracks");
+        if(!dir.isDirectory() && !dir.mkdirs())
+        {
+            return;
+        }
+        // 新しい記録の分を空けておく
+        TrackRecorder.deleteOldSessions(dir, MAX_TRACK_SESSIONS - 1, MAX_TRACK_BYTES);
+        long now = System.currentTimeMillis();
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(now)) + TrackRecorder.FILE_EXTENSION;
+        try
+        {
+            mTrackRecorder = TrackRecorder.open(new File(dir, name), now, SystemClock.elapsedRealtimeNanos());
+            mTrackSubscription = mBus.subscribe(TelemetryBus.maskOf(TelemetryBus.ROLL, TelemetryBus.PITCH, TelemetryBus.YAW),
+                    TRACK_ATTITUDE_INTERVAL_NANOS, TRACK_ATTITUDE_CAPACITY);
+            mTrackRecorder.setAttitudeSource(mTrackSubscription);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
 
-        // 磁気偏角を加算
-        rawYaw += mYawDeclination;
+    private void stopTrackRecording()
+    {
+        if(null == mTrackRecorder)
+        {
+            return;
+        }
+        try
+        {
+            mTrackRecorder.close();
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+        mTrackRecorder = null;
+        mBus.unsubscribe(mTrackSubscription);
+        mTrackSubscription = null;
+    }
 
-        // -180と180の境界を跨いだ場合の補正(ローパスフィルタで平滑化されないように)
-        // 前回値90を超えていて今回値-90未満(またはその逆)なら一回転したとみなす
-        if((rawYaw > 90 && mPrevRawYaw < -90) || (rawYaw < -90 && mPrevRawYaw > 90))
+    private void onPreferenceChanged(String key)
+    {
+        HudConfig config = mConfig;
+        if(HudConfig.KEY_FLIP_VERTICAL.equals(key) || HudConfig.KEY_HIDE_GAUGES.equals(key))
+        {
+            mData.isFlipVertical = config.isFlipVertical;
+            mData.isHiddenGauges = config.isHiddenGauges;
+            publishData();
+        }
+        else if(HudConfig.KEY_ROLL_OFFSET.equals(key) || HudConfig.KEY_PITCH_OFFSET.equals(key) || HudConfig.KEY_USE_BEARING.equals(key))
+        {
+            // オフセットの変化を回転とみなさないように
+            mAttitudeRate.reset();
+        }
+        else if(HudConfig.KEY_FUSION_MODE.equals(key))
+        {
+            mAttitudeRate.reset();
+            if(mIsReplaying)
+            {
+                mUseGyroscope = config.preferGyroscope;
+            }
+            else
+            {
+                unregisterSensorListeners();
+                registerSensorListeners();
+            }
+        }
+        else if(HudConfig.KEY_RECORD_TRACK.equals(key))
         {
-            // (rawYaw - mPrevRawYaw)が正なら，-から+に変化したので360引く
-            mYawRotate -= (int)Math.signum(rawYaw - mPrevRawYaw);
+            stopTrackRecording();
+            if(config.recordTrack)
+            {
+                startTrackRecording();
+            }
         }
-        if((rawPitch > 90 && mPrevRawPitch < -90) || (rawPitch < -90 && mPrevRawPitch > 90))
+    }
+
+    private boolean startReplay()
+    {
+        String mode = mConfig.replaySpeed;
+        if("off".equals(mode))
         {
-            mPitchRotate -= (int)Math.signum(rawPitch - mPrevRawPitch);
+            return false;
         }
-        if((rawRoll > 90 && mPrevRawRoll < -90) || (rawRoll < -90 && mPrevRawRoll > 90))
+
+        SensorTrace trace;
+        File file = new File(getExternalFilesDir(null), REPLAY_FILE_NAME);
+        try
+        {
+            Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            try
+            {
+                trace = SensorTrace.read(reader);
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            return false;
+        }
+
+        mUseGyroscope = mConfig.preferGyroscope;
+        mReplayLocation = new Location(LocationManager.GPS_PROVIDER);
+
+        TraceReplayer.Sink sink = new TraceReplayer.Sink()
+        {
+            @Override
+            public void onSensor(int type, long timestampNanos, float v0, float v1, float v2)
+            {
+                int sensorType;
+                switch(type)
+                {
+                    case SensorTrace.ACCELEROMETER:
+                        sensorType = Sensor.TYPE_ACCELEROMETER;
+                        break;
+                    case SensorTrace.MAGNETIC_FIELD:
+                        sensorType = Sensor.TYPE_MAGNETIC_FIELD;
+                        break;
+                    case SensorTrace.GYROSCOPE:
+                        sensorType = Sensor.TYPE_GYROSCOPE;
+                        break;
+                    case SensorTrace.PRESSURE:
+                        sensorType = Sensor.TYPE_PRESSURE;
+                        break;
+                    default:
+                        return;
+                }
+                mReplayValues[0] = v0;
+                mReplayValues[1] = v1;
+                mReplayValues[2] = v2;
+                ListenerService.this.onSensor(sensorType, mReplayValues, timestampNanos);
+            }
+
+            @Override
+            public void onLocation(long timestampNanos, double latitude, double longitude, double altitude,
+                                   float speed, float bearing, float accuracy)
+            {
+                mReplayLocation.setTime(System.currentTimeMillis());
+                mReplayLocation.setElapsedRealtimeNanos(timestampNanos);
+                mReplayLocation.setLatitude(latitude);
+                mReplayLocation.setLongitude(longitude);
+                mReplayLocation.setAltitude(altitude);
+                mReplayLocation.setSpeed(speed);
+                mReplayLocation.setAccuracy(accuracy);
+                if(bearing >= 0)
+                {
+                    mReplayLocation.setBearing(bearing);
+                }
+                else
+                {
+                    mReplayLocation.removeBearing();
+                }
+                onLocationChanged(mReplayLocation);
+            }
+        };
+
+        mReplaySpeed = ("max".equals(mode) ? TraceReplayer.SPEED_UNLIMITED : Integer.parseInt(mode));
+        mReplayer = new TraceReplayer(trace, sink, mReplaySpeed);
+        mReplayRunnable = new Runnable()
         {
-            mRollRotate -= (int)Math.signum(rawRoll - mPrevRawRoll);
+            @Override
+            public void run()
+            {
+                long now = System.nanoTime();
+                mReplayer.dispatch(now, REPLAY_EVENTS_PER_STEP);
+                if(mReplayer.isFinished())
+                {
+                    Log.i(TAG, String.format(Locale.US, "replay finished: %d events, %.0f events/s",
+                            mReplayer.getDispatchedCount(), mReplayer.getEventsPerSecond(now)));
+                    return;
+                }
+                long delay = (mReplayer.getNextDueTime() - System.nanoTime()) / 1000000;
+                mSensorHandler.postDelayed(this, Math.max(0, delay));
+            }
+        };
+        mReplayStartRealtime = SystemClock.elapsedRealtimeNanos();
+        mReplayStartTimestamp = (trace.size() > 0 ? trace.getTimestamp(0) : 0);
+        mReplayer.start(System.nanoTime());
+        mSensorHandler.post(mReplayRunnable);
+        return true;
+    }
+
+    private void startListening()
+    {
+        try {
+            // GpsStatus.Listenerは呼び出したスレッドのLooperで呼ばれる
+            mLocationManager.addGpsStatusListener(mGpsStatusListener);
         }
+        catch(SecurityException e) {
+            e.printStackTrace();
+        }
+        requestLocationUpdates();
 
-        mPrevRawYaw = rawYaw;
-        mPrevRawPitch = rawPitch;
-        mPrevRawRoll = rawRoll;
+        registerSensorListeners();
 
-        double yaw = rawYaw + mYawRotate * 360.0;
-        double pitch = rawPitch + mPitchRotate * 360.0;
-        double roll = rawRoll + mRollRotate * 360.0;
+        mSamplingRunnable = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                updateSampling();
+                mSensorHandler.postDelayed(this, SAMPLING_UPDATE_INTERVAL);
+            }
+        };
+        mLastSamplingReportNanos = SystemClock.elapsedRealtimeNanos();
+        mSensorHandler.postDelayed(mSamplingRunnable, SAMPLING_UPDATE_INTERVAL);
+    }
 
-        // ローパスフィルタ
-        double alpha = 0.90;
-        double alphaYaw = 0.93;
-        mRoll = mRoll * alpha + roll * (1 - alpha);
-        mPitch = mPitch * alpha + pitch * (1 - alpha);
-        mYaw = mYaw * alphaYaw + yaw * (1 - alphaYaw);
+    private void requestLocationUpdates()
+    {
+        try {
+            mLocationManager.requestLocationUpdates(
+                    LocationManager.GPS_PROVIDER,
+                    mGovernor.getLocationIntervalMillis(),
+                    0,
+                    this,
+                    mSensorThread.getLooper()
+            );
+        }
+        catch(SecurityException e) {
+            e.printStackTrace();
+        }
+    }
 
-        mData.roll = mRoll - mSharedPreferences.getInt("roll_offset", 0);
-        mData.pitch = mPitch - mSharedPreferences.getInt("pitch_offset", 0);
-        mData.yaw = getYaw();
+    // 表示状態と動きに合わせてセンサ/GPSの頻度を変える
+    private void updateSampling()
+    {
+        long now = SystemClock.elapsedRealtimeNanos();
+        mGovernor.setHudVisible(System.nanoTime() - mTelemetry.getLastReadNanos() < HUD_VISIBLE_TIMEOUT_NANOS);
+        if(mGovernor.update(now))
+        {
+            unregisterSensorListeners();
+            registerSensorListeners();
+            mLocationManager.removeUpdates(this);
+            requestLocationUpdates();
+            reportSampling(now);
+        }
+        else if(now - mLastSamplingReportNanos >= SAMPLING_REPORT_INTERVAL_NANOS)
+        {
+            reportSampling(now);
+        }
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy)
+    private void reportSampling(long now)
     {
-        // nothing to do
+        mLastSamplingReportNanos = now;
+        Log.i(TAG, String.format(Locale.US, "sampling %s: sensor %d us (max latency %d us), gps %d ms; %d events, %d wakeups, %d fixes",
+                SamplingGovernor.getModeName(mGovernor.getMode()), mGovernor.getSensorPeriodUs(), mGovernor.getMaxReportLatencyUs(),
+                mGovernor.getLocationIntervalMillis(), mGovernor.getSensorEventCount(), mGovernor.getSensorWakeupCount(),
+                mGovernor.getLocationFixCount()));
     }
 
+    private void stopListening()
+    {
+        unregisterSensorListeners();
+        mLocationManager.removeUpdates(this);
+        mLocationManager.removeGpsStatusListener(mGpsStatusListener);
+    }
 
     private void registerSensorListeners()
     {
@@ -420,15 +1029,35 @@ public class ListenerService extends Service implements LocationListener, Sensor
 
         mAccelerometerSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         mMagneticFieldSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        mGyroscopeSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        // 気圧計が無い端末ではGPSの高度だけを使う
+        mPressureSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
+
+        // ジャイロが無い端末では従来の加速度/地磁気のみのモードにする
+        mUseGyroscope = mConfig.preferGyroscope && null != mGyroscopeSensor;
+        mGovernor.setNormalSensorPeriod(mUseGyroscope ? SamplingGovernor.SENSOR_DELAY_GAME_US : SamplingGovernor.SENSOR_DELAY_UI_US);
+        int samplingPeriod = mGovernor.getSensorPeriodUs();
+        // 表示していないときはセンサハブのFIFOに溜めてまとめて受け取る
+        int maxReportLatency = mGovernor.getMaxReportLatencyUs();
 
         if(null != mAccelerometerSensor)
         {
-            mSensorManager.registerListener(this, mAccelerometerSensor, SensorManager.SENSOR_DELAY_UI);
+            mSensorManager.registerListener(this, mAccelerometerSensor, samplingPeriod, maxReportLatency, mSensorHandler);
         }
 
         if(null != mMagneticFieldSensor)
         {
-            mSensorManager.registerListener(this, mMagneticFieldSensor, SensorManager.SENSOR_DELAY_UI);
+            mSensorManager.registerListener(this, mMagneticFieldSensor, samplingPeriod, maxReportLatency, mSensorHandler);
+        }
+
+        if(mUseGyroscope)
+        {
+            mSensorManager.registerListener(this, mGyroscopeSensor, samplingPeriod, maxReportLatency, mSensorHandler);
+        }
+
+        if(null != mPressureSensor)
+        {
+            mSensorManager.registerListener(this, mPressureSensor, samplingPeriod, maxReportLatency, mSensorHandler);
         }
     }
 
@@ -437,38 +1066,52 @@ public class ListenerService extends Service implements LocationListener, Sensor
         mSensorManager.unregisterListener(this);
     }
 
-    private void updateOffset()
+    // 書き込んだオフセットはリスナ経由でmConfigに戻ってくる
+    private void captureOffset()
     {
         SharedPreferences.Editor editor = mSharedPreferences.edit();
-        editor.putInt("roll_offset", (int)mRoll);
-        editor.putInt("pitch_offset", (int)mPitch);
+        editor.putInt(HudConfig.KEY_ROLL_OFFSET, (int)getFusedRoll());
+        editor.putInt(HudConfig.KEY_PITCH_OFFSET, (int)getFusedPitch());
         editor.apply();
     }
 
-    private void resetOffset()
+    private void updateDisplayRotation()
     {
-        SharedPreferences.Editor editor = mSharedPreferences.edit();
-        editor.putInt("roll_offset", 0);
-        editor.putInt("pitch_offset", 0);
-        editor.apply();
+        Display display = mDisplayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        if(null != display)
+        {
+            mFusion.setDisplayRotation(display.getRotation());
+            mQuaternionFusion.setDisplayRotation(display.getRotation());
+        }
     }
 
-    private int getYaw()
+    private boolean isBearingYaw(boolean useBearing)
     {
-        boolean useBearing = false;
-        if(mSharedPreferences.getBoolean("use_bearing", true))
-        {
-            if(mData.bearing >= 0.0f)
-            {
-                useBearing = true;
-            }
-        }
+        return (useBearing && mData.bearing >= 0.0f);
+    }
 
-        if(useBearing)
+    private int getYaw(boolean useBearing)
+    {
+        if(isBearingYaw(useBearing))
         {
             return (int)mData.bearing;
         }
 
-        return (int)mYaw;
+        return (int)getFusedYaw();
+    }
+
+    private double getFusedRoll()
+    {
+        return (mUseGyroscope ? mQuaternionFusion.getRoll() : mFusion.getRoll());
+    }
+
+    private double getFusedPitch()
+    {
+        return (mUseGyroscope ? mQuaternionFusion.getPitch() : mFusion.getPitch());
+    }
+
+    private double getFusedYaw()
+    {
+        return (mUseGyroscope ? mQuaternionFusion.getYaw() : mFusion.getYaw());
     }
 }
@@ -1,12 +1,45 @@
 package net.m2hq.spherehud;
 
+import android.content.ComponentName;
 import android.content.Intent;
-import android.support.v4.content.LocalBroadcastManager;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.support.v7.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 public class SettingsActivity extends AppCompatActivity implements SettingsFragment.OnFragmentInteractionListener
 {
+    // HUDが動かしているListenerService(動いていなければnull)
+    private Messenger mServiceMessenger;
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection()
+    {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service)
+        {
+            mServiceMessenger = new Messenger(service);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name)
+        {
+            mServiceMessenger = null;
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
@@ -14,6 +47,22 @@ public class SettingsActivity extends AppCompatActivity implements SettingsFragm
         setContentView(R.layout.activity_settings);
     }
 
+    @Override
+    protected void onStart()
+    {
+        super.onStart();
+        // 設定画面のためにセンサを動かさないよう，サービスは起動しない
+        bindService(new Intent(getApplicationContext(), ListenerService.class), mServiceConnection, 0);
+    }
+
+    @Override
+    protected void onStop()
+    {
+        super.onStop();
+        unbindService(mServiceConnection);
+        mServiceMessenger = null;
+    }
+
     @Override
     public void onFragmentInteraction(int id)
     {
@@ -28,11 +77,61 @@ public class SettingsActivity extends AppCompatActivity implements SettingsFragm
                 intent = new Intent(SettingsActivity.this, LicenseActivity.class);
                 startActivity(intent);
                 break;
+            case SettingsFragment.DUMP_LATENCY:
+                dumpLatency();
+                break;
+            case SettingsFragment.SET_OFFSET:
+                requestCaptureOffset();
+                break;
+            // サービスは設定の変更を見ているので，書き込むだけでよい
+            case SettingsFragment.RESET_OFFSET:
+                HudConfig.resetOffset(PreferenceManager.getDefaultSharedPreferences(this));
+                break;
             default:
-                intent = new Intent("PreferenceChangedEvent");
-                intent.putExtra("Message", id);
-                LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
                 break;
         }
     }
+
+    // 今の姿勢はサービスにしか無いので，サービスに求めてもらう
+    private void requestCaptureOffset()
+    {
+        if(null != mServiceMessenger)
+        {
+            try
+            {
+                mServiceMessenger.send(Message.obtain(null, ListenerService.MSG_CAPTURE_OFFSET));
+                return;
+            }
+            catch(RemoteException e)
+            {
+                e.printStackTrace();
+            }
+        }
+        Toast.makeText(this, R.string.set_offset_unavailable, Toast.LENGTH_SHORT).show();
+    }
+
+    // 同じプロセスのHUDが計測したヒストグラムを書き出す
+    private void dumpLatency()
+    {
+        String name = "latency-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".txt";
+        File file = new File(getExternalFilesDir(null), name);
+        try
+        {
+            Writer writer = new FileWriter(file);
+            try
+            {
+                PipelineProfiler.getInstance().write(writer);
+            }
+            finally
+            {
+                writer.close();
+            }
+            Toast.makeText(this, getString(R.string.dump_latency_saved, file.getPath()), Toast.LENGTH_LONG).show();
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            Toast.makeText(this, R.string.dump_latency_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
 }
@@ -11,6 +11,7 @@ public class SettingsFragment extends PreferenceFragmentCompat
     public static final int SET_OFFSET = 2;
     public static final int RESET_OFFSET = 3;
     public static final int SHOW_LICENSE = 4;
+    public static final int DUMP_LATENCY = 5;
 
     private OnFragmentInteractionListener listener;
 
@@ -62,6 +63,13 @@ public class SettingsFragment extends PreferenceFragmentCompat
             }
         });
 
+        findPreference("dump_latency").setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            public boolean onPreferenceClick(Preference preference) {
+                listener.onFragmentInteraction(DUMP_LATENCY);
+                return true;
+            }
+        });
+
         Preference aboutPreference = findPreference("about");
         aboutPreference.setTitle(getString(R.string.app_name) + " Version " + BuildConfig.VERSION_NAME);
         aboutPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener()
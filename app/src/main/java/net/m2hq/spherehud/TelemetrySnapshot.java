@@ -0,0 +1,166 @@
+package net.m2hq.spherehud;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process channel between ListenerService and HUDViewDriver.
+ *
+ * The service publishes the primitive fields of {@link ListenerService.ListenerData}
+ * under a sequence lock and the renderer copies them into its own instance,
+ * so neither side allocates per frame. One writer, any number of readers.
+ */
+public class TelemetrySnapshot
+{
+    private static final int ROLL = 0;
+    private static final int PITCH = 1;
+    private static final int YAW = 2;
+    private static final int BEARING = 3;
+    private static final int BATTERY_PERCENT = 4;
+    private static final int SATS_USED_IN_FIX_COUNT = 5;
+    private static final int SATS_COUNT = 6;
+    private static final int SPEED = 7;
+    private static final int SPEED_DELTA_PER_SECOND = 8;
+    private static final int ALTITUDE = 9;
+    private static final int ALTITUDE_DELTA_PER_SECOND = 10;
+    private static final int ACCURACY = 11;
+    private static final int LATITUDE = 12;
+    private static final int LONGITUDE = 13;
+    private static final int FLAGS = 14;
+    private static final int LOCATION_COUNT = 15;
+    private static final int ATTITUDE_TIMESTAMP = 16;
+    private static final int ROLL_RATE = 17;
+    private static final int PITCH_RATE = 18;
+    private static final int YAW_RATE = 19;
+    private static final int FUSED_YAW = 20;
+    private static final int SLOT_COUNT = 21;
+
+    private static final long FLAG_LOCATION_AVAILABLE = 1;
+    private static final long FLAG_LOCATION_UPDATED = 1 << 1;
+    private static final long FLAG_FLIP_VERTICAL = 1 << 2;
+    private static final long FLAG_HIDDEN_GAUGES = 1 << 3;
+
+    // 奇数のときは書き込み中
+    private final AtomicInteger mSequence = new AtomicInteger();
+    private final AtomicLongArray mSlots = new AtomicLongArray(SLOT_COUNT);
+    // 描画側が最後に読んだ時刻．HUDが表示されているかどうかの判定に使う
+    private volatile long mLastReadNanos = System.nanoTime();
+
+    public void publish(ListenerService.ListenerData data)
+    {
+        mSequence.incrementAndGet();
+
+        putDouble(ROLL, data.roll);
+        putDouble(PITCH, data.pitch);
+        putDouble(YAW, data.yaw);
+        mSlots.set(ATTITUDE_TIMESTAMP, data.attitudeTimestamp);
+        putDouble(ROLL_RATE, data.rollRate);
+        putDouble(PITCH_RATE, data.pitchRate);
+        putDouble(YAW_RATE, data.yawRate);
+        putDouble(FUSED_YAW, data.fusedYaw);
+        putDouble(BEARING, data.bearing);
+        mSlots.set(BATTERY_PERCENT, data.batteryPercent);
+        mSlots.set(SATS_USED_IN_FIX_COUNT, data.satsUsedInFixCount);
+        mSlots.set(SATS_COUNT, data.satsCount);
+        putDouble(SPEED, data.speed);
+        putDouble(SPEED_DELTA_PER_SECOND, data.speedDeltaPerSecond);
+        putDouble(ALTITUDE, data.altitude);
+        putDouble(ALTITUDE_DELTA_PER_SECOND, data.altitudeDeltaPerSecond);
+        putDouble(ACCURACY, data.accuracy);
+        putDouble(LATITUDE, data.latitude);
+        putDouble(LONGITUDE, data.longitude);
+        mSlots.set(LOCATION_COUNT, data.locationCount);
+
+        long flags = 0;
+        if(data.isLocationAvailable) { flags |= FLAG_LOCATION_AVAILABLE; }
+        if(data.isLocationUpdated) { flags |= FLAG_LOCATION_UPDATED; }
+        if(data.isFlipVertical) { flags |= FLAG_FLIP_VERTICAL; }
+        if(data.isHiddenGauges) { flags |= FLAG_HIDDEN_GAUGES; }
+        mSlots.set(FLAGS, flags);
+
+        mSequence.incrementAndGet();
+    }
+
+    /**
+     * Copies the latest published values into {@code out}.
+     *
+     * @return sequence number of the copied snapshot; equal numbers mean equal contents
+     */
+    public int read(ListenerService.ListenerData out)
+    {
+        while(true)
+        {
+            int sequence = mSequence.get();
+            if((sequence & 1) != 0)
+            {
+                Thread.yield();
+                continue;
+            }
+
+            out.roll = getDouble(ROLL);
+            out.pitch = getDouble(PITCH);
+            out.yaw = getDouble(YAW);
+            out.attitudeTimestamp = mSlots.get(ATTITUDE_TIMESTAMP);
+            out.rollRate = getDouble(ROLL_RATE);
+            out.pitchRate = getDouble(PITCH_RATE);
+            out.yawRate = getDouble(YAW_RATE);
+            out.fusedYaw = getDouble(FUSED_YAW);
+            out.bearing = (float)getDouble(BEARING);
+            out.batteryPercent = (int)mSlots.get(BATTERY_PERCENT);
+            out.satsUsedInFixCount = (int)mSlots.get(SATS_USED_IN_FIX_COUNT);
+            out.satsCount = (int)mSlots.get(SATS_COUNT);
+            out.speed = (float)getDouble(SPEED);
+            out.speedDeltaPerSecond = (float)getDouble(SPEED_DELTA_PER_SECOND);
+            out.altitude = getDouble(ALTITUDE);
+            out.altitudeDeltaPerSecond = getDouble(ALTITUDE_DELTA_PER_SECOND);
+            out.accuracy = (float)getDouble(ACCURACY);
+            out.latitude = getDouble(LATITUDE);
+            out.longitude = getDouble(LONGITUDE);
+            out.locationCount = (int)mSlots.get(LOCATION_COUNT);
+
+            long flags = mSlots.get(FLAGS);
+            out.isLocationAvailable = (flags & FLAG_LOCATION_AVAILABLE) != 0;
+            out.isLocationUpdated = (flags & FLAG_LOCATION_UPDATED) != 0;
+            out.isFlipVertical = (flags & FLAG_FLIP_VERTICAL) != 0;
+            out.isHiddenGauges = (flags & FLAG_HIDDEN_GAUGES) != 0;
+
+            // 読んでいる間に書き込まれていたらやり直し
+            if(mSequence.get() == sequence)
+            {
+                markRead();
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * Records that a renderer consumed the data (read() does this; the Messenger path calls it directly).
+     */
+    public void markRead()
+    {
+        mLastReadNanos = System.nanoTime();
+    }
+
+    /**
+     * @return System.nanoTime() of the last {@link #markRead}
+     */
+    public long getLastReadNanos()
+    {
+        return mLastReadNanos;
+    }
+
+    public int getSequence()
+    {
+        return mSequence.get();
+    }
+
+    private void putDouble(int slot, double value)
+    {
+        mSlots.set(slot, Double.doubleToRawLongBits(value));
+    }
+
+    private double getDouble(int slot)
+    {
+        return Double.longBitsToDouble(mSlots.get(slot));
+    }
+}
@@ -0,0 +1,76 @@
+package net.m2hq.spherehud;
+
+import android.hardware.GeomagneticField;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * DeclinationCacheの補間を，ListenerServiceと同じGeomagneticFieldのモデルで確かめる
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class DeclinationCacheGeomagneticTest
+{
+    // 2020年ごろ
+    private static final long NOW = 1600000000000L;
+
+    private static float direct(double latitude, double longitude, long timeMillis)
+    {
+        return new GeomagneticField((float)latitude, (float)longitude, 0, timeMillis).getDeclination();
+    }
+
+    private static double angleError(float a, float b)
+    {
+        double d = Math.abs(a - b) % 360;
+        return Math.min(d, 360 - d);
+    }
+
+    @Test
+    public void interpolation_staysCloseToGeomagneticField() throws Exception
+    {
+        DeclinationCache.Model model = new DeclinationCache.Model()
+        {
+            @Override
+            public float getDeclination(double latitude, double longitude, long timeMillis)
+            {
+                return direct(latitude, longitude, timeMillis);
+            }
+        };
+        // その場で格子点を求める
+        Executor executor = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        };
+        // ListenerServiceと同じ既定の格子で，日付の区間の中央から最も離れる両端の時刻を調べる
+        long bucketStart = NOW / DeclinationCache.BUCKET_MILLIS * DeclinationCache.BUCKET_MILLIS;
+        long[] times = {bucketStart, bucketStart + DeclinationCache.BUCKET_MILLIS - 1};
+        DeclinationCache cache = new DeclinationCache(model, executor);
+
+        double maxError = 0;
+        for(long time : times)
+        {
+            for(double latitude = -60; latitude <= 70; latitude += 0.37)
+            {
+                for(double longitude = -180; longitude < 180; longitude += 2.93)
+                {
+                    // セルに入った最初の呼び出しは直前の値を返すので，二度目を比べる
+                    cache.getDeclination(latitude, longitude, time);
+                    float cached = cache.getDeclination(latitude, longitude, time);
+                    maxError = Math.max(maxError, angleError(cached, direct(latitude, longitude, time)));
+                }
+            }
+        }
+        assertTrue("maxError=" + maxError, maxError < 0.1);
+    }
+}
@@ -0,0 +1,316 @@
+package net.m2hq.spherehud;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Renders HUDView off-screen with Robolectric's native graphics and checks the frames
+ * against golden PNGs, over a matrix of readings, flip/hide states and view sizes.
+ * Also measures onDraw time and allocations per frame.
+ *
+ * ./gradlew :app:testDebugUnitTest -PrecordGoldens rewrites the goldens in
+ * src/test/golden. Rendered frames, and the draw timing CSV, go to build/outputs/golden.
+ */
+@RunWith(RobolectricTestRunner.class)
+// ネイティブ描画はHardwareRendererのあるQ以降でしか動かない
+@Config(sdk = 33)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class HUDViewRenderTest
+{
+    private static final int[][] RESOLUTIONS = { { 960, 640 }, { 1280, 720 }, { 1920, 1080 } };
+
+    // roll, pitch, yaw, speed, altitude
+    private static final String[] STATE_NAMES = { "level", "cruise", "bank", "climb" };
+    private static final int[][] STATES = {
+            { 0, 0, 0, 0, 0 },
+            { 15, -5, 45, 88, 350 },
+            { -60, 10, 270, 160, 1200 },
+            { 5, 30, 135, 40, 2500 },
+    };
+
+    // 2017-07-14 02:40:00.250 UTC (点滅の消えている側)
+    private static final long FIXED_TIME = 1500000000250L;
+
+    // どれか1チャンネルでもこれより離れていたら違う画素とする
+    private static final int CHANNEL_TOLERANCE = 16;
+    // 違う画素がこの割合までなら一致とする(アンチエイリアスの揺れ)
+    private static final double PIXEL_TOLERANCE = 0.005;
+
+    private static final int WARMUP_FRAMES = 30;
+    private static final int MEASURED_FRAMES = 200;
+
+    private TimeZone mTimeZone;
+    private File mGoldenDir;
+    private File mOutDir;
+    private boolean mIsRecording;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        // 時計の表示を固定する
+        mTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+
+        mGoldenDir = new File(System.getProperty("golden.dir", "src/test/golden"));
+        mOutDir = new File(System.getProperty("golden.outDir", "build/outputs/golden"));
+        mIsRecording = Boolean.parseBoolean(System.getProperty("golden.record", "false"));
+        mOutDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        TimeZone.setDefault(mTimeZone);
+    }
+
+    @Test
+    public void frames_matchGoldens() throws Exception
+    {
+        List<String> mismatches = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for(int[] resolution : RESOLUTIONS)
+        {
+            int width = resolution[0];
+            int height = resolution[1];
+            for(int state = 0; state < STATES.length; state++)
+            {
+                for(int flags = 0; flags < 4; flags++)
+                {
+                    boolean flip = (flags & 1) != 0;
+                    boolean hidden = (flags & 2) != 0;
+                    String name = width + "x" + height + "_" + STATE_NAMES[state] + (flip ? "_flip" : "") + (hidden ? "_hidden" : "");
+
+                    HUDView view = createView(width, height);
+                    applyState(view, STATES[state], flip, hidden);
+                    BufferedImage actual = toImage(render(view, width, height));
+                    ImageIO.write(actual, "png", new File(mOutDir, name + ".png"));
+
+                    // レイヤー合成でも同じ絵になること
+                    view.setLayeredRendering(true);
+                    BufferedImage layered = toImage(render(view, width, height));
+                    double layeredDiff = getDifferentPixelRatio(actual, layered);
+                    if(layeredDiff > PIXEL_TOLERANCE)
+                    {
+                        ImageIO.write(layered, "png", new File(mOutDir, name + "_layered.png"));
+                        mismatches.add(name + " layered: " + formatRatio(layeredDiff));
+                    }
+
+                    File goldenFile = new File(mGoldenDir, name + ".png");
+                    if(mIsRecording)
+                    {
+                        mGoldenDir.mkdirs();
+                        ImageIO.write(actual, "png", goldenFile);
+                        continue;
+                    }
+                    if(!goldenFile.exists())
+                    {
+                        missing.add(name);
+                        continue;
+                    }
+                    double diff = getDifferentPixelRatio(ImageIO.read(goldenFile), actual);
+                    if(diff > PIXEL_TOLERANCE)
+                    {
+                        mismatches.add(name + ": " + formatRatio(diff));
+                    }
+                }
+            }
+        }
+
+        assertTrue("no goldens for " + missing + "; run with -PrecordGoldens", missing.isEmpty());
+        assertTrue("frames differ from goldens (see " + mOutDir + "): " + mismatches, mismatches.isEmpty());
+    }
+
+    @Test
+    public void onDraw_timeAndAllocationsPerFrame() throws Exception
+    {
+        com.sun.management.ThreadMXBean threadBean = null;
+        if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)
+        {
+            threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        }
+        long threadId = Thread.currentThread().getId();
+
+        StringBuilder report = new StringBuilder("resolution,layered,hidden,mean_us,p95_us,max_us,bytes_per_frame\n");
+        for(int[] resolution : RESOLUTIONS)
+        {
+            int width = resolution[0];
+            int height = resolution[1];
+            for(int flags = 0; flags < 4; flags++)
+            {
+                boolean layered = (flags & 1) != 0;
+                boolean hidden = (flags & 2) != 0;
+
+                HUDView view = createView(width, height);
+                applyState(view, STATES[1], false, hidden);
+                view.setLayeredRendering(layered);
+                Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(bitmap);
+
+                long[] nanos = new long[MEASURED_FRAMES];
+                long allocated = 0;
+                for(int frame = -WARMUP_FRAMES; frame < MEASURED_FRAMES; frame++)
+                {
+                    // 姿勢は毎フレーム，速度と高度はときどき変わる
+                    view.setRoll(STATES[1][0] + frame % 7 - 3);
+                    view.setYaw((STATES[1][2] + frame) % 360);
+                    view.setSpeed(STATES[1][3] + frame / 10);
+                    view.setAltitude(STATES[1][4] + frame / 20);
+                    bitmap.eraseColor(0);
+
+                    long bytes = (null != threadBean ? threadBean.getThreadAllocatedBytes(threadId) : 0);
+                    long start = System.nanoTime();
+                    view.onDraw(canvas);
+                    long end = System.nanoTime();
+                    if(frame >= 0)
+                    {
+                        nanos[frame] = end - start;
+                        if(null != threadBean)
+                        {
+                            allocated += threadBean.getThreadAllocatedBytes(threadId) - bytes;
+                        }
+                    }
+                }
+
+                long total = 0;
+                for(long n : nanos)
+                {
+                    total += n;
+                }
+                Arrays.sort(nanos);
+                report.append(String.format(Locale.ROOT, "%dx%d,%b,%b,%.1f,%.1f,%.1f,%d\n", width, height, layered, hidden,
+                        total / 1e3 / MEASURED_FRAMES, nanos[(int)(MEASURED_FRAMES * 0.95)] / 1e3,
+                        nanos[MEASURED_FRAMES - 1] / 1e3, (null != threadBean ? allocated / MEASURED_FRAMES : -1)));
+
+                assertTrue(width + "x" + height + " drew nothing", hasInk(bitmap));
+            }
+        }
+
+        try(Writer writer = new FileWriter(new File(mOutDir, "draw-time.csv")))
+        {
+            writer.write(report.toString());
+        }
+    }
+
+    private static HUDView createView(int width, int height)
+    {
+        HUDView view = new HUDView(RuntimeEnvironment.getApplication());
+        view.setFixedTime(FIXED_TIME);
+        view.layout(0, 0, width, height);
+
+        // 北東へ進んでいる軌跡
+        TrailStore trail = new TrailStore(16);
+        for(int i = 0; i < 60; i++)
+        {
+            trail.onFix(i * 1000000000L, 35.0 + i * 0.00004, 139.0 + i * 0.00005, 5);
+        }
+        view.setTrail(trail);
+        view.setPosition(35.0 + 60 * 0.00004, 139.0 + 60 * 0.00005);
+        view.setAccuracy(7.5f);
+        view.setBatteryPercent(64);
+        view.setSatellitesCount(9, 14);
+        view.setNoiseAlpha(0);
+        return view;
+    }
+
+    private static void applyState(HUDView view, int[] state, boolean flip, boolean hidden)
+    {
+        view.setRoll(state[0]);
+        view.setPitch(state[1]);
+        view.setYaw(state[2]);
+        view.setSpeed(state[3]);
+        view.setSpeedDeltaPerSecond(0);
+        view.setAltitude(state[4]);
+        view.setAltitudeDeltaPerSecond(0);
+        view.setFlipVertical(flip);
+        view.setHiddenGauges(hidden);
+    }
+
+    private static Bitmap render(HUDView view, int width, int height)
+    {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        view.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    private static BufferedImage toImage(Bitmap bitmap)
+    {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    private static double getDifferentPixelRatio(BufferedImage expected, BufferedImage actual)
+    {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        if(width != actual.getWidth() || height != actual.getHeight())
+        {
+            return 1;
+        }
+        int[] a = expected.getRGB(0, 0, width, height, null, 0, width);
+        int[] b = actual.getRGB(0, 0, width, height, null, 0, width);
+        int different = 0;
+        for(int i = 0; i < a.length; i++)
+        {
+            for(int shift = 0; shift < 32; shift += 8)
+            {
+                if(Math.abs(((a[i] >>> shift) & 0xff) - ((b[i] >>> shift) & 0xff)) > CHANNEL_TOLERANCE)
+                {
+                    different++;
+                    break;
+                }
+            }
+        }
+        return (double)different / a.length;
+    }
+
+    private static boolean hasInk(Bitmap bitmap)
+    {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        for(int pixel : pixels)
+        {
+            if((pixel >>> 24) != 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String formatRatio(double ratio)
+    {
+        return String.format(Locale.ROOT, "%.2f%%", ratio * 100);
+    }
+}
@@ -0,0 +1,166 @@
+package net.m2hq.spherehud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compass ring and pitch ladder projection for one frame: the polar-form code HUDView used
+ * to run in drawCompass/drawPitchLine ("legacy") against HudProjection.
+ *
+ * Both run at the same ring resolution so the cost per point can be compared; the attitude
+ * changes every call so nothing is constant-folded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HudProjectionBenchmark
+{
+    private static final float SCREEN_DISTANCE = 640 / 2.0f;
+    private static final int LADDER_VERTEX = 640 / 5;
+
+    @Param({"24", "72", "360"})
+    public int ringPoints;
+
+    private HudProjection mProjection;
+    private int mFrame;
+
+    // 旧実装の出力先
+    private float[] mLegacyX;
+    private float[] mLegacyY;
+    private int[] mLegacyLadder;
+
+    @Setup
+    public void setUp()
+    {
+        mProjection = new HudProjection(ringPoints, SCREEN_DISTANCE, LADDER_VERTEX);
+        mLegacyX = new float[ringPoints];
+        mLegacyY = new float[ringPoints];
+        mLegacyLadder = new int[HudProjection.LADDER_RUNGS * 8];
+        mFrame = 0;
+    }
+
+    @Benchmark
+    public float projection()
+    {
+        int frame = mFrame++;
+        mProjection.update(roll(frame), pitch(frame), yaw(frame));
+        return mProjection.getRingX(frame % ringPoints) + mProjection.getLadderLines()[frame % 88];
+    }
+
+    @Benchmark
+    public float legacy()
+    {
+        int frame = mFrame++;
+        legacyCompass(roll(frame), pitch(frame), yaw(frame));
+        legacyPitchLadder(roll(frame), pitch(frame));
+        return mLegacyX[frame % ringPoints] + mLegacyLadder[frame % 88];
+    }
+
+    private static int roll(int frame)
+    {
+        return (frame % 61) - 30;
+    }
+
+    private static int pitch(int frame)
+    {
+        return (frame % 41) - 20;
+    }
+
+    private static int yaw(int frame)
+    {
+        return frame % 360;
+    }
+
+    private void legacyCompass(int roll, int pitch, int yaw)
+    {
+        double rollRad = Math.toRadians(roll);
+        double pitchRad = Math.toRadians(pitch);
+        double yawRad = Math.toRadians(yaw);
+
+        float psd = SCREEN_DISTANCE;
+        float pfrx = (float)pitchRad;
+        float pfrz = (float)rollRad;
+        float pfy = (float)Math.sin(pfrx) * 1.5f;
+
+        float[] xPoints = new float[ringPoints];
+        float[] yPoints = new float[ringPoints];
+        float[] zPoints = new float[ringPoints];
+        for(int i = 0; i < ringPoints; i++)
+        {
+            double rad = Math.toRadians(i * (360 / ringPoints) - 90);
+            float x = (float)Math.cos(rad - yawRad);
+            float z = (float)Math.sin(rad - yawRad);
+            float y = -pfy;
+
+            float d;
+            float r;
+
+            d = (float)Math.sqrt(y * y + z * z);
+            r = (float)Math.atan2(y, z);
+            z = (float)(d * Math.cos(r - pfrx));
+            y = (float)(d * Math.sin(r - pfrx));
+
+            d = (float)Math.sqrt(x * x + y * y);
+            r = (float)Math.atan2(y, x);
+            x = (float)(d * Math.cos(r - pfrz));
+            y = (float)(d * Math.sin(r - pfrz));
+
+            xPoints[i] = x;
+            yPoints[i] = y;
+            zPoints[i] = -z;
+        }
+
+        for(int i = 0; i < ringPoints; i++)
+        {
+            float distance = psd / zPoints[i];
+            mLegacyX[i] = distance * xPoints[i];
+            mLegacyY[i] = distance * yPoints[i];
+        }
+    }
+
+    private void legacyPitchLadder(int roll, int pitch)
+    {
+        double rollRad = Math.toRadians(roll);
+
+        for(int i = -5; i <= 5; i++)
+        {
+            int degBase = i * 10;
+            int deg = -pitch % 10;
+
+            int lx1 = (int)(0.05 * Math.pow((degBase + deg), 2.0)) + LADDER_VERTEX;
+            int ly1 = (degBase + deg) * 6;
+
+            int degLineLength = Math.abs(degBase + deg);
+            if(-(degBase + deg) == pitch)
+            {
+                degLineLength = 50 + (int)(Math.abs(degBase + deg) * 1.5);
+            }
+
+            double[] t = new double[4];
+            double r = Math.sqrt(Math.pow(lx1, 2.0) + Math.pow(ly1, 2.0));
+            t[0] = Math.atan2(ly1, lx1);
+            t[1] = Math.atan2(ly1, -lx1);
+
+            for(int j = 0; j < 2; j++)
+            {
+                int px = (int)(r * Math.cos(t[j] + rollRad));
+                int py = -(int)(r * Math.sin(t[j] + rollRad));
+                double lineRad = (j == 0 ? rollRad : rollRad - Math.PI);
+
+                int n = (i + 5) * 8 + j * 4;
+                mLegacyLadder[n] = px;
+                mLegacyLadder[n + 1] = py;
+                mLegacyLadder[n + 2] = px + (int)(degLineLength * Math.cos(lineRad));
+                mLegacyLadder[n + 3] = py - (int)(degLineLength * Math.sin(lineRad));
+            }
+        }
+    }
+}
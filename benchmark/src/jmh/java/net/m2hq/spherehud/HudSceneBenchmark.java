@@ -0,0 +1,109 @@
+package net.m2hq.spherehud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One HUD gauge per call, drawn into a {@link CountingRenderer} so only the work done
+ * before reaching the Canvas is measured.
+ *
+ * "emit" computes the gauge from readings that change every call, "record" does the same
+ * into a display list (what a changed gauge costs in HUDView), and "replay" re-issues an
+ * unchanged gauge. The gc profiler should report 0 bytes per operation for all three.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HudSceneBenchmark
+{
+    @Param({"compass", "pitchLine", "radar", "timer", "speedometer", "altimeter", "damage"})
+    public String gauge;
+
+    private HudScene mScene;
+    private int mGauge;
+    private final HudDisplayList mList = new HudDisplayList();
+    private final CountingRenderer mRenderer = new CountingRenderer();
+    private int mFrame;
+
+    @Setup
+    public void setUp()
+    {
+        mScene = new HudScene(new HudScene.TextMeasurer()
+        {
+            @Override
+            public int getTextHeight(char[] text, int start, int count)
+            {
+                return 16;
+            }
+        });
+        mGauge = -1;
+        for(int i = 0; i < HudScene.GAUGE_COUNT; i++)
+        {
+            if(HudScene.getGaugeName(i).equals(gauge))
+            {
+                mGauge = i;
+            }
+        }
+
+        // 1m/sで北東に進む軌跡
+        TrailStore trail = new TrailStore();
+        for(int i = 0; i < 1000; i++)
+        {
+            trail.onFix(i * 1000000000L, 35.0 + i * 0.000006, 139.0 + i * 0.000008, 5);
+        }
+        mScene.setTrail(trail);
+
+        mFrame = 0;
+        setReadings(0);
+        mList.clear();
+        mScene.emit(mGauge, mList);
+    }
+
+    @Benchmark
+    public long emit()
+    {
+        setReadings(mFrame++);
+        mScene.emit(mGauge, mRenderer);
+        return mRenderer.getTotalCount();
+    }
+
+    @Benchmark
+    public int record()
+    {
+        setReadings(mFrame++);
+        mList.clear();
+        mScene.emit(mGauge, mList);
+        return mList.size();
+    }
+
+    @Benchmark
+    public long replay()
+    {
+        mList.replay(mRenderer);
+        return mRenderer.getTotalCount();
+    }
+
+    private void setReadings(int frame)
+    {
+        mScene.setRoll((frame % 61) - 30);
+        mScene.setPitch((frame % 41) - 20);
+        mScene.setYaw(frame % 360);
+        mScene.setSpeed(frame % 200);
+        mScene.setSpeedDeltaPerSecond(1);
+        mScene.setAltitude(frame % 3000);
+        mScene.setAltitudeDeltaPerSecond(2);
+        mScene.setAccuracy(3 + frame % 30);
+        mScene.setBatteryPercent(frame % 101);
+        mScene.setSatellitesCount(frame % 12, 12);
+        mScene.setTime(frame * 250L);
+        mScene.setPosition(35.0 + frame * 0.000001, 139.0);
+    }
+}
@@ -0,0 +1,107 @@
+package net.m2hq.spherehud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one event through MotionEstimator: pressure samples at sensor rate with a GPS
+ * fix every 0.5 s.
+ *
+ * trace is a SensorTrace file recorded on a device ("prs" and "loc" lines are used); when
+ * empty a 10 minute drive over hills with 25 Hz pressure is synthesized. Run with the gc
+ * profiler and check that gc.alloc.rate.norm is 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MotionEstimatorBenchmark
+{
+    @Param({""})
+    public String trace;
+
+    private SensorTrace mTrace;
+    private int mIndex;
+
+    private MotionEstimator mEstimator;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        if(trace.isEmpty())
+        {
+            mTrace = synthesize();
+        }
+        else
+        {
+            Reader reader = new FileReader(trace);
+            try
+            {
+                mTrace = SensorTrace.read(reader);
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        mEstimator = new MotionEstimator();
+        mIndex = 0;
+    }
+
+    private static SensorTrace synthesize()
+    {
+        Random random = new Random(1);
+        SensorTrace trace = new SensorTrace();
+        long second = 1000000000L;
+        for(long t = 0; t < 600 * second; t += second / 25)
+        {
+            double s = t / 1e9;
+            double altitude = 100 + 30 * Math.sin(2 * Math.PI * s / 120);
+            if(t % (second / 2) == 0)
+            {
+                trace.addLocation(t, 35.0, 139.0, altitude + random.nextGaussian() * 3,
+                        15 + random.nextGaussian() * 0.3, -1, 4);
+            }
+            double pressure = 1013.25 * Math.pow(1 - (altitude + 40 + random.nextGaussian() * 0.15) / 44330.0, 5.255);
+            trace.add(t, SensorTrace.PRESSURE, pressure, 0, 0);
+        }
+        return trace;
+    }
+
+    @Benchmark
+    public double event()
+    {
+        int i = mIndex;
+        mIndex = (i + 1) % mTrace.size();
+        if(0 == mIndex)
+        {
+            // 時刻が戻るので最初からやり直す
+            mEstimator = new MotionEstimator();
+        }
+
+        long timestamp = mTrace.getTimestamp(i);
+        switch(mTrace.getType(i))
+        {
+            case SensorTrace.PRESSURE:
+                mEstimator.onPressure(timestamp, mTrace.getFloatValue(i, 0));
+                break;
+            case SensorTrace.LOCATION:
+                mEstimator.onLocation(timestamp, mTrace.getFloatValue(i, 3), mTrace.getValue(i, 2), mTrace.getFloatValue(i, 5));
+                break;
+            default:
+                break;
+        }
+        return mEstimator.getAltitude() + mEstimator.getClimbRate();
+    }
+}
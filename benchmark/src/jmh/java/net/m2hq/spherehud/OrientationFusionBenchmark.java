@@ -0,0 +1,116 @@
+package net.m2hq.spherehud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU time OrientationFusion needs for one second of sensor input.
+ *
+ * rateHz is the simulated sensor rate: the input trace covers 10 seconds of a device
+ * wobbling and turning, sampled at that rate, with accelerometer and magnetometer events
+ * interleaved as they arrive from SensorManager. One invocation feeds one second of it,
+ * so the score in us/op divided by 10^6 is the share of a core the rate costs. Run with
+ * the gc profiler and check that gc.alloc.rate.norm is 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrientationFusionBenchmark
+{
+    private static final int TRACE_SECONDS = 10;
+
+    @Param({"200", "1000", "5000"})
+    public int rateHz;
+
+    private float[] mAccelerometer;
+    private float[] mMagneticField;
+    private int mSampleCount;
+    private int mIndex;
+
+    private OrientationFusion mFusion;
+
+    @Setup
+    public void setUp()
+    {
+        mSampleCount = rateHz * TRACE_SECONDS;
+        mAccelerometer = new float[mSampleCount * 3];
+        mMagneticField = new float[mSampleCount * 3];
+
+        Random random = new Random(1);
+        float[] r = new float[9];
+        for(int i = 0; i < mSampleCount; i++)
+        {
+            double t = i / (double)rateHz;
+            double roll = Math.toRadians(20 * Math.sin(2 * Math.PI * 0.5 * t));
+            double pitch = Math.toRadians(10 * Math.sin(2 * Math.PI * 0.3 * t));
+            double yaw = Math.toRadians(36 * t);
+            rotation(roll, pitch, yaw, r);
+
+            // world -> device: R^T * v
+            // 重力(上向き)と地磁気(北向き，下向き成分あり)
+            for(int k = 0; k < 3; k++)
+            {
+                mAccelerometer[i * 3 + k] = 9.81f * r[6 + k] + (float)(random.nextGaussian() * 0.05);
+                mMagneticField[i * 3 + k] = 20.0f * r[3 + k] - 40.0f * r[6 + k] + (float)(random.nextGaussian() * 0.5);
+            }
+        }
+
+        mFusion = new OrientationFusion();
+        mFusion.setDisplayRotation(OrientationFusion.ROTATION_90);
+        mFusion.setDeclination(-7.5f);
+        mIndex = 0;
+    }
+
+    @Benchmark
+    public double secondOfInput()
+    {
+        // 加速度と地磁気で1秒分のイベント
+        int i = mIndex;
+        int events = rateHz * 2;
+        for(int n = 0; n < events; n++)
+        {
+            int sample = (i >> 1) * 3;
+            if((i & 1) == 0)
+            {
+                mFusion.setAccelerometer(mAccelerometer[sample], mAccelerometer[sample + 1], mAccelerometer[sample + 2]);
+            }
+            else
+            {
+                mFusion.setMagneticField(mMagneticField[sample], mMagneticField[sample + 1], mMagneticField[sample + 2]);
+            }
+            mFusion.update();
+            i = (i + 1) % (mSampleCount * 2);
+        }
+        mIndex = i;
+
+        return mFusion.getRoll() + mFusion.getPitch() + mFusion.getYaw();
+    }
+
+    // device -> world (east, north, up) rotation matrix, row major
+    private static void rotation(double roll, double pitch, double yaw, float[] r)
+    {
+        double cr = Math.cos(roll), sr = Math.sin(roll);
+        double cp = Math.cos(pitch), sp = Math.sin(pitch);
+        double cy = Math.cos(yaw), sy = Math.sin(yaw);
+
+        // Rz(-yaw) * Rx(pitch) * Ry(roll)
+        r[0] = (float)(cy * cr + sy * sp * sr);
+        r[1] = (float)(sy * cp);
+        r[2] = (float)(cy * sr - sy * sp * cr);
+        r[3] = (float)(-sy * cr + cy * sp * sr);
+        r[4] = (float)(cy * cp);
+        r[5] = (float)(-sy * sr - cy * sp * cr);
+        r[6] = (float)(-cp * sr);
+        r[7] = (float)sp;
+        r[8] = (float)(cp * cr);
+    }
+}
@@ -0,0 +1,84 @@
+package net.m2hq.spherehud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of publishing one attitude sample on the sensor thread with the subscribers
+ * ListenerService is meant to serve: a renderer taking the latest sample, a recorder taking
+ * every attitude sample and a 10 Hz streamer. Samples are 5 ms apart.
+ *
+ * subscribers limits how many of the three are registered (0 measures change detection
+ * alone). The consumers are drained every 16 samples on the same thread, so only the
+ * producer side is representative. gc.alloc.rate.norm should be 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TelemetryBusBenchmark
+{
+    private static final long INTERVAL_NANOS = 5000000L;
+
+    @Param({"0", "1", "3"})
+    public int subscribers;
+
+    private TelemetryBus mBus;
+    private TelemetryBus.Subscription[] mSubscriptions;
+    private final double[] mFrame = new double[TelemetryBus.FIELD_COUNT];
+    private final double[] mOut = new double[TelemetryBus.FIELD_COUNT];
+    private long mCount;
+
+    @Setup
+    public void setUp()
+    {
+        mBus = new TelemetryBus();
+        TelemetryBus.Subscription[] all = {
+                mBus.subscribe(TelemetryBus.ALL_FIELDS, 0, 4),
+                mBus.subscribe(TelemetryBus.ATTITUDE_FIELDS, 0, 1024),
+                mBus.subscribe(TelemetryBus.ALL_FIELDS, 100000000L, 16),
+        };
+        mSubscriptions = new TelemetryBus.Subscription[subscribers];
+        for(int i = 0; i < all.length; i++)
+        {
+            if(i < subscribers)
+            {
+                mSubscriptions[i] = all[i];
+            }
+            else
+            {
+                mBus.unsubscribe(all[i]);
+            }
+        }
+        mCount = 0;
+    }
+
+    @Benchmark
+    public double publish()
+    {
+        long count = mCount++;
+        mFrame[TelemetryBus.ROLL] = (count % 61) - 30;
+        mFrame[TelemetryBus.PITCH] = (count % 41) - 20;
+        mFrame[TelemetryBus.YAW] = count % 360;
+        mBus.publish(count * INTERVAL_NANOS, mFrame);
+
+        if((count & 15) == 15)
+        {
+            for(TelemetryBus.Subscription subscription : mSubscriptions)
+            {
+                while(subscription.poll(mOut))
+                {
+                    // 読み捨てる
+                }
+            }
+        }
+        return mOut[TelemetryBus.ROLL];
+    }
+}
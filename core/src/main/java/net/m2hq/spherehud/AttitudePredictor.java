@@ -0,0 +1,187 @@
+package net.m2hq.spherehud;
+
+import java.util.Arrays;
+
+/**
+ * Extrapolates roll, pitch and yaw from the time they describe to the time the frame
+ * being drawn is expected on screen.
+ *
+ * The sample time comes with the telemetry (sensor timestamp, minus the filter lag) and
+ * the expected display time is the frame time plus the prediction horizon. The
+ * extrapolation is clamped to {@link #MAX_EXTRAPOLATION_NANOS}, and samples older than
+ * {@link #MAX_SAMPLE_AGE_NANOS} are drawn as they are since the sensors have stopped.
+ *
+ * In measurement mode every frame records the latency from the sample to the expected
+ * display time and what is left of it after the extrapolation.
+ *
+ * Not thread safe: the renderer owns an instance and calls it from its frame callback.
+ */
+public class AttitudePredictor
+{
+    static final long MAX_EXTRAPOLATION_NANOS = 200000000L;
+    static final long MAX_SAMPLE_AGE_NANOS = 500000000L;
+    private static final int LATENCY_WINDOW = 256;
+
+    private boolean mIsEnabled = false;
+    private long mHorizonNanos = 0;
+
+    private double mRoll;
+    private double mPitch;
+    private double mYaw;
+
+    private boolean mIsMeasuring = false;
+    private final long[] mLatencies = new long[LATENCY_WINDOW];
+    private final long[] mResiduals = new long[LATENCY_WINDOW];
+    private final long[] mSorted = new long[LATENCY_WINDOW];
+    private int mIndex = 0;
+    private int mCount = 0;
+    private int mClampedCount = 0;
+
+    /**
+     * @param horizonNanos time from the frame time to the frame being on screen
+     */
+    public void setPrediction(boolean enabled, long horizonNanos)
+    {
+        mIsEnabled = enabled;
+        mHorizonNanos = Math.max(0, horizonNanos);
+    }
+
+    public boolean isEnabled()
+    {
+        return mIsEnabled;
+    }
+
+    /**
+     * @return true if {@link #predict} at {@code frameTimeNanos} moves the attitude away from the sample,
+     *         i.e. prediction is on, the attitude is turning and the sample is recent
+     */
+    public boolean isExtrapolating(long frameTimeNanos, long sampleTimeNanos,
+                                   double rollRate, double pitchRate, double yawRate)
+    {
+        long age = frameTimeNanos - sampleTimeNanos;
+        return (mIsEnabled && age + mHorizonNanos > 0 && age <= MAX_SAMPLE_AGE_NANOS
+                && (rollRate != 0 || pitchRate != 0 || yawRate != 0));
+    }
+
+    public void setMeasuring(boolean measuring)
+    {
+        mIsMeasuring = measuring;
+        resetLatencies();
+    }
+
+    public boolean isMeasuring()
+    {
+        return mIsMeasuring;
+    }
+
+    /**
+     * Computes the attitude to draw; read the result with the getters.
+     *
+     * @param frameTimeNanos frame time on the clock of {@code sampleTimeNanos}
+     * @param roll degrees
+     * @param rollRate deg/s
+     */
+    public void predict(long frameTimeNanos, long sampleTimeNanos,
+                        double roll, double pitch, double yaw,
+                        double rollRate, double pitchRate, double yawRate)
+    {
+        long latency = frameTimeNanos + mHorizonNanos - sampleTimeNanos;
+        long extrapolation = 0;
+        boolean isClamped = false;
+        if(mIsEnabled && latency > 0 && latency - mHorizonNanos <= MAX_SAMPLE_AGE_NANOS)
+        {
+            extrapolation = latency;
+            if(extrapolation > MAX_EXTRAPOLATION_NANOS)
+            {
+                extrapolation = MAX_EXTRAPOLATION_NANOS;
+                isClamped = true;
+            }
+        }
+
+        double dt = extrapolation * 1e-9;
+        mRoll = roll + rollRate * dt;
+        mPitch = pitch + pitchRate * dt;
+        mYaw = yaw + yawRate * dt;
+
+        if(mIsMeasuring)
+        {
+            mLatencies[mIndex] = latency;
+            mResiduals[mIndex] = latency - extrapolation;
+            mIndex = (mIndex + 1) % LATENCY_WINDOW;
+            if(mCount < LATENCY_WINDOW)
+            {
+                mCount++;
+            }
+            if(isClamped)
+            {
+                mClampedCount++;
+            }
+        }
+    }
+
+    public double getRoll()
+    {
+        return mRoll;
+    }
+
+    public double getPitch()
+    {
+        return mPitch;
+    }
+
+    public double getYaw()
+    {
+        return mYaw;
+    }
+
+    public int getLatencyCount()
+    {
+        return mCount;
+    }
+
+    /**
+     * @return frames whose extrapolation was clamped since the last {@link #resetLatencies}
+     */
+    public int getClampedCount()
+    {
+        return mClampedCount;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return latency from the sample to the expected display time [ms] (nearest rank), 0 if nothing measured
+     */
+    public double getLatencyMillis(double percentile)
+    {
+        return percentile(mLatencies, percentile);
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return latency left after the extrapolation [ms]; equals {@link #getLatencyMillis} while prediction is off
+     */
+    public double getResidualLatencyMillis(double percentile)
+    {
+        return percentile(mResiduals, percentile);
+    }
+
+    public void resetLatencies()
+    {
+        mIndex = 0;
+        mCount = 0;
+        mClampedCount = 0;
+    }
+
+    private double percentile(long[] values, double percentile)
+    {
+        if(mCount == 0)
+        {
+            return 0;
+        }
+        System.arraycopy(values, 0, mSorted, 0, mCount);
+        Arrays.sort(mSorted, 0, mCount);
+        int rank = (int)Math.ceil(percentile / 100 * mCount);
+        rank = Math.min(Math.max(rank, 1), mCount);
+        return mSorted[rank - 1] / 1e6;
+    }
+}
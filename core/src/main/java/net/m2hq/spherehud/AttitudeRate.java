@@ -0,0 +1,110 @@
+package net.m2hq.spherehud;
+
+/**
+ * Angular rate of the fused roll, pitch and yaw, for extrapolating them at draw time.
+ *
+ * Rates are differences of successive outputs smoothed over {@link #TIME_CONSTANT},
+ * so they work the same for both fusion modes and already include the roll/pitch
+ * offsets. The mean update interval is tracked as well, which turns a filter lag given
+ * in updates into nanoseconds.
+ *
+ * Not thread safe: the sensor thread of ListenerService owns an instance.
+ */
+public class AttitudeRate
+{
+    // 角速度の平滑化の時定数[s]
+    static final double TIME_CONSTANT = 0.05;
+    // これより間が空いたら角速度を0からやり直す
+    static final long MAX_GAP_NANOS = 250000000L;
+    private static final double INTERVAL_ALPHA = 0.05;
+
+    private boolean mHasSample = false;
+    private long mTimestamp;
+    private double mRoll;
+    private double mPitch;
+    private double mYaw;
+
+    private double mRollRate;
+    private double mPitchRate;
+    private double mYawRate;
+    private double mIntervalNanos;
+
+    public void reset()
+    {
+        mHasSample = false;
+        mRollRate = 0;
+        mPitchRate = 0;
+        mYawRate = 0;
+        mIntervalNanos = 0;
+    }
+
+    /**
+     * @param roll degrees
+     * @param pitch degrees
+     * @param yaw degrees
+     */
+    public void update(long timestampNanos, double roll, double pitch, double yaw)
+    {
+        long gap = timestampNanos - mTimestamp;
+        if(!mHasSample || gap > MAX_GAP_NANOS || gap < 0)
+        {
+            mRollRate = 0;
+            mPitchRate = 0;
+            mYawRate = 0;
+        }
+        else if(gap > 0)
+        {
+            double dt = gap * 1e-9;
+            double alpha = dt / (TIME_CONSTANT + dt);
+            mRollRate += alpha * (wrap(roll - mRoll) / dt - mRollRate);
+            mPitchRate += alpha * (wrap(pitch - mPitch) / dt - mPitchRate);
+            mYawRate += alpha * (wrap(yaw - mYaw) / dt - mYawRate);
+            mIntervalNanos = (0 == mIntervalNanos ? gap : mIntervalNanos + INTERVAL_ALPHA * (gap - mIntervalNanos));
+        }
+        mHasSample = true;
+        mTimestamp = timestampNanos;
+        mRoll = roll;
+        mPitch = pitch;
+        mYaw = yaw;
+    }
+
+    private static double wrap(double delta)
+    {
+        delta %= 360;
+        if(delta > 180) { delta -= 360; }
+        if(delta < -180) { delta += 360; }
+        return delta;
+    }
+
+    /**
+     * @return deg/s
+     */
+    public double getRollRate()
+    {
+        return mRollRate;
+    }
+
+    /**
+     * @return deg/s
+     */
+    public double getPitchRate()
+    {
+        return mPitchRate;
+    }
+
+    /**
+     * @return deg/s
+     */
+    public double getYawRate()
+    {
+        return mYawRate;
+    }
+
+    /**
+     * @return mean interval between updates [ns], 0 until two updates arrived
+     */
+    public long getIntervalNanos()
+    {
+        return (long)mIntervalNanos;
+    }
+}
@@ -0,0 +1,69 @@
+package net.m2hq.spherehud;
+
+import java.util.TimeZone;
+
+/**
+ * "HH:mm" in the default time zone, same as SimpleDateFormat("HH:mm").
+ * The text is only recomputed when the minute changes.
+ */
+public class ClockText
+{
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final ReadingText mText = new ReadingText(5);
+    private long mMinute = Long.MIN_VALUE;
+
+    /**
+     * @return true if the text was recomputed
+     */
+    public boolean update(long currentTimeMillis)
+    {
+        long minute = floorDiv(currentTimeMillis, MILLIS_PER_MINUTE);
+        if(minute == mMinute)
+        {
+            return false;
+        }
+        mMinute = minute;
+
+        // 分が変わったときだけなので，タイムゾーンはその都度取り直す
+        long localMillis = currentTimeMillis + TimeZone.getDefault().getOffset(currentTimeMillis);
+        int minuteOfDay = (int)(floorDiv(localMillis, MILLIS_PER_MINUTE) % MINUTES_PER_DAY);
+        if(minuteOfDay < 0)
+        {
+            minuteOfDay += MINUTES_PER_DAY;
+        }
+
+        mText.clear()
+                .appendInt(minuteOfDay / 60, 2, '0')
+                .append(':')
+                .appendInt(minuteOfDay % 60, 2, '0');
+        return true;
+    }
+
+    public char[] getChars()
+    {
+        return mText.getChars();
+    }
+
+    public int length()
+    {
+        return mText.length();
+    }
+
+    @Override
+    public String toString()
+    {
+        return mText.toString();
+    }
+
+    private static long floorDiv(long x, long y)
+    {
+        long q = x / y;
+        if((x % y != 0) && ((x < 0) != (y < 0)))
+        {
+            q--;
+        }
+        return q;
+    }
+}
@@ -0,0 +1,195 @@
+package net.m2hq.spherehud;
+
+/**
+ * {@link HudRenderer} that draws nothing and counts the commands it receives by type,
+ * so gauges can be measured on the JVM.
+ */
+public class CountingRenderer implements HudRenderer
+{
+    private final long[] mCounts = new long[HudDisplayList.COMMAND_TYPES];
+    private long mTextChars = 0;
+    private long mLinePoints = 0;
+
+    public void reset()
+    {
+        for(int i = 0; i < mCounts.length; i++)
+        {
+            mCounts[i] = 0;
+        }
+        mTextChars = 0;
+        mLinePoints = 0;
+    }
+
+    /**
+     * @param command one of the command types of {@link HudDisplayList}
+     */
+    public long getCount(int command)
+    {
+        return mCounts[command];
+    }
+
+    public long getTotalCount()
+    {
+        long total = 0;
+        for(long count : mCounts)
+        {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return commands that put pixels on the canvas (lines, ovals, paths, text)
+     */
+    public long getDrawCount()
+    {
+        return mCounts[HudDisplayList.DRAW_LINE] + mCounts[HudDisplayList.DRAW_LINES] + mCounts[HudDisplayList.DRAW_OVAL]
+                + mCounts[HudDisplayList.DRAW_PATH] + mCounts[HudDisplayList.END_PATH]
+                + mCounts[HudDisplayList.DRAW_TEXT] + mCounts[HudDisplayList.DRAW_TEXT_ON_LINE];
+    }
+
+    public long getTextChars()
+    {
+        return mTextChars;
+    }
+
+    /**
+     * @return line end points given to drawLines (2 per line) plus path vertices
+     */
+    public long getLinePoints()
+    {
+        return mLinePoints;
+    }
+
+    @Override
+    public void setColor(int alpha, int red, int green, int blue)
+    {
+        mCounts[HudDisplayList.SET_COLOR]++;
+    }
+
+    @Override
+    public void setStyle(int style)
+    {
+        mCounts[HudDisplayList.SET_STYLE]++;
+    }
+
+    @Override
+    public void setStrokeWidth(float width)
+    {
+        mCounts[HudDisplayList.SET_STROKE_WIDTH]++;
+    }
+
+    @Override
+    public void setTypeface(int typeface)
+    {
+        mCounts[HudDisplayList.SET_TYPEFACE]++;
+    }
+
+    @Override
+    public void setTextSize(float size)
+    {
+        mCounts[HudDisplayList.SET_TEXT_SIZE]++;
+    }
+
+    @Override
+    public void setTextAlign(int align)
+    {
+        mCounts[HudDisplayList.SET_TEXT_ALIGN]++;
+    }
+
+    @Override
+    public void drawLine(float x0, float y0, float x1, float y1)
+    {
+        mCounts[HudDisplayList.DRAW_LINE]++;
+    }
+
+    @Override
+    public void drawLines(float[] points, int offset, int count)
+    {
+        mCounts[HudDisplayList.DRAW_LINES]++;
+        mLinePoints += count / 2;
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom)
+    {
+        mCounts[HudDisplayList.DRAW_OVAL]++;
+    }
+
+    @Override
+    public void drawPath(int path)
+    {
+        mCounts[HudDisplayList.DRAW_PATH]++;
+    }
+
+    @Override
+    public void beginPath()
+    {
+        mCounts[HudDisplayList.BEGIN_PATH]++;
+    }
+
+    @Override
+    public void moveTo(float x, float y)
+    {
+        mCounts[HudDisplayList.MOVE_TO]++;
+        mLinePoints++;
+    }
+
+    @Override
+    public void lineTo(float x, float y)
+    {
+        mCounts[HudDisplayList.LINE_TO]++;
+        mLinePoints++;
+    }
+
+    @Override
+    public void arcTo(float left, float top, float right, float bottom, float startAngle, float sweepAngle)
+    {
+        mCounts[HudDisplayList.ARC_TO]++;
+    }
+
+    @Override
+    public void closePath()
+    {
+        mCounts[HudDisplayList.CLOSE_PATH]++;
+    }
+
+    @Override
+    public void endPath(int fillType)
+    {
+        mCounts[HudDisplayList.END_PATH]++;
+    }
+
+    @Override
+    public void drawText(char[] text, int start, int count, float x, float y)
+    {
+        mCounts[HudDisplayList.DRAW_TEXT]++;
+        mTextChars += count;
+    }
+
+    @Override
+    public void drawTextOnLine(char[] text, int start, int count, float x0, float y0, float x1, float y1,
+                               float hOffset, float vOffset)
+    {
+        mCounts[HudDisplayList.DRAW_TEXT_ON_LINE]++;
+        mTextChars += count;
+    }
+
+    @Override
+    public void save()
+    {
+        mCounts[HudDisplayList.SAVE]++;
+    }
+
+    @Override
+    public void restore()
+    {
+        mCounts[HudDisplayList.RESTORE]++;
+    }
+
+    @Override
+    public void clipPath(int path)
+    {
+        mCounts[HudDisplayList.CLIP_PATH]++;
+    }
+}
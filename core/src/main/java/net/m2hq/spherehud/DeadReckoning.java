@@ -0,0 +1,188 @@
+package net.m2hq.spherehud;
+
+/**
+ * Interpolates speed and position between GPS fixes for the renderer.
+ *
+ * At each fix the state is reset to the fix (speed and acceleration from the motion
+ * estimator, GPS bearing); in between, {@link #predict} extrapolates with constant
+ * acceleration along the heading, turned by however much the fused yaw has turned since
+ * the fix. Before resetting, the prediction for the new fix's time is compared with the
+ * fix itself, which gives the prediction error metric.
+ *
+ * Not thread safe: the renderer owns an instance and calls it from its frame callback.
+ * Nothing allocates and a prediction costs two trig calls.
+ */
+public class DeadReckoning
+{
+    /** Predictions do not go further than this past the last fix. */
+    static final long MAX_HORIZON_NANOS = 1500000000L;
+
+    private boolean mHasFix = false;
+    private long mFixTime;
+    private double mFixLatitude;
+    private double mFixLongitude;
+    private float mFixSpeed;
+    private float mFixAcceleration;
+    private float mFixBearing;
+    private double mFixYaw;
+    private double mMetersPerDegreeLongitude;
+
+    private double mLatitude;
+    private double mLongitude;
+    private float mSpeed;
+
+    private long mErrorCount = 0;
+    private double mPositionErrorSquareSum = 0;
+    private double mSpeedErrorSquareSum = 0;
+    private float mLastPositionError = 0;
+    private float mLastSpeedError = 0;
+
+    /**
+     * @param speed m/s
+     * @param acceleration m/s^2 along the direction of travel
+     * @param bearing degrees, negative if unknown (position is then held at the fix)
+     * @param yaw fused yaw [deg] at the time of the fix
+     */
+    public void onFix(long timestampNanos, double latitude, double longitude, float speed, float acceleration,
+                      float bearing, double yaw)
+    {
+        if(mHasFix && timestampNanos > mFixTime)
+        {
+            predict(timestampNanos, yaw);
+            double north = (latitude - mLatitude) * TrailStore.METERS_PER_DEGREE;
+            double east = (longitude - mLongitude) * mMetersPerDegreeLongitude;
+            mLastPositionError = (float)Math.sqrt(north * north + east * east);
+            mLastSpeedError = mSpeed - speed;
+            mPositionErrorSquareSum += mLastPositionError * mLastPositionError;
+            mSpeedErrorSquareSum += mLastSpeedError * mLastSpeedError;
+            mErrorCount++;
+        }
+
+        mHasFix = true;
+        mFixTime = timestampNanos;
+        mFixLatitude = latitude;
+        mFixLongitude = longitude;
+        mFixSpeed = Math.max(0, speed);
+        mFixAcceleration = acceleration;
+        mFixBearing = bearing;
+        mFixYaw = yaw;
+        mMetersPerDegreeLongitude = TrailStore.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mSpeed = mFixSpeed;
+    }
+
+    public boolean hasFix()
+    {
+        return mHasFix;
+    }
+
+    /**
+     * @return true if {@link #predict} at {@code nowNanos} still moves the position or speed,
+     *         i.e. the last fix is recent and the vehicle was moving
+     */
+    public boolean isExtrapolating(long nowNanos)
+    {
+        return (mHasFix && nowNanos - mFixTime < MAX_HORIZON_NANOS && (mFixSpeed > 0 || mFixAcceleration > 0));
+    }
+
+    /**
+     * Extrapolates to {@code nowNanos} (same clock as the fix timestamps); read the result with the getters.
+     *
+     * @param yaw current fused yaw [deg]
+     */
+    public void predict(long nowNanos, double yaw)
+    {
+        if(!mHasFix)
+        {
+            return;
+        }
+        double dt = Math.min(Math.max(0, nowNanos - mFixTime), MAX_HORIZON_NANOS) * 1e-9;
+
+        double speed = mFixSpeed + mFixAcceleration * dt;
+        double distance;
+        if(speed < 0)
+        {
+            // 減速して止まったところで止める
+            double stop = -mFixSpeed / mFixAcceleration;
+            distance = mFixSpeed * stop / 2;
+            speed = 0;
+        }
+        else
+        {
+            distance = (mFixSpeed + speed) / 2 * dt;
+        }
+        mSpeed = (float)speed;
+
+        if(mFixBearing < 0)
+        {
+            mLatitude = mFixLatitude;
+            mLongitude = mFixLongitude;
+            return;
+        }
+        double turn = (yaw - mFixYaw) % 360;
+        if(turn > 180) { turn -= 360; }
+        if(turn < -180) { turn += 360; }
+        // 一定の角速度で曲がったとして途中の向きで進める
+        double heading = Math.toRadians(mFixBearing + turn / 2);
+        mLatitude = mFixLatitude + distance * Math.cos(heading) / TrailStore.METERS_PER_DEGREE;
+        mLongitude = mFixLongitude + distance * Math.sin(heading) / mMetersPerDegreeLongitude;
+    }
+
+    public double getLatitude()
+    {
+        return mLatitude;
+    }
+
+    public double getLongitude()
+    {
+        return mLongitude;
+    }
+
+    /**
+     * @return m/s
+     */
+    public float getSpeed()
+    {
+        return mSpeed;
+    }
+
+    /**
+     * @return distance [m] between the prediction for the last fix and the fix
+     */
+    public float getLastPositionError()
+    {
+        return mLastPositionError;
+    }
+
+    /**
+     * @return predicted minus measured speed [m/s] at the last fix
+     */
+    public float getLastSpeedError()
+    {
+        return mLastSpeedError;
+    }
+
+    public double getRmsPositionError()
+    {
+        return (0 == mErrorCount ? 0 : Math.sqrt(mPositionErrorSquareSum / mErrorCount));
+    }
+
+    public double getRmsSpeedError()
+    {
+        return (0 == mErrorCount ? 0 : Math.sqrt(mSpeedErrorSquareSum / mErrorCount));
+    }
+
+    public long getErrorCount()
+    {
+        return mErrorCount;
+    }
+
+    public void resetErrors()
+    {
+        mErrorCount = 0;
+        mPositionErrorSquareSum = 0;
+        mSpeedErrorSquareSum = 0;
+    }
+}
@@ -0,0 +1,288 @@
+package net.m2hq.spherehud;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Magnetic declination from a grid of cached model evaluations.
+ *
+ * The model (GeomagneticField on Android) is evaluated only at grid nodes every
+ * {@code spacing} degrees, once per date bucket of {@link #BUCKET_MILLIS}; positions in
+ * between are interpolated bilinearly from the four corners of their cell. When a fix
+ * enters a cell whose corners are not cached yet, they are evaluated on the executor and
+ * the previous value is returned meanwhile; only the very first lookup evaluates the model
+ * on the caller's thread. Nodes are kept in an LRU map and can be saved and loaded so a
+ * cold start has them at once.
+ */
+public class DeclinationCache
+{
+    public interface Model
+    {
+        /**
+         * @return declination in degrees (east positive)
+         */
+        float getDeclination(double latitude, double longitude, long timeMillis);
+    }
+
+    /** Length of a date bucket (about a month; secular variation is several tenths of a degree per year at high latitudes). */
+    public static final long BUCKET_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final float DEFAULT_SPACING = 0.5f;
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private static final int MAGIC = 0x4e434544;
+    private static final int VERSION = 2;
+
+    private final Model mModel;
+    private final Executor mExecutor;
+    private final float mSpacing;
+    private final int mColumns;
+    private final int mRows;
+
+    // 格子点の値(キーは日付区間と格子の位置)
+    private final LinkedHashMap<Long, Float> mNodes;
+    private final Set<Long> mPendingCells = new HashSet<Long>();
+
+    // 直前のセルの四隅(同じセルの間はマップを引かない)
+    private long mCellKey = -1;
+    private float mCorner00;
+    private float mCorner01;
+    private float mCorner10;
+    private float mCorner11;
+
+    private float mLastDeclination = Float.NaN;
+    private long mModelEvaluationCount = 0;
+
+    public DeclinationCache(Model model, Executor executor)
+    {
+        this(model, executor, DEFAULT_SPACING, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param spacing grid spacing in degrees, must divide 180
+     * @param capacity maximum number of cached nodes
+     */
+    public DeclinationCache(Model model, Executor executor, float spacing, final int capacity)
+    {
+        mModel = model;
+        mExecutor = executor;
+        mSpacing = spacing;
+        mColumns = Math.round(360 / spacing);
+        mRows = Math.round(180 / spacing);
+        mNodes = new LinkedHashMap<Long, Float>(capacity * 4 / 3 + 1, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Float> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return declination in degrees; the last known value while the cell around the position is being evaluated
+     */
+    public float getDeclination(double latitude, double longitude, long timeMillis)
+    {
+        long bucket = timeMillis / BUCKET_MILLIS;
+        double x = (normalizeLongitude(longitude) + 180) / mSpacing;
+        double y = (Math.max(-90, Math.min(90, latitude)) + 90) / mSpacing;
+        int column = Math.min((int)Math.floor(x), mColumns - 1);
+        int row = Math.min((int)Math.floor(y), mRows - 1);
+
+        long cellKey = key(bucket, row, column);
+        if(cellKey != mCellKey && !loadCorners(bucket, row, column))
+        {
+            if(!Float.isNaN(mLastDeclination))
+            {
+                // 別スレッドで求めておき，それまでは直前の値を使う
+                requestCell(bucket, row, column);
+                return mLastDeclination;
+            }
+            fillCell(bucket, row, column);
+            loadCorners(bucket, row, column);
+        }
+        mCellKey = cellKey;
+
+        float fx = (float)(x - column);
+        float fy = (float)(y - row);
+        float corner10 = unwrap(mCorner10, mCorner00);
+        float corner01 = unwrap(mCorner01, mCorner00);
+        float corner11 = unwrap(mCorner11, mCorner00);
+        float south = mCorner00 + (corner10 - mCorner00) * fx;
+        float north = corner01 + (corner11 - corner01) * fx;
+        mLastDeclination = normalizeDeclination(south + (north - south) * fy);
+        return mLastDeclination;
+    }
+
+    // 角度の補間で±180度をまたがないようにする
+    private static float unwrap(float value, float reference)
+    {
+        float d = value - reference;
+        if(d > 180) { return value - 360; }
+        if(d < -180) { return value + 360; }
+        return value;
+    }
+
+    private static float normalizeDeclination(float value)
+    {
+        if(value > 180) { return value - 360; }
+        if(value <= -180) { return value + 360; }
+        return value;
+    }
+
+    private static double normalizeLongitude(double longitude)
+    {
+        double l = (longitude + 180) % 360;
+        return (l < 0 ? l + 360 : l) - 180;
+    }
+
+    // 列は経度方向に一周する
+    private long key(long bucket, int row, int column)
+    {
+        return (bucket << 32) | ((long)row << 16) | ((column + mColumns) % mColumns);
+    }
+
+    private boolean loadCorners(long bucket, int row, int column)
+    {
+        synchronized(mNodes)
+        {
+            Float c00 = mNodes.get(key(bucket, row, column));
+            Float c10 = mNodes.get(key(bucket, row, column + 1));
+            Float c01 = mNodes.get(key(bucket, row + 1, column));
+            Float c11 = mNodes.get(key(bucket, row + 1, column + 1));
+            if(null == c00 || null == c10 || null == c01 || null == c11)
+            {
+                return false;
+            }
+            mCorner00 = c00;
+            mCorner10 = c10;
+            mCorner01 = c01;
+            mCorner11 = c11;
+            return true;
+        }
+    }
+
+    private void requestCell(final long bucket, final int row, final int column)
+    {
+        final long cellKey = key(bucket, row, column);
+        synchronized(mNodes)
+        {
+            if(!mPendingCells.add(cellKey))
+            {
+                return;
+            }
+        }
+        mExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                fillCell(bucket, row, column);
+                synchronized(mNodes)
+                {
+                    mPendingCells.remove(cellKey);
+                }
+            }
+        });
+    }
+
+    private void fillCell(long bucket, int row, int column)
+    {
+        fillNode(bucket, row, column);
+        fillNode(bucket, row, column + 1);
+        fillNode(bucket, row + 1, column);
+        fillNode(bucket, row + 1, column + 1);
+    }
+
+    private void fillNode(long bucket, int row, int column)
+    {
+        long key = key(bucket, row, column);
+        synchronized(mNodes)
+        {
+            if(mNodes.containsKey(key))
+            {
+                return;
+            }
+        }
+        // 区間の中央の日付で求める
+        float declination = mModel.getDeclination(-90 + row * mSpacing, normalizeLongitude(-180 + column * mSpacing),
+                bucket * BUCKET_MILLIS + BUCKET_MILLIS / 2);
+        synchronized(mNodes)
+        {
+            mModelEvaluationCount++;
+            mNodes.put(key, declination);
+        }
+    }
+
+    public int size()
+    {
+        synchronized(mNodes)
+        {
+            return mNodes.size();
+        }
+    }
+
+    public long getModelEvaluationCount()
+    {
+        synchronized(mNodes)
+        {
+            return mModelEvaluationCount;
+        }
+    }
+
+    /**
+     * Writes the cached nodes, least recently used first.
+     */
+    public void write(OutputStream out) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out);
+        synchronized(mNodes)
+        {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeFloat(mSpacing);
+            data.writeInt(mNodes.size());
+            for(Map.Entry<Long, Float> entry : mNodes.entrySet())
+            {
+                data.writeLong(entry.getKey());
+                data.writeFloat(entry.getValue());
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Adds nodes saved by {@link #write}. Nodes saved with another grid spacing are ignored.
+     */
+    public void read(InputStream in) throws IOException
+    {
+        DataInputStream data = new DataInputStream(in);
+        if(data.readInt() != MAGIC || data.readInt() != VERSION)
+        {
+            throw new IOException("not a declination cache");
+        }
+        float spacing = data.readFloat();
+        int count = data.readInt();
+        synchronized(mNodes)
+        {
+            for(int i = 0; i < count; i++)
+            {
+                long key = data.readLong();
+                float declination = data.readFloat();
+                if(spacing == mSpacing)
+                {
+                    mNodes.put(key, declination);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package net.m2hq.spherehud;
+
+/**
+ * Decides on which vsync frames the HUD is redrawn.
+ *
+ * A frame is drawn when the target frame interval has passed and either the telemetry
+ * sequence moved since the last drawn frame or an animation is running. In adaptive mode
+ * the target rate follows how often the telemetry actually changes (20 to 60 fps).
+ * On low battery the rate is capped.
+ */
+public class FramePacer
+{
+    public static final int RATE_ADAPTIVE = 0;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final int MIN_ADAPTIVE_RATE = 20;
+    private static final int MAX_ADAPTIVE_RATE = 60;
+
+    private static final int LOW_BATTERY_PERCENT = 15;
+    private static final int LOW_BATTERY_RATE = 20;
+
+    // vsyncの揺らぎでフレームを取りこぼさないための余裕
+    private static final long FRAME_TOLERANCE_NANOS = 2000000L;
+    // 入力が変わらなくてもこれ以上は間を空けない(時計の点滅など)
+    private static final long MAX_IDLE_NANOS = 250000000L;
+
+    private static final double CHANGE_INTERVAL_ALPHA = 0.9;
+
+    private int mTargetRate = RATE_ADAPTIVE;
+    private int mBatteryPercent = 100;
+
+    private long mLastFrameNanos;
+    private boolean mHasFrame = false;
+    private int mDrawnSequence;
+
+    private int mSeenSequence;
+    private long mLastChangeNanos;
+    private boolean mHasChange = false;
+    private double mChangeIntervalNanos = NANOS_PER_SECOND / MAX_ADAPTIVE_RATE;
+
+    /**
+     * @param rate frames per second, or {@link #RATE_ADAPTIVE}
+     */
+    public void setTargetRate(int rate)
+    {
+        mTargetRate = rate;
+    }
+
+    public int getTargetRate()
+    {
+        return mTargetRate;
+    }
+
+    public void setBatteryPercent(int percent)
+    {
+        mBatteryPercent = percent;
+    }
+
+    public void reset()
+    {
+        mHasFrame = false;
+        mHasChange = false;
+        mChangeIntervalNanos = NANOS_PER_SECOND / MAX_ADAPTIVE_RATE;
+    }
+
+    /**
+     * Called on every vsync.
+     *
+     * @param sequence telemetry sequence; any change means there is something new to draw
+     * @param animating true while the view animates on its own (startup sweep etc.)
+     * @return true if this frame should be drawn
+     */
+    public boolean onFrame(long frameTimeNanos, int sequence, boolean animating)
+    {
+        if(!mHasChange || sequence != mSeenSequence)
+        {
+            if(mHasChange)
+            {
+                long interval = frameTimeNanos - mLastChangeNanos;
+                mChangeIntervalNanos = mChangeIntervalNanos * CHANGE_INTERVAL_ALPHA + interval * (1 - CHANGE_INTERVAL_ALPHA);
+            }
+            mSeenSequence = sequence;
+            mLastChangeNanos = frameTimeNanos;
+            mHasChange = true;
+        }
+
+        if(!mHasFrame)
+        {
+            markDrawn(frameTimeNanos, sequence);
+            return true;
+        }
+
+        long elapsed = frameTimeNanos - mLastFrameNanos;
+        if(elapsed + FRAME_TOLERANCE_NANOS < getFrameIntervalNanos())
+        {
+            return false;
+        }
+        if(!animating && sequence == mDrawnSequence && elapsed < MAX_IDLE_NANOS)
+        {
+            return false;
+        }
+
+        markDrawn(frameTimeNanos, sequence);
+        return true;
+    }
+
+    /**
+     * @return the rate frames are currently limited to, after adaptation and battery throttling
+     */
+    public int getEffectiveRate()
+    {
+        int rate = mTargetRate;
+        if(RATE_ADAPTIVE == rate)
+        {
+            rate = (int)Math.round(NANOS_PER_SECOND / mChangeIntervalNanos);
+            if(rate < MIN_ADAPTIVE_RATE) { rate = MIN_ADAPTIVE_RATE; }
+            if(rate > MAX_ADAPTIVE_RATE) { rate = MAX_ADAPTIVE_RATE; }
+        }
+        if(mBatteryPercent <= LOW_BATTERY_PERCENT && rate > LOW_BATTERY_RATE)
+        {
+            rate = LOW_BATTERY_RATE;
+        }
+        return rate;
+    }
+
+    public long getFrameIntervalNanos()
+    {
+        return NANOS_PER_SECOND / getEffectiveRate();
+    }
+
+    private void markDrawn(long frameTimeNanos, int sequence)
+    {
+        mLastFrameNanos = frameTimeNanos;
+        mDrawnSequence = sequence;
+        mHasFrame = true;
+    }
+}
@@ -0,0 +1,86 @@
+package net.m2hq.spherehud;
+
+import java.util.Arrays;
+
+/**
+ * Achieved frame rate and frame time percentiles over the last frames drawn.
+ * Frame time is the interval between two drawn frames.
+ */
+public class FrameStats
+{
+    private static final int DEFAULT_WINDOW = 256;
+
+    private final long[] mIntervals;
+    private final long[] mSorted;
+    private int mIndex = 0;
+    private int mCount = 0;
+    private long mLastFrameNanos;
+    private boolean mHasFrame = false;
+
+    public FrameStats()
+    {
+        this(DEFAULT_WINDOW);
+    }
+
+    public FrameStats(int window)
+    {
+        mIntervals = new long[window];
+        mSorted = new long[window];
+    }
+
+    public void reset()
+    {
+        mIndex = 0;
+        mCount = 0;
+        mHasFrame = false;
+    }
+
+    public void onFrame(long frameTimeNanos)
+    {
+        if(mHasFrame)
+        {
+            mIntervals[mIndex] = frameTimeNanos - mLastFrameNanos;
+            mIndex = (mIndex + 1) % mIntervals.length;
+            if(mCount < mIntervals.length)
+            {
+                mCount++;
+            }
+        }
+        mLastFrameNanos = frameTimeNanos;
+        mHasFrame = true;
+    }
+
+    public int getCount()
+    {
+        return mCount;
+    }
+
+    public double getFps()
+    {
+        long total = 0;
+        for(int i = 0; i < mCount; i++)
+        {
+            total += mIntervals[i];
+        }
+        return (total > 0 ? mCount * 1e9 / total : 0);
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return frame time in milliseconds (nearest rank), 0 if no frames
+     */
+    public double getFrameTimeMillis(double percentile)
+    {
+        if(mCount == 0)
+        {
+            return 0;
+        }
+        System.arraycopy(mIntervals, 0, mSorted, 0, mCount);
+        Arrays.sort(mSorted, 0, mCount);
+
+        int rank = (int)Math.ceil(percentile / 100 * mCount);
+        if(rank < 1) { rank = 1; }
+        if(rank > mCount) { rank = mCount; }
+        return mSorted[rank - 1] / 1e6;
+    }
+}
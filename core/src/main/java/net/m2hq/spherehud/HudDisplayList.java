@@ -0,0 +1,390 @@
+package net.m2hq.spherehud;
+
+import java.util.Arrays;
+
+/**
+ * Recorded {@link HudRenderer} commands that can be replayed onto any other renderer.
+ *
+ * Commands and their arguments go into primitive arrays that grow by doubling and are
+ * kept across {@link #clear}, so once a list has seen its largest frame, recording and
+ * replaying do not allocate. Text and points are copied, so the caller may reuse its
+ * buffers.
+ */
+public class HudDisplayList implements HudRenderer
+{
+    static final int SET_COLOR = 0;
+    static final int SET_STYLE = 1;
+    static final int SET_STROKE_WIDTH = 2;
+    static final int SET_TYPEFACE = 3;
+    static final int SET_TEXT_SIZE = 4;
+    static final int SET_TEXT_ALIGN = 5;
+    static final int DRAW_LINE = 6;
+    static final int DRAW_LINES = 7;
+    static final int DRAW_OVAL = 8;
+    static final int DRAW_PATH = 9;
+    static final int BEGIN_PATH = 10;
+    static final int MOVE_TO = 11;
+    static final int LINE_TO = 12;
+    static final int ARC_TO = 13;
+    static final int CLOSE_PATH = 14;
+    static final int END_PATH = 15;
+    static final int DRAW_TEXT = 16;
+    static final int DRAW_TEXT_ON_LINE = 17;
+    static final int SAVE = 18;
+    static final int RESTORE = 19;
+    static final int CLIP_PATH = 20;
+    public static final int COMMAND_TYPES = 21;
+
+    private static final String[] COMMAND_NAMES = {
+            "setColor", "setStyle", "setStrokeWidth", "setTypeface", "setTextSize", "setTextAlign",
+            "drawLine", "drawLines", "drawOval", "drawPath", "beginPath", "moveTo", "lineTo", "arcTo",
+            "closePath", "endPath", "drawText", "drawTextOnLine", "save", "restore", "clipPath",
+    };
+
+    // コマンドごとに，種類と整数引数・実数引数・文字の開始位置を持つ
+    private int[] mCommands = new int[64];
+    private int[] mInts = new int[64];
+    private float[] mFloats = new float[256];
+    private char[] mChars = new char[64];
+    private int mCommandCount = 0;
+    private int mIntCount = 0;
+    private int mFloatCount = 0;
+    private int mCharCount = 0;
+
+    public static String getCommandName(int command)
+    {
+        return COMMAND_NAMES[command];
+    }
+
+    public void clear()
+    {
+        mCommandCount = 0;
+        mIntCount = 0;
+        mFloatCount = 0;
+        mCharCount = 0;
+    }
+
+    public int size()
+    {
+        return mCommandCount;
+    }
+
+    public int getCommand(int index)
+    {
+        return mCommands[index];
+    }
+
+    /**
+     * Issues every recorded command to {@code target} in order.
+     */
+    public void replay(HudRenderer target)
+    {
+        int ints = 0;
+        int floats = 0;
+        int chars = 0;
+        float[] f = mFloats;
+        for(int i = 0; i < mCommandCount; i++)
+        {
+            switch(mCommands[i])
+            {
+                case SET_COLOR:
+                    target.setColor(mInts[ints], mInts[ints + 1], mInts[ints + 2], mInts[ints + 3]);
+                    ints += 4;
+                    break;
+                case SET_STYLE:
+                    target.setStyle(mInts[ints++]);
+                    break;
+                case SET_STROKE_WIDTH:
+                    target.setStrokeWidth(f[floats++]);
+                    break;
+                case SET_TYPEFACE:
+                    target.setTypeface(mInts[ints++]);
+                    break;
+                case SET_TEXT_SIZE:
+                    target.setTextSize(f[floats++]);
+                    break;
+                case SET_TEXT_ALIGN:
+                    target.setTextAlign(mInts[ints++]);
+                    break;
+                case DRAW_LINE:
+                    target.drawLine(f[floats], f[floats + 1], f[floats + 2], f[floats + 3]);
+                    floats += 4;
+                    break;
+                case DRAW_LINES:
+                {
+                    int count = mInts[ints++];
+                    target.drawLines(f, floats, count);
+                    floats += count;
+                    break;
+                }
+                case DRAW_OVAL:
+                    target.drawOval(f[floats], f[floats + 1], f[floats + 2], f[floats + 3]);
+                    floats += 4;
+                    break;
+                case DRAW_PATH:
+                    target.drawPath(mInts[ints++]);
+                    break;
+                case BEGIN_PATH:
+                    target.beginPath();
+                    break;
+                case MOVE_TO:
+                    target.moveTo(f[floats], f[floats + 1]);
+                    floats += 2;
+                    break;
+                case LINE_TO:
+                    target.lineTo(f[floats], f[floats + 1]);
+                    floats += 2;
+                    break;
+                case ARC_TO:
+                    target.arcTo(f[floats], f[floats + 1], f[floats + 2], f[floats + 3], f[floats + 4], f[floats + 5]);
+                    floats += 6;
+                    break;
+                case CLOSE_PATH:
+                    target.closePath();
+                    break;
+                case END_PATH:
+                    target.endPath(mInts[ints++]);
+                    break;
+                case DRAW_TEXT:
+                {
+                    int count = mInts[ints++];
+                    target.drawText(mChars, chars, count, f[floats], f[floats + 1]);
+                    chars += count;
+                    floats += 2;
+                    break;
+                }
+                case DRAW_TEXT_ON_LINE:
+                {
+                    int count = mInts[ints++];
+                    target.drawTextOnLine(mChars, chars, count, f[floats], f[floats + 1], f[floats + 2], f[floats + 3],
+                            f[floats + 4], f[floats + 5]);
+                    chars += count;
+                    floats += 6;
+                    break;
+                }
+                case SAVE:
+                    target.save();
+                    break;
+                case RESTORE:
+                    target.restore();
+                    break;
+                case CLIP_PATH:
+                    target.clipPath(mInts[ints++]);
+                    break;
+                default:
+                    throw new IllegalStateException("unknown command " + mCommands[i]);
+            }
+        }
+    }
+
+    private void addCommand(int command)
+    {
+        if(mCommandCount == mCommands.length)
+        {
+            mCommands = Arrays.copyOf(mCommands, mCommands.length * 2);
+        }
+        mCommands[mCommandCount++] = command;
+    }
+
+    private void addInt(int value)
+    {
+        if(mIntCount == mInts.length)
+        {
+            mInts = Arrays.copyOf(mInts, mInts.length * 2);
+        }
+        mInts[mIntCount++] = value;
+    }
+
+    private void ensureFloats(int count)
+    {
+        if(mFloatCount + count > mFloats.length)
+        {
+            mFloats = Arrays.copyOf(mFloats, Math.max(mFloats.length * 2, mFloatCount + count));
+        }
+    }
+
+    private void addFloat(float value)
+    {
+        ensureFloats(1);
+        mFloats[mFloatCount++] = value;
+    }
+
+    private void addFloats(float a, float b, float c, float d)
+    {
+        ensureFloats(4);
+        mFloats[mFloatCount++] = a;
+        mFloats[mFloatCount++] = b;
+        mFloats[mFloatCount++] = c;
+        mFloats[mFloatCount++] = d;
+    }
+
+    private void addChars(char[] text, int start, int count)
+    {
+        if(mCharCount + count > mChars.length)
+        {
+            mChars = Arrays.copyOf(mChars, Math.max(mChars.length * 2, mCharCount + count));
+        }
+        System.arraycopy(text, start, mChars, mCharCount, count);
+        mCharCount += count;
+        addInt(count);
+    }
+
+    @Override
+    public void setColor(int alpha, int red, int green, int blue)
+    {
+        addCommand(SET_COLOR);
+        addInt(alpha);
+        addInt(red);
+        addInt(green);
+        addInt(blue);
+    }
+
+    @Override
+    public void setStyle(int style)
+    {
+        addCommand(SET_STYLE);
+        addInt(style);
+    }
+
+    @Override
+    public void setStrokeWidth(float width)
+    {
+        addCommand(SET_STROKE_WIDTH);
+        addFloat(width);
+    }
+
+    @Override
+    public void setTypeface(int typeface)
+    {
+        addCommand(SET_TYPEFACE);
+        addInt(typeface);
+    }
+
+    @Override
+    public void setTextSize(float size)
+    {
+        addCommand(SET_TEXT_SIZE);
+        addFloat(size);
+    }
+
+    @Override
+    public void setTextAlign(int align)
+    {
+        addCommand(SET_TEXT_ALIGN);
+        addInt(align);
+    }
+
+    @Override
+    public void drawLine(float x0, float y0, float x1, float y1)
+    {
+        addCommand(DRAW_LINE);
+        addFloats(x0, y0, x1, y1);
+    }
+
+    @Override
+    public void drawLines(float[] points, int offset, int count)
+    {
+        addCommand(DRAW_LINES);
+        addInt(count);
+        ensureFloats(count);
+        System.arraycopy(points, offset, mFloats, mFloatCount, count);
+        mFloatCount += count;
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom)
+    {
+        addCommand(DRAW_OVAL);
+        addFloats(left, top, right, bottom);
+    }
+
+    @Override
+    public void drawPath(int path)
+    {
+        addCommand(DRAW_PATH);
+        addInt(path);
+    }
+
+    @Override
+    public void beginPath()
+    {
+        addCommand(BEGIN_PATH);
+    }
+
+    @Override
+    public void moveTo(float x, float y)
+    {
+        addCommand(MOVE_TO);
+        addFloat(x);
+        addFloat(y);
+    }
+
+    @Override
+    public void lineTo(float x, float y)
+    {
+        addCommand(LINE_TO);
+        addFloat(x);
+        addFloat(y);
+    }
+
+    @Override
+    public void arcTo(float left, float top, float right, float bottom, float startAngle, float sweepAngle)
+    {
+        addCommand(ARC_TO);
+        addFloats(left, top, right, bottom);
+        addFloat(startAngle);
+        addFloat(sweepAngle);
+    }
+
+    @Override
+    public void closePath()
+    {
+        addCommand(CLOSE_PATH);
+    }
+
+    @Override
+    public void endPath(int fillType)
+    {
+        addCommand(END_PATH);
+        addInt(fillType);
+    }
+
+    @Override
+    public void drawText(char[] text, int start, int count, float x, float y)
+    {
+        addCommand(DRAW_TEXT);
+        addChars(text, start, count);
+        addFloat(x);
+        addFloat(y);
+    }
+
+    @Override
+    public void drawTextOnLine(char[] text, int start, int count, float x0, float y0, float x1, float y1,
+                               float hOffset, float vOffset)
+    {
+        addCommand(DRAW_TEXT_ON_LINE);
+        addChars(text, start, count);
+        addFloats(x0, y0, x1, y1);
+        addFloat(hOffset);
+        addFloat(vOffset);
+    }
+
+    @Override
+    public void save()
+    {
+        addCommand(SAVE);
+    }
+
+    @Override
+    public void restore()
+    {
+        addCommand(RESTORE);
+    }
+
+    @Override
+    public void clipPath(int path)
+    {
+        addCommand(CLIP_PATH);
+        addInt(path);
+    }
+}
@@ -0,0 +1,301 @@
+package net.m2hq.spherehud;
+
+/**
+ * Screen positions of the compass ring and the pitch ladder for one attitude.
+ *
+ * Angles come in whole degrees (as HUDView holds them), so every sine and cosine is a
+ * table lookup. The ring is rotated with one 3x3 matrix per frame instead of
+ * polar-form rotation per point, and the ladder rungs with a 2x2 rotation.
+ * Results are kept in preallocated arrays; {@link #update} does not allocate.
+ */
+public class HudProjection
+{
+    public static final int LABEL_COUNT = 8;
+    public static final String[] LABELS = new String[]{ "N", "NE", "E", "SE", "S", "SW", "W", "NW" };
+
+    public static final int LADDER_RUNGS = 11;
+
+    // 方位文字を載せる区間の角度(分割数によらず一定)
+    private static final int LABEL_SPAN = 15;
+    // これより手前(スクリーンに近い)点は描かない
+    private static final float MIN_DEPTH = 0.2f;
+
+    private static final float[] SIN = new float[360];
+    private static final float[] COS = new float[360];
+
+    static
+    {
+        for(int i = 0; i < 360; i++)
+        {
+            SIN[i] = (float)Math.sin(Math.toRadians(i));
+            COS[i] = (float)Math.cos(Math.toRadians(i));
+        }
+    }
+
+    private final int mRingPoints;
+    private final int mRingStep;
+    private final float mScreenDistance;
+    private final int mLadderVertex;
+
+    // 回転行列 (z軸回りroll × x軸回りpitch)
+    private final float[] mR = new float[9];
+
+    private final float[] mRingX;
+    private final float[] mRingY;
+    private final float[] mRingScale;
+    private final boolean[] mRingVisible;
+
+    private final float[] mLabelLines = new float[LABEL_COUNT * 4];
+    private final float[] mLabelScale = new float[LABEL_COUNT];
+    private final boolean[] mLabelVisible = new boolean[LABEL_COUNT];
+
+    private final float[] mLadderLines = new float[LADDER_RUNGS * 8];
+    private final int[] mLadderAlpha = new int[LADDER_RUNGS];
+
+    private final float[] mDigitLines = new float[8];
+    private final float[] mDigitTextX = new float[2];
+    private final float[] mDigitTextY = new float[2];
+
+    private final float[] mPoint = new float[3];
+
+    /**
+     * @param ringPoints points on the compass ring, a divisor of 45 degrees steps (24, 72, 360)
+     * @param screenDistance distance from the eye to the screen in layout pixels
+     * @param ladderVertex distance of the 0 degree rung from the center
+     */
+    public HudProjection(int ringPoints, float screenDistance, int ladderVertex)
+    {
+        if(ringPoints <= 0 || 360 % ringPoints != 0 || 45 % (360 / ringPoints) != 0)
+        {
+            throw new IllegalArgumentException("ringPoints must divide the circle into steps that divide 45 degrees: " + ringPoints);
+        }
+        mRingPoints = ringPoints;
+        mRingStep = 360 / ringPoints;
+        mScreenDistance = screenDistance;
+        mLadderVertex = ladderVertex;
+
+        mRingX = new float[ringPoints];
+        mRingY = new float[ringPoints];
+        mRingScale = new float[ringPoints];
+        mRingVisible = new boolean[ringPoints];
+    }
+
+    public static float sin(int degrees)
+    {
+        return SIN[wrap(degrees)];
+    }
+
+    public static float cos(int degrees)
+    {
+        return COS[wrap(degrees)];
+    }
+
+    private static int wrap(int degrees)
+    {
+        int d = degrees % 360;
+        return (d < 0 ? d + 360 : d);
+    }
+
+    /**
+     * @param roll degrees
+     * @param pitch degrees, positive looks down (HUDView passes -mPitch)
+     * @param yaw degrees
+     */
+    public void update(int roll, int pitch, int yaw)
+    {
+        updateCompass(roll, pitch, yaw);
+        updatePitchLadder(roll, pitch);
+    }
+
+    private void updateCompass(int roll, int pitch, int yaw)
+    {
+        float sp = sin(pitch);
+        float cp = cos(pitch);
+        float sr = sin(roll);
+        float cr = cos(roll);
+
+        // 視点の高さ
+        float eyeY = sp * 1.5f;
+
+        // ビュー座標 = Rz(roll) * Rx(pitch) * (p - eye)
+        mR[0] = cr; mR[1] = sr * cp; mR[2] = -sr * sp;
+        mR[3] = -sr; mR[4] = cr * cp; mR[5] = -cr * sp;
+        mR[6] = 0; mR[7] = sp; mR[8] = cp;
+
+        for(int i = 0; i < mRingPoints; i++)
+        {
+            // 北から時計回り，-z方向が視線になるので-90°から
+            int angle = i * mRingStep - 90 - yaw;
+            project(cos(angle), -eyeY, sin(angle));
+
+            mRingX[i] = mPoint[0];
+            mRingY[i] = mPoint[1];
+            mRingScale[i] = mPoint[2];
+            mRingVisible[i] = mPoint[2] > 0;
+        }
+
+        for(int k = 0; k < LABEL_COUNT; k++)
+        {
+            int angle = k * 45 - 90 - yaw;
+            project(cos(angle), -eyeY, sin(angle));
+            float x1 = mPoint[0];
+            float y1 = mPoint[1];
+            float s1 = mPoint[2];
+            project(cos(angle + LABEL_SPAN), -eyeY, sin(angle + LABEL_SPAN));
+
+            mLabelLines[k * 4] = x1;
+            mLabelLines[k * 4 + 1] = y1;
+            mLabelLines[k * 4 + 2] = mPoint[0];
+            mLabelLines[k * 4 + 3] = mPoint[1];
+            mLabelScale[k] = (s1 + mPoint[2]) / 2;
+            mLabelVisible[k] = (s1 > 0 && mPoint[2] > 0);
+        }
+    }
+
+    // 回転して透視投影する．mPointに(x, y, 倍率)，見えない点は倍率0
+    private void project(float x, float y, float z)
+    {
+        float vx = mR[0] * x + mR[1] * y + mR[2] * z;
+        float vy = mR[3] * x + mR[4] * y + mR[5] * z;
+        float depth = -(mR[6] * x + mR[7] * y + mR[8] * z);
+
+        float scale = mScreenDistance / depth;
+        mPoint[0] = scale * vx;
+        mPoint[1] = scale * vy;
+        mPoint[2] = (depth < MIN_DEPTH ? 0 : scale);
+    }
+
+    private void updatePitchLadder(int roll, int pitch)
+    {
+        float sr = sin(roll);
+        float cr = cos(roll);
+
+        int lineRight = 0;
+        for(int i = -5; i <= 5; i++)
+        {
+            // 10°ごとの目盛
+            int deg = i * 10 + (-pitch % 10);
+
+            int lx = (int)(0.05 * deg * deg) + mLadderVertex;
+            int ly = deg * 6;
+
+            int lineLength = Math.abs(deg);
+            // 0°の線は長めにする
+            if(-deg == pitch)
+            {
+                lineLength = 50 + (int)(Math.abs(deg) * 1.5);
+            }
+
+            int dx = (int)(lineLength * cr);
+            int dy = (int)(lineLength * sr);
+
+            int n = (i + 5) * 8;
+            // 右
+            float px = (int)(lx * cr - ly * sr);
+            float py = -(int)(lx * sr + ly * cr);
+            mLadderLines[n] = px;
+            mLadderLines[n + 1] = py;
+            mLadderLines[n + 2] = px + dx;
+            mLadderLines[n + 3] = py - dy;
+            // 左
+            px = (int)(-lx * cr - ly * sr);
+            py = -(int)(-lx * sr + ly * cr);
+            mLadderLines[n + 4] = px;
+            mLadderLines[n + 5] = py;
+            mLadderLines[n + 6] = px - dx;
+            mLadderLines[n + 7] = py + dy;
+
+            mLadderAlpha[i + 5] = (60 - Math.abs(deg)) * 255 / 60;
+        }
+
+        // ピッチ角表示の目盛と数字の位置(0: 右, 1: 左)
+        int digitLineLength = 20;
+        for(int j = 0; j < 2; j++)
+        {
+            float c = (j == 0 ? cr : -cr);
+            float s = (j == 0 ? sr : -sr);
+
+            int px = (int)(mLadderVertex * c);
+            int py = -(int)(mLadderVertex * s);
+            mDigitLines[j * 4] = px;
+            mDigitLines[j * 4 + 1] = py;
+            mDigitLines[j * 4 + 2] = px + (int)(digitLineLength * c);
+            mDigitLines[j * 4 + 3] = py - (int)(digitLineLength * s);
+
+            mDigitTextX[j] = (int)((mLadderVertex - 30) * c);
+            mDigitTextY[j] = -(int)((mLadderVertex - 30) * s);
+        }
+    }
+
+    public int getRingPoints()
+    {
+        return mRingPoints;
+    }
+
+    public float getRingX(int i)
+    {
+        return mRingX[i];
+    }
+
+    public float getRingY(int i)
+    {
+        return mRingY[i];
+    }
+
+    public boolean isRingVisible(int i)
+    {
+        return mRingVisible[i];
+    }
+
+    /**
+     * @return x1, y1, x2, y2 of the segment each direction label is drawn along
+     */
+    public float[] getLabelLines()
+    {
+        return mLabelLines;
+    }
+
+    /**
+     * @return perspective scale at the label (screen distance / depth)
+     */
+    public float getLabelScale(int k)
+    {
+        return mLabelScale[k];
+    }
+
+    public boolean isLabelVisible(int k)
+    {
+        return mLabelVisible[k];
+    }
+
+    /**
+     * @return per rung, right then left line: x1, y1, x2, y2 (8 values per rung, lowest rung first)
+     */
+    public float[] getLadderLines()
+    {
+        return mLadderLines;
+    }
+
+    public int getLadderAlpha(int rung)
+    {
+        return mLadderAlpha[rung];
+    }
+
+    /**
+     * @return right then left tick next to the pitch reading: x1, y1, x2, y2
+     */
+    public float[] getDigitLines()
+    {
+        return mDigitLines;
+    }
+
+    public float getDigitTextX(int side)
+    {
+        return mDigitTextX[side];
+    }
+
+    public float getDigitTextY(int side)
+    {
+        return mDigitTextY[side];
+    }
+}
@@ -0,0 +1,90 @@
+package net.m2hq.spherehud;
+
+/**
+ * Drawing operations the HUD gauges are made of, without Android types.
+ *
+ * Shapes that only depend on the layout (frames, clip outlines, text outlines) are
+ * built once by the backend and referred to by the PATH_* ids of {@link HudScene};
+ * shapes that move with the readings are built with beginPath() ... endPath().
+ * Paint state (color, style, stroke width, text settings) stays set until changed,
+ * like on a Canvas with one Paint.
+ *
+ * Text and point arrays are passed as ranges; implementations must neither keep nor
+ * modify them.
+ */
+public interface HudRenderer
+{
+    int STYLE_FILL = 0;
+    int STYLE_STROKE = 1;
+
+    int ALIGN_LEFT = 0;
+    int ALIGN_CENTER = 1;
+    int ALIGN_RIGHT = 2;
+
+    int FILL_WINDING = 0;
+    int FILL_EVEN_ODD = 1;
+
+    void setColor(int alpha, int red, int green, int blue);
+
+    void setStyle(int style);
+
+    void setStrokeWidth(float width);
+
+    /**
+     * @param typeface one of the TYPEFACE_* ids of {@link HudScene}
+     */
+    void setTypeface(int typeface);
+
+    void setTextSize(float size);
+
+    void setTextAlign(int align);
+
+    void drawLine(float x0, float y0, float x1, float y1);
+
+    /**
+     * @param count number of floats (4 per line), like Canvas.drawLines
+     */
+    void drawLines(float[] points, int offset, int count);
+
+    void drawOval(float left, float top, float right, float bottom);
+
+    /**
+     * @param path one of the PATH_* ids of {@link HudScene}
+     */
+    void drawPath(int path);
+
+    void beginPath();
+
+    void moveTo(float x, float y);
+
+    void lineTo(float x, float y);
+
+    /**
+     * Same as Path.arcTo(oval, startAngle, sweepAngle): connects to the start of the arc with a line.
+     */
+    void arcTo(float left, float top, float right, float bottom, float startAngle, float sweepAngle);
+
+    void closePath();
+
+    /**
+     * Draws the path built since {@link #beginPath} with the current paint.
+     */
+    void endPath(int fillType);
+
+    void drawText(char[] text, int start, int count, float x, float y);
+
+    /**
+     * Draws text along the line from (x0, y0) to (x1, y1), like Canvas.drawTextOnPath.
+     */
+    void drawTextOnLine(char[] text, int start, int count, float x0, float y0, float x1, float y1,
+                        float hOffset, float vOffset);
+
+    void save();
+
+    void restore();
+
+    /**
+     * @param path one of the PATH_* ids of {@link HudScene}
+     */
+    void clipPath(int path);
+}
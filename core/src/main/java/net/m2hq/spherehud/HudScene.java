@@ -0,0 +1,919 @@
+package net.m2hq.spherehud;
+
+/**
+ * The HUD gauges as {@link HudRenderer} commands, in the 960x640 layout coordinates
+ * centered on the screen.
+ *
+ * Each gauge keeps a {@link HudDisplayList} of its last output and only records it
+ * again when the readings it shows have changed, so a frame where nothing moved is a
+ * replay of the cached commands. The backend only has to build the PATH_* shapes once
+ * per layout and map the TYPEFACE_* ids to its fonts.
+ */
+public class HudScene
+{
+    public static final float VIEW_WIDTH = 960;
+    public static final float VIEW_HEIGHT = 640;
+    public static final float VIEW_BORDER_X = VIEW_WIDTH / 2;
+    public static final float VIEW_BORDER_Y = VIEW_HEIGHT / 2;
+
+    // バックエンドが作る固定形状
+    public static final int PATH_CENTER_BOX = 0;
+    public static final int PATH_FRAME_LINE = 1;
+    public static final int PATH_FRAME_SYMBOL = 2;
+    // レンジごとに1つずつ(PATH_RADAR_FRAME + range)
+    public static final int PATH_RADAR_FRAME = 3;
+    public static final int PATH_RADAR_CLIP = 6;
+    public static final int PATH_TIMER = 7;
+    public static final int PATH_TIMER_BLINK = 8;
+    public static final int PATH_SPEED = 9;
+    public static final int PATH_ALTIMETER = 10;
+    public static final int PATH_ALTIMETER_CLIP = 11;
+    public static final int PATH_DAMAGE_READING = 12;
+    public static final int PATH_COUNT = 13;
+
+    public static final int TYPEFACE_READING = 0;
+    public static final int TYPEFACE_SMALL_READING = 1;
+    public static final int TYPEFACE_COMPASS = 2;
+    public static final int TYPEFACE_COUNT = 3;
+
+    public static final int COMPASS = 0;
+    public static final int PITCH_LINE = 1;
+    public static final int CENTER_BOX = 2;
+    public static final int FRAME = 3;
+    public static final int RADAR = 4;
+    public static final int TIMER = 5;
+    public static final int SPEEDOMETER = 6;
+    public static final int ALTIMETER = 7;
+    public static final int DAMAGE = 8;
+    public static final int GAUGE_COUNT = 9;
+
+    private static final String[] GAUGE_NAMES = {
+            "compass", "pitchLine", "centerBox", "frame", "radar", "timer", "speedometer", "altimeter", "damage",
+    };
+
+    public static final int RADAR_RANGE_S = 0;
+    public static final int RADAR_RANGE_M = 1;
+    public static final int RADAR_RANGE_L = 2;
+    public static final int RADAR_RANGE_COUNT = 3;
+    public static final char[] RADAR_RANGE_CHAR = new char[]{ 'S', 'M', 'L' };
+    private static final float[] RADAR_RADIUS_METER = new float[]{ 20.0f, 100.0f, 500.0f };
+    // 軌跡の点の間隔 = レンジ / RADAR_TRAIL_DIVISION
+    private static final float RADAR_TRAIL_DIVISION = 40.0f;
+
+    public static final int DEFAULT_COMPASS_RESOLUTION = 24;
+
+    private static final int DEFAULT_ALPHA = 0xb0;
+    private static final int DEFAULT_R = 0x00;
+    private static final int DEFAULT_G = 0xff;
+    private static final int DEFAULT_B = 0x60;
+
+    private static final int FRAME_ALPHA = 0xa0;
+    private static final int COMPASS_ALPHA = 0x60;
+
+    private static final int RADARBG_R = 0x00;
+    private static final int RADARBG_G = 0x60;
+    private static final int RADARBG_B = 0x00;
+
+    private static final float ACCELERATION_ROTATE_SPEED = 10.0f;
+    private static final float LAYOUT_MARGIN = VIEW_WIDTH * 0.03f;
+
+    private static final char[][] LABEL_CHARS = new char[HudProjection.LABEL_COUNT][];
+    static
+    {
+        for(int k = 0; k < HudProjection.LABEL_COUNT; k++)
+        {
+            LABEL_CHARS[k] = HudProjection.LABELS[k].toCharArray();
+        }
+    }
+
+    /**
+     * Height of the ink bounds of some text in the pitch digit font
+     * (TYPEFACE_SMALL_READING at 22), used to center the digits vertically.
+     */
+    public interface TextMeasurer
+    {
+        int getTextHeight(char[] text, int start, int count);
+    }
+
+    private final TextMeasurer mPitchTextMeasurer;
+
+    // 表示する値
+    private int mRoll;
+    private int mPitch;
+    private int mYaw;
+    private int mSpeed;
+    private float mSpeedDeltaPerSecond;
+    private int mAltitude;
+    private double mAltitudeDeltaPerSecond;
+    private float mAccuracy = 100.0f;
+    private int mBattery;
+    private int mSatellitesCount;
+    private int mSatellitesUsedInFixCount;
+    private long mTimeMillis;
+
+    private TrailStore mTrail = new TrailStore(16);
+    private boolean mHasPosition = false;
+    private double mPositionLatitude;
+    private double mPositionLongitude;
+
+    // アニメーション(描くたびに進む)
+    private float mSpeedDeltaPerSecondTransition;
+    private float mSpeedGauge = 0;
+    private float mAltitudeGauge = 0;
+
+    // コンパスとピッチ目盛の投影(姿勢が変わったときだけ計算し直す)
+    private HudProjection mProjection;
+    private int mProjectionRoll;
+    private int mProjectionPitch;
+    private int mProjectionYaw;
+
+    // レイアウトだけで決まる座標(left, top, right, bottom)
+    private final float[] mRadarRect = new float[4];
+    private final float[] mRadarLines = new float[8];
+    private final float[] mRotorOuterRect = new float[4];
+    private final float[] mRotorInnerRect = new float[4];
+    private final float[] mDamageGaugeRoundRect = new float[4];
+
+    // ゲージごとの記録と，記録したときの入力値
+    private static final int KEY_SIZE = 5;
+    private final HudDisplayList[] mLists = new HudDisplayList[GAUGE_COUNT];
+    private final boolean[] mIsBuilt = new boolean[GAUGE_COUNT];
+    private final double[][] mBuiltKeys = new double[GAUGE_COUNT][KEY_SIZE];
+    private final long[] mBuildCounts = new long[GAUGE_COUNT];
+    private final double[] mKey = new double[KEY_SIZE];
+
+    private final ReadingText mReadingText = new ReadingText(16);
+    private final ClockText mClockText = new ClockText();
+
+    // 相対移動で組み立てるパスの現在位置
+    private float mPenX;
+    private float mPenY;
+
+    public HudScene(TextMeasurer pitchTextMeasurer)
+    {
+        mPitchTextMeasurer = pitchTextMeasurer;
+        for(int i = 0; i < GAUGE_COUNT; i++)
+        {
+            mLists[i] = new HudDisplayList();
+        }
+        setCompassResolution(DEFAULT_COMPASS_RESOLUTION);
+
+        // ---- レーダー
+        {
+            float left = -VIEW_BORDER_X + LAYOUT_MARGIN + 5 + 2;
+            float top = -VIEW_BORDER_Y + 50 + 5 + 2;
+            float size = VIEW_WIDTH / 5 - (5 + 2) * 2;
+            setRect(mRadarRect, left, top, left + size, top + size);
+
+            float cx = centerX(mRadarRect);
+            float cy = centerY(mRadarRect);
+            float r = size / 2;
+            mRadarLines[0] = cx;
+            mRadarLines[1] = cy;
+            mRadarLines[2] = cx + r * (float)Math.cos(-120 * Math.PI / 180);
+            mRadarLines[3] = cy + r * (float)Math.sin(-120 * Math.PI / 180);
+            mRadarLines[4] = cx;
+            mRadarLines[5] = cy;
+            mRadarLines[6] = cx + r * (float)Math.cos(-60 * Math.PI / 180);
+            mRadarLines[7] = cy + r * (float)Math.sin(-60 * Math.PI / 180);
+        }
+
+        // ---- 速度計
+        {
+            int x = -(int)(VIEW_BORDER_X - VIEW_WIDTH * 0.03);
+            int y = (int)(VIEW_HEIGHT / 24);
+            float diameter = 55;
+            float margin = 4;
+            setRect(mRotorOuterRect, x + margin, y + margin, x + diameter - margin, y + diameter - margin);
+            setRect(mRotorInnerRect, x + diameter / 3, y + diameter / 3, x + diameter / 3 * 2, y + diameter / 3 * 2);
+        }
+
+        // ---- バッテリー/精度
+        {
+            float gaugeThickness = 25;
+            float gaugeRoundSize = 50;
+            float gaugeStraightSize = 55;
+            int x = (int)(VIEW_BORDER_X - LAYOUT_MARGIN);
+            int y = (int)(VIEW_BORDER_Y - 220 + LAYOUT_MARGIN + 10);
+            setRect(mDamageGaugeRoundRect, x - (gaugeThickness + gaugeRoundSize + gaugeRoundSize), y + gaugeStraightSize - gaugeRoundSize,
+                    x - gaugeThickness, y + gaugeStraightSize + gaugeRoundSize);
+        }
+    }
+
+    public static String getGaugeName(int gauge)
+    {
+        return GAUGE_NAMES[gauge];
+    }
+
+    /**
+     * @param points points on the compass ring: 24, 72 or 360
+     */
+    public void setCompassResolution(int points)
+    {
+        if(null != mProjection && mProjection.getRingPoints() == points)
+        {
+            return;
+        }
+        // 視点からスクリーンまでの距離と，縦幅と横幅の小さい側を基準にしたピッチ目盛の頂点位置
+        int vertexPosX = (int)(VIEW_WIDTH > VIEW_HEIGHT ? VIEW_HEIGHT : VIEW_WIDTH) / 5;
+        mProjection = new HudProjection(points, VIEW_HEIGHT / 2.0f, vertexPosX);
+        mProjectionRoll = Integer.MIN_VALUE;
+    }
+
+    public void setRoll(int roll)
+    {
+        mRoll = roll;
+    }
+
+    public void setPitch(int pitch)
+    {
+        mPitch = pitch;
+    }
+
+    public void setYaw(int yaw)
+    {
+        mYaw = yaw;
+    }
+
+    public void setSpeed(int speed)
+    {
+        mSpeed = speed;
+    }
+
+    public void setSpeedDeltaPerSecond(float delta)
+    {
+        mSpeedDeltaPerSecond = delta;
+    }
+
+    public void setAltitude(int altitude)
+    {
+        mAltitude = altitude;
+    }
+
+    public void setAltitudeDeltaPerSecond(double delta)
+    {
+        mAltitudeDeltaPerSecond = delta;
+    }
+
+    public void setAccuracy(float accuracy)
+    {
+        mAccuracy = accuracy;
+    }
+
+    public void setSatellitesCount(int usedInFix, int sats)
+    {
+        mSatellitesCount = sats;
+        mSatellitesUsedInFixCount = usedInFix;
+    }
+
+    public void setBatteryPercent(int percent)
+    {
+        mBattery = percent;
+    }
+
+    /**
+     * @param currentTimeMillis wall clock time shown by the timer
+     */
+    public void setTime(long currentTimeMillis)
+    {
+        mTimeMillis = currentTimeMillis;
+    }
+
+    /**
+     * Sets the trail drawn on the radar. The scene only reads it; new fixes show up on the next frame.
+     */
+    public void setTrail(TrailStore trail)
+    {
+        mTrail = trail;
+        mIsBuilt[RADAR] = false;
+    }
+
+    /**
+     * Sets the current position drawn at the center of the radar; without it the latest trail point is the center.
+     */
+    public void setPosition(double latitude, double longitude)
+    {
+        mPositionLatitude = latitude;
+        mPositionLongitude = longitude;
+        mHasPosition = true;
+    }
+
+    public int getRadarRange()
+    {
+        // 直近20個の最大値を元にレンジを決める
+        float maxDistance = mTrail.getRecentMaxStep();
+
+        if(maxDistance >= RADAR_RADIUS_METER[RADAR_RANGE_L] / 5 / 10)
+        {
+            return RADAR_RANGE_L;
+        }
+        else if(maxDistance >= RADAR_RADIUS_METER[RADAR_RANGE_M] / 5 / 10)
+        {
+            return RADAR_RANGE_M;
+        }
+
+        return RADAR_RANGE_S;
+    }
+
+    /**
+     * @return left, top, right and bottom of the radar disc; do not modify
+     */
+    public float[] getRadarRect()
+    {
+        return mRadarRect;
+    }
+
+    /**
+     * @return true while the speedometer rotor or the altimeter scale is moving
+     */
+    public boolean isGaugeAnimating()
+    {
+        return (mSpeedDeltaPerSecond != 0
+                || Math.abs(mSpeedDeltaPerSecondTransition * ACCELERATION_ROTATE_SPEED) >= 0.01f
+                || mAltitudeDeltaPerSecond != 0);
+    }
+
+    /**
+     * @return true if the readings shown by {@code gauge} differ from its last drawing
+     */
+    public boolean isChanged(int gauge)
+    {
+        if(!mIsBuilt[gauge])
+        {
+            return true;
+        }
+        int size = fillKey(gauge, mKey);
+        double[] built = mBuiltKeys[gauge];
+        for(int i = 0; i < size; i++)
+        {
+            if(mKey[i] != built[i])
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how many times the commands of {@code gauge} have been recorded
+     */
+    public long getBuildCount(int gauge)
+    {
+        return mBuildCounts[gauge];
+    }
+
+    /**
+     * Draws one gauge, advancing its animation, and re-records it only if it changed.
+     */
+    public void draw(int gauge, HudRenderer target)
+    {
+        if(SPEEDOMETER == gauge)
+        {
+            advanceSpeedGauge();
+        }
+        else if(ALTIMETER == gauge)
+        {
+            advanceAltitudeGauge();
+        }
+
+        HudDisplayList list = mLists[gauge];
+        if(isChanged(gauge))
+        {
+            list.clear();
+            emit(gauge, list);
+            fillKey(gauge, mBuiltKeys[gauge]);
+            mIsBuilt[gauge] = true;
+            mBuildCounts[gauge]++;
+        }
+        list.replay(target);
+    }
+
+    /**
+     * Issues the commands of one gauge for the current readings, without caching or animating.
+     */
+    public void emit(int gauge, HudRenderer r)
+    {
+        switch(gauge)
+        {
+            case COMPASS:
+                emitCompass(r);
+                break;
+            case PITCH_LINE:
+                emitPitchLine(r);
+                break;
+            case CENTER_BOX:
+                emitCenterBox(r);
+                break;
+            case FRAME:
+                emitFrame(r);
+                break;
+            case RADAR:
+                emitRadar(r);
+                break;
+            case TIMER:
+                emitTimer(r);
+                break;
+            case SPEEDOMETER:
+                emitSpeedometer(r);
+                break;
+            case ALTIMETER:
+                emitAltimeter(r);
+                break;
+            case DAMAGE:
+                emitDamage(r);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown gauge " + gauge);
+        }
+    }
+
+    // ゲージの見た目を決める入力値
+    private int fillKey(int gauge, double[] key)
+    {
+        switch(gauge)
+        {
+            case COMPASS:
+                key[0] = mRoll;
+                key[1] = mPitch;
+                key[2] = mYaw;
+                key[3] = mProjection.getRingPoints();
+                return 4;
+            case PITCH_LINE:
+                key[0] = mRoll;
+                key[1] = mPitch;
+                key[2] = mYaw;
+                return 3;
+            case RADAR:
+                key[0] = mTrail.getCount();
+                key[1] = mAccuracy;
+                key[2] = (mHasPosition ? 1 : 0);
+                key[3] = mPositionLatitude;
+                key[4] = mPositionLongitude;
+                return 5;
+            case TIMER:
+                // 点滅の切り替わり(250ms)ごと．分の切り替わりもここに重なる
+                key[0] = getTimerPhase();
+                return 1;
+            case SPEEDOMETER:
+                key[0] = mSpeed;
+                key[1] = mSpeedGauge;
+                return 2;
+            case ALTIMETER:
+                key[0] = mAltitude;
+                key[1] = mAltitudeGauge;
+                return 2;
+            case DAMAGE:
+                key[0] = mBattery;
+                key[1] = (int)Math.ceil(mAccuracy);
+                key[2] = mSatellitesUsedInFixCount;
+                key[3] = mSatellitesCount;
+                return 4;
+            default:
+                // 固定部分
+                return 0;
+        }
+    }
+
+    private long getTimerPhase()
+    {
+        return mTimeMillis / 250;
+    }
+
+    private void advanceSpeedGauge()
+    {
+        mSpeedDeltaPerSecondTransition = 0.8f * mSpeedDeltaPerSecondTransition + 0.2f * mSpeedDeltaPerSecond;
+        float deltaGauge = mSpeedDeltaPerSecondTransition * ACCELERATION_ROTATE_SPEED;
+        if(deltaGauge < -90)
+        {
+            deltaGauge = -90;
+        }
+        if(deltaGauge > 90)
+        {
+            deltaGauge = 90;
+        }
+
+        mSpeedGauge += deltaGauge;
+        mSpeedGauge = mSpeedGauge % 180;
+    }
+
+    private void advanceAltitudeGauge()
+    {
+        // max 100m/sec
+        float gaugeDelta = (float)(mAltitudeDeltaPerSecond / 100) * 12.5f;
+        if(gaugeDelta > 12.5f) { gaugeDelta = 12.5f; }
+        if(gaugeDelta < -12.5f) { gaugeDelta = -12.5f; }
+
+        mAltitudeGauge = (mAltitudeGauge + ((gaugeDelta < 0 ? 25 : 0) + gaugeDelta)) % 25;
+    }
+
+    private HudProjection getProjection()
+    {
+        if(mRoll != mProjectionRoll || mPitch != mProjectionPitch || mYaw != mProjectionYaw)
+        {
+            mProjection.update(mRoll, -mPitch, mYaw);
+            mProjectionRoll = mRoll;
+            mProjectionPitch = mPitch;
+            mProjectionYaw = mYaw;
+        }
+        return mProjection;
+    }
+
+    private void emitCompass(HudRenderer r)
+    {
+        HudProjection projection = getProjection();
+
+        // 方位文字
+        r.setColor(COMPASS_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.setStyle(HudRenderer.STYLE_FILL);
+        r.setTypeface(TYPEFACE_COMPASS);
+        r.setTextAlign(HudRenderer.ALIGN_CENTER);
+        float[] labelLines = projection.getLabelLines();
+        for(int k = 0; k < HudProjection.LABEL_COUNT; k++)
+        {
+            if(projection.isLabelVisible(k))
+            {
+                r.setTextSize(projection.getLabelScale(k) * 0.1f);
+                r.drawTextOnLine(LABEL_CHARS[k], 0, LABEL_CHARS[k].length,
+                        labelLines[k * 4], labelLines[k * 4 + 1], labelLines[k * 4 + 2], labelLines[k * 4 + 3], 0, -4);
+            }
+        }
+
+        // 円(スクリーンに近すぎる区間は描かない)
+        r.setColor(DEFAULT_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.setStyle(HudRenderer.STYLE_STROKE);
+        r.setStrokeWidth(3);
+        r.beginPath();
+        int points = projection.getRingPoints();
+        boolean isSkipped = true;
+        for(int p1 = 0; p1 < points; p1++)
+        {
+            int p2 = (p1 + 1) % points;
+            if(!projection.isRingVisible(p1) || !projection.isRingVisible(p2))
+            {
+                isSkipped = true;
+                continue;
+            }
+            if(isSkipped)
+            {
+                r.moveTo(projection.getRingX(p1), projection.getRingY(p1));
+                isSkipped = false;
+            }
+            r.lineTo(projection.getRingX(p2), projection.getRingY(p2));
+        }
+        r.endPath(HudRenderer.FILL_WINDING);
+    }
+
+    private void emitPitchLine(HudRenderer r)
+    {
+        HudProjection projection = getProjection();
+
+        r.setStyle(HudRenderer.STYLE_STROKE);
+        r.setStrokeWidth(2);
+
+        // 10°ごとの目盛(中央から離れるほど薄く)
+        float[] ladderLines = projection.getLadderLines();
+        for(int rung = 0; rung < HudProjection.LADDER_RUNGS; rung++)
+        {
+            r.setColor(projection.getLadderAlpha(rung), DEFAULT_R, DEFAULT_G, DEFAULT_B);
+            r.drawLines(ladderLines, rung * 8, 8);
+        }
+
+        int pitch = -mPitch;
+
+        r.setColor(DEFAULT_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.setStyle(HudRenderer.STYLE_FILL);
+        r.setTextSize(22.0f);
+        r.setTypeface(TYPEFACE_SMALL_READING);
+        float[] digitLines = projection.getDigitLines();
+        r.drawLines(digitLines, 0, digitLines.length);
+
+        r.setTextAlign(HudRenderer.ALIGN_CENTER);
+        ReadingText pitchText = mReadingText.clear().append(pitch < 0 ? '-' : ' ').appendInt(Math.abs(pitch), 2, '0');
+        int textHeight = mPitchTextMeasurer.getTextHeight(pitchText.getChars(), 0, pitchText.length() - 1);
+        for(int i = 0; i < 2; i++)
+        {
+            r.drawText(pitchText.getChars(), 0, pitchText.length(), projection.getDigitTextX(i), projection.getDigitTextY(i) + textHeight / 2);
+        }
+    }
+
+    private void emitCenterBox(HudRenderer r)
+    {
+        // 中央の赤い線
+        r.setColor(FRAME_ALPHA, 0xff, 0x60, 0x60);
+        r.setStrokeWidth(2);
+        r.setStyle(HudRenderer.STYLE_STROKE);
+        r.drawPath(PATH_CENTER_BOX);
+    }
+
+    private void emitFrame(HudRenderer r)
+    {
+        r.setColor(FRAME_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+
+        // 上下の線
+        r.setStrokeWidth(1);
+        r.setStyle(HudRenderer.STYLE_STROKE);
+        r.drawPath(PATH_FRAME_LINE);
+
+        // HUDマーク
+        r.setStyle(HudRenderer.STYLE_FILL);
+        r.drawPath(PATH_FRAME_SYMBOL);
+    }
+
+    private void emitRadar(HudRenderer r)
+    {
+        int range = getRadarRange();
+        float[] radarRect = mRadarRect;
+        float cx = centerX(radarRect);
+        float cy = centerY(radarRect);
+        float width = radarRect[2] - radarRect[0];
+
+        r.setColor(FRAME_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.setStrokeWidth(2);
+        r.setStyle(HudRenderer.STYLE_FILL);
+        r.drawPath(PATH_RADAR_FRAME + range);
+
+        r.setColor(FRAME_ALPHA, RADARBG_R, RADARBG_G, RADARBG_B);
+        r.drawOval(radarRect[0], radarRect[1], radarRect[2], radarRect[3]);
+
+        // ---
+        r.setStrokeWidth(2);
+        r.setStyle(HudRenderer.STYLE_STROKE);
+        r.setColor(DEFAULT_ALPHA, 0xff, 0xff, 0xff);
+
+        r.save();
+        r.clipPath(PATH_RADAR_CLIP);
+        r.beginPath();
+        r.moveTo(cx, cy);
+        TrailStore trail = mTrail;
+        // 描画中に測位が追加されても同じ点どうしを組み合わせるように，数は1度だけ読む
+        long count = trail.getCount();
+        if(count > 0)
+        {
+            // レンジに合った間隔に間引いた点を現在地からの相対位置で描く
+            int level = trail.getLevelFor(RADAR_RADIUS_METER[range] / RADAR_TRAIL_DIVISION);
+            long levelCount = trail.getLevelPointCount(level);
+            long oldest = trail.getOldestLevelSequence(levelCount);
+            long newest = count - 1;
+            double latitude0 = (mHasPosition ? mPositionLatitude : trail.getLatitude(newest));
+            double longitude0 = (mHasPosition ? mPositionLongitude : trail.getLongitude(newest));
+            double scale = width / RADAR_RADIUS_METER[range];
+            double northScale = TrailStore.METERS_PER_DEGREE * scale;
+            double eastScale = northScale * Math.cos(Math.toRadians(latitude0));
+            // 直近の進行方向を上に向ける
+            double baseBearing = Math.toRadians(trail.getStepBearing(newest));
+            double sin = Math.sin(baseBearing);
+            double cos = Math.cos(baseBearing);
+            for(long i = levelCount - 1; i >= oldest; i--)
+            {
+                double east = (trail.getLevelLongitude(level, i) - longitude0) * eastScale;
+                double north = (trail.getLevelLatitude(level, i) - latitude0) * northScale;
+                // スクリーン座標に合うようにy方向は負
+                float px = (float)(east * cos - north * sin);
+                float py = -(float)(east * sin + north * cos);
+                r.lineTo(cx + px, cy + py);
+            }
+        }
+        r.endPath(HudRenderer.FILL_WINDING);
+        r.restore();
+
+        // ---
+        float accuracy = mAccuracy / RADAR_RADIUS_METER[range];
+        if(accuracy > 1.0) { accuracy = 1.0f; }
+        float accuracyInset = (width - (width * accuracy)) / 2.0f;
+
+        r.setStrokeWidth(1);
+        r.setColor(FRAME_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.drawOval(radarRect[0] + accuracyInset, radarRect[1] + accuracyInset, radarRect[2] - accuracyInset, radarRect[3] - accuracyInset);
+
+        r.setStrokeWidth(2);
+        r.drawLines(mRadarLines, 0, mRadarLines.length);
+    }
+
+    private void emitTimer(HudRenderer r)
+    {
+        float width = 160;
+        float height = 40;
+        float margin = 4;
+
+        int x = -(int)(VIEW_BORDER_X - LAYOUT_MARGIN);
+        int y = (int)(VIEW_BORDER_Y - 50 - height - LAYOUT_MARGIN);
+
+        // HH:mm (分が変わったときだけ作り直す)
+        mClockText.update(mTimeMillis);
+
+        // 点滅部分
+        r.setColor(DEFAULT_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.setStrokeWidth(1);
+        r.setStyle(HudRenderer.STYLE_FILL);
+        r.drawPath(getTimerPhase() % 2 == 0 ? PATH_TIMER_BLINK : PATH_TIMER);
+
+        r.setTextAlign(HudRenderer.ALIGN_RIGHT);
+        r.setTextSize(height * 0.8f);
+        r.setTypeface(TYPEFACE_READING);
+        r.drawText(mClockText.getChars(), 0, mClockText.length(), x + width - margin * 2, y + height * 0.8f);
+    }
+
+    private void emitSpeedometer(HudRenderer r)
+    {
+        int x = -(int)(VIEW_BORDER_X - VIEW_WIDTH * 0.03);
+        int y = (int)(VIEW_HEIGHT / 24);
+
+        float width = 180;
+        float diameter = 55;
+        float margin = 4;
+
+        r.setColor(DEFAULT_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.setStyle(HudRenderer.STYLE_FILL);
+
+        // mSpeed and acceleration
+        float[] outer = mRotorOuterRect;
+        float[] inner = mRotorInnerRect;
+        r.beginPath();
+        r.arcTo(outer[0], outer[1], outer[2], outer[3], mSpeedGauge, 60);
+        r.arcTo(inner[0], inner[1], inner[2], inner[3], mSpeedGauge + 60, 120);
+        r.arcTo(outer[0], outer[1], outer[2], outer[3], mSpeedGauge + 180, 60);
+        r.arcTo(inner[0], inner[1], inner[2], inner[3], mSpeedGauge + 240, 120);
+        r.closePath();
+        r.endPath(HudRenderer.FILL_EVEN_ODD);
+
+        r.drawPath(PATH_SPEED);
+
+        r.setTextAlign(HudRenderer.ALIGN_RIGHT);
+        r.setTextSize(diameter * 0.6f);
+        r.setTypeface(TYPEFACE_READING);
+        ReadingText speedText = mReadingText.clear().appendInt(mSpeed);
+        r.drawText(speedText.getChars(), 0, speedText.length(), x + width - margin * 2, y + diameter * 0.8f);
+
+        r.setStrokeWidth(1);
+        r.drawLine(-VIEW_WIDTH, 0, -VIEW_WIDTH * 0.3f, 0);
+    }
+
+    private void emitAltimeter(HudRenderer r)
+    {
+        float readingWidth = 150;
+        float readingHeight = 40;
+        float scaleWidth = 50;
+        float margin = 4;
+        float margin2 = 6;
+
+        int x = (int)(VIEW_BORDER_X - readingWidth - scaleWidth - LAYOUT_MARGIN);
+        int y = -(int)(readingHeight + VIEW_HEIGHT / 24);
+
+        r.setColor(DEFAULT_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.setStyle(HudRenderer.STYLE_FILL);
+        r.drawPath(PATH_ALTIMETER);
+
+        r.setTextAlign(HudRenderer.ALIGN_RIGHT);
+        r.setTextSize(readingHeight * 0.8f);
+        r.setTypeface(TYPEFACE_READING);
+        ReadingText altitudeText = mReadingText.clear().appendInt(mAltitude);
+        r.drawText(altitudeText.getChars(), 0, altitudeText.length(), x + readingWidth - margin * 2, y + readingHeight * 0.8f);
+
+        // ---
+        r.save();
+        r.clipPath(PATH_ALTIMETER_CLIP);
+
+        r.setStrokeWidth(3);
+
+        int base = (int)(mAltitudeGauge % 5);
+        int largeScaleCount = (int)(mAltitudeGauge / 5) % 5;
+        for(int i = 0; i < 20; i++)
+        {
+            int lx1 = x + (int)(readingWidth + scaleWidth / 2);
+            int lx2 = x + (int)(readingWidth + scaleWidth - margin2);
+            int ly = y + (int)(margin2) + 2 + base + i * 5;
+            if(i % 5 == largeScaleCount)
+            {
+                lx1 = lx1 - (int)(scaleWidth / 8);
+            }
+            r.drawLine(lx1, ly, lx2, ly);
+        }
+        r.restore();
+
+        // ---
+        r.setStrokeWidth(1);
+        r.drawLine(VIEW_WIDTH * 0.3f, 0, x + readingWidth - margin, 0);
+        r.drawLine(x + readingWidth + scaleWidth + margin, 0, VIEW_WIDTH, 0);
+    }
+
+    private void emitDamage(HudRenderer r)
+    {
+        float readingHeight = 40;
+        float legendWidth = 25;
+        float legendHeight = 15;
+        float margin = 4;
+        float gaugeThickness = 25;
+
+        float gaugeRoundSize = 50;
+        float gaugeStraightSize = 55;
+
+        float gaugeValue = mBattery / 100f;
+
+        float gaugeBaseX = -(gaugeThickness + gaugeRoundSize + gaugeStraightSize);
+        float gaugeBaseY = gaugeStraightSize + gaugeRoundSize + gaugeThickness;
+
+        int x = (int)(VIEW_BORDER_X - LAYOUT_MARGIN);
+        int y = (int)(VIEW_BORDER_Y - 220 + LAYOUT_MARGIN + 10);
+
+        float[] round = mDamageGaugeRoundRect;
+        float left = round[0];
+        float top = round[1];
+        float right = round[2];
+        float bottom = round[3];
+
+        r.setColor(DEFAULT_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.setStyle(HudRenderer.STYLE_FILL);
+
+        // 0側(数値表示側)から
+        r.beginPath();
+        penMoveTo(r, x - (gaugeThickness + gaugeRoundSize + gaugeStraightSize), y + gaugeStraightSize + gaugeRoundSize);
+        if(gaugeValue < 0.25)
+        {
+            penLineBy(r, gaugeStraightSize * (gaugeValue / 0.25f), 0);
+            penLineBy(r, 0, gaugeThickness);
+            penLineBy(r, -gaugeStraightSize * (gaugeValue / 0.25f), 0);
+        }
+        else
+        {
+            penLineBy(r, gaugeStraightSize, 0);
+            if(gaugeValue < 0.75)
+            {
+                int deg = (int)(90 * (gaugeValue - 0.25) / 0.5);
+                penArcTo(r, left, top, right, bottom, 90, -deg);
+                penArcTo(r, left - gaugeThickness, top - gaugeThickness, right + gaugeThickness, bottom + gaugeThickness, (90 - deg), deg);
+            }
+            else
+            {
+                penArcTo(r, left, top, right, bottom, 90, -90);
+                penLineBy(r, 0, -gaugeStraightSize * ((gaugeValue - 0.75f) / 0.25f));
+                penLineBy(r, gaugeThickness, 0);
+                // 折り返し
+                penLineBy(r, 0, gaugeStraightSize * ((gaugeValue - 0.75f) / 0.25f));
+                penArcTo(r, left - gaugeThickness, top - gaugeThickness, right + gaugeThickness, bottom + gaugeThickness, 0, 90);
+            }
+            penLineBy(r, -gaugeStraightSize, 0);
+        }
+        penLineBy(r, 0, -gaugeThickness);
+        r.endPath(HudRenderer.FILL_EVEN_ODD);
+
+        // ----
+        r.drawPath(PATH_DAMAGE_READING);
+
+        r.setTextAlign(HudRenderer.ALIGN_RIGHT);
+        r.setTextSize(readingHeight * 0.8f);
+        r.setTypeface(TYPEFACE_READING);
+        ReadingText text = mReadingText.clear().appendInt(mBattery);
+        r.drawText(text.getChars(), 0, text.length(), x + gaugeBaseX - legendWidth - margin * 2, y + gaugeBaseY - margin * 2);
+        text = mReadingText.clear().appendInt((int)Math.ceil(mAccuracy));
+        r.drawText(text.getChars(), 0, text.length(), x + gaugeBaseX - legendWidth - margin * 2, y + gaugeBaseY - readingHeight - legendHeight - margin - margin * 2);
+
+        // ----
+        r.setColor(FRAME_ALPHA, DEFAULT_R, DEFAULT_G, DEFAULT_B);
+        r.setTypeface(TYPEFACE_SMALL_READING);
+        r.setTextSize(17.0f);
+        // "GPS %2d/%2d"
+        text = mReadingText.clear().append("GPS ").appendInt(mSatellitesUsedInFixCount, 2, ' ').append('/').appendInt(mSatellitesCount, 2, ' ');
+        r.drawText(text.getChars(), 0, text.length(), x + gaugeBaseX - legendWidth, y + gaugeBaseY - readingHeight * 2 - legendHeight * 2 - margin * 2);
+    }
+
+    // rLineToなどの相対移動を絶対座標にするため，現在位置を追いかける
+    private void penMoveTo(HudRenderer r, float x, float y)
+    {
+        r.moveTo(x, y);
+        mPenX = x;
+        mPenY = y;
+    }
+
+    private void penLineBy(HudRenderer r, float dx, float dy)
+    {
+        mPenX += dx;
+        mPenY += dy;
+        r.lineTo(mPenX, mPenY);
+    }
+
+    private void penArcTo(HudRenderer r, float left, float top, float right, float bottom, float startAngle, float sweepAngle)
+    {
+        r.arcTo(left, top, right, bottom, startAngle, sweepAngle);
+        double end = Math.toRadians(startAngle + sweepAngle);
+        mPenX = (left + right) / 2 + (right - left) / 2 * (float)Math.cos(end);
+        mPenY = (top + bottom) / 2 + (bottom - top) / 2 * (float)Math.sin(end);
+    }
+
+    private static void setRect(float[] rect, float left, float top, float right, float bottom)
+    {
+        rect[0] = left;
+        rect[1] = top;
+        rect[2] = right;
+        rect[3] = bottom;
+    }
+
+    private static float centerX(float[] rect)
+    {
+        return (rect[0] + rect[2]) * 0.5f;
+    }
+
+    private static float centerY(float[] rect)
+    {
+        return (rect[1] + rect[3]) * 0.5f;
+    }
+}
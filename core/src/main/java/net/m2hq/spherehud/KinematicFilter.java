@@ -0,0 +1,201 @@
+package net.m2hq.spherehud;
+
+/**
+ * Kalman filter over a value and its time derivatives (state x, x', x''... up to
+ * {@code order} terms), driven by white noise on the highest derivative. Order 2 is a
+ * constant-velocity model, order 3 constant acceleration.
+ *
+ * Each measurement observes one of the state terms directly, so the update is scalar and
+ * needs no matrix inversion. All arrays are allocated in the constructor.
+ */
+public class KinematicFilter
+{
+    private static final double INITIAL_VARIANCE = 1e6;
+    // 間が空きすぎたら予測せずに初期化し直す
+    private static final long MAX_GAP_NANOS = 10000000000L;
+
+    private final int mOrder;
+    private final double mNoiseDensity;
+
+    private final double[] mState;
+    private final double[][] mCovariance;
+    private final double[][] mTransition;
+    private final double[][] mTemp;
+    private final double[] mGain;
+
+    private long mTimestamp;
+    private boolean mIsInitialized = false;
+
+    /**
+     * @param order number of state terms (2 or more)
+     * @param noiseDensity spectral density of the white noise driving the highest derivative
+     */
+    public KinematicFilter(int order, double noiseDensity)
+    {
+        mOrder = order;
+        mNoiseDensity = noiseDensity;
+        mState = new double[order];
+        mCovariance = new double[order][order];
+        mTransition = new double[order][order];
+        mTemp = new double[order][order];
+        mGain = new double[order];
+        reset();
+    }
+
+    public void reset()
+    {
+        for(int i = 0; i < mOrder; i++)
+        {
+            mState[i] = 0;
+            for(int j = 0; j < mOrder; j++)
+            {
+                mCovariance[i][j] = (i == j ? INITIAL_VARIANCE : 0);
+            }
+        }
+        mIsInitialized = false;
+    }
+
+    public boolean isInitialized()
+    {
+        return mIsInitialized;
+    }
+
+    /**
+     * Incorporates a measurement of state term {@code derivative} (0 = the value itself).
+     *
+     * @param variance measurement variance
+     */
+    public void update(int derivative, double measurement, double variance, long timestampNanos)
+    {
+        if(mIsInitialized)
+        {
+            long dt = timestampNanos - mTimestamp;
+            if(dt > MAX_GAP_NANOS)
+            {
+                reset();
+            }
+            else if(dt > 0)
+            {
+                predict(dt * 1e-9);
+            }
+        }
+        if(!mIsInitialized)
+        {
+            mTimestamp = timestampNanos;
+        }
+        else if(timestampNanos > mTimestamp)
+        {
+            mTimestamp = timestampNanos;
+        }
+
+        // H = e(derivative) なので S = P[d][d] + R, K = P[:, d] / S
+        double s = mCovariance[derivative][derivative] + variance;
+        double innovation = measurement - mState[derivative];
+        for(int i = 0; i < mOrder; i++)
+        {
+            mGain[i] = mCovariance[i][derivative] / s;
+        }
+        for(int i = 0; i < mOrder; i++)
+        {
+            mState[i] += mGain[i] * innovation;
+        }
+        // P = P - K * P[d, :]
+        for(int i = 0; i < mOrder; i++)
+        {
+            for(int j = 0; j < mOrder; j++)
+            {
+                mTemp[i][j] = mCovariance[i][j] - mGain[i] * mCovariance[derivative][j];
+            }
+        }
+        for(int i = 0; i < mOrder; i++)
+        {
+            for(int j = 0; j < mOrder; j++)
+            {
+                // 対称性を保つ
+                mCovariance[i][j] = (mTemp[i][j] + mTemp[j][i]) * 0.5;
+            }
+        }
+        mIsInitialized = true;
+    }
+
+    private void predict(double dt)
+    {
+        // F[i][j] = dt^(j-i) / (j-i)!
+        for(int i = 0; i < mOrder; i++)
+        {
+            for(int j = 0; j < mOrder; j++)
+            {
+                mTransition[i][j] = (j < i ? 0 : Math.pow(dt, j - i) / factorial(j - i));
+            }
+        }
+
+        for(int i = 0; i < mOrder; i++)
+        {
+            double x = 0;
+            for(int j = i; j < mOrder; j++)
+            {
+                x += mTransition[i][j] * mState[j];
+            }
+            mGain[i] = x;
+        }
+        System.arraycopy(mGain, 0, mState, 0, mOrder);
+
+        // P = F P F^T + Q
+        for(int i = 0; i < mOrder; i++)
+        {
+            for(int j = 0; j < mOrder; j++)
+            {
+                double p = 0;
+                for(int k = i; k < mOrder; k++)
+                {
+                    p += mTransition[i][k] * mCovariance[k][j];
+                }
+                mTemp[i][j] = p;
+            }
+        }
+        int n = mOrder - 1;
+        for(int i = 0; i < mOrder; i++)
+        {
+            for(int j = 0; j < mOrder; j++)
+            {
+                double p = 0;
+                for(int k = j; k < mOrder; k++)
+                {
+                    p += mTemp[i][k] * mTransition[j][k];
+                }
+                // 最高次の項に白色雑音が入ったときの離散化
+                int e = 2 * n + 1 - i - j;
+                p += mNoiseDensity * Math.pow(dt, e) / (factorial(n - i) * factorial(n - j) * e);
+                mCovariance[i][j] = p;
+            }
+        }
+    }
+
+    private static double factorial(int n)
+    {
+        double f = 1;
+        for(int i = 2; i <= n; i++)
+        {
+            f *= i;
+        }
+        return f;
+    }
+
+    /**
+     * @return estimate of state term {@code derivative} at the last update
+     */
+    public double get(int derivative)
+    {
+        return mState[derivative];
+    }
+
+    public double getVariance(int derivative)
+    {
+        return mCovariance[derivative][derivative];
+    }
+
+    public long getTimestamp()
+    {
+        return mTimestamp;
+    }
+}
@@ -0,0 +1,115 @@
+package net.m2hq.spherehud;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ *
+ * Buckets are log-linear: every power of two is split into {@link #SUB_BUCKETS} equal
+ * parts, so percentiles are within about 6% at any scale. Recording is one atomic
+ * increment (plus a compare-and-set while the maximum grows) and never allocates, so
+ * any thread can record while another one reads.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long nanos)
+    {
+        mCounts.incrementAndGet(getBucket(nanos));
+        long max = mMax.get();
+        while(nanos > max && !mMax.compareAndSet(max, nanos))
+        {
+            max = mMax.get();
+        }
+    }
+
+    static int getBucket(long nanos)
+    {
+        if(nanos < SUB_BUCKETS)
+        {
+            return (int)Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        // 最上位ビットの下のSUB_BUCKET_BITSビットで分ける
+        int sub = (int)(nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return smallest value that falls into {@code bucket}
+     */
+    static long getBucketLowerBound(int bucket)
+    {
+        if(bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    private static long getBucketUpperBound(int bucket)
+    {
+        return (bucket + 1 < BUCKET_COUNT ? getBucketLowerBound(bucket + 1) - 1 : Long.MAX_VALUE);
+    }
+
+    public long getCount()
+    {
+        long count = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    public long getCount(int bucket)
+    {
+        return mCounts.get(bucket);
+    }
+
+    public long getMax()
+    {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return upper bound [ns] of the bucket holding the percentile (never above the maximum), 0 if empty
+     */
+    public long getPercentile(double percentile)
+    {
+        long count = getCount();
+        if(0 == count)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += mCounts.get(i);
+            if(seen >= rank)
+            {
+                return Math.min(getBucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset()
+    {
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            mCounts.set(i, 0);
+        }
+        mMax.set(0);
+    }
+}
@@ -0,0 +1,179 @@
+package net.m2hq.spherehud;
+
+/**
+ * Smoothed speed, acceleration, altitude and climb rate from GPS fixes.
+ *
+ * Speed runs through a constant-acceleration model (speed, acceleration) and altitude
+ * through a constant-climb-rate model (altitude, climb rate); GPS altitude is too noisy
+ * to resolve a climb acceleration at 2 Hz. Both are fed with full-precision values
+ * stamped with the fix time (elapsedRealtimeNanos), so the rates do not depend on when
+ * the callback ran.
+ * A longitudinal acceleration, when one is available, can be fed to the speed model as
+ * a direct measurement of its second term.
+ *
+ * On devices with a barometer, pressure altitude is fed at sensor rate into a second
+ * altitude model. Its offset from GPS altitude (weather, sea level pressure) is tracked
+ * slowly at every fix, so the output follows the barometer in the short term and GPS in
+ * the long term. The GPS-only model keeps running, and is used again when no pressure
+ * sample has arrived for {@link #BAROMETER_TIMEOUT_NANOS}.
+ */
+public class MotionEstimator
+{
+    // 加加速度[m/s^3]の強さ
+    private static final double SPEED_NOISE_DENSITY = 1.0;
+    // 昇降率の変化の強さ
+    private static final double ALTITUDE_NOISE_DENSITY = 0.05;
+    private static final double SPEED_VARIANCE = 0.5 * 0.5;
+    // 高度の誤差は水平方向の1.5倍程度
+    private static final double VERTICAL_ACCURACY_FACTOR = 1.5;
+    private static final double MIN_ALTITUDE_VARIANCE = 1.0;
+
+    // 気圧高度は短時間なら数十cmの精度で追える
+    private static final double BAROMETER_NOISE_DENSITY = 0.5;
+    private static final double BAROMETER_VARIANCE = 0.3 * 0.3;
+    // 気圧高度とGPS高度のずれを追う時定数
+    private static final double BAROMETER_BIAS_TIME_CONSTANT = 60.0;
+    static final long BAROMETER_TIMEOUT_NANOS = 2000000000L;
+    private static final double STANDARD_PRESSURE = 1013.25;
+
+    private final KinematicFilter mSpeedFilter = new KinematicFilter(2, SPEED_NOISE_DENSITY);
+    private final KinematicFilter mAltitudeFilter = new KinematicFilter(2, ALTITUDE_NOISE_DENSITY);
+    private final KinematicFilter mBarometerFilter = new KinematicFilter(2, BAROMETER_NOISE_DENSITY);
+
+    private long mLastTimestamp;
+    private long mLastPressureTimestamp;
+    private boolean mHasPressure = false;
+    private double mPressureAltitude;
+    // 気圧高度 - GPS高度
+    private double mBarometerBias;
+    private boolean mHasBarometerBias = false;
+    private long mLastBiasTimestamp;
+
+    /**
+     * @param speed m/s, negative if the fix has no speed
+     * @param altitude meters, NaN if the fix has no altitude
+     * @param accuracy horizontal accuracy in meters
+     */
+    public void onLocation(long timestampNanos, float speed, double altitude, float accuracy)
+    {
+        mLastTimestamp = Math.max(mLastTimestamp, timestampNanos);
+        if(speed >= 0)
+        {
+            mSpeedFilter.update(0, speed, SPEED_VARIANCE, timestampNanos);
+        }
+        if(!Double.isNaN(altitude))
+        {
+            double sigma = accuracy * VERTICAL_ACCURACY_FACTOR;
+            mAltitudeFilter.update(0, altitude, Math.max(sigma * sigma, MIN_ALTITUDE_VARIANCE), timestampNanos);
+            if(isBarometerActive())
+            {
+                updateBarometerBias(timestampNanos, altitude);
+            }
+        }
+    }
+
+    private void updateBarometerBias(long timestampNanos, double altitude)
+    {
+        double bias = mPressureAltitude - altitude;
+        if(!mHasBarometerBias)
+        {
+            mBarometerBias = bias;
+            mHasBarometerBias = true;
+            mBarometerFilter.reset();
+        }
+        else
+        {
+            double dt = (timestampNanos - mLastBiasTimestamp) * 1e-9;
+            double alpha = Math.min(1.0, Math.max(0, dt) / BAROMETER_BIAS_TIME_CONSTANT);
+            mBarometerBias += alpha * (bias - mBarometerBias);
+        }
+        mLastBiasTimestamp = timestampNanos;
+    }
+
+    /**
+     * @param pressure hPa (SensorEvent.values[0] of TYPE_PRESSURE)
+     */
+    public void onPressure(long timestampNanos, float pressure)
+    {
+        mLastTimestamp = Math.max(mLastTimestamp, timestampNanos);
+        mPressureAltitude = pressureAltitude(pressure);
+        mLastPressureTimestamp = timestampNanos;
+        mHasPressure = true;
+        if(mHasBarometerBias)
+        {
+            mBarometerFilter.update(0, mPressureAltitude - mBarometerBias, BAROMETER_VARIANCE, timestampNanos);
+        }
+    }
+
+    /**
+     * Altitude in the standard atmosphere (same formula as SensorManager.getAltitude).
+     */
+    public static double pressureAltitude(float pressure)
+    {
+        return 44330.0 * (1.0 - Math.pow(pressure / STANDARD_PRESSURE, 1.0 / 5.255));
+    }
+
+    /**
+     * @return true while altitude and climb rate come from the barometer
+     */
+    public boolean isBarometerActive()
+    {
+        return mHasPressure && mLastTimestamp - mLastPressureTimestamp < BAROMETER_TIMEOUT_NANOS;
+    }
+
+    private boolean isBarometerUsed()
+    {
+        return isBarometerActive() && mHasBarometerBias && mBarometerFilter.isInitialized();
+    }
+
+    /**
+     * @param acceleration acceleration along the direction of travel [m/s^2]
+     * @param variance its variance
+     */
+    public void onLongitudinalAcceleration(long timestampNanos, float acceleration, double variance)
+    {
+        if(mSpeedFilter.isInitialized())
+        {
+            mSpeedFilter.update(1, acceleration, variance, timestampNanos);
+        }
+    }
+
+    public boolean hasSpeed()
+    {
+        return mSpeedFilter.isInitialized();
+    }
+
+    public boolean hasAltitude()
+    {
+        return mAltitudeFilter.isInitialized();
+    }
+
+    /**
+     * @return m/s, never negative
+     */
+    public float getSpeed()
+    {
+        return (float)Math.max(0, mSpeedFilter.get(0));
+    }
+
+    /**
+     * @return m/s^2
+     */
+    public float getAcceleration()
+    {
+        return (float)mSpeedFilter.get(1);
+    }
+
+    public double getAltitude()
+    {
+        return (isBarometerUsed() ? mBarometerFilter.get(0) : mAltitudeFilter.get(0));
+    }
+
+    /**
+     * @return m/s, positive when climbing
+     */
+    public double getClimbRate()
+    {
+        return (isBarometerUsed() ? mBarometerFilter.get(1) : mAltitudeFilter.get(1));
+    }
+}
@@ -0,0 +1,328 @@
+package net.m2hq.spherehud;
+
+/**
+ * Accelerometer/magnetometer orientation pipeline of ListenerService without Android dependencies.
+ *
+ * Rotation matrix, axis remap for the display rotation, ±180° unwinding, declination
+ * and low-pass filtering all work on buffers allocated once, so {@link #update()}
+ * does not allocate.
+ */
+public class OrientationFusion
+{
+    // android.view.Surface.ROTATION_*
+    public static final int ROTATION_0 = 0;
+    public static final int ROTATION_90 = 1;
+    public static final int ROTATION_180 = 2;
+    public static final int ROTATION_270 = 3;
+
+    // android.hardware.SensorManager.AXIS_*
+    public static final int AXIS_X = 1;
+    public static final int AXIS_Y = 2;
+    public static final int AXIS_Z = 3;
+    public static final int AXIS_MINUS_X = AXIS_X | 0x80;
+    public static final int AXIS_MINUS_Y = AXIS_Y | 0x80;
+    public static final int AXIS_MINUS_Z = AXIS_Z | 0x80;
+
+    private static final float STANDARD_GRAVITY = 9.80665f;
+
+    private static final double ALPHA = 0.90;
+    private static final double ALPHA_YAW = 0.93;
+
+    /** How many updates the low-pass filtered roll and pitch lag behind a steady turn. */
+    public static final double LAG_UPDATES = ALPHA / (1 - ALPHA);
+
+    private final float[] mAccelerometerValues = new float[3];
+    private final float[] mMagneticFieldValues = new float[3];
+    private boolean mHasAccelerometer = false;
+    private boolean mHasMagneticField = false;
+
+    private final float[] mInR = new float[9];
+    private final float[] mOutR = new float[9];
+    private final float[] mOrientationValues = new float[3];
+
+    private int mDisplayRotation = ROTATION_0;
+
+    private float mYawDeclination;
+
+    private double mPrevRawRoll;
+    private double mPrevRawPitch;
+    private double mPrevRawYaw;
+
+    private int mYawRotate;
+    private int mPitchRotate;
+    private int mRollRotate;
+
+    private double mYaw;
+    private double mPitch;
+    private double mRoll;
+
+    public void setDisplayRotation(int rotation)
+    {
+        mDisplayRotation = rotation;
+    }
+
+    public int getDisplayRotation()
+    {
+        return mDisplayRotation;
+    }
+
+    public void setDeclination(float declination)
+    {
+        mYawDeclination = declination;
+    }
+
+    public void setAccelerometer(float[] values)
+    {
+        setAccelerometer(values[0], values[1], values[2]);
+    }
+
+    public void setAccelerometer(float x, float y, float z)
+    {
+        mAccelerometerValues[0] = x;
+        mAccelerometerValues[1] = y;
+        mAccelerometerValues[2] = z;
+        mHasAccelerometer = true;
+    }
+
+    public void setMagneticField(float[] values)
+    {
+        setMagneticField(values[0], values[1], values[2]);
+    }
+
+    public void setMagneticField(float x, float y, float z)
+    {
+        mMagneticFieldValues[0] = x;
+        mMagneticFieldValues[1] = y;
+        mMagneticFieldValues[2] = z;
+        mHasMagneticField = true;
+    }
+
+    /**
+     * Recomputes roll/pitch/yaw from the latest accelerometer and magnetic field values.
+     *
+     * @return false if no valid rotation matrix could be computed (missing sensor, free fall, ...)
+     */
+    public boolean update()
+    {
+        if(!mHasAccelerometer || !mHasMagneticField)
+        {
+            return false;
+        }
+        if(!getRotationMatrix(mInR, mAccelerometerValues, mMagneticFieldValues))
+        {
+            return false;
+        }
+        remapForDisplayRotation(mInR, mDisplayRotation, mOutR);
+        getOrientation(mOutR, mOrientationValues);
+
+        // [0]: Azimuth -π to π
+        // [1]: Pitch   -π to π
+        // [2]: Roll    -π/2 to π/2
+        double rawYaw = Math.toDegrees(mOrientationValues[0]);
+        double rawPitch = Math.toDegrees(mOrientationValues[1]);
+        double rawRoll = Math.toDegrees(mOrientationValues[2]);
+
+        // 磁気偏角を加算
+        rawYaw += mYawDeclination;
+
+        // -180と180の境界を跨いだ場合の補正(ローパスフィルタで平滑化されないように)
+        // 前回値90を超えていて今回値-90未満(またはその逆)なら一回転したとみなす
+        if((rawYaw > 90 && mPrevRawYaw < -90) || (rawYaw < -90 && mPrevRawYaw > 90))
+        {
+            // (rawYaw - mPrevRawYaw)が正なら，-から+に変化したので360引く
+            mYawRotate -= (int)Math.signum(rawYaw - mPrevRawYaw);
+        }
+        if((rawPitch > 90 && mPrevRawPitch < -90) || (rawPitch < -90 && mPrevRawPitch > 90))
+        {
+            mPitchRotate -= (int)Math.signum(rawPitch - mPrevRawPitch);
+        }
+        if((rawRoll > 90 && mPrevRawRoll < -90) || (rawRoll < -90 && mPrevRawRoll > 90))
+        {
+            mRollRotate -= (int)Math.signum(rawRoll - mPrevRawRoll);
+        }
+
+        mPrevRawYaw = rawYaw;
+        mPrevRawPitch = rawPitch;
+        mPrevRawRoll = rawRoll;
+
+        double yaw = rawYaw + mYawRotate * 360.0;
+        double pitch = rawPitch + mPitchRotate * 360.0;
+        double roll = rawRoll + mRollRotate * 360.0;
+
+        // ローパスフィルタ
+        mRoll = mRoll * ALPHA + roll * (1 - ALPHA);
+        mPitch = mPitch * ALPHA + pitch * (1 - ALPHA);
+        mYaw = mYaw * ALPHA_YAW + yaw * (1 - ALPHA_YAW);
+
+        return true;
+    }
+
+    public double getRoll()
+    {
+        return mRoll;
+    }
+
+    public double getPitch()
+    {
+        return mPitch;
+    }
+
+    public double getYaw()
+    {
+        return mYaw;
+    }
+
+    /**
+     * Remaps a device rotation matrix so that the screen (held upright in the given
+     * display rotation) looks along the world horizon.
+     */
+    public static void remapForDisplayRotation(float[] inR, int rotation, float[] outR)
+    {
+        switch(rotation)
+        {
+            case ROTATION_90:
+                // 反時計回りに90°
+                //   x
+                //   |
+                // y-+
+                remapCoordinateSystem(inR, AXIS_Z, AXIS_MINUS_X, outR);
+                break;
+            case ROTATION_180:
+                // 反時計回りに180°
+                // x-+
+                //   |
+                //   y
+                remapCoordinateSystem(inR, AXIS_MINUS_X, AXIS_MINUS_Z, outR);
+                break;
+            case ROTATION_270:
+                // 反時計回りに270°
+                // +-y
+                // |
+                // x
+                remapCoordinateSystem(inR, AXIS_MINUS_Z, AXIS_X, outR);
+                break;
+            default:
+                // y
+                // |
+                // +-x
+                remapCoordinateSystem(inR, AXIS_X, AXIS_Z, outR);
+                break;
+        }
+    }
+
+    /**
+     * Same as SensorManager.getRotationMatrix for a 3x3 R without the inclination matrix.
+     */
+    public static boolean getRotationMatrix(float[] R, float[] gravity, float[] geomagnetic)
+    {
+        float ax = gravity[0];
+        float ay = gravity[1];
+        float az = gravity[2];
+
+        float normsqA = (ax * ax + ay * ay + az * az);
+        float freeFallGravitySquared = 0.01f * STANDARD_GRAVITY * STANDARD_GRAVITY;
+        if(normsqA < freeFallGravitySquared)
+        {
+            // 自由落下中
+            return false;
+        }
+
+        float ex = geomagnetic[0];
+        float ey = geomagnetic[1];
+        float ez = geomagnetic[2];
+
+        // H = E x A (東向き)
+        float hx = ey * az - ez * ay;
+        float hy = ez * ax - ex * az;
+        float hz = ex * ay - ey * ax;
+        float normH = (float)Math.sqrt(hx * hx + hy * hy + hz * hz);
+        if(normH < 0.1f)
+        {
+            // 自由落下中か磁北極付近
+            return false;
+        }
+
+        float invH = 1.0f / normH;
+        hx *= invH;
+        hy *= invH;
+        hz *= invH;
+
+        float invA = 1.0f / (float)Math.sqrt(normsqA);
+        ax *= invA;
+        ay *= invA;
+        az *= invA;
+
+        // M = A x H (北向き)
+        float mx = ay * hz - az * hy;
+        float my = az * hx - ax * hz;
+        float mz = ax * hy - ay * hx;
+
+        R[0] = hx; R[1] = hy; R[2] = hz;
+        R[3] = mx; R[4] = my; R[5] = mz;
+        R[6] = ax; R[7] = ay; R[8] = az;
+
+        return true;
+    }
+
+    /**
+     * Same as SensorManager.remapCoordinateSystem for 3x3 matrices. inR and outR must differ.
+     */
+    public static boolean remapCoordinateSystem(float[] inR, int X, int Y, float[] outR)
+    {
+        if((X & 0x7C) != 0 || (Y & 0x7C) != 0)
+        {
+            return false;
+        }
+        if((X & 0x3) == 0 || (Y & 0x3) == 0)
+        {
+            return false;
+        }
+        if((X & 0x3) == (Y & 0x3))
+        {
+            return false;
+        }
+
+        // Z軸はX x Y
+        int Z = X ^ Y;
+
+        int x = (X & 0x3) - 1;
+        int y = (Y & 0x3) - 1;
+        int z = (Z & 0x3) - 1;
+
+        // 右手系になるようにZの向きを決める
+        int axisY = (z + 1) % 3;
+        int axisZ = (z + 2) % 3;
+        if(((x ^ axisY) | (y ^ axisZ)) != 0)
+        {
+            Z ^= 0x80;
+        }
+
+        boolean sx = (X >= 0x80);
+        boolean sy = (Y >= 0x80);
+        boolean sz = (Z >= 0x80);
+
+        for(int j = 0; j < 3; j++)
+        {
+            int offset = j * 3;
+            for(int i = 0; i < 3; i++)
+            {
+                if(x == i) { outR[offset + i] = sx ? -inR[offset] : inR[offset]; }
+                if(y == i) { outR[offset + i] = sy ? -inR[offset + 1] : inR[offset + 1]; }
+                if(z == i) { outR[offset + i] = sz ? -inR[offset + 2] : inR[offset + 2]; }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Same as SensorManager.getOrientation for a 3x3 R.
+     */
+    public static float[] getOrientation(float[] R, float[] values)
+    {
+        values[0] = (float)Math.atan2(R[1], R[4]);
+        values[1] = (float)Math.asin(-R[7]);
+        values[2] = (float)Math.atan2(-R[6], R[8]);
+        return values;
+    }
+}
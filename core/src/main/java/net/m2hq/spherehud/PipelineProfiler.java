@@ -0,0 +1,137 @@
+package net.m2hq.spherehud;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Per-stage latency histograms of the sensor-to-screen pipeline, shared by everything
+ * in the process.
+ *
+ * Call sites check {@link #isEnabled} once and only then read the clock, so a disabled
+ * profiler costs one branch per stage. Stages can be recorded from any thread.
+ */
+public class PipelineProfiler
+{
+    // センサのタイムスタンプからonSensorChangedまで
+    public static final int SENSOR_DELIVERY = 0;
+    public static final int SENSOR_CALLBACK = 1;
+    public static final int MESSENGER_ROUND_TRIP = 2;
+    public static final int FRAME_CALLBACK = 3;
+    public static final int DRAW = 4;
+    public static final int COMPASS = 5;
+    public static final int PITCH_LINE = 6;
+    public static final int RADAR = 7;
+    public static final int SPEEDOMETER = 8;
+    public static final int ALTIMETER = 9;
+    public static final int TIMER = 10;
+    public static final int DAMAGE = 11;
+    // 姿勢のタイムスタンプから描画の終わりまで
+    public static final int SENSOR_TO_DRAW = 12;
+    public static final int STAGE_COUNT = 13;
+
+    private static final String[] STAGE_NAMES = {
+            "sensor delivery", "sensor callback", "messenger", "frame callback", "draw",
+            "compass", "pitch line", "radar", "speedometer", "altimeter", "timer", "damage",
+            "sensor to draw",
+    };
+
+    private static final PipelineProfiler mInstance = new PipelineProfiler();
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_COUNT];
+    private volatile boolean mIsEnabled = false;
+
+    public PipelineProfiler()
+    {
+        for(int i = 0; i < STAGE_COUNT; i++)
+        {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static PipelineProfiler getInstance()
+    {
+        return mInstance;
+    }
+
+    public boolean isEnabled()
+    {
+        return mIsEnabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        mIsEnabled = enabled;
+    }
+
+    public void record(int stage, long nanos)
+    {
+        mHistograms[stage].record(nanos);
+    }
+
+    /**
+     * Records the time since {@code startNanos} (System.nanoTime()) and returns now,
+     * which can be passed on as the start of the next stage.
+     */
+    public long lap(int stage, long startNanos)
+    {
+        long now = System.nanoTime();
+        mHistograms[stage].record(now - startNanos);
+        return now;
+    }
+
+    public LatencyHistogram getHistogram(int stage)
+    {
+        return mHistograms[stage];
+    }
+
+    public static String getStageName(int stage)
+    {
+        return STAGE_NAMES[stage];
+    }
+
+    public void reset()
+    {
+        for(LatencyHistogram histogram : mHistograms)
+        {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * One line per stage with its sample count, p50, p99 and maximum [ms].
+     */
+    public String formatStage(int stage)
+    {
+        LatencyHistogram histogram = mHistograms[stage];
+        return String.format(Locale.ROOT, "%-15s %7d %8.3f %8.3f %8.3f", STAGE_NAMES[stage], histogram.getCount(),
+                histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6);
+    }
+
+    /**
+     * Writes the summary of every stage followed by the non-empty buckets
+     * (stage, lower bound [ns], count) for offline analysis.
+     */
+    public void write(Writer writer) throws IOException
+    {
+        writer.write(String.format(Locale.ROOT, "%-15s %7s %8s %8s %8s\n", "stage [ms]", "count", "p50", "p99", "max"));
+        for(int stage = 0; stage < STAGE_COUNT; stage++)
+        {
+            writer.write(formatStage(stage));
+            writer.write('\n');
+        }
+        writer.write('\n');
+        for(int stage = 0; stage < STAGE_COUNT; stage++)
+        {
+            LatencyHistogram histogram = mHistograms[stage];
+            for(int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++)
+            {
+                long count = histogram.getCount(bucket);
+                if(count > 0)
+                {
+                    writer.write(STAGE_NAMES[stage] + "," + LatencyHistogram.getBucketLowerBound(bucket) + "," + count + "\n");
+                }
+            }
+        }
+    }
+}
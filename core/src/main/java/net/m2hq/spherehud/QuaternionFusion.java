@@ -0,0 +1,273 @@
+package net.m2hq.spherehud;
+
+/**
+ * Gyroscope-driven orientation filter.
+ *
+ * Orientation is kept as a unit quaternion (device to world, world = east/north/up)
+ * and integrated from the gyroscope. Each gyroscope step it is pulled toward the
+ * accelerometer/magnetometer orientation with a complementary gain, which removes
+ * gyroscope drift without the lag of low-pass filtering the Euler angles.
+ * Euler angles are only derived for output, so there is nothing to unwind.
+ */
+public class QuaternionFusion
+{
+    private static final float STANDARD_GRAVITY = 9.80665f;
+
+    // 補正の時定数[s]．大きいほどジャイロを信用する
+    private static final double DEFAULT_TIME_CONSTANT = 1.0;
+    // 加減速中(重力以外の加速度が大きいとき)は補正しない[m/s^2]
+    private static final double ACCELERATION_TOLERANCE = 2.0;
+    // これ以上ジャイロが途切れたら加速度/地磁気から初期化し直す[s]
+    private static final double MAX_GYROSCOPE_INTERVAL = 0.5;
+
+    private double mTimeConstant = DEFAULT_TIME_CONSTANT;
+
+    private double mW = 1.0;
+    private double mX;
+    private double mY;
+    private double mZ;
+    private boolean mInitialized = false;
+    private long mLastGyroscopeTimestamp;
+
+    private final float[] mAccelerometerValues = new float[3];
+    private final float[] mMagneticFieldValues = new float[3];
+    private boolean mHasAccelerometer = false;
+    private boolean mHasMagneticField = false;
+
+    // 加速度/地磁気から求めた姿勢
+    private final float[] mMeasuredR = new float[9];
+    private double mMeasuredW;
+    private double mMeasuredX;
+    private double mMeasuredY;
+    private double mMeasuredZ;
+
+    private final float[] mR = new float[9];
+    private final float[] mOutR = new float[9];
+    private final float[] mOrientationValues = new float[3];
+
+    private int mDisplayRotation = OrientationFusion.ROTATION_0;
+    private float mYawDeclination;
+
+    private double mRoll;
+    private double mPitch;
+    private double mYaw;
+
+    public void setTimeConstant(double seconds)
+    {
+        mTimeConstant = seconds;
+    }
+
+    public void setDisplayRotation(int rotation)
+    {
+        mDisplayRotation = rotation;
+        if(mInitialized)
+        {
+            updateAngles();
+        }
+    }
+
+    public void setDeclination(float declination)
+    {
+        mYawDeclination = declination;
+    }
+
+    public void setAccelerometer(float[] values)
+    {
+        setAccelerometer(values[0], values[1], values[2]);
+    }
+
+    public void setAccelerometer(float x, float y, float z)
+    {
+        mAccelerometerValues[0] = x;
+        mAccelerometerValues[1] = y;
+        mAccelerometerValues[2] = z;
+        mHasAccelerometer = true;
+    }
+
+    public void setMagneticField(float[] values)
+    {
+        setMagneticField(values[0], values[1], values[2]);
+    }
+
+    public void setMagneticField(float x, float y, float z)
+    {
+        mMagneticFieldValues[0] = x;
+        mMagneticFieldValues[1] = y;
+        mMagneticFieldValues[2] = z;
+        mHasMagneticField = true;
+    }
+
+    public void onGyroscope(float[] values, long timestampNanos)
+    {
+        onGyroscope(values[0], values[1], values[2], timestampNanos);
+    }
+
+    /**
+     * Integrates one gyroscope sample (rad/s, device axes) and applies the correction.
+     */
+    public void onGyroscope(float wx, float wy, float wz, long timestampNanos)
+    {
+        double dt = (timestampNanos - mLastGyroscopeTimestamp) * 1e-9;
+        mLastGyroscopeTimestamp = timestampNanos;
+
+        if(!mInitialized || dt <= 0 || dt > MAX_GYROSCOPE_INTERVAL)
+        {
+            if(measure())
+            {
+                mW = mMeasuredW;
+                mX = mMeasuredX;
+                mY = mMeasuredY;
+                mZ = mMeasuredZ;
+                mInitialized = true;
+                updateAngles();
+            }
+            return;
+        }
+
+        // q = q * exp(ω dt / 2)
+        double omega = Math.sqrt(wx * wx + wy * wy + wz * wz);
+        double halfAngle = omega * dt / 2;
+        double c = Math.cos(halfAngle);
+        double s = (omega > 1e-9 ? Math.sin(halfAngle) / omega : dt / 2);
+        double bx = wx * s;
+        double by = wy * s;
+        double bz = wz * s;
+
+        double w = mW * c - mX * bx - mY * by - mZ * bz;
+        double x = mW * bx + mX * c + mY * bz - mZ * by;
+        double y = mW * by - mX * bz + mY * c + mZ * bx;
+        double z = mW * bz + mX * by - mY * bx + mZ * c;
+
+        if(isAccelerometerReliable() && measure())
+        {
+            // 測定値へ線形補間(正規化は後で)．q と -q は同じ姿勢なので近い側を使う
+            double gain = dt / (mTimeConstant + dt);
+            double sign = (w * mMeasuredW + x * mMeasuredX + y * mMeasuredY + z * mMeasuredZ < 0 ? -1 : 1);
+            w += gain * (sign * mMeasuredW - w);
+            x += gain * (sign * mMeasuredX - x);
+            y += gain * (sign * mMeasuredY - y);
+            z += gain * (sign * mMeasuredZ - z);
+        }
+
+        double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+        mW = w / norm;
+        mX = x / norm;
+        mY = y / norm;
+        mZ = z / norm;
+
+        updateAngles();
+    }
+
+    public boolean isInitialized()
+    {
+        return mInitialized;
+    }
+
+    public double getRoll()
+    {
+        return mRoll;
+    }
+
+    public double getPitch()
+    {
+        return mPitch;
+    }
+
+    /**
+     * @return yaw in degrees, -180 to 180, declination included
+     */
+    public double getYaw()
+    {
+        return mYaw;
+    }
+
+    private boolean isAccelerometerReliable()
+    {
+        if(!mHasAccelerometer)
+        {
+            return false;
+        }
+        double ax = mAccelerometerValues[0];
+        double ay = mAccelerometerValues[1];
+        double az = mAccelerometerValues[2];
+        double norm = Math.sqrt(ax * ax + ay * ay + az * az);
+        return Math.abs(norm - STANDARD_GRAVITY) < ACCELERATION_TOLERANCE;
+    }
+
+    private boolean measure()
+    {
+        if(!mHasAccelerometer || !mHasMagneticField)
+        {
+            return false;
+        }
+        if(!OrientationFusion.getRotationMatrix(mMeasuredR, mAccelerometerValues, mMagneticFieldValues))
+        {
+            return false;
+        }
+
+        float[] r = mMeasuredR;
+        double trace = r[0] + r[4] + r[8];
+        double s;
+        if(trace > 0)
+        {
+            s = Math.sqrt(trace + 1.0) * 2;
+            mMeasuredW = 0.25 * s;
+            mMeasuredX = (r[7] - r[5]) / s;
+            mMeasuredY = (r[2] - r[6]) / s;
+            mMeasuredZ = (r[3] - r[1]) / s;
+        }
+        else if(r[0] > r[4] && r[0] > r[8])
+        {
+            s = Math.sqrt(1.0 + r[0] - r[4] - r[8]) * 2;
+            mMeasuredW = (r[7] - r[5]) / s;
+            mMeasuredX = 0.25 * s;
+            mMeasuredY = (r[1] + r[3]) / s;
+            mMeasuredZ = (r[2] + r[6]) / s;
+        }
+        else if(r[4] > r[8])
+        {
+            s = Math.sqrt(1.0 + r[4] - r[0] - r[8]) * 2;
+            mMeasuredW = (r[2] - r[6]) / s;
+            mMeasuredX = (r[1] + r[3]) / s;
+            mMeasuredY = 0.25 * s;
+            mMeasuredZ = (r[5] + r[7]) / s;
+        }
+        else
+        {
+            s = Math.sqrt(1.0 + r[8] - r[0] - r[4]) * 2;
+            mMeasuredW = (r[3] - r[1]) / s;
+            mMeasuredX = (r[2] + r[6]) / s;
+            mMeasuredY = (r[5] + r[7]) / s;
+            mMeasuredZ = 0.25 * s;
+        }
+        return true;
+    }
+
+    private void updateAngles()
+    {
+        double xx = mX * mX, yy = mY * mY, zz = mZ * mZ;
+        double xy = mX * mY, xz = mX * mZ, yz = mY * mZ;
+        double wx = mW * mX, wy = mW * mY, wz = mW * mZ;
+
+        mR[0] = (float)(1 - 2 * (yy + zz));
+        mR[1] = (float)(2 * (xy - wz));
+        mR[2] = (float)(2 * (xz + wy));
+        mR[3] = (float)(2 * (xy + wz));
+        mR[4] = (float)(1 - 2 * (xx + zz));
+        mR[5] = (float)(2 * (yz - wx));
+        mR[6] = (float)(2 * (xz - wy));
+        mR[7] = (float)(2 * (yz + wx));
+        mR[8] = (float)(1 - 2 * (xx + yy));
+
+        OrientationFusion.remapForDisplayRotation(mR, mDisplayRotation, mOutR);
+        OrientationFusion.getOrientation(mOutR, mOrientationValues);
+
+        double yaw = Math.toDegrees(mOrientationValues[0]) + mYawDeclination;
+        if(yaw > 180) { yaw -= 360; }
+        if(yaw <= -180) { yaw += 360; }
+
+        mYaw = yaw;
+        mPitch = Math.toDegrees(mOrientationValues[1]);
+        mRoll = Math.toDegrees(mOrientationValues[2]);
+    }
+}
@@ -0,0 +1,126 @@
+package net.m2hq.spherehud;
+
+/**
+ * Reusable character buffer for HUD readings, drawn with Canvas.drawText(char[], ...).
+ *
+ * The append methods produce the same text as Integer.toString and the
+ * "%d", "%2d" and "%02d" conversions of String.format, without allocating.
+ */
+public class ReadingText
+{
+    private final char[] mChars;
+    private int mLength = 0;
+
+    public ReadingText(int capacity)
+    {
+        mChars = new char[capacity];
+    }
+
+    public char[] getChars()
+    {
+        return mChars;
+    }
+
+    public int length()
+    {
+        return mLength;
+    }
+
+    public ReadingText clear()
+    {
+        mLength = 0;
+        return this;
+    }
+
+    public ReadingText append(char c)
+    {
+        mChars[mLength++] = c;
+        return this;
+    }
+
+    public ReadingText append(String s)
+    {
+        s.getChars(0, s.length(), mChars, mLength);
+        mLength += s.length();
+        return this;
+    }
+
+    public ReadingText appendInt(int value)
+    {
+        return appendInt(value, 0, ' ');
+    }
+
+    /**
+     * Same as String.format("%" + width + "d") for pad ' ' and "%0" + width + "d" for pad '0'.
+     */
+    public ReadingText appendInt(int value, int width, char pad)
+    {
+        long v = value;
+        boolean negative = (v < 0);
+        if(negative)
+        {
+            v = -v;
+        }
+
+        int digits = 1;
+        for(long t = v; t >= 10; t /= 10)
+        {
+            digits++;
+        }
+        int length = digits + (negative ? 1 : 0);
+
+        if(pad == '0')
+        {
+            if(negative)
+            {
+                mChars[mLength++] = '-';
+            }
+            for(int i = length; i < width; i++)
+            {
+                mChars[mLength++] = '0';
+            }
+        }
+        else
+        {
+            for(int i = length; i < width; i++)
+            {
+                mChars[mLength++] = pad;
+            }
+            if(negative)
+            {
+                mChars[mLength++] = '-';
+            }
+        }
+
+        int end = mLength + digits;
+        for(int i = end - 1; i >= mLength; i--)
+        {
+            mChars[i] = (char)('0' + (v % 10));
+            v /= 10;
+        }
+        mLength = end;
+        return this;
+    }
+
+    public boolean contentEquals(String s)
+    {
+        if(s.length() != mLength)
+        {
+            return false;
+        }
+        for(int i = 0; i < mLength; i++)
+        {
+            if(s.charAt(i) != mChars[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(mChars, 0, mLength);
+    }
+}
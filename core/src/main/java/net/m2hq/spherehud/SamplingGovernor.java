@@ -0,0 +1,315 @@
+package net.m2hq.spherehud;
+
+/**
+ * Chooses sensor and GPS rates from what the HUD needs right now.
+ *
+ * <ul>
+ * <li>HUD not visible (screen off, activity stopped): low rate and long
+ *     maxReportLatency so the sensor hub batches samples in its FIFO; only the track
+ *     recorder consumes them.</li>
+ * <li>Stationary (accelerometer steady and no speed): reduced rates.</li>
+ * <li>Fast (high speed or hard turn): raised rates, unless the battery is low.</li>
+ * </ul>
+ * Rates go up as soon as a condition appears and down only after it has been gone for
+ * {@link #HOLD_NANOS}, so the listeners are not re-registered back and forth.
+ * Also counts delivered events and wakeups (deliveries separated by more than
+ * {@link #WAKEUP_GAP_NANOS}) so the effect can be measured.
+ */
+public class SamplingGovernor
+{
+    public static final int MODE_HIDDEN = 0;
+    public static final int MODE_STATIONARY = 1;
+    public static final int MODE_NORMAL = 2;
+    public static final int MODE_FAST = 3;
+
+    private static final String[] MODE_NAMES = new String[]{ "hidden", "stationary", "normal", "fast" };
+
+    public static final int SENSOR_DELAY_UI_US = 66667;
+    public static final int SENSOR_DELAY_GAME_US = 20000;
+
+    static final long HOLD_NANOS = 5000000000L;
+    static final long WAKEUP_GAP_NANOS = 5000000L;
+
+    private static final int HIDDEN_SENSOR_PERIOD_US = 200000;
+    private static final int HIDDEN_MAX_REPORT_LATENCY_US = 10000000;
+    private static final int STATIONARY_SENSOR_PERIOD_US = SENSOR_DELAY_UI_US;
+    private static final int MIN_SENSOR_PERIOD_US = 5000;
+
+    private static final long FAST_LOCATION_INTERVAL = 250;
+    private static final long NORMAL_LOCATION_INTERVAL = 500;
+    private static final long STATIONARY_LOCATION_INTERVAL = 2000;
+    private static final long HIDDEN_LOCATION_INTERVAL = 1000;
+    private static final long HIDDEN_STATIONARY_LOCATION_INTERVAL = 5000;
+
+    // 90 km/h
+    private static final float FAST_SPEED = 25.0f;
+    private static final float FAST_TURN_RATE = 30.0f;
+    private static final float STATIONARY_SPEED = 0.5f;
+    private static final float MOVING_SPEED = 1.5f;
+    // 加速度の大きさの分散[(m/s^2)^2]
+    private static final float STEADY_VARIANCE = 0.02f;
+    private static final float SHAKEN_VARIANCE = 0.1f;
+    private static final float VARIANCE_ALPHA = 0.05f;
+    private static final float TURN_RATE_ALPHA = 0.2f;
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    private int mNormalSensorPeriodUs;
+    private boolean mIsHudVisible = true;
+    private int mBatteryPercent = 100;
+
+    // 静止判定
+    private float mSpeed = 0;
+    private boolean mHasSpeed = false;
+    private float mMagnitudeMean = 0;
+    private float mMagnitudeVariance = 1;
+    private boolean mHasMagnitude = false;
+    private boolean mIsStationary = false;
+
+    // 旋回速度[deg/s]
+    private double mLastYaw;
+    private long mLastYawTimestamp = -1;
+    private float mTurnRate = 0;
+
+    private int mMode = MODE_NORMAL;
+    private long mLowerSince = -1;
+
+    // 最後に適用された値
+    private int mAppliedSensorPeriod;
+    private int mAppliedMaxReportLatency;
+    private long mAppliedLocationInterval;
+
+    private long mSensorEventCount = 0;
+    private long mSensorWakeupCount = 0;
+    private long mLastDeliveryNanos;
+    private long mLocationFixCount = 0;
+
+    /**
+     * @param normalSensorPeriodUs sampling period used while the HUD is visible and moving normally
+     */
+    public SamplingGovernor(int normalSensorPeriodUs)
+    {
+        mNormalSensorPeriodUs = normalSensorPeriodUs;
+        isRatesChanged();
+    }
+
+    /**
+     * Changes the normal period; the caller registers the listeners again with the new rates.
+     */
+    public void setNormalSensorPeriod(int periodUs)
+    {
+        mNormalSensorPeriodUs = periodUs;
+        isRatesChanged();
+    }
+
+    public void setHudVisible(boolean isVisible)
+    {
+        mIsHudVisible = isVisible;
+    }
+
+    public void setBatteryPercent(int percent)
+    {
+        mBatteryPercent = percent;
+    }
+
+    /**
+     * @param speed m/s
+     */
+    public void onLocation(float speed)
+    {
+        mSpeed = speed;
+        mHasSpeed = true;
+        mLocationFixCount++;
+        updateStationary();
+    }
+
+    public void onAccelerometer(float x, float y, float z)
+    {
+        float magnitude = (float)Math.sqrt(x * x + y * y + z * z);
+        if(!mHasMagnitude)
+        {
+            mMagnitudeMean = magnitude;
+            mHasMagnitude = true;
+            return;
+        }
+        float d = magnitude - mMagnitudeMean;
+        mMagnitudeMean += VARIANCE_ALPHA * d;
+        mMagnitudeVariance = (1 - VARIANCE_ALPHA) * (mMagnitudeVariance + VARIANCE_ALPHA * d * d);
+        updateStationary();
+    }
+
+    public void onYaw(double yaw, long timestampNanos)
+    {
+        if(mLastYawTimestamp >= 0)
+        {
+            long dt = timestampNanos - mLastYawTimestamp;
+            if(dt > 1000000L && dt < 1000000000L)
+            {
+                double d = (yaw - mLastYaw) % 360;
+                if(d > 180) { d -= 360; }
+                if(d < -180) { d += 360; }
+                float rate = (float)Math.abs(d * 1e9 / dt);
+                mTurnRate += TURN_RATE_ALPHA * (rate - mTurnRate);
+            }
+        }
+        mLastYaw = yaw;
+        mLastYawTimestamp = timestampNanos;
+    }
+
+    /**
+     * Call once per sensor callback with the current time (not the event timestamp).
+     */
+    public void onSensorDelivery(long nowNanos)
+    {
+        mSensorEventCount++;
+        // FIFOからまとめて届いたイベントは1回の起床として数える
+        if(1 == mSensorEventCount || nowNanos - mLastDeliveryNanos > WAKEUP_GAP_NANOS)
+        {
+            mSensorWakeupCount++;
+        }
+        mLastDeliveryNanos = nowNanos;
+    }
+
+    /**
+     * Re-evaluates the mode.
+     *
+     * @return true if the rates changed and the listeners have to be registered again
+     */
+    public boolean update(long nowNanos)
+    {
+        int wanted = getWantedMode();
+        if(wanted >= mMode)
+        {
+            mLowerSince = -1;
+            mMode = wanted;
+        }
+        else
+        {
+            // 下げるのは条件がしばらく続いてから
+            if(mLowerSince < 0)
+            {
+                mLowerSince = nowNanos;
+            }
+            if(nowNanos - mLowerSince >= HOLD_NANOS)
+            {
+                mLowerSince = -1;
+                mMode = wanted;
+            }
+        }
+        return isRatesChanged();
+    }
+
+    private boolean isRatesChanged()
+    {
+        int period = getSensorPeriodUs();
+        int latency = getMaxReportLatencyUs();
+        long interval = getLocationIntervalMillis();
+        if(period == mAppliedSensorPeriod && latency == mAppliedMaxReportLatency && interval == mAppliedLocationInterval)
+        {
+            return false;
+        }
+        mAppliedSensorPeriod = period;
+        mAppliedMaxReportLatency = latency;
+        mAppliedLocationInterval = interval;
+        return true;
+    }
+
+    private int getWantedMode()
+    {
+        if(!mIsHudVisible)
+        {
+            return MODE_HIDDEN;
+        }
+        boolean isLowBattery = (mBatteryPercent <= LOW_BATTERY_PERCENT);
+        if(!isLowBattery && ((mHasSpeed && mSpeed >= FAST_SPEED) || mTurnRate >= FAST_TURN_RATE))
+        {
+            return MODE_FAST;
+        }
+        if(isStationary())
+        {
+            return MODE_STATIONARY;
+        }
+        return MODE_NORMAL;
+    }
+
+    public boolean isStationary()
+    {
+        return mIsStationary;
+    }
+
+    // 静止/移動の閾値の間では状態を保つ
+    private void updateStationary()
+    {
+        if(!mHasMagnitude || mMagnitudeVariance > SHAKEN_VARIANCE || (mHasSpeed && mSpeed > MOVING_SPEED))
+        {
+            mIsStationary = false;
+        }
+        else if(mMagnitudeVariance < STEADY_VARIANCE && (!mHasSpeed || mSpeed < STATIONARY_SPEED))
+        {
+            mIsStationary = true;
+        }
+    }
+
+    public int getMode()
+    {
+        return mMode;
+    }
+
+    public static String getModeName(int mode)
+    {
+        return MODE_NAMES[mode];
+    }
+
+    public int getSensorPeriodUs()
+    {
+        switch(mMode)
+        {
+            case MODE_HIDDEN:
+                return HIDDEN_SENSOR_PERIOD_US;
+            case MODE_STATIONARY:
+                return Math.max(mNormalSensorPeriodUs, STATIONARY_SENSOR_PERIOD_US);
+            case MODE_FAST:
+                return Math.max(mNormalSensorPeriodUs / 2, MIN_SENSOR_PERIOD_US);
+            default:
+                return mNormalSensorPeriodUs;
+        }
+    }
+
+    /**
+     * @return how long the sensor hub may hold samples in its FIFO before delivering them
+     */
+    public int getMaxReportLatencyUs()
+    {
+        return (MODE_HIDDEN == mMode ? HIDDEN_MAX_REPORT_LATENCY_US : 0);
+    }
+
+    public long getLocationIntervalMillis()
+    {
+        switch(mMode)
+        {
+            case MODE_HIDDEN:
+                boolean isSlow = isStationary() || mBatteryPercent <= LOW_BATTERY_PERCENT;
+                return (isSlow ? HIDDEN_STATIONARY_LOCATION_INTERVAL : HIDDEN_LOCATION_INTERVAL);
+            case MODE_STATIONARY:
+                return STATIONARY_LOCATION_INTERVAL;
+            case MODE_FAST:
+                return FAST_LOCATION_INTERVAL;
+            default:
+                return NORMAL_LOCATION_INTERVAL;
+        }
+    }
+
+    public long getSensorEventCount()
+    {
+        return mSensorEventCount;
+    }
+
+    public long getSensorWakeupCount()
+    {
+        return mSensorWakeupCount;
+    }
+
+    public long getLocationFixCount()
+    {
+        return mLocationFixCount;
+    }
+}
@@ -0,0 +1,168 @@
+package net.m2hq.spherehud;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Recorded sequence of sensor events, kept in primitive arrays.
+ *
+ * Text form is one event per line: {@code timestamp_ns,type,v0,v1,...}. Lines starting
+ * with '#' are comments. Types are "acc", "mag" and "gyr" (SensorEvent.values),
+ * "ori" (ground truth roll, pitch, yaw in degrees, when known), "loc" (GPS fix:
+ * latitude, longitude, altitude [m], speed [m/s], bearing [deg, -1 if none], accuracy [m])
+ * and "prs" (pressure [hPa]).
+ */
+public class SensorTrace
+{
+    public static final int ACCELEROMETER = 0;
+    public static final int MAGNETIC_FIELD = 1;
+    public static final int GYROSCOPE = 2;
+    public static final int ORIENTATION = 3;
+    public static final int LOCATION = 4;
+    public static final int PRESSURE = 5;
+
+    private static final String[] TYPE_NAMES = new String[]{ "acc", "mag", "gyr", "ori", "loc", "prs" };
+
+    public static final int MAX_VALUES = 6;
+
+    private int mSize = 0;
+    private long[] mTimestamps = new long[256];
+    private int[] mTypes = new int[256];
+    private double[] mValues = new double[256 * MAX_VALUES];
+
+    public int size()
+    {
+        return mSize;
+    }
+
+    public long getTimestamp(int index)
+    {
+        return mTimestamps[index];
+    }
+
+    public int getType(int index)
+    {
+        return mTypes[index];
+    }
+
+    public double getValue(int index, int n)
+    {
+        return mValues[index * MAX_VALUES + n];
+    }
+
+    public float getFloatValue(int index, int n)
+    {
+        return (float)mValues[index * MAX_VALUES + n];
+    }
+
+    public void add(long timestampNanos, int type, double v0, double v1, double v2)
+    {
+        int n = append(timestampNanos, type);
+        mValues[n] = v0;
+        mValues[n + 1] = v1;
+        mValues[n + 2] = v2;
+    }
+
+    public void addLocation(long timestampNanos, double latitude, double longitude, double altitude,
+                            double speed, double bearing, double accuracy)
+    {
+        int n = append(timestampNanos, LOCATION);
+        mValues[n] = latitude;
+        mValues[n + 1] = longitude;
+        mValues[n + 2] = altitude;
+        mValues[n + 3] = speed;
+        mValues[n + 4] = bearing;
+        mValues[n + 5] = accuracy;
+    }
+
+    // 1件分を確保して値の先頭位置を返す
+    private int append(long timestampNanos, int type)
+    {
+        if(mSize == mTimestamps.length)
+        {
+            int capacity = mSize * 2;
+            mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mValues = Arrays.copyOf(mValues, capacity * MAX_VALUES);
+        }
+        mTimestamps[mSize] = timestampNanos;
+        mTypes[mSize] = type;
+        int n = mSize * MAX_VALUES;
+        Arrays.fill(mValues, n, n + MAX_VALUES, 0);
+        mSize++;
+        return n;
+    }
+
+    public static SensorTrace read(Reader reader) throws IOException
+    {
+        SensorTrace trace = new SensorTrace();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while(null != (line = in.readLine()))
+        {
+            lineNumber++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+
+            String[] columns = line.split(",");
+            int type = typeOf(columns.length > 1 ? columns[1].trim() : "");
+            if(type < 0)
+            {
+                throw new IOException("unknown event type at line " + lineNumber + ": " + line);
+            }
+
+            double[] v = new double[MAX_VALUES];
+            for(int n = 0; n < MAX_VALUES && n + 2 < columns.length; n++)
+            {
+                v[n] = Double.parseDouble(columns[n + 2].trim());
+            }
+            if(LOCATION == type)
+            {
+                trace.addLocation(Long.parseLong(columns[0].trim()), v[0], v[1], v[2], v[3], v[4], v[5]);
+            }
+            else
+            {
+                trace.add(Long.parseLong(columns[0].trim()), type, v[0], v[1], v[2]);
+            }
+        }
+        return trace;
+    }
+
+    public void write(Writer writer) throws IOException
+    {
+        for(int i = 0; i < mSize; i++)
+        {
+            if(LOCATION == mTypes[i])
+            {
+                // 緯度経度は1e-7°(約1cm)まで残す
+                writer.write(String.format(Locale.ROOT, "%d,%s,%.7f,%.7f,%.3f,%.3f,%.2f,%.2f\n",
+                        mTimestamps[i], TYPE_NAMES[mTypes[i]], getValue(i, 0), getValue(i, 1), getValue(i, 2),
+                        getValue(i, 3), getValue(i, 4), getValue(i, 5)));
+                continue;
+            }
+            writer.write(String.format(Locale.ROOT, "%d,%s,%.6f,%.6f,%.6f\n",
+                    mTimestamps[i], TYPE_NAMES[mTypes[i]], getValue(i, 0), getValue(i, 1), getValue(i, 2)));
+        }
+        writer.flush();
+    }
+
+    private static int typeOf(String name)
+    {
+        for(int i = 0; i < TYPE_NAMES.length; i++)
+        {
+            if(TYPE_NAMES[i].equals(name))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,323 @@
+package net.m2hq.spherehud;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publish/subscribe channel for the service's readings.
+ *
+ * One producer publishes a frame of {@link #FIELD_COUNT} values at a time. Each subscriber
+ * chooses the fields it wants and the shortest interval between samples, and gets its own
+ * ring. A sample always carries the latest value of every subscribed field, so when a
+ * subscriber is throttled or its ring overflows the skipped samples are lost as history
+ * only, never as state. The producer never waits for a subscriber; a full ring overwrites
+ * its oldest sample.
+ */
+public class TelemetryBus
+{
+    public static final int ROLL = 0;
+    public static final int PITCH = 1;
+    public static final int YAW = 2;
+    public static final int ROLL_RATE = 3;
+    public static final int PITCH_RATE = 4;
+    public static final int YAW_RATE = 5;
+    public static final int BEARING = 6;
+    public static final int SPEED = 7;
+    public static final int SPEED_DELTA_PER_SECOND = 8;
+    public static final int ALTITUDE = 9;
+    public static final int ALTITUDE_DELTA_PER_SECOND = 10;
+    public static final int ACCURACY = 11;
+    public static final int LATITUDE = 12;
+    public static final int LONGITUDE = 13;
+    public static final int BATTERY_PERCENT = 14;
+    public static final int SATS_USED_IN_FIX_COUNT = 15;
+    public static final int SATS_COUNT = 16;
+    public static final int LOCATION_COUNT = 17;
+    public static final int FIELD_COUNT = 18;
+
+    public static final long ATTITUDE_FIELDS = maskOf(ROLL, PITCH, YAW, ROLL_RATE, PITCH_RATE, YAW_RATE);
+    public static final long LOCATION_FIELDS = maskOf(BEARING, SPEED, SPEED_DELTA_PER_SECOND, ALTITUDE,
+            ALTITUDE_DELTA_PER_SECOND, ACCURACY, LATITUDE, LONGITUDE, SATS_USED_IN_FIX_COUNT, SATS_COUNT, LOCATION_COUNT);
+    public static final long ALL_FIELDS = (1L << FIELD_COUNT) - 1;
+
+    // 先頭は時刻と変化したフィールドのマスク
+    private static final int HEADER_LONGS = 2;
+    private static final int SAMPLE_LONGS = HEADER_LONGS + FIELD_COUNT;
+
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    // 購読の追加/削除で丸ごと差し替える(発行側はロックを取らない)
+    private volatile Subscription[] mSubscriptions = NO_SUBSCRIPTIONS;
+    // 発行側だけが触る
+    private final long[] mLastValues = new long[FIELD_COUNT];
+    private boolean mHasPublished = false;
+
+    public static long maskOf(int... fields)
+    {
+        long mask = 0;
+        for(int field : fields)
+        {
+            mask |= 1L << field;
+        }
+        return mask;
+    }
+
+    /**
+     * @param fieldMask fields to receive; samples are only queued when one of them changes
+     * @param minIntervalNanos shortest time between queued samples, 0 for every change
+     * @param capacity ring size in samples, a power of two
+     */
+    public Subscription subscribe(long fieldMask, long minIntervalNanos, int capacity)
+    {
+        Subscription subscription = new Subscription(fieldMask & ALL_FIELDS, minIntervalNanos, capacity);
+        synchronized(this)
+        {
+            Subscription[] old = mSubscriptions;
+            Subscription[] subscriptions = new Subscription[old.length + 1];
+            System.arraycopy(old, 0, subscriptions, 0, old.length);
+            subscriptions[old.length] = subscription;
+            mSubscriptions = subscriptions;
+        }
+        return subscription;
+    }
+
+    public synchronized void unsubscribe(Subscription subscription)
+    {
+        Subscription[] old = mSubscriptions;
+        for(int i = 0; i < old.length; i++)
+        {
+            if(old[i] == subscription)
+            {
+                Subscription[] subscriptions = new Subscription[old.length - 1];
+                System.arraycopy(old, 0, subscriptions, 0, i);
+                System.arraycopy(old, i + 1, subscriptions, i, old.length - i - 1);
+                mSubscriptions = subscriptions;
+                return;
+            }
+        }
+    }
+
+    public int getSubscriberCount()
+    {
+        return mSubscriptions.length;
+    }
+
+    /**
+     * Hands a frame to every subscriber whose fields changed and whose interval has passed.
+     * Changes held back by a subscriber's interval go out with the first frame after it,
+     * even if that frame itself changed nothing. Must always be called from the same
+     * thread. Does not allocate.
+     *
+     * @param values {@link #FIELD_COUNT} values indexed by the field constants
+     */
+    public void publish(long timestampNanos, double[] values)
+    {
+        long changed = 0;
+        for(int field = 0; field < FIELD_COUNT; field++)
+        {
+            long bits = Double.doubleToRawLongBits(values[field]);
+            if(bits != mLastValues[field] || !mHasPublished)
+            {
+                mLastValues[field] = bits;
+                changed |= 1L << field;
+            }
+        }
+        mHasPublished = true;
+
+        // 変化がなくても，間引かれて保留中の変化はここで送る
+        Subscription[] subscriptions = mSubscriptions;
+        for(Subscription subscription : subscriptions)
+        {
+            subscription.offer(timestampNanos, changed, mLastValues);
+        }
+    }
+
+    /**
+     * One subscriber's queue. {@link #poll} and {@link #pollLatest} must be called from a
+     * single consumer thread; the counters can be read from anywhere.
+     */
+    public static class Subscription
+    {
+        private final long mFieldMask;
+        private final long mMinIntervalNanos;
+        private final int mMask;
+
+        // 各サンプルの通し番号．書き込み中は-1
+        private final AtomicLongArray mStamps;
+        private final AtomicLongArray mSamples;
+        private final AtomicLong mWritten = new AtomicLong();
+
+        // ---- 発行側だけが触る
+        // 間引いている間に変化したフィールド(次に送るサンプルにまとめる)
+        private long mPendingMask = 0;
+        private long mLastOfferNanos;
+        private boolean mHasOffered = false;
+
+        // ---- 受信側だけが触る
+        private long mRead = 0;
+        private long mTimestampNanos;
+        private long mChangedMask;
+        private final AtomicLong mDropped = new AtomicLong();
+
+        Subscription(long fieldMask, long minIntervalNanos, int capacity)
+        {
+            if(Integer.bitCount(capacity) != 1)
+            {
+                throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+            }
+            mFieldMask = fieldMask;
+            mMinIntervalNanos = minIntervalNanos;
+            mMask = capacity - 1;
+            mStamps = new AtomicLongArray(capacity);
+            for(int i = 0; i < capacity; i++)
+            {
+                mStamps.set(i, -1);
+            }
+            mSamples = new AtomicLongArray(capacity * SAMPLE_LONGS);
+        }
+
+        void offer(long timestampNanos, long changed, long[] values)
+        {
+            mPendingMask |= changed & mFieldMask;
+            if(0 == mPendingMask)
+            {
+                return;
+            }
+            if(mHasOffered && timestampNanos - mLastOfferNanos < mMinIntervalNanos)
+            {
+                return;
+            }
+            mHasOffered = true;
+            mLastOfferNanos = timestampNanos;
+
+            long sequence = mWritten.get();
+            int slot = (int)(sequence & mMask);
+            int base = slot * SAMPLE_LONGS;
+            // 受信側が読みかけでも書き直しに気づけるように先に無効にする
+            mStamps.set(slot, -1);
+            mSamples.set(base, timestampNanos);
+            mSamples.set(base + 1, mPendingMask);
+            for(int field = 0; field < FIELD_COUNT; field++)
+            {
+                if((mFieldMask & (1L << field)) != 0)
+                {
+                    mSamples.set(base + HEADER_LONGS + field, values[field]);
+                }
+            }
+            mStamps.set(slot, sequence);
+            mWritten.set(sequence + 1);
+            mPendingMask = 0;
+        }
+
+        /**
+         * Copies the oldest queued sample's subscribed fields into {@code out}; other fields
+         * are left as they were.
+         *
+         * @return false if nothing is queued
+         */
+        public boolean poll(double[] out)
+        {
+            while(true)
+            {
+                long written = mWritten.get();
+                if(mRead >= written)
+                {
+                    return false;
+                }
+                // 周回遅れの分は捨てる
+                if(written - mRead > mMask + 1)
+                {
+                    mDropped.addAndGet(written - (mMask + 1) - mRead);
+                    mRead = written - (mMask + 1);
+                }
+                if(read(out))
+                {
+                    mRead++;
+                    return true;
+                }
+                Thread.yield();
+            }
+        }
+
+        /**
+         * Skips to the newest queued sample and copies it like {@link #poll}. For consumers
+         * that only want the current state, such as a renderer.
+         *
+         * @return false if nothing is queued
+         */
+        public boolean pollLatest(double[] out)
+        {
+            while(true)
+            {
+                long written = mWritten.get();
+                if(mRead >= written)
+                {
+                    return false;
+                }
+                mRead = written - 1;
+                if(read(out))
+                {
+                    mRead++;
+                    return true;
+                }
+                Thread.yield();
+            }
+        }
+
+        private boolean read(double[] out)
+        {
+            int slot = (int)(mRead & mMask);
+            if(mStamps.get(slot) != mRead)
+            {
+                return false;
+            }
+            int base = slot * SAMPLE_LONGS;
+            long timestampNanos = mSamples.get(base);
+            long changedMask = mSamples.get(base + 1);
+            for(int field = 0; field < FIELD_COUNT; field++)
+            {
+                if((mFieldMask & (1L << field)) != 0)
+                {
+                    out[field] = Double.longBitsToDouble(mSamples.get(base + HEADER_LONGS + field));
+                }
+            }
+            // 読んでいる間に上書きされていたらやり直し
+            if(mStamps.get(slot) != mRead)
+            {
+                return false;
+            }
+            mTimestampNanos = timestampNanos;
+            mChangedMask = changedMask;
+            return true;
+        }
+
+        /**
+         * @return timestamp of the last polled sample
+         */
+        public long getTimestampNanos()
+        {
+            return mTimestampNanos;
+        }
+
+        /**
+         * @return subscribed fields that changed between the previous queued sample and the last polled one
+         */
+        public long getChangedMask()
+        {
+            return mChangedMask;
+        }
+
+        /**
+         * @return samples overwritten before {@link #poll} got to them
+         */
+        public long getDroppedCount()
+        {
+            return mDropped.get();
+        }
+
+        public long getFieldMask()
+        {
+            return mFieldMask;
+        }
+    }
+}
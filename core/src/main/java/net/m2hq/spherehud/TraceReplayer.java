@@ -0,0 +1,166 @@
+package net.m2hq.spherehud;
+
+/**
+ * Feeds a recorded SensorTrace to the same inputs the live sensor and location callbacks use.
+ *
+ * Events always carry their recorded timestamps, so the result does not depend on the
+ * playback speed; the speed only decides when each event is handed out. The replayer does
+ * not own a thread: the caller asks it to {@link #dispatch} whatever is due (ListenerService
+ * does this from its Handler), or calls {@link #run} to play the whole trace on the current
+ * thread.
+ */
+public class TraceReplayer
+{
+    /** Dispatch events as fast as the sink takes them. */
+    public static final int SPEED_UNLIMITED = 0;
+
+    public interface Sink
+    {
+        /**
+         * @param type SensorTrace.ACCELEROMETER, MAGNETIC_FIELD, GYROSCOPE, ORIENTATION or PRESSURE
+         */
+        void onSensor(int type, long timestampNanos, float v0, float v1, float v2);
+
+        /**
+         * @param bearing degrees, negative if the fix has no bearing
+         */
+        void onLocation(long timestampNanos, double latitude, double longitude, double altitude,
+                        float speed, float bearing, float accuracy);
+    }
+
+    private final SensorTrace mTrace;
+    private final Sink mSink;
+    private final int mSpeed;
+
+    private int mIndex = 0;
+    private long mStartTime;
+    private long mEndTime;
+
+    /**
+     * @param speed playback speed (1 = real time, 10 = ten times faster) or {@link #SPEED_UNLIMITED}
+     */
+    public TraceReplayer(SensorTrace trace, Sink sink, int speed)
+    {
+        if(speed < 0)
+        {
+            throw new IllegalArgumentException("speed must not be negative: " + speed);
+        }
+        mTrace = trace;
+        mSink = sink;
+        mSpeed = speed;
+    }
+
+    /**
+     * @param nowNanos current time on the caller's clock, the first event is due now
+     */
+    public void start(long nowNanos)
+    {
+        mIndex = 0;
+        mStartTime = nowNanos;
+        mEndTime = nowNanos;
+    }
+
+    /**
+     * Dispatches the events that are due.
+     *
+     * @param maxEvents upper bound of events to dispatch in this call (keeps the caller's thread responsive)
+     * @return number of events dispatched
+     */
+    public int dispatch(long nowNanos, int maxEvents)
+    {
+        int count = 0;
+        while(mIndex < mTrace.size() && count < maxEvents && getDueTime(mIndex) <= nowNanos)
+        {
+            dispatchEvent(mIndex);
+            mIndex++;
+            count++;
+        }
+        if(isFinished())
+        {
+            mEndTime = nowNanos;
+        }
+        return count;
+    }
+
+    /**
+     * @return time on the caller's clock the next event is due, Long.MAX_VALUE when finished
+     */
+    public long getNextDueTime()
+    {
+        if(isFinished())
+        {
+            return Long.MAX_VALUE;
+        }
+        return getDueTime(mIndex);
+    }
+
+    public boolean isFinished()
+    {
+        return mIndex >= mTrace.size();
+    }
+
+    public int getDispatchedCount()
+    {
+        return mIndex;
+    }
+
+    /**
+     * @return events dispatched per second of playback, measured up to the end of the trace
+     * or to {@code nowNanos} while still playing
+     */
+    public double getEventsPerSecond(long nowNanos)
+    {
+        long elapsed = (isFinished() ? mEndTime : nowNanos) - mStartTime;
+        if(elapsed <= 0)
+        {
+            return 0;
+        }
+        return mIndex * 1e9 / elapsed;
+    }
+
+    /**
+     * Plays the whole trace on the current thread, sleeping between events unless the speed
+     * is unlimited.
+     *
+     * @return events per second
+     */
+    public double run() throws InterruptedException
+    {
+        start(System.nanoTime());
+        while(!isFinished())
+        {
+            long now = System.nanoTime();
+            dispatch(now, Integer.MAX_VALUE);
+            long wait = getNextDueTime() - System.nanoTime();
+            if(!isFinished() && wait > 0)
+            {
+                Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+            }
+        }
+        return getEventsPerSecond(System.nanoTime());
+    }
+
+    private long getDueTime(int index)
+    {
+        if(SPEED_UNLIMITED == mSpeed)
+        {
+            return mStartTime;
+        }
+        return mStartTime + (mTrace.getTimestamp(index) - mTrace.getTimestamp(0)) / mSpeed;
+    }
+
+    private void dispatchEvent(int i)
+    {
+        long timestamp = mTrace.getTimestamp(i);
+        if(SensorTrace.LOCATION == mTrace.getType(i))
+        {
+            mSink.onLocation(timestamp, mTrace.getValue(i, 0), mTrace.getValue(i, 1), mTrace.getValue(i, 2),
+                    mTrace.getFloatValue(i, 3), mTrace.getFloatValue(i, 4), mTrace.getFloatValue(i, 5));
+        }
+        else
+        {
+            mSink.onSensor(mTrace.getType(i), timestamp,
+                    mTrace.getFloatValue(i, 0), mTrace.getFloatValue(i, 1), mTrace.getFloatValue(i, 2));
+        }
+    }
+}
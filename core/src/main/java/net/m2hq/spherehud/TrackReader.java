@@ -0,0 +1,208 @@
+package net.m2hq.spherehud;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a track written by {@link TrackRecorder}, one record at a time.
+ * Time records are applied internally; {@link #next()} only stops at fixes and attitude samples.
+ */
+public class TrackReader
+{
+    private final ByteBuffer mBuffer;
+    private final long mStartTimeMillis;
+    private final long mBaseTimestampNanos;
+    private final long mRecordCount;
+
+    private long mIndex = 0;
+    private long mTimestamp;
+    private int mLatitude = 0;
+    private int mLongitude = 0;
+
+    private int mType;
+    private int mFlags;
+    private int mSatellitesUsedInFix;
+    private int mSatellites;
+    private int mAltitude;
+    private int mSpeed;
+    private int mBearing;
+    private int mAccuracy;
+    private short mRoll;
+    private short mPitch;
+    private short mYaw;
+
+    public static TrackReader open(File file) throws IOException
+    {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = f.getChannel();
+            return new TrackReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally
+        {
+            f.close();
+        }
+    }
+
+    public TrackReader(ByteBuffer buffer) throws IOException
+    {
+        mBuffer = buffer.duplicate();
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(mBuffer.limit() < TrackRecorder.HEADER_SIZE || mBuffer.getInt(0) != TrackRecorder.MAGIC)
+        {
+            throw new IOException("not a track file");
+        }
+        int version = mBuffer.getShort(TrackRecorder.HEADER_VERSION);
+        int recordSize = mBuffer.getShort(TrackRecorder.HEADER_RECORD_SIZE);
+        if(version != TrackRecorder.VERSION || recordSize != TrackRecorder.RECORD_SIZE)
+        {
+            throw new IOException("unsupported track version " + version);
+        }
+        mStartTimeMillis = mBuffer.getLong(TrackRecorder.HEADER_START_TIME);
+        mBaseTimestampNanos = mBuffer.getLong(TrackRecorder.HEADER_BASE_TIMESTAMP);
+        // 記録中に落ちたファイルは後ろが0で埋まっているので，件数とファイル長の小さい方まで読む
+        long available = (mBuffer.limit() - TrackRecorder.HEADER_SIZE) / TrackRecorder.RECORD_SIZE;
+        mRecordCount = Math.min(mBuffer.getLong(TrackRecorder.HEADER_RECORD_COUNT), available);
+        mTimestamp = mBaseTimestampNanos;
+    }
+
+    public long getStartTimeMillis()
+    {
+        return mStartTimeMillis;
+    }
+
+    public long getBaseTimestampNanos()
+    {
+        return mBaseTimestampNanos;
+    }
+
+    public long getRecordCount()
+    {
+        return mRecordCount;
+    }
+
+    /**
+     * Moves to the next fix or attitude record.
+     *
+     * @return false at the end of the track
+     */
+    public boolean next()
+    {
+        while(mIndex < mRecordCount)
+        {
+            int position = (int)(TrackRecorder.HEADER_SIZE + mIndex * TrackRecorder.RECORD_SIZE);
+            mIndex++;
+
+            int type = mBuffer.get(position);
+            if(TrackRecorder.TYPE_TIME == type)
+            {
+                mTimestamp = mBaseTimestampNanos + mBuffer.getLong(position + 8);
+                continue;
+            }
+            if(TrackRecorder.TYPE_FIX != type && TrackRecorder.TYPE_ATTITUDE != type)
+            {
+                continue;
+            }
+
+            mType = type;
+            mTimestamp += mBuffer.getInt(position + 4) * 1000L;
+            if(TrackRecorder.TYPE_FIX == type)
+            {
+                mFlags = mBuffer.get(position + 1) & 0xff;
+                mSatellitesUsedInFix = mBuffer.get(position + 2) & 0xff;
+                mSatellites = mBuffer.get(position + 3) & 0xff;
+                mLatitude += mBuffer.getInt(position + 8);
+                mLongitude += mBuffer.getInt(position + 12);
+                mAltitude = mBuffer.getInt(position + 16);
+                mSpeed = mBuffer.getShort(position + 20) & 0xffff;
+                mBearing = mBuffer.getShort(position + 22) & 0xffff;
+                mAccuracy = mBuffer.getShort(position + 24) & 0xffff;
+            }
+            mRoll = mBuffer.getShort(position + 26);
+            mPitch = mBuffer.getShort(position + 28);
+            mYaw = mBuffer.getShort(position + 30);
+            return true;
+        }
+        return false;
+    }
+
+    public int getType()
+    {
+        return mType;
+    }
+
+    public long getTimestampNanos()
+    {
+        return mTimestamp;
+    }
+
+    /**
+     * Values of the last fix; they stay as they are while attitude records are read.
+     */
+    public double getLatitude()
+    {
+        return mLatitude / 1e7;
+    }
+
+    public double getLongitude()
+    {
+        return mLongitude / 1e7;
+    }
+
+    public double getAltitude()
+    {
+        return mAltitude / 100.0;
+    }
+
+    public float getSpeed()
+    {
+        return mSpeed / 100.0f;
+    }
+
+    /**
+     * @return degrees, -1 if the fix had no bearing
+     */
+    public float getBearing()
+    {
+        if(0 == (mFlags & TrackRecorder.FLAG_HAS_BEARING))
+        {
+            return -1;
+        }
+        return mBearing / 100.0f;
+    }
+
+    public float getAccuracy()
+    {
+        return mAccuracy / 10.0f;
+    }
+
+    public int getSatellitesUsedInFix()
+    {
+        return mSatellitesUsedInFix;
+    }
+
+    public int getSatellites()
+    {
+        return mSatellites;
+    }
+
+    public double getRoll()
+    {
+        return mRoll / 100.0;
+    }
+
+    public double getPitch()
+    {
+        return mPitch / 100.0;
+    }
+
+    public double getYaw()
+    {
+        return mYaw / 100.0;
+    }
+}
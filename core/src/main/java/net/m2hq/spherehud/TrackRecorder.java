@@ -0,0 +1,510 @@
+package net.m2hq.spherehud;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records GPS fixes and attitude samples of a session to a memory-mapped file.
+ *
+ * The recording thread only copies primitives into a preallocated ring and never blocks;
+ * if the ring is full the record is dropped and counted. A background thread encodes the
+ * records and appends them to the file through 1 MB mappings. Attitude samples can instead
+ * come from a {@link TelemetryBus} subscription, which the writer thread polls itself.
+ *
+ * File format (little endian): a {@link #HEADER_SIZE} byte header followed by
+ * {@link #RECORD_SIZE} byte records.
+ * <pre>
+ * header  0: int    magic "SHTR"
+ *         4: short  version
+ *         6: short  record size
+ *         8: long   session start, wall clock [ms]
+ *        16: long   base timestamp [ns] (elapsedRealtimeNanos at start)
+ *        24: long   record count
+ * record  0: byte   type (fix, attitude, time)
+ *         1: byte   flags
+ *         2: byte   satellites used in fix
+ *         3: byte   satellites in view
+ *         4: int    timestamp - previous timestamp [us]
+ *         8: int    latitude - previous fix latitude [1e-7 deg]
+ *        12: int    longitude - previous fix longitude [1e-7 deg]
+ *        16: int    altitude [cm]
+ *        20: ushort speed [cm/s]
+ *        22: ushort bearing [0.01 deg], 0xffff if unknown
+ *        24: ushort accuracy [dm]
+ *        26: short  roll, pitch, yaw [0.01 deg]
+ * </pre>
+ * Attitude records only carry the timestamp and roll/pitch/yaw. When the time delta does not
+ * fit in an int a time record holding the timestamp relative to the base as a long at offset 8
+ * is written first.
+ */
+public class TrackRecorder
+{
+    public static final String FILE_EXTENSION = ".shtrk";
+
+    public static final int MAGIC = 0x52544853;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 32;
+
+    public static final int TYPE_FIX = 1;
+    public static final int TYPE_ATTITUDE = 2;
+    public static final int TYPE_TIME = 3;
+
+    public static final int FLAG_HAS_BEARING = 1;
+
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_RECORD_SIZE = 6;
+    static final int HEADER_START_TIME = 8;
+    static final int HEADER_BASE_TIMESTAMP = 16;
+    static final int HEADER_RECORD_COUNT = 24;
+
+    static final int UNKNOWN_BEARING = 0xffff;
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final int MAP_CHUNK_SIZE = 1 << 20;
+    // 書き込みスレッドはこの間隔でまとめて書く(リングは数秒分あるので十分)
+    private static final long WRITER_INTERVAL_NANOS = 200000000L;
+
+    // ---- リング(記録側が書き，書き込みスレッドが読む)
+    private final int mMask;
+    private final int[] mTypes;
+    private final long[] mTimestamps;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final double[] mAltitudes;
+    private final float[] mSpeeds;
+    private final float[] mBearings;
+    private final float[] mAccuracies;
+    private final int[] mSatellitesUsedInFix;
+    private final int[] mSatellites;
+    private final double[] mRolls;
+    private final double[] mPitches;
+    private final double[] mYaws;
+
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    // ---- 書き込みスレッドだけが触る
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mHeader;
+    private MappedByteBuffer mChunk;
+    private long mRecordCount = 0;
+    private long mPrevTimestamp;
+    private int mPrevLatitude = 0;
+    private int mPrevLongitude = 0;
+
+    // 姿勢をTelemetryBusから受け取る場合の購読(書き込みスレッドが読む)
+    private volatile TelemetryBus.Subscription mAttitudeSource;
+    private final double[] mAttitude = new double[TelemetryBus.FIELD_COUNT];
+    private boolean mHasAttitude = false;
+    private long mAttitudeTimestamp;
+
+    private final Thread mWriterThread;
+    private volatile boolean mIsClosing = false;
+    private volatile IOException mWriteError;
+
+    /**
+     * Creates the file and starts the writer thread.
+     *
+     * @param startTimeMillis wall clock time of the session start
+     * @param baseTimestampNanos timestamp the first record's delta is taken from (elapsedRealtimeNanos)
+     */
+    public static TrackRecorder open(File file, long startTimeMillis, long baseTimestampNanos) throws IOException
+    {
+        TrackRecorder recorder = new TrackRecorder(file, startTimeMillis, baseTimestampNanos, DEFAULT_CAPACITY);
+        recorder.start();
+        return recorder;
+    }
+
+    /**
+     * Deletes the oldest session files in {@code dir} until at most {@code maxCount} are left
+     * and they take at most {@code maxBytes} together. Session files are named after their
+     * start time, so the name order is the age order.
+     *
+     * @return number of files deleted
+     */
+    public static int deleteOldSessions(File dir, int maxCount, long maxBytes)
+    {
+        File[] files = dir.listFiles();
+        if(null == files)
+        {
+            return 0;
+        }
+        Arrays.sort(files);
+        int count = 0;
+        long totalBytes = 0;
+        for(File file : files)
+        {
+            if(isSession(file))
+            {
+                count++;
+                totalBytes += file.length();
+            }
+        }
+
+        int deleted = 0;
+        for(File file : files)
+        {
+            if(count <= maxCount && totalBytes <= maxBytes)
+            {
+                break;
+            }
+            if(!isSession(file))
+            {
+                continue;
+            }
+            long length = file.length();
+            if(file.delete())
+            {
+                deleted++;
+            }
+            // 消せなくても数え直しで止まらないように，残りの見積もりからは外す
+            count--;
+            totalBytes -= length;
+        }
+        return deleted;
+    }
+
+    private static boolean isSession(File file)
+    {
+        return (file.isFile() && file.getName().endsWith(FILE_EXTENSION));
+    }
+
+    TrackRecorder(File file, long startTimeMillis, long baseTimestampNanos, int capacity) throws IOException
+    {
+        if(Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mMask = capacity - 1;
+        mTypes = new int[capacity];
+        mTimestamps = new long[capacity];
+        mLatitudes = new double[capacity];
+        mLongitudes = new double[capacity];
+        mAltitudes = new double[capacity];
+        mSpeeds = new float[capacity];
+        mBearings = new float[capacity];
+        mAccuracies = new float[capacity];
+        mSatellitesUsedInFix = new int[capacity];
+        mSatellites = new int[capacity];
+        mRolls = new double[capacity];
+        mPitches = new double[capacity];
+        mYaws = new double[capacity];
+
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        mHeader.order(ByteOrder.LITTLE_ENDIAN);
+        mHeader.putInt(0, MAGIC);
+        mHeader.putShort(HEADER_VERSION, (short)VERSION);
+        mHeader.putShort(HEADER_RECORD_SIZE, (short)RECORD_SIZE);
+        mHeader.putLong(HEADER_START_TIME, startTimeMillis);
+        mHeader.putLong(HEADER_BASE_TIMESTAMP, baseTimestampNanos);
+        mHeader.putLong(HEADER_RECORD_COUNT, 0);
+        mPrevTimestamp = baseTimestampNanos;
+
+        mWriterThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runWriter();
+            }
+        }, "TrackRecorder");
+        mWriterThread.setPriority(Thread.MIN_PRIORITY);
+        mWriterThread.setDaemon(true);
+    }
+
+    void start()
+    {
+        mWriterThread.start();
+    }
+
+    /**
+     * Queues a GPS fix. Must always be called from the same thread as {@link #recordAttitude}.
+     *
+     * @param bearing degrees, negative if unknown
+     * @return false if the record was dropped because the writer is behind
+     */
+    public boolean recordFix(long timestampNanos, double latitude, double longitude, double altitude,
+                             float speed, float bearing, float accuracy, int satellitesUsedInFix, int satellites,
+                             double roll, double pitch, double yaw)
+    {
+        long tail = mTail.get();
+        if(tail - mHead.get() > mMask)
+        {
+            mDropped.incrementAndGet();
+            return false;
+        }
+        int i = (int)(tail & mMask);
+        mTypes[i] = TYPE_FIX;
+        mTimestamps[i] = timestampNanos;
+        mLatitudes[i] = latitude;
+        mLongitudes[i] = longitude;
+        mAltitudes[i] = altitude;
+        mSpeeds[i] = speed;
+        mBearings[i] = bearing;
+        mAccuracies[i] = accuracy;
+        mSatellitesUsedInFix[i] = satellitesUsedInFix;
+        mSatellites[i] = satellites;
+        mRolls[i] = roll;
+        mPitches[i] = pitch;
+        mYaws[i] = yaw;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Queues an attitude sample. Must always be called from the same thread as {@link #recordFix}.
+     *
+     * @return false if the record was dropped because the writer is behind
+     */
+    public boolean recordAttitude(long timestampNanos, double roll, double pitch, double yaw)
+    {
+        long tail = mTail.get();
+        if(tail - mHead.get() > mMask)
+        {
+            mDropped.incrementAndGet();
+            return false;
+        }
+        int i = (int)(tail & mMask);
+        mTypes[i] = TYPE_ATTITUDE;
+        mTimestamps[i] = timestampNanos;
+        mRolls[i] = roll;
+        mPitches[i] = pitch;
+        mYaws[i] = yaw;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Takes attitude samples from {@code subscription} (roll, pitch and yaw) instead of
+     * {@link #recordAttitude}. The writer thread merges them with the queued fixes in
+     * timestamp order; samples the subscription dropped count as dropped records.
+     */
+    public void setAttitudeSource(TelemetryBus.Subscription subscription)
+    {
+        mAttitudeSource = subscription;
+    }
+
+    public long getDroppedCount()
+    {
+        TelemetryBus.Subscription attitudes = mAttitudeSource;
+        return mDropped.get() + (null != attitudes ? attitudes.getDroppedCount() : 0);
+    }
+
+    /**
+     * Writes everything still queued, trims the file to its records and closes it.
+     */
+    public void close() throws IOException
+    {
+        mIsClosing = true;
+        LockSupport.unpark(mWriterThread);
+        boolean interrupted = false;
+        while(mWriterThread.isAlive())
+        {
+            try
+            {
+                mWriterThread.join();
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        try
+        {
+            if(null == mWriteError && mWriterThread.getState() == Thread.State.NEW)
+            {
+                // 書き込みスレッドを起動していない場合
+                drain();
+            }
+            mHeader.putLong(HEADER_RECORD_COUNT, mRecordCount);
+            mHeader.force();
+            if(null != mChunk)
+            {
+                mChunk.force();
+            }
+            mChannel.truncate(HEADER_SIZE + mRecordCount * RECORD_SIZE);
+        }
+        finally
+        {
+            mChannel.close();
+            mFile.close();
+        }
+
+        if(null != mWriteError)
+        {
+            throw mWriteError;
+        }
+    }
+
+    private void runWriter()
+    {
+        try
+        {
+            while(true)
+            {
+                boolean isClosing = mIsClosing;
+                drain();
+                if(isClosing)
+                {
+                    break;
+                }
+                LockSupport.parkNanos(this, WRITER_INTERVAL_NANOS);
+            }
+        }
+        catch(IOException e)
+        {
+            mWriteError = e;
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        TelemetryBus.Subscription attitudes = mAttitudeSource;
+        long head = mHead.get();
+        long tail = mTail.get();
+        boolean isWritten = false;
+        while(true)
+        {
+            if(!mHasAttitude && null != attitudes && attitudes.poll(mAttitude))
+            {
+                mHasAttitude = true;
+                mAttitudeTimestamp = attitudes.getTimestampNanos();
+            }
+            boolean hasRecord = (head < tail);
+            // 測位と姿勢を時刻順に混ぜる
+            if(mHasAttitude && (!hasRecord || mAttitudeTimestamp <= mTimestamps[(int)(head & mMask)]))
+            {
+                writeAttitude(mAttitudeTimestamp, mAttitude[TelemetryBus.ROLL], mAttitude[TelemetryBus.PITCH], mAttitude[TelemetryBus.YAW]);
+                mHasAttitude = false;
+            }
+            else if(hasRecord)
+            {
+                write((int)(head & mMask));
+                head++;
+                mHead.lazySet(head);
+            }
+            else
+            {
+                break;
+            }
+            isWritten = true;
+        }
+        if(!isWritten)
+        {
+            return;
+        }
+        // 途中で落ちても読めるように件数を更新しておく
+        mHeader.putLong(HEADER_RECORD_COUNT, mRecordCount);
+    }
+
+    private void write(int i) throws IOException
+    {
+        int position = writeHeader(mTypes[i], mTimestamps[i]);
+
+        if(TYPE_FIX == mTypes[i])
+        {
+            int latitude = (int)Math.round(mLatitudes[i] * 1e7);
+            int longitude = (int)Math.round(mLongitudes[i] * 1e7);
+
+            boolean hasBearing = (mBearings[i] >= 0);
+            mChunk.put(position + 1, (byte)(hasBearing ? FLAG_HAS_BEARING : 0));
+            mChunk.put(position + 2, (byte)clamp(mSatellitesUsedInFix[i], 0, 255));
+            mChunk.put(position + 3, (byte)clamp(mSatellites[i], 0, 255));
+            // 経度が±180°を跨いでもintの桁あふれで元に戻る
+            mChunk.putInt(position + 8, latitude - mPrevLatitude);
+            mChunk.putInt(position + 12, longitude - mPrevLongitude);
+            mChunk.putInt(position + 16, (int)clamp(Math.round(mAltitudes[i] * 100), Integer.MIN_VALUE, Integer.MAX_VALUE));
+            mChunk.putShort(position + 20, (short)clamp(Math.round(mSpeeds[i] * 100), 0, 0xffff));
+            mChunk.putShort(position + 22, (short)(hasBearing ? Math.round(wrap360(mBearings[i]) * 100) % 36000 : UNKNOWN_BEARING));
+            mChunk.putShort(position + 24, (short)clamp(Math.round(mAccuracies[i] * 10), 0, 0xffff));
+
+            mPrevLatitude = latitude;
+            mPrevLongitude = longitude;
+        }
+        mChunk.putShort(position + 26, toCentiDegrees(mRolls[i]));
+        mChunk.putShort(position + 28, toCentiDegrees(mPitches[i]));
+        mChunk.putShort(position + 30, toCentiDegrees(mYaws[i]));
+    }
+
+    private void writeAttitude(long timestampNanos, double roll, double pitch, double yaw) throws IOException
+    {
+        int position = writeHeader(TYPE_ATTITUDE, timestampNanos);
+        mChunk.putShort(position + 26, toCentiDegrees(roll));
+        mChunk.putShort(position + 28, toCentiDegrees(pitch));
+        mChunk.putShort(position + 30, toCentiDegrees(yaw));
+    }
+
+    // 型と時刻の差分を書いたレコードの位置を返す
+    private int writeHeader(int type, long timestampNanos) throws IOException
+    {
+        long deltaMicros = (timestampNanos - mPrevTimestamp) / 1000;
+        if(deltaMicros > Integer.MAX_VALUE || deltaMicros < Integer.MIN_VALUE)
+        {
+            long timestamp = timestampNanos - mHeader.getLong(HEADER_BASE_TIMESTAMP);
+            int position = nextRecord();
+            mChunk.put(position, (byte)TYPE_TIME);
+            mChunk.putLong(position + 8, timestamp);
+            mPrevTimestamp = timestampNanos;
+            deltaMicros = 0;
+        }
+        // 切り捨て誤差が積もらないように，前回値は書いた値の分だけ進める
+        mPrevTimestamp += deltaMicros * 1000;
+
+        int position = nextRecord();
+        mChunk.put(position, (byte)type);
+        mChunk.putInt(position + 4, (int)deltaMicros);
+        return position;
+    }
+
+    // 次のレコードの位置を返す(マップ済みの範囲が尽きたら次の範囲をマップする)
+    private int nextRecord() throws IOException
+    {
+        if(null == mChunk || mChunk.remaining() < RECORD_SIZE)
+        {
+            long position = HEADER_SIZE + mRecordCount * RECORD_SIZE;
+            mChunk = mChannel.map(FileChannel.MapMode.READ_WRITE, position, MAP_CHUNK_SIZE);
+            mChunk.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int position = mChunk.position();
+        // 未使用部分は0で埋まっているので，型以外は書かなければ0になる
+        mChunk.position(position + RECORD_SIZE);
+        mRecordCount++;
+        return position;
+    }
+
+    private static short toCentiDegrees(double degrees)
+    {
+        double d = wrap360(degrees);
+        if(d >= 180) { d -= 360; }
+        return (short)clamp(Math.round(d * 100), -18000, 17999);
+    }
+
+    private static double wrap360(double degrees)
+    {
+        double d = degrees % 360;
+        return (d < 0 ? d + 360 : d);
+    }
+
+    private static long clamp(long value, long min, long max)
+    {
+        return (value < min ? min : (value > max ? max : value));
+    }
+}
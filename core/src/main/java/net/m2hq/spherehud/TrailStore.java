@@ -0,0 +1,349 @@
+package net.m2hq.spherehud;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accepted GPS fixes of the trail shown on the radar, with their exact fix timestamps.
+ *
+ * ListenerService pushes every fix from onLocationChanged; a fix is accepted only when it
+ * moved further from the last accepted one than both fixes' accuracies combined, so jitter
+ * while standing still does not draw a trail. The step (distance and bearing from the
+ * previous accepted fix) is computed once here instead of on every frame.
+ *
+ * Besides the full history the store keeps decimated levels: level k holds a point only
+ * when it is at least {@code getLevelSpacing(k)} away from the previous point of that
+ * level, and keeps a bounded number of them. A radar range draws the level matching its
+ * scale, so every range draws at most {@link #LEVEL_POINTS} points however long the
+ * history is. The largest step among the recent {@link #RECENT_STEPS} fixes is kept as a
+ * running max.
+ *
+ * One writer thread and any number of readers. Entries are addressed by their sequence
+ * number (0 for the first accepted fix). A reader takes {@link #getCount} or
+ * {@link #getLevelPointCount} once per frame and reads back from there, so the entries
+ * it pairs up stay the same while the writer appends. The rings are large enough that
+ * the writer never overwrites what a frame is reading.
+ */
+public class TrailStore
+{
+    // 0.5秒ごとの測位で4時間以上
+    private static final int DEFAULT_CAPACITY = 32768;
+    private static final double EARTH_RADIUS = 6371008.8;
+    /** Meters per degree of latitude. */
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    /** Spacing of level 0 in meters; each level is LEVEL_FACTOR times coarser. */
+    private static final float LEVEL_BASE_SPACING = 0.5f;
+    private static final float LEVEL_FACTOR = 5.0f;
+    private static final int LEVELS = 5;
+    /** Upper bound of points readable from a level. */
+    public static final int LEVEL_POINTS = 128;
+    // 読み出し中に上書きされないよう読める数の倍を確保する
+    private static final int LEVEL_CAPACITY = LEVEL_POINTS * 2;
+
+    /** Number of recent steps covered by {@link #getRecentMaxStep}. */
+    public static final int RECENT_STEPS = 20;
+
+    private final int mMask;
+    private final long[] mTimestamps;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final float[] mAccuracies;
+    private final float[] mStepDistances;
+    private final float[] mStepBearings;
+
+    // 受け付けた測位の数(書き込み後に更新する)
+    private final AtomicLong mCount = new AtomicLong();
+
+    private long mRejectedCount = 0;
+
+    // 間引いた軌跡
+    private final float[] mLevelSpacings = new float[LEVELS];
+    private final double[][] mLevelLatitudes = new double[LEVELS][LEVEL_CAPACITY];
+    private final double[][] mLevelLongitudes = new double[LEVELS][LEVEL_CAPACITY];
+    private final AtomicLong[] mLevelCounts = new AtomicLong[LEVELS];
+
+    // 直近RECENT_STEPS個の移動量の最大値(単調減少キューで管理)
+    // 履歴の容量がRECENT_STEPSより小さくてもよいように，移動量もキューに持つ
+    private final long[] mMaxQueue = new long[RECENT_STEPS];
+    private final float[] mMaxQueueSteps = new float[RECENT_STEPS];
+    private long mMaxQueueHead = 0;
+    private long mMaxQueueTail = 0;
+    private volatile float mRecentMaxStep = 0;
+
+    public TrailStore()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TrailStore(int capacity)
+    {
+        if(Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mMask = capacity - 1;
+        mTimestamps = new long[capacity];
+        mLatitudes = new double[capacity];
+        mLongitudes = new double[capacity];
+        mAccuracies = new float[capacity];
+        mStepDistances = new float[capacity];
+        mStepBearings = new float[capacity];
+
+        float spacing = LEVEL_BASE_SPACING;
+        for(int level = 0; level < LEVELS; level++)
+        {
+            mLevelSpacings[level] = spacing;
+            mLevelCounts[level] = new AtomicLong();
+            spacing *= LEVEL_FACTOR;
+        }
+    }
+
+    /**
+     * Offers a fix. Called from the single writer thread.
+     *
+     * @param timestampNanos elapsedRealtimeNanos of the fix
+     * @param accuracy meters (68% radius)
+     * @return true if the fix was added to the trail
+     */
+    public boolean onFix(long timestampNanos, double latitude, double longitude, float accuracy)
+    {
+        long count = mCount.get();
+        float distance = 0;
+        float bearing = 0;
+        if(count > 0)
+        {
+            int last = (int)((count - 1) & mMask);
+            distance = (float)distance(mLatitudes[last], mLongitudes[last], latitude, longitude);
+            // 両方の誤差を合わせたより動いていなければ位置のばらつきとみなす
+            float gate = (float)Math.hypot(mAccuracies[last], accuracy);
+            if(distance <= gate)
+            {
+                mRejectedCount++;
+                return false;
+            }
+            bearing = (float)bearing(mLatitudes[last], mLongitudes[last], latitude, longitude);
+        }
+
+        int i = (int)(count & mMask);
+        mTimestamps[i] = timestampNanos;
+        mLatitudes[i] = latitude;
+        mLongitudes[i] = longitude;
+        mAccuracies[i] = accuracy;
+        mStepDistances[i] = distance;
+        mStepBearings[i] = bearing;
+        for(int level = 0; level < LEVELS; level++)
+        {
+            addLevelPoint(level, latitude, longitude);
+        }
+        updateRecentMaxStep(count, distance);
+        mCount.lazySet(count + 1);
+        return true;
+    }
+
+    private void addLevelPoint(int level, double latitude, double longitude)
+    {
+        long count = mLevelCounts[level].get();
+        if(count > 0)
+        {
+            int last = (int)((count - 1) % LEVEL_CAPACITY);
+            if(distance(mLevelLatitudes[level][last], mLevelLongitudes[level][last], latitude, longitude) < mLevelSpacings[level])
+            {
+                return;
+            }
+        }
+        int i = (int)(count % LEVEL_CAPACITY);
+        mLevelLatitudes[level][i] = latitude;
+        mLevelLongitudes[level][i] = longitude;
+        mLevelCounts[level].lazySet(count + 1);
+    }
+
+    private void updateRecentMaxStep(long count, float distance)
+    {
+        // 新しい値以下のものは二度と最大にならない
+        while(mMaxQueueTail > mMaxQueueHead
+                && mMaxQueueSteps[(int)((mMaxQueueTail - 1) % RECENT_STEPS)] <= distance)
+        {
+            mMaxQueueTail--;
+        }
+        // 窓から外れたものを先に捨てる(新しい値で先頭を上書きしないように)
+        while(mMaxQueueTail > mMaxQueueHead
+                && mMaxQueue[(int)(mMaxQueueHead % RECENT_STEPS)] <= count - RECENT_STEPS)
+        {
+            mMaxQueueHead++;
+        }
+        mMaxQueue[(int)(mMaxQueueTail % RECENT_STEPS)] = count;
+        mMaxQueueSteps[(int)(mMaxQueueTail % RECENT_STEPS)] = distance;
+        mMaxQueueTail++;
+        mRecentMaxStep = mMaxQueueSteps[(int)(mMaxQueueHead % RECENT_STEPS)];
+    }
+
+    /**
+     * @return number of fixes accepted so far, which is the sequence number of the next one;
+     *         changes whenever the trail changes
+     */
+    public long getCount()
+    {
+        return mCount.get();
+    }
+
+    /**
+     * @param count a value read from {@link #getCount}
+     * @return sequence number of the oldest fix still held at that count
+     */
+    public long getOldestSequence(long count)
+    {
+        return Math.max(0, count - (mMask + 1));
+    }
+
+    public long getRejectedCount()
+    {
+        return mRejectedCount;
+    }
+
+    private int index(long sequence)
+    {
+        return (int)(sequence & mMask);
+    }
+
+    // 保持している範囲か(範囲外は上書きされている)
+    private boolean isHeld(long sequence)
+    {
+        return (sequence >= getOldestSequence(mCount.get()) && sequence >= 0);
+    }
+
+    public long getTimestamp(long sequence)
+    {
+        return mTimestamps[index(sequence)];
+    }
+
+    public double getLatitude(long sequence)
+    {
+        return mLatitudes[index(sequence)];
+    }
+
+    public double getLongitude(long sequence)
+    {
+        return mLongitudes[index(sequence)];
+    }
+
+    public float getAccuracy(long sequence)
+    {
+        return mAccuracies[index(sequence)];
+    }
+
+    /**
+     * @return meters moved from the previous accepted fix, 0 for the first fix or beyond the stored history
+     */
+    public float getStepDistance(long sequence)
+    {
+        if(!isHeld(sequence))
+        {
+            return 0;
+        }
+        return mStepDistances[index(sequence)];
+    }
+
+    /**
+     * @return initial bearing [deg, 0..360) of the step from the previous accepted fix
+     */
+    public float getStepBearing(long sequence)
+    {
+        if(!isHeld(sequence))
+        {
+            return 0;
+        }
+        return mStepBearings[index(sequence)];
+    }
+
+    /**
+     * @return largest step distance among the newest {@link #RECENT_STEPS} accepted fixes
+     */
+    public float getRecentMaxStep()
+    {
+        return mRecentMaxStep;
+    }
+
+    public int getLevelCount()
+    {
+        return LEVELS;
+    }
+
+    /**
+     * @return minimum distance in meters between neighbouring points of the level
+     */
+    public float getLevelSpacing(int level)
+    {
+        return mLevelSpacings[level];
+    }
+
+    /**
+     * @return the finest level whose spacing is at least {@code spacing}, or the coarsest level
+     */
+    public int getLevelFor(float spacing)
+    {
+        for(int level = 0; level < LEVELS; level++)
+        {
+            if(mLevelSpacings[level] >= spacing)
+            {
+                return level;
+            }
+        }
+        return LEVELS - 1;
+    }
+
+    /**
+     * @return number of points added to the level so far, which is the sequence number of the next one
+     */
+    public long getLevelPointCount(int level)
+    {
+        return mLevelCounts[level].get();
+    }
+
+    /**
+     * @param count a value read from {@link #getLevelPointCount}
+     * @return sequence number of the oldest readable point at that count; at most
+     *         {@link #LEVEL_POINTS} points are readable
+     */
+    public long getOldestLevelSequence(long count)
+    {
+        return Math.max(0, count - LEVEL_POINTS);
+    }
+
+    public double getLevelLatitude(int level, long sequence)
+    {
+        return mLevelLatitudes[level][(int)(sequence % LEVEL_CAPACITY)];
+    }
+
+    public double getLevelLongitude(int level, long sequence)
+    {
+        return mLevelLongitudes[level][(int)(sequence % LEVEL_CAPACITY)];
+    }
+
+    /**
+     * Great-circle distance in meters (haversine).
+     */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2)
+    {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dPhi / 2) * Math.sin(dPhi / 2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+        return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Initial bearing in degrees [0, 360) from point 1 to point 2.
+     */
+    public static double bearing(double latitude1, double longitude1, double latitude2, double longitude2)
+    {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double dLambda = Math.toRadians(longitude2 - longitude1);
+        double y = Math.sin(dLambda) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLambda);
+        double bearing = Math.toDegrees(Math.atan2(y, x));
+        return (bearing < 0 ? bearing + 360 : bearing);
+    }
+}
@@ -0,0 +1,31 @@
+package net.m2hq.spherehud;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures heap allocation on the current thread, for the "does not allocate" tests.
+ */
+class AllocationProbe
+{
+    /**
+     * @return bytes allocated by the current thread while {@code task} ran, or 0 on a JVM
+     *         that cannot count them (the check is then skipped)
+     */
+    static long bytesAllocatedBy(Runnable task)
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean))
+        {
+            task.run();
+            return 0;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+        long threadId = Thread.currentThread().getId();
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        task.run();
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+        return after - before;
+    }
+}
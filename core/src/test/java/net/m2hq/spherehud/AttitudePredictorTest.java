@@ -0,0 +1,131 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AttitudePredictorTest
+{
+    private static final long MILLISECOND = 1000000L;
+    private static final long SAMPLE_INTERVAL = 20 * MILLISECOND;
+    private static final double ROLL_RATE = 90;
+
+    private static double roll(long t)
+    {
+        return ROLL_RATE * t / 1e9;
+    }
+
+    @Test
+    public void steadyTurn_isPredictedToDisplayTime() throws Exception
+    {
+        AttitudeRate rate = new AttitudeRate();
+        for(long t = 0; t <= 500 * MILLISECOND; t += SAMPLE_INTERVAL)
+        {
+            rate.update(t, roll(t), 0, (350 + 40 * t / 1e9) % 360 - 180);
+        }
+        assertEquals(ROLL_RATE, rate.getRollRate(), 0.1);
+        assertEquals(0, rate.getPitchRate(), 1e-9);
+        // ±180を跨いでも角速度は連続
+        assertEquals(40, rate.getYawRate(), 0.1);
+        assertEquals(SAMPLE_INTERVAL, rate.getIntervalNanos());
+
+        long sample = 500 * MILLISECOND;
+        long frame = sample + 30 * MILLISECOND;
+        AttitudePredictor predictor = new AttitudePredictor();
+        predictor.setMeasuring(true);
+
+        predictor.predict(frame, sample, roll(sample), 0, 0, rate.getRollRate(), 0, 0);
+        assertEquals(roll(sample), predictor.getRoll(), 0);
+        assertEquals(30, predictor.getLatencyMillis(50), 1e-9);
+        assertEquals(30, predictor.getResidualLatencyMillis(50), 1e-9);
+
+        predictor.setPrediction(true, 16 * MILLISECOND);
+        predictor.predict(frame, sample, roll(sample), 0, 0, rate.getRollRate(), 0, 0);
+        assertEquals(roll(frame + 16 * MILLISECOND), predictor.getRoll(), 0.01);
+        assertEquals(46, predictor.getLatencyMillis(100), 1e-9);
+        assertEquals(0, predictor.getResidualLatencyMillis(0), 1e-9);
+    }
+
+    @Test
+    public void filterLag_isCoveredByLagUpdates() throws Exception
+    {
+        // OrientationFusionと同じ係数のローパスを等速回転に通す
+        double alpha = OrientationFusion.LAG_UPDATES / (1 + OrientationFusion.LAG_UPDATES);
+        AttitudeRate rate = new AttitudeRate();
+        double filtered = 0;
+        long t;
+        for(t = 0; t <= 2000 * MILLISECOND; t += SAMPLE_INTERVAL)
+        {
+            filtered = filtered * alpha + roll(t) * (1 - alpha);
+            rate.update(t, filtered, 0, 0);
+        }
+        t -= SAMPLE_INTERVAL;
+        long lag = (long)(OrientationFusion.LAG_UPDATES * rate.getIntervalNanos());
+
+        AttitudePredictor predictor = new AttitudePredictor();
+        predictor.setPrediction(true, 0);
+        predictor.predict(t, t - lag, filtered, 0, 0, rate.getRollRate(), 0, 0);
+        assertEquals(roll(t), predictor.getRoll(), 0.1);
+    }
+
+    @Test
+    public void extrapolation_isClampedAndStopsForOldSamples() throws Exception
+    {
+        AttitudePredictor predictor = new AttitudePredictor();
+        predictor.setPrediction(true, 16 * MILLISECOND);
+        predictor.setMeasuring(true);
+
+        predictor.predict(300 * MILLISECOND, 0, 10, 20, 30, 100, -100, 10);
+        double dt = AttitudePredictor.MAX_EXTRAPOLATION_NANOS / 1e9;
+        assertEquals(10 + 100 * dt, predictor.getRoll(), 1e-9);
+        assertEquals(20 - 100 * dt, predictor.getPitch(), 1e-9);
+        assertEquals(30 + 10 * dt, predictor.getYaw(), 1e-9);
+        assertEquals(1, predictor.getClampedCount());
+        assertEquals(316 - AttitudePredictor.MAX_EXTRAPOLATION_NANOS / 1e6, predictor.getResidualLatencyMillis(50), 1e-9);
+
+        // センサが止まっている
+        predictor.predict(AttitudePredictor.MAX_SAMPLE_AGE_NANOS + MILLISECOND, 0, 10, 20, 30, 100, -100, 10);
+        assertEquals(10, predictor.getRoll(), 0);
+
+        // 時計が合っていない(サンプルが未来)
+        predictor.predict(0, 100 * MILLISECOND, 10, 20, 30, 100, -100, 10);
+        assertEquals(10, predictor.getRoll(), 0);
+
+        assertEquals(3, predictor.getLatencyCount());
+        predictor.resetLatencies();
+        assertEquals(0, predictor.getLatencyCount());
+        assertEquals(0, predictor.getClampedCount());
+    }
+
+    @Test
+    public void isExtrapolating_onlyWhileTurningWithRecentSamples() throws Exception
+    {
+        AttitudePredictor predictor = new AttitudePredictor();
+        assertFalse(predictor.isExtrapolating(30 * MILLISECOND, 0, 100, 0, 0));
+
+        predictor.setPrediction(true, 16 * MILLISECOND);
+        assertTrue(predictor.isExtrapolating(30 * MILLISECOND, 0, 100, 0, 0));
+        assertTrue(predictor.isExtrapolating(30 * MILLISECOND, 0, 0, 0, -10));
+        // 止まっていれば毎フレーム描き直す必要はない
+        assertFalse(predictor.isExtrapolating(30 * MILLISECOND, 0, 0, 0, 0));
+        // センサが止まっている
+        assertFalse(predictor.isExtrapolating(AttitudePredictor.MAX_SAMPLE_AGE_NANOS + MILLISECOND, 0, 100, 0, 0));
+        // 時計が合っていない(サンプルが未来)
+        assertFalse(predictor.isExtrapolating(0, 100 * MILLISECOND, 100, 0, 0));
+    }
+
+    @Test
+    public void gap_restartsRate() throws Exception
+    {
+        AttitudeRate rate = new AttitudeRate();
+        for(long t = 0; t <= 500 * MILLISECOND; t += SAMPLE_INTERVAL)
+        {
+            rate.update(t, roll(t), 0, 0);
+        }
+        rate.update(500 * MILLISECOND + AttitudeRate.MAX_GAP_NANOS + MILLISECOND, 0, 0, 0);
+        assertEquals(0, rate.getRollRate(), 0);
+
+        rate.reset();
+        assertEquals(0, rate.getIntervalNanos());
+    }
+}
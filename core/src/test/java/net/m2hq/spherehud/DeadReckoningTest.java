@@ -0,0 +1,129 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeadReckoningTest
+{
+    private static final long SECOND = 1000000000L;
+    private static final long FIX_INTERVAL = SECOND / 2;
+    private static final double LATITUDE = 35.0;
+    private static final double LONGITUDE = 139.0;
+    private static final double METERS_PER_DEGREE_LONGITUDE = TrailStore.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+
+    /** 速度15m/s，10°/sで左回りの円 */
+    private static class Circle
+    {
+        static final double SPEED = 15;
+        static final double TURN_RATE = -10;
+        static final double RADIUS = SPEED / Math.toRadians(Math.abs(TURN_RATE));
+
+        static double heading(double t)
+        {
+            return 90 + TURN_RATE * t;
+        }
+
+        // 時刻0に東向きに出発して北へ曲がっていく円上の位置
+        static double latitude(double t)
+        {
+            double angle = Math.toRadians(Math.abs(TURN_RATE) * t);
+            return LATITUDE + RADIUS * (1 - Math.cos(angle)) / TrailStore.METERS_PER_DEGREE;
+        }
+
+        static double longitude(double t)
+        {
+            double angle = Math.toRadians(Math.abs(TURN_RATE) * t);
+            return LONGITUDE + RADIUS * Math.sin(angle) / METERS_PER_DEGREE_LONGITUDE;
+        }
+    }
+
+    @Test
+    public void turning_isPredictedUntilNextFix() throws Exception
+    {
+        DeadReckoning reckoning = new DeadReckoning();
+        double holdErrorSum = 0;
+        int count = 0;
+        for(long t = 0; t <= 20 * SECOND; t += FIX_INTERVAL)
+        {
+            double s = t / 1e9;
+            if(t > 0)
+            {
+                // 予測しない場合(前の測位のまま)の誤差
+                double north = (Circle.latitude(s) - Circle.latitude(s - 0.5)) * TrailStore.METERS_PER_DEGREE;
+                double east = (Circle.longitude(s) - Circle.longitude(s - 0.5)) * METERS_PER_DEGREE_LONGITUDE;
+                holdErrorSum += north * north + east * east;
+                count++;
+            }
+            reckoning.onFix(t, Circle.latitude(s), Circle.longitude(s), (float)Circle.SPEED, 0,
+                    (float)((Circle.heading(s) + 360) % 360), Circle.heading(s));
+
+            // フレームごとの問い合わせ(ヨーは姿勢の推定から)
+            for(long frame = t; frame < t + FIX_INTERVAL; frame += SECOND / 60)
+            {
+                reckoning.predict(frame, Circle.heading(frame / 1e9));
+                assertEquals(Circle.SPEED, reckoning.getSpeed(), 1e-4);
+            }
+        }
+
+        assertEquals(40, reckoning.getErrorCount());
+        assertTrue("rms=" + reckoning.getRmsPositionError(), reckoning.getRmsPositionError() < 0.1);
+        assertTrue(reckoning.getRmsPositionError() < Math.sqrt(holdErrorSum / count) / 20);
+        assertEquals(0, reckoning.getRmsSpeedError(), 1e-4);
+    }
+
+    @Test
+    public void braking_stopsAtZeroSpeed() throws Exception
+    {
+        DeadReckoning reckoning = new DeadReckoning();
+        reckoning.onFix(0, LATITUDE, LONGITUDE, 4, -8, 0, 0);
+
+        reckoning.predict(SECOND / 4, 0);
+        assertEquals(2, reckoning.getSpeed(), 1e-4);
+        assertEquals(0.75, (reckoning.getLatitude() - LATITUDE) * TrailStore.METERS_PER_DEGREE, 1e-3);
+
+        reckoning.predict(SECOND, 0);
+        assertEquals(0, reckoning.getSpeed(), 0);
+        // 0.5秒で1m進んで止まる
+        assertEquals(1, (reckoning.getLatitude() - LATITUDE) * TrailStore.METERS_PER_DEGREE, 1e-3);
+        assertEquals(LONGITUDE, reckoning.getLongitude(), 1e-12);
+
+        // 次の測位が遅れても予測は一定時間で止める
+        reckoning.onFix(2 * SECOND, LATITUDE, LONGITUDE, 10, 1, 90, 0);
+        reckoning.predict(100 * SECOND, 0);
+        assertEquals(10 + 1 * DeadReckoning.MAX_HORIZON_NANOS / 1e9, reckoning.getSpeed(), 1e-4);
+    }
+
+    @Test
+    public void isExtrapolating_onlyWhileMovingAndFixIsRecent() throws Exception
+    {
+        DeadReckoning reckoning = new DeadReckoning();
+        assertFalse(reckoning.isExtrapolating(0));
+
+        reckoning.onFix(0, LATITUDE, LONGITUDE, 10, 0, 90, 0);
+        assertTrue(reckoning.isExtrapolating(SECOND / 2));
+        assertFalse(reckoning.isExtrapolating(DeadReckoning.MAX_HORIZON_NANOS));
+
+        // 止まっている間は予測しても変わらない
+        reckoning.onFix(SECOND, LATITUDE, LONGITUDE, 0, 0, -1, 0);
+        assertFalse(reckoning.isExtrapolating(SECOND + SECOND / 2));
+        reckoning.onFix(2 * SECOND, LATITUDE, LONGITUDE, 0, 1, -1, 0);
+        assertTrue(reckoning.isExtrapolating(2 * SECOND + SECOND / 2));
+    }
+
+    @Test
+    public void unknownBearing_holdsPositionAndReportsError() throws Exception
+    {
+        DeadReckoning reckoning = new DeadReckoning();
+        reckoning.onFix(0, LATITUDE, LONGITUDE, 10, 0, -1, 0);
+        reckoning.predict(SECOND / 4, 30);
+        assertEquals(LATITUDE, reckoning.getLatitude(), 0);
+        assertEquals(10, reckoning.getSpeed(), 0);
+
+        // 0.5秒後の測位は北へ5m，速度9m/s
+        reckoning.onFix(SECOND / 2, LATITUDE + 5 / TrailStore.METERS_PER_DEGREE, LONGITUDE, 9, 0, 0, 30);
+        assertEquals(5, reckoning.getLastPositionError(), 1e-3);
+        assertEquals(1, reckoning.getLastSpeedError(), 1e-4);
+        assertEquals(1, reckoning.getErrorCount());
+    }
+}
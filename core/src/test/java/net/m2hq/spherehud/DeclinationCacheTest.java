@@ -0,0 +1,148 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class DeclinationCacheTest
+{
+    // 2020年ごろ
+    private static final long NOW = 1600000000000L;
+
+    /**
+     * 傾いた双極子の偏角(地磁気北極への方位)．GeomagneticFieldの代わりに，
+     * 滑らかさが同程度で直接計算できるモデルとして使う．年に0.1度ずつ極が動く
+     */
+    private static class DipoleModel implements DeclinationCache.Model
+    {
+        int count = 0;
+
+        @Override
+        public float getDeclination(double latitude, double longitude, long timeMillis)
+        {
+            count++;
+            return direct(latitude, longitude, timeMillis);
+        }
+
+        static float direct(double latitude, double longitude, long timeMillis)
+        {
+            double years = (timeMillis - NOW) / (365.25 * 24 * 60 * 60 * 1000);
+            double bearing = TrailStore.bearing(latitude, longitude, 80.7, -72.7 + 0.1 * years);
+            return (float)(bearing > 180 ? bearing - 360 : bearing);
+        }
+    }
+
+    /** 渡された処理をためておき，runAllで実行する */
+    private static class QueueExecutor implements Executor
+    {
+        final List<Runnable> queue = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command)
+        {
+            queue.add(command);
+        }
+
+        void runAll()
+        {
+            for(Runnable r : queue)
+            {
+                r.run();
+            }
+            queue.clear();
+        }
+    }
+
+    private static double angleError(float a, float b)
+    {
+        double d = Math.abs(a - b) % 360;
+        return Math.min(d, 360 - d);
+    }
+
+    @Test
+    public void interpolation_staysCloseToDirectEvaluation() throws Exception
+    {
+        DipoleModel model = new DipoleModel();
+        QueueExecutor executor = new QueueExecutor();
+        DeclinationCache cache = new DeclinationCache(model, executor, 1.0f, 4096);
+
+        double maxError = 0;
+        for(double latitude = -60; latitude <= 70; latitude += 0.37)
+        {
+            for(double longitude = -180; longitude < 180; longitude += 2.93)
+            {
+                float cached = cache.getDeclination(latitude, longitude, NOW);
+                executor.runAll();
+                cached = cache.getDeclination(latitude, longitude, NOW);
+                maxError = Math.max(maxError, angleError(cached, DipoleModel.direct(latitude, longitude, NOW)));
+            }
+        }
+        assertTrue("maxError=" + maxError, maxError < 0.1);
+    }
+
+    @Test
+    public void newCell_isFilledInBackground() throws Exception
+    {
+        DipoleModel model = new DipoleModel();
+        QueueExecutor executor = new QueueExecutor();
+        DeclinationCache cache = new DeclinationCache(model, executor, 1.0f, 256);
+
+        // 最初だけはその場で求める
+        assertEquals(DipoleModel.direct(35.2, 139.3, NOW), cache.getDeclination(35.2, 139.3, NOW), 0.1);
+        assertEquals(4, model.count);
+        assertTrue(executor.queue.isEmpty());
+
+        // 同じセルの中ではモデルを呼ばない
+        float last = cache.getDeclination(35.8, 139.9, NOW);
+        assertEquals(4, model.count);
+
+        // 隣のセルに入ると直前の値を返しつつ別スレッドで求める
+        float crossing = cache.getDeclination(35.8, 140.1, NOW);
+        assertEquals(4, model.count);
+        assertEquals(1, executor.queue.size());
+        cache.getDeclination(35.8, 140.2, NOW);
+        assertEquals(1, executor.queue.size());
+        assertEquals(last, crossing, 0);
+
+        executor.runAll();
+        // 共有する辺の2点は求め直さない
+        assertEquals(6, model.count);
+        assertEquals(DipoleModel.direct(35.8, 140.1, NOW), cache.getDeclination(35.8, 140.1, NOW), 0.1);
+
+        // 日付の区間が変わったら求め直す
+        cache.getDeclination(35.8, 140.1, NOW + DeclinationCache.BUCKET_MILLIS);
+        executor.runAll();
+        assertEquals(10, model.count);
+    }
+
+    @Test
+    public void nodes_areBoundedAndPersisted() throws Exception
+    {
+        DipoleModel model = new DipoleModel();
+        QueueExecutor executor = new QueueExecutor();
+        DeclinationCache cache = new DeclinationCache(model, executor, 1.0f, 16);
+        for(int i = 0; i < 20; i++)
+        {
+            cache.getDeclination(10.5, i + 0.5, NOW);
+            executor.runAll();
+        }
+        assertEquals(16, cache.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.write(out);
+
+        DipoleModel coldModel = new DipoleModel();
+        DeclinationCache cold = new DeclinationCache(coldModel, executor, 1.0f, 16);
+        cold.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(16, cold.size());
+        // 直近のセルは保存されているので最初からモデルを呼ばない
+        assertEquals(cache.getDeclination(10.5, 19.5, NOW), cold.getDeclination(10.5, 19.5, NOW), 0);
+        assertEquals(0, coldModel.count);
+    }
+}
@@ -0,0 +1,88 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FramePacerTest
+{
+    private static final long VSYNC = 16666667L;
+
+    // 60Hzのvsyncをcount回送り，描画したフレーム数を返す．sequenceはchangeEvery回ごとに変わる
+    private static int run(FramePacer pacer, int count, int changeEvery, boolean animating)
+    {
+        int drawn = 0;
+        for(int i = 0; i < count; i++)
+        {
+            int sequence = (changeEvery > 0 ? i / changeEvery : 0);
+            if(pacer.onFrame(i * VSYNC, sequence, animating))
+            {
+                drawn++;
+            }
+        }
+        return drawn;
+    }
+
+    @Test
+    public void fixedRate_limitsFrames() throws Exception
+    {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetRate(30);
+        assertEquals(30, run(pacer, 60, 1, false));
+
+        pacer = new FramePacer();
+        pacer.setTargetRate(20);
+        assertEquals(20, run(pacer, 60, 1, false));
+
+        pacer = new FramePacer();
+        pacer.setTargetRate(60);
+        assertEquals(60, run(pacer, 60, 1, false));
+    }
+
+    @Test
+    public void unchangedSequence_skipsFramesUntilIdleLimit() throws Exception
+    {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetRate(60);
+
+        // 1秒間変化なし: 最初のフレームと250msごと
+        assertEquals(4, run(pacer, 60, 0, false));
+    }
+
+    @Test
+    public void animating_drawsEvenWithoutChanges() throws Exception
+    {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetRate(60);
+        assertEquals(60, run(pacer, 60, 0, true));
+    }
+
+    @Test
+    public void lowBattery_capsRate() throws Exception
+    {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetRate(60);
+        pacer.setBatteryPercent(10);
+        assertEquals(20, pacer.getEffectiveRate());
+        assertEquals(20, run(pacer, 60, 1, false));
+
+        pacer.setBatteryPercent(50);
+        assertEquals(60, pacer.getEffectiveRate());
+    }
+
+    @Test
+    public void adaptive_followsTelemetryRate() throws Exception
+    {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetRate(FramePacer.RATE_ADAPTIVE);
+
+        // 3フレームごと(20Hz)に変化
+        run(pacer, 600, 3, false);
+        assertEquals(20, pacer.getEffectiveRate());
+
+        // 毎フレーム変化
+        pacer.reset();
+        run(pacer, 600, 1, false);
+        assertEquals(60, pacer.getEffectiveRate());
+    }
+}
@@ -0,0 +1,64 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameStatsTest
+{
+    @Test
+    public void steadyFrames() throws Exception
+    {
+        FrameStats stats = new FrameStats();
+        for(int i = 0; i <= 100; i++)
+        {
+            stats.onFrame(i * 20000000L);
+        }
+
+        assertEquals(100, stats.getCount());
+        assertEquals(50, stats.getFps(), 1e-9);
+        assertEquals(20, stats.getFrameTimeMillis(50), 1e-9);
+        assertEquals(20, stats.getFrameTimeMillis(99), 1e-9);
+    }
+
+    @Test
+    public void percentiles_nearestRank() throws Exception
+    {
+        FrameStats stats = new FrameStats(100);
+        long t = 0;
+        stats.onFrame(t);
+        // 1ms, 2ms, ... 100ms
+        for(int i = 1; i <= 100; i++)
+        {
+            t += i * 1000000L;
+            stats.onFrame(t);
+        }
+
+        assertEquals(50, stats.getFrameTimeMillis(50), 1e-9);
+        assertEquals(90, stats.getFrameTimeMillis(90), 1e-9);
+        assertEquals(99, stats.getFrameTimeMillis(99), 1e-9);
+        assertEquals(100, stats.getFrameTimeMillis(100), 1e-9);
+    }
+
+    @Test
+    public void window_keepsLatestFrames() throws Exception
+    {
+        FrameStats stats = new FrameStats(10);
+        long t = 0;
+        stats.onFrame(t);
+        for(int i = 0; i < 10; i++)
+        {
+            t += 100000000L;
+            stats.onFrame(t);
+        }
+        for(int i = 0; i < 10; i++)
+        {
+            t += 10000000L;
+            stats.onFrame(t);
+        }
+
+        assertEquals(10, stats.getCount());
+        assertEquals(100, stats.getFps(), 1e-9);
+        assertEquals(10, stats.getFrameTimeMillis(100), 1e-9);
+    }
+}
@@ -0,0 +1,126 @@
+package net.m2hq.spherehud;
+
+/**
+ * Replays a SensorTrace into a fusion filter and compares its output with the
+ * ground truth ("ori") events of the trace.
+ */
+class FusionTraceHarness
+{
+    static final int LEGACY = 0;
+    static final int QUATERNION = 1;
+
+    // 遅れの探索範囲
+    private static final long MAX_LAG_NANOS = 500000000L;
+
+    static class Result
+    {
+        // 真値に対する遅れ[ms]と，遅れを補正した後の残差のRMS[deg]
+        double rollLagMillis;
+        double rollJitter;
+        double yawMeanError;
+    }
+
+    static Result run(SensorTrace trace, int mode, double skipSeconds)
+    {
+        OrientationFusion legacy = new OrientationFusion();
+        QuaternionFusion quaternion = new QuaternionFusion();
+
+        int count = 0;
+        for(int i = 0; i < trace.size(); i++)
+        {
+            if(SensorTrace.ORIENTATION == trace.getType(i))
+            {
+                count++;
+            }
+        }
+        long[] timestamps = new long[count];
+        double[] truthRoll = new double[count];
+        double[] estimatedRoll = new double[count];
+        double[] yawError = new double[count];
+
+        int n = 0;
+        for(int i = 0; i < trace.size(); i++)
+        {
+            float v0 = trace.getFloatValue(i, 0);
+            float v1 = trace.getFloatValue(i, 1);
+            float v2 = trace.getFloatValue(i, 2);
+            switch(trace.getType(i))
+            {
+                case SensorTrace.ACCELEROMETER:
+                    legacy.setAccelerometer(v0, v1, v2);
+                    quaternion.setAccelerometer(v0, v1, v2);
+                    if(LEGACY == mode) { legacy.update(); }
+                    break;
+                case SensorTrace.MAGNETIC_FIELD:
+                    legacy.setMagneticField(v0, v1, v2);
+                    quaternion.setMagneticField(v0, v1, v2);
+                    if(LEGACY == mode) { legacy.update(); }
+                    break;
+                case SensorTrace.GYROSCOPE:
+                    if(QUATERNION == mode) { quaternion.onGyroscope(v0, v1, v2, trace.getTimestamp(i)); }
+                    break;
+                case SensorTrace.ORIENTATION:
+                    timestamps[n] = trace.getTimestamp(i);
+                    truthRoll[n] = trace.getValue(i, 0);
+                    estimatedRoll[n] = (LEGACY == mode ? legacy.getRoll() : quaternion.getRoll());
+                    double yaw = (LEGACY == mode ? legacy.getYaw() : quaternion.getYaw());
+                    yawError[n] = wrap(yaw - trace.getValue(i, 2));
+                    n++;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        int start = 0;
+        while(start < count && timestamps[start] - timestamps[0] < skipSeconds * 1e9)
+        {
+            start++;
+        }
+        long interval = timestamps[1] - timestamps[0];
+        int maxShift = (int)(MAX_LAG_NANOS / interval);
+
+        Result result = new Result();
+        double bestRms = Double.MAX_VALUE;
+        for(int shift = 0; shift <= maxShift; shift++)
+        {
+            double rms = rms(estimatedRoll, truthRoll, start, count, shift);
+            if(rms < bestRms)
+            {
+                bestRms = rms;
+                result.rollLagMillis = shift * interval / 1e6;
+            }
+        }
+        result.rollJitter = bestRms;
+
+        double sum = 0;
+        for(int i = start; i < count; i++)
+        {
+            sum += Math.abs(yawError[i]);
+        }
+        result.yawMeanError = sum / (count - start);
+
+        return result;
+    }
+
+    // estimated[i] と truth[i - shift] の差のRMS
+    private static double rms(double[] estimated, double[] truth, int start, int count, int shift)
+    {
+        double sum = 0;
+        int samples = 0;
+        for(int i = Math.max(start, shift); i < count; i++)
+        {
+            double d = estimated[i] - truth[i - shift];
+            sum += d * d;
+            samples++;
+        }
+        return Math.sqrt(sum / samples);
+    }
+
+    private static double wrap(double degrees)
+    {
+        while(degrees > 180) { degrees -= 360; }
+        while(degrees <= -180) { degrees += 360; }
+        return degrees;
+    }
+}
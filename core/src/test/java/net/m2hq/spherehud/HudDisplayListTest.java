@@ -0,0 +1,181 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HudDisplayListTest
+{
+    private static final HudScene.TextMeasurer MEASURER = new HudScene.TextMeasurer()
+    {
+        @Override
+        public int getTextHeight(char[] text, int start, int count)
+        {
+            return 16;
+        }
+    };
+
+    private static HudScene createScene()
+    {
+        HudScene scene = new HudScene(MEASURER);
+        TrailStore trail = new TrailStore(16);
+        for(int i = 0; i < 50; i++)
+        {
+            trail.onFix(i * 1000000000L, 35.0 + i * 0.00002, 139.0 + i * 0.00001, 5);
+        }
+        scene.setTrail(trail);
+        scene.setRoll(10);
+        scene.setPitch(-5);
+        scene.setYaw(30);
+        scene.setSpeed(42);
+        scene.setAltitude(120);
+        scene.setAccuracy(8.5f);
+        scene.setBatteryPercent(60);
+        scene.setSatellitesCount(7, 11);
+        scene.setTime(1000000);
+        return scene;
+    }
+
+    @Test
+    public void replay_issuesTheRecordedCommands() throws Exception
+    {
+        HudScene scene = createScene();
+        for(int gauge = 0; gauge < HudScene.GAUGE_COUNT; gauge++)
+        {
+            CountingRenderer direct = new CountingRenderer();
+            scene.emit(gauge, direct);
+
+            HudDisplayList list = new HudDisplayList();
+            scene.emit(gauge, list);
+            HudDisplayList copy = new HudDisplayList();
+            list.replay(copy);
+            CountingRenderer replayed = new CountingRenderer();
+            copy.replay(replayed);
+
+            String name = HudScene.getGaugeName(gauge);
+            assertTrue(name, list.size() > 0);
+            assertEquals(name, list.size(), copy.size());
+            for(int i = 0; i < list.size(); i++)
+            {
+                assertEquals(name, list.getCommand(i), copy.getCommand(i));
+            }
+            for(int command = 0; command < HudDisplayList.COMMAND_TYPES; command++)
+            {
+                assertEquals(name + " " + HudDisplayList.getCommandName(command), direct.getCount(command), replayed.getCount(command));
+            }
+            assertEquals(name, direct.getTextChars(), replayed.getTextChars());
+            assertEquals(name, direct.getLinePoints(), replayed.getLinePoints());
+            assertEquals(name, direct.getCount(HudDisplayList.SAVE), direct.getCount(HudDisplayList.RESTORE));
+            assertEquals(name, direct.getCount(HudDisplayList.BEGIN_PATH), direct.getCount(HudDisplayList.END_PATH));
+        }
+    }
+
+    @Test
+    public void replay_keepsArgumentsInOrder() throws Exception
+    {
+        HudDisplayList list = new HudDisplayList();
+        char[] text = "xSPEEDx".toCharArray();
+        float[] points = new float[]{ 9, 1, 2, 3, 4, 9 };
+        list.setColor(1, 2, 3, 4);
+        list.drawLines(points, 1, 4);
+        list.drawText(text, 1, 5, 10, 20);
+        list.arcTo(1, 2, 3, 4, 90, -45);
+        // 記録後に呼び出し側のバッファを書き換えても影響しない
+        text[1] = 'X';
+        points[1] = 0;
+
+        final StringBuilder log = new StringBuilder();
+        list.replay(new CountingRenderer()
+        {
+            @Override
+            public void setColor(int alpha, int red, int green, int blue)
+            {
+                log.append("color ").append(alpha).append(red).append(green).append(blue).append('\n');
+            }
+
+            @Override
+            public void drawLines(float[] points, int offset, int count)
+            {
+                log.append("lines");
+                for(int i = offset; i < offset + count; i++)
+                {
+                    log.append(' ').append((int)points[i]);
+                }
+                log.append('\n');
+            }
+
+            @Override
+            public void drawText(char[] text, int start, int count, float x, float y)
+            {
+                log.append("text ").append(text, start, count).append(' ').append((int)x).append(' ').append((int)y).append('\n');
+            }
+
+            @Override
+            public void arcTo(float left, float top, float right, float bottom, float startAngle, float sweepAngle)
+            {
+                log.append("arc ").append((int)startAngle).append(' ').append((int)sweepAngle).append('\n');
+            }
+        });
+        assertEquals("color 1234\nlines 1 2 3 4\ntext SPEED 10 20\narc 90 -45\n", log.toString());
+    }
+
+    @Test
+    public void draw_recordsOnlyWhenTheReadingsChange() throws Exception
+    {
+        HudScene scene = createScene();
+        CountingRenderer renderer = new CountingRenderer();
+        for(int i = 0; i < 3; i++)
+        {
+            for(int gauge = 0; gauge < HudScene.GAUGE_COUNT; gauge++)
+            {
+                scene.draw(gauge, renderer);
+            }
+        }
+        for(int gauge = 0; gauge < HudScene.GAUGE_COUNT; gauge++)
+        {
+            assertEquals(HudScene.getGaugeName(gauge), 1, scene.getBuildCount(gauge));
+            assertFalse(scene.isChanged(gauge));
+        }
+
+        scene.setYaw(31);
+        assertTrue(scene.isChanged(HudScene.COMPASS));
+        assertFalse(scene.isChanged(HudScene.RADAR));
+        scene.draw(HudScene.COMPASS, renderer);
+        assertEquals(2, scene.getBuildCount(HudScene.COMPASS));
+
+        // 同じ点滅の区間なら時計は描き直さない
+        scene.setTime(1000000 + 100);
+        assertFalse(scene.isChanged(HudScene.TIMER));
+        scene.setTime(1000000 + 250);
+        assertTrue(scene.isChanged(HudScene.TIMER));
+
+        // 精度は切り上げた表示が変わったときだけ
+        scene.setAccuracy(8.9f);
+        assertFalse(scene.isChanged(HudScene.DAMAGE));
+        assertTrue(scene.isChanged(HudScene.RADAR));
+
+        // 加速中は速度計が回り続ける
+        scene.setSpeedDeltaPerSecond(2);
+        assertTrue(scene.isGaugeAnimating());
+        scene.draw(HudScene.SPEEDOMETER, renderer);
+        scene.draw(HudScene.SPEEDOMETER, renderer);
+        assertEquals(3, scene.getBuildCount(HudScene.SPEEDOMETER));
+    }
+
+    @Test
+    public void record_reusesItsBuffers() throws Exception
+    {
+        HudScene scene = createScene();
+        HudDisplayList list = new HudDisplayList();
+        scene.emit(HudScene.COMPASS, list);
+        int size = list.size();
+        for(int i = 0; i < 10; i++)
+        {
+            list.clear();
+            scene.emit(HudScene.COMPASS, list);
+            assertEquals(size, list.size());
+        }
+        list.clear();
+        assertEquals(0, list.size());
+    }
+}
@@ -0,0 +1,302 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HudProjectionTest
+{
+    private static final float SCREEN_DISTANCE = 640 / 2.0f;
+    private static final int LADDER_VERTEX = 640 / 5;
+
+    /**
+     * The projection HUDView.drawCompass and drawPitchLine used before HudProjection,
+     * kept as the reference.
+     */
+    static class LegacyProjection
+    {
+        static final int CIRCLE_POINTS = 24;
+
+        final float[] x = new float[CIRCLE_POINTS];
+        final float[] y = new float[CIRCLE_POINTS];
+        final float[] z = new float[CIRCLE_POINTS];
+
+        final int[] ladder = new int[HudProjection.LADDER_RUNGS * 8];
+        final int[] alpha = new int[HudProjection.LADDER_RUNGS];
+        final int[] digitLines = new int[8];
+        final int[] digitText = new int[4];
+
+        void compass(int roll, int pitch, int yaw)
+        {
+            double rollRad = Math.toRadians(roll);
+            double pitchRad = Math.toRadians(pitch);
+            double yawRad = Math.toRadians(yaw);
+
+            float pfrx = (float)pitchRad;
+            float pfrz = (float)rollRad;
+            float pfx = 0.0f;
+            float pfy = (float)Math.sin(pfrx) * 1.5f;
+            float pfz = 0.0f;
+
+            for(int i = 0; i < CIRCLE_POINTS; i++)
+            {
+                double rad = Math.toRadians(i * (360 / CIRCLE_POINTS) - 90);
+                float px = (float)Math.cos(rad - yawRad);
+                float pz = (float)Math.sin(rad - yawRad);
+                float py = 0;
+
+                px = px - pfx;
+                py = py - pfy;
+                pz = pz - pfz;
+
+                float d;
+                float r;
+
+                d = (float)Math.sqrt(py * py + pz * pz);
+                r = (float)Math.atan2(py, pz);
+                pz = (float)(d * Math.cos(r - pfrx));
+                py = (float)(d * Math.sin(r - pfrx));
+
+                d = (float)Math.sqrt(px * px + py * py);
+                r = (float)Math.atan2(py, px);
+                px = (float)(d * Math.cos(r - pfrz));
+                py = (float)(d * Math.sin(r - pfrz));
+
+                x[i] = px;
+                y[i] = py;
+                z[i] = -pz;
+            }
+        }
+
+        void pitchLadder(int roll, int pitch)
+        {
+            int vertexPosX = LADDER_VERTEX;
+            double rollRad = Math.toRadians(roll);
+
+            for(int i = -5; i <= 5; i++)
+            {
+                int degBase = i * 10;
+                int deg = -pitch % 10;
+
+                int lx1 = (int)(0.05 * Math.pow((degBase + deg), 2.0)) + vertexPosX;
+                int ly1 = (degBase + deg) * 6;
+
+                int degLineLength = Math.abs(degBase + deg);
+                if(-(degBase + deg) == pitch)
+                {
+                    degLineLength = 50 + (int)(Math.abs(degBase + deg) * 1.5);
+                }
+
+                double[] t = new double[4];
+                double r = Math.sqrt(Math.pow(lx1, 2.0) + Math.pow(ly1, 2.0));
+                t[0] = Math.atan2(ly1, lx1);
+                t[1] = Math.atan2(ly1, -lx1);
+
+                alpha[i + 5] = (60 - Math.abs(degBase + deg)) * 255 / 60;
+
+                for(int j = 0; j < 2; j++)
+                {
+                    int px = (int)(r * Math.cos(t[j] + rollRad));
+                    int py = -(int)(r * Math.sin(t[j] + rollRad));
+
+                    int ppx, ppy;
+                    if(j == 0)
+                    {
+                        ppx = px + (int)(degLineLength * Math.cos(rollRad));
+                        ppy = py - (int)(degLineLength * Math.sin(rollRad));
+                    }
+                    else
+                    {
+                        ppx = px + (int)(degLineLength * Math.cos(rollRad - Math.PI));
+                        ppy = py - (int)(degLineLength * Math.sin(rollRad - Math.PI));
+                    }
+
+                    int n = (i + 5) * 8 + j * 4;
+                    ladder[n] = px;
+                    ladder[n + 1] = py;
+                    ladder[n + 2] = ppx;
+                    ladder[n + 3] = ppy;
+                }
+            }
+
+            int pitchDigitLinePos = vertexPosX;
+            int pitchDigitLineLength = 20;
+            for(int i = 0; i < 2; i++)
+            {
+                double rotate = rollRad - (i * Math.PI);
+
+                int px = (int)(pitchDigitLinePos * Math.cos(rotate));
+                int py = -(int)(pitchDigitLinePos * Math.sin(rotate));
+                int ppx = px + (int)(pitchDigitLineLength * Math.cos(rotate));
+                int ppy = py - (int)(pitchDigitLineLength * Math.sin(rotate));
+
+                digitLines[i * 4] = px;
+                digitLines[i * 4 + 1] = py;
+                digitLines[i * 4 + 2] = ppx;
+                digitLines[i * 4 + 3] = ppy;
+
+                digitText[i * 2] = (int)((pitchDigitLinePos - 30) * Math.cos(rotate));
+                digitText[i * 2 + 1] = -(int)((pitchDigitLinePos - 30) * Math.sin(rotate));
+            }
+        }
+    }
+
+    private static void assertClose(String message, float expected, float actual)
+    {
+        assertEquals(message, expected, actual, 1e-3 * Math.max(1, Math.abs(expected)));
+    }
+
+    @Test
+    public void compass_matchesLegacyProjection() throws Exception
+    {
+        LegacyProjection legacy = new LegacyProjection();
+        HudProjection projection = new HudProjection(24, SCREEN_DISTANCE, LADDER_VERTEX);
+
+        for(int roll = -180; roll <= 180; roll += 7)
+        {
+            for(int pitch = -90; pitch <= 90; pitch += 5)
+            {
+                for(int yaw = -180; yaw < 180; yaw += 11)
+                {
+                    legacy.compass(roll, pitch, yaw);
+                    projection.update(roll, pitch, yaw);
+
+                    String at = "roll=" + roll + " pitch=" + pitch + " yaw=" + yaw;
+                    for(int i = 0; i < LegacyProjection.CIRCLE_POINTS; i++)
+                    {
+                        float depth = legacy.z[i];
+                        if(Math.abs(depth - 0.2f) < 1e-4)
+                        {
+                            continue;
+                        }
+                        assertEquals(at + " i=" + i, depth >= 0.2f, projection.isRingVisible(i));
+                        if(depth < 0.2f)
+                        {
+                            continue;
+                        }
+                        float scale = SCREEN_DISTANCE / depth;
+                        assertClose(at + " x" + i, scale * legacy.x[i], projection.getRingX(i));
+                        assertClose(at + " y" + i, scale * legacy.y[i], projection.getRingY(i));
+                    }
+
+                    // 方位文字は45°ごとの点とその次の点の間
+                    float[] labels = projection.getLabelLines();
+                    for(int k = 0; k < HudProjection.LABEL_COUNT; k++)
+                    {
+                        int p1 = k * 3;
+                        int p2 = p1 + 1;
+                        if(!projection.isRingVisible(p1) || !projection.isRingVisible(p2))
+                        {
+                            assertFalse(projection.isLabelVisible(k));
+                            continue;
+                        }
+                        assertTrue(projection.isLabelVisible(k));
+                        assertClose(at, projection.getRingX(p1), labels[k * 4]);
+                        assertClose(at, projection.getRingY(p1), labels[k * 4 + 1]);
+                        assertClose(at, projection.getRingX(p2), labels[k * 4 + 2]);
+                        assertClose(at, projection.getRingY(p2), labels[k * 4 + 3]);
+
+                        float expectedScale = (SCREEN_DISTANCE / legacy.z[p1] + SCREEN_DISTANCE / legacy.z[p2]) / 2;
+                        assertClose(at, expectedScale, projection.getLabelScale(k));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pitchLadder_matchesLegacyProjection() throws Exception
+    {
+        LegacyProjection legacy = new LegacyProjection();
+        HudProjection projection = new HudProjection(24, SCREEN_DISTANCE, LADDER_VERTEX);
+
+        int mismatches = 0;
+        for(int roll = -359; roll <= 359; roll++)
+        {
+            for(int pitch = -180; pitch <= 180; pitch += 3)
+            {
+                legacy.pitchLadder(roll, pitch);
+                projection.update(roll, pitch, 0);
+
+                String at = "roll=" + roll + " pitch=" + pitch;
+                float[] ladder = projection.getLadderLines();
+                for(int n = 0; n < ladder.length; n++)
+                {
+                    // 整数への切り捨て境界で1px違うことはある(線の終点は切り捨て2回分)
+                    assertEquals(at + " n=" + n, legacy.ladder[n], ladder[n], (n % 4 < 2 ? 1.0 : 2.0));
+                    if(legacy.ladder[n] != ladder[n])
+                    {
+                        mismatches++;
+                    }
+                }
+                for(int rung = 0; rung < HudProjection.LADDER_RUNGS; rung++)
+                {
+                    assertEquals(at, legacy.alpha[rung], projection.getLadderAlpha(rung));
+                }
+                float[] digitLines = projection.getDigitLines();
+                for(int n = 0; n < 8; n++)
+                {
+                    assertEquals(at, legacy.digitLines[n], digitLines[n], (n % 4 < 2 ? 1.0 : 2.0));
+                }
+                for(int side = 0; side < 2; side++)
+                {
+                    assertEquals(at, legacy.digitText[side * 2], projection.getDigitTextX(side), 1.0);
+                    assertEquals(at, legacy.digitText[side * 2 + 1], projection.getDigitTextY(side), 1.0);
+                }
+            }
+        }
+
+        // ほとんどは完全に一致する
+        assertTrue("mismatches=" + mismatches, mismatches < 719 * 121 * 88 / 100);
+    }
+
+    @Test
+    public void higherResolution_passesThroughSamePoints() throws Exception
+    {
+        HudProjection coarse = new HudProjection(24, SCREEN_DISTANCE, LADDER_VERTEX);
+        HudProjection fine = new HudProjection(360, SCREEN_DISTANCE, LADDER_VERTEX);
+        coarse.update(12, -8, 33);
+        fine.update(12, -8, 33);
+
+        for(int i = 0; i < 24; i++)
+        {
+            assertEquals(coarse.isRingVisible(i), fine.isRingVisible(i * 15));
+            if(coarse.isRingVisible(i))
+            {
+                assertEquals(coarse.getRingX(i), fine.getRingX(i * 15), 1e-3);
+                assertEquals(coarse.getRingY(i), fine.getRingY(i * 15), 1e-3);
+            }
+        }
+        for(int k = 0; k < HudProjection.LABEL_COUNT; k++)
+        {
+            assertEquals(coarse.isLabelVisible(k), fine.isLabelVisible(k));
+            assertEquals(coarse.getLabelScale(k), fine.getLabelScale(k), 1e-3);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ringPoints_mustHitEveryLabel() throws Exception
+    {
+        new HudProjection(32, SCREEN_DISTANCE, LADDER_VERTEX);
+    }
+
+    @Test
+    public void update_doesNotAllocate() throws Exception
+    {
+        final HudProjection projection = new HudProjection(72, SCREEN_DISTANCE, LADDER_VERTEX);
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for(int i = 0; i < 10000; i++)
+                {
+                    projection.update(i % 90, i % 40, i % 360);
+                }
+            }
+        };
+        task.run();
+
+        assertEquals(0, AllocationProbe.bytesAllocatedBy(task));
+    }
+}
@@ -0,0 +1,103 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void buckets_coverAllValuesInOrder() throws Exception
+    {
+        assertEquals(0, LatencyHistogram.getBucket(-5));
+        int previous = 0;
+        for(long value = 0; value < 100000; value++)
+        {
+            int bucket = LatencyHistogram.getBucket(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(LatencyHistogram.getBucketLowerBound(bucket) <= value);
+            assertTrue(LatencyHistogram.getBucketLowerBound(bucket + 1) > value);
+            previous = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_areWithinBucketResolution() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(1);
+        long[] values = new long[10000];
+        for(int i = 0; i < values.length; i++)
+        {
+            // 0.1ms〜100ms
+            values[i] = (long)(100000 * Math.pow(1000, random.nextDouble()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for(double percentile : new double[] { 1, 50, 90, 99, 100 })
+        {
+            long expected = values[(int)Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = histogram.getPercentile(percentile);
+            assertTrue(percentile + ": " + expected + " " + actual, actual >= expected);
+            assertTrue(percentile + ": " + expected + " " + actual, actual <= expected * (1 + 1.0 / LatencyHistogram.SUB_BUCKETS));
+        }
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void concurrentRecording_losesNothing() throws Exception
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for(int i = 0; i < threads.length; i++)
+        {
+            final int offset = i;
+            threads[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for(int j = 0; j < 100000; j++)
+                    {
+                        histogram.record(1000 + offset * 100000 + j % 1000);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for(Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(1000 + 300000 + 999, histogram.getMax());
+    }
+
+    @Test
+    public void profiler_lapRecordsAndChains() throws Exception
+    {
+        PipelineProfiler profiler = new PipelineProfiler();
+        long start = System.nanoTime();
+        long next = profiler.lap(PipelineProfiler.COMPASS, start);
+        profiler.lap(PipelineProfiler.RADAR, next);
+        assertEquals(1, profiler.getHistogram(PipelineProfiler.COMPASS).getCount());
+        assertEquals(1, profiler.getHistogram(PipelineProfiler.RADAR).getCount());
+        assertEquals(0, profiler.getHistogram(PipelineProfiler.DRAW).getCount());
+
+        StringWriter writer = new StringWriter();
+        profiler.write(writer);
+        assertTrue(writer.toString().contains("compass"));
+        assertEquals(PipelineProfiler.STAGE_COUNT + 1 + 1 + 2, writer.toString().split("\n").length);
+    }
+}
@@ -0,0 +1,326 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MotionEstimatorTest
+{
+    private static final long SECOND = 1000000000L;
+    private static final long FIX_INTERVAL = SECOND / 2;
+
+    // 0-10秒: 停止, 10-20秒: 2m/s^2で加速, 20-40秒: 20m/s巡航, 40-45秒: 4m/s^2で減速
+    private static double trueSpeed(double t)
+    {
+        if(t < 10) { return 0; }
+        if(t < 20) { return 2 * (t - 10); }
+        if(t < 40) { return 20; }
+        if(t < 45) { return 20 - 4 * (t - 40); }
+        return 0;
+    }
+
+    private static double trueAcceleration(double t)
+    {
+        if(t < 10) { return 0; }
+        if(t < 20) { return 2; }
+        if(t < 40) { return 0; }
+        if(t < 45) { return -4; }
+        return 0;
+    }
+
+    // 変化点の直後は遅れが出るのが当然なので誤差に数えない
+    private static boolean isSettled(double t)
+    {
+        for(double change : new double[]{ 10, 20, 40, 45 })
+        {
+            if(t >= change && t < change + 2)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 20秒から1m/sで上る
+    private static double trueAltitude(double t)
+    {
+        return 30 + Math.max(0, t - 20);
+    }
+
+    private static double trueClimbRate(double t)
+    {
+        return (t >= 20 ? 1 : 0);
+    }
+
+    /** 0.5秒ごとの測位に雑音を乗せたトレース */
+    private static SensorTrace driveTrace(long seed)
+    {
+        Random random = new Random(seed);
+        SensorTrace trace = new SensorTrace();
+        for(long t = 0; t <= 60 * SECOND; t += FIX_INTERVAL)
+        {
+            double s = t / 1e9;
+            double speed = Math.max(0, trueSpeed(s) + random.nextGaussian() * 0.3);
+            double altitude = trueAltitude(s) + random.nextGaussian() * 3;
+            trace.addLocation(t, 35.0, 139.0, altitude, speed, -1, 4);
+        }
+        return trace;
+    }
+
+    /** 推定器と，これまでの差分による計算(整数km/h，整数m)を並べて評価する */
+    private static class CompareSink implements TraceReplayer.Sink
+    {
+        final MotionEstimator estimator = new MotionEstimator();
+
+        int previousSpeed;
+        int previousAltitude;
+        long previousTimestamp = -1;
+
+        double estimatorAccelerationError = 0;
+        double differenceAccelerationError = 0;
+        double estimatorClimbError = 0;
+        double differenceClimbError = 0;
+        double estimatorSpeedError = 0;
+        int count = 0;
+        // 加速開始後に推定が1.5m/s^2に達した時刻
+        double accelerationReachedTime = -1;
+
+        @Override
+        public void onSensor(int type, long timestampNanos, float v0, float v1, float v2)
+        {
+        }
+
+        @Override
+        public void onLocation(long timestampNanos, double latitude, double longitude, double altitude,
+                               float speed, float bearing, float accuracy)
+        {
+            estimator.onLocation(timestampNanos, speed, altitude, accuracy);
+
+            int kmh = (int)(speed * 60 * 60 / 1000);
+            int alt = (int)altitude;
+            double t = timestampNanos / 1e9;
+            if(previousTimestamp >= 0 && t >= 5 && isSettled(t))
+            {
+                double dt = (timestampNanos - previousTimestamp) / 1e9;
+                // km/h/s -> m/s^2
+                double differenceAcceleration = (kmh - previousSpeed) / dt / 3.6;
+                double differenceClimb = (alt - previousAltitude) / dt;
+
+                differenceAccelerationError += square(differenceAcceleration - trueAcceleration(t));
+                estimatorAccelerationError += square(estimator.getAcceleration() - trueAcceleration(t));
+                differenceClimbError += square(differenceClimb - trueClimbRate(t));
+                estimatorClimbError += square(estimator.getClimbRate() - trueClimbRate(t));
+                estimatorSpeedError += square(estimator.getSpeed() - trueSpeed(t));
+                count++;
+            }
+            if(accelerationReachedTime < 0 && t >= 10 && estimator.getAcceleration() >= 1.5)
+            {
+                accelerationReachedTime = t;
+            }
+            previousSpeed = kmh;
+            previousAltitude = alt;
+            previousTimestamp = timestampNanos;
+        }
+
+        double rms(double sum)
+        {
+            return Math.sqrt(sum / count);
+        }
+    }
+
+    private static double square(double v)
+    {
+        return v * v;
+    }
+
+    private static CompareSink replay(long seed)
+    {
+        CompareSink sink = new CompareSink();
+        TraceReplayer replayer = new TraceReplayer(driveTrace(seed), sink, TraceReplayer.SPEED_UNLIMITED);
+        replayer.start(0);
+        replayer.dispatch(0, Integer.MAX_VALUE);
+        return sink;
+    }
+
+    @Test
+    public void estimates_areSmootherThanFiniteDifferences() throws Exception
+    {
+        for(long seed = 1; seed <= 5; seed++)
+        {
+            CompareSink sink = replay(seed);
+            double accelerationRms = sink.rms(sink.estimatorAccelerationError);
+            double climbRms = sink.rms(sink.estimatorClimbError);
+            String message = String.format("seed=%d acc=%.3f/%.3f climb=%.3f/%.3f", seed,
+                    accelerationRms, sink.rms(sink.differenceAccelerationError),
+                    climbRms, sink.rms(sink.differenceClimbError));
+
+            assertTrue(message, accelerationRms < sink.rms(sink.differenceAccelerationError) / 2);
+            assertTrue(message, accelerationRms < 0.8);
+            assertTrue(message, climbRms < sink.rms(sink.differenceClimbError) / 4);
+            assertTrue(message, climbRms < 0.6);
+            assertTrue(message, sink.rms(sink.estimatorSpeedError) < 0.6);
+        }
+    }
+
+    @Test
+    public void acceleration_followsStepWithinAFewSeconds() throws Exception
+    {
+        CompareSink sink = replay(7);
+        assertTrue("reached=" + sink.accelerationReachedTime, sink.accelerationReachedTime >= 10);
+        assertTrue("reached=" + sink.accelerationReachedTime, sink.accelerationReachedTime <= 12.5);
+        // 停止後は0に戻る
+        assertEquals(0, sink.estimator.getSpeed(), 0.5);
+        assertEquals(0, sink.estimator.getAcceleration(), 0.5);
+        assertEquals(1, sink.estimator.getClimbRate(), 0.3);
+        assertEquals(trueAltitude(60), sink.estimator.getAltitude(), 2);
+    }
+
+    @Test
+    public void longGap_restartsFromNextFix() throws Exception
+    {
+        MotionEstimator estimator = new MotionEstimator();
+        for(int i = 0; i < 20; i++)
+        {
+            estimator.onLocation(i * FIX_INTERVAL, 10, 100, 4);
+        }
+        assertEquals(10, estimator.getSpeed(), 0.01);
+
+        // トンネルを抜けたら速度も高度も変わっていた
+        long t = 60 * SECOND;
+        estimator.onLocation(t, 25, 50, 4);
+        assertEquals(25, estimator.getSpeed(), 0.01);
+        assertEquals(50, estimator.getAltitude(), 0.01);
+        assertEquals(0, estimator.getAcceleration(), 0.01);
+
+        // 速度のない測位では速度は変えない
+        estimator.onLocation(t + FIX_INTERVAL, -1, 50, 4);
+        assertEquals(25, estimator.getSpeed(), 0.01);
+    }
+
+    private static float pressureAt(double altitude)
+    {
+        return (float)(1013.25 * Math.pow(1 - altitude / 44330.0, 5.255));
+    }
+
+    /** 上昇開始(20秒)から昇降率が0.75m/sに達した時刻 */
+    private static double climbReachedTime(SensorTrace trace)
+    {
+        final MotionEstimator estimator = new MotionEstimator();
+        final double[] reached = new double[]{ -1 };
+        TraceReplayer.Sink sink = new TraceReplayer.Sink()
+        {
+            @Override
+            public void onSensor(int type, long timestampNanos, float v0, float v1, float v2)
+            {
+                if(SensorTrace.PRESSURE == type)
+                {
+                    estimator.onPressure(timestampNanos, v0);
+                    check(timestampNanos);
+                }
+            }
+
+            @Override
+            public void onLocation(long timestampNanos, double latitude, double longitude, double altitude,
+                                   float speed, float bearing, float accuracy)
+            {
+                estimator.onLocation(timestampNanos, speed, altitude, accuracy);
+                check(timestampNanos);
+            }
+
+            void check(long timestampNanos)
+            {
+                double t = timestampNanos / 1e9;
+                if(reached[0] < 0 && t >= 20 && estimator.getClimbRate() >= 0.75)
+                {
+                    reached[0] = t;
+                }
+            }
+        };
+        TraceReplayer replayer = new TraceReplayer(trace, sink, TraceReplayer.SPEED_UNLIMITED);
+        replayer.start(0);
+        replayer.dispatch(0, Integer.MAX_VALUE);
+        return reached[0];
+    }
+
+    // GPSのトレースに25Hzの気圧を足す．気圧高度は天候の分だけoffsetずれている
+    private static SensorTrace withPressure(SensorTrace gps, double offset, double endSeconds, long seed)
+    {
+        Random random = new Random(seed);
+        SensorTrace trace = new SensorTrace();
+        int fix = 0;
+        for(long t = 0; t <= 60 * SECOND; t += SECOND / 25)
+        {
+            while(fix < gps.size() && gps.getTimestamp(fix) <= t)
+            {
+                trace.addLocation(gps.getTimestamp(fix), gps.getValue(fix, 0), gps.getValue(fix, 1), gps.getValue(fix, 2),
+                        gps.getValue(fix, 3), gps.getValue(fix, 4), gps.getValue(fix, 5));
+                fix++;
+            }
+            if(t / 1e9 < endSeconds)
+            {
+                double altitude = trueAltitude(t / 1e9) + offset + random.nextGaussian() * 0.15;
+                trace.add(t, SensorTrace.PRESSURE, pressureAt(altitude), 0, 0);
+            }
+        }
+        return trace;
+    }
+
+    @Test
+    public void barometer_respondsFasterThanGps() throws Exception
+    {
+        for(long seed = 1; seed <= 5; seed++)
+        {
+            SensorTrace gps = driveTrace(seed);
+            double gpsOnly = climbReachedTime(gps);
+            double fused = climbReachedTime(withPressure(gps, 40, 100, seed));
+            String message = "seed=" + seed + " gps=" + gpsOnly + " fused=" + fused;
+            assertTrue(message, fused >= 20);
+            assertTrue(message, fused < 21.5);
+            assertTrue(message, fused < gpsOnly);
+        }
+    }
+
+    @Test
+    public void barometer_followsGpsInTheLongTermAndFallsBack() throws Exception
+    {
+        SensorTrace trace = withPressure(driveTrace(3), 40, 50, 3);
+        MotionEstimator estimator = new MotionEstimator();
+        boolean wasActive = false;
+        double maxError = 0;
+        for(int i = 0; i < trace.size(); i++)
+        {
+            long t = trace.getTimestamp(i);
+            if(SensorTrace.PRESSURE == trace.getType(i))
+            {
+                estimator.onPressure(t, trace.getFloatValue(i, 0));
+            }
+            else
+            {
+                estimator.onLocation(t, trace.getFloatValue(i, 3), trace.getValue(i, 2), trace.getFloatValue(i, 5));
+            }
+            if(estimator.isBarometerActive() && t >= 5 * SECOND)
+            {
+                wasActive = true;
+                // 気圧高度の40mのずれは最初の測位で吸収される
+                maxError = Math.max(maxError, Math.abs(estimator.getAltitude() - trueAltitude(t / 1e9)));
+            }
+        }
+        assertTrue(wasActive);
+        assertTrue("maxError=" + maxError, maxError < 6);
+        // 50秒で気圧が途絶えたらGPSだけに戻る
+        assertFalse(estimator.isBarometerActive());
+        assertEquals(trueAltitude(60), estimator.getAltitude(), 3);
+        assertEquals(1, estimator.getClimbRate(), 0.4);
+    }
+
+    @Test
+    public void pressureAltitude_matchesStandardAtmosphere() throws Exception
+    {
+        assertEquals(0, MotionEstimator.pressureAltitude(1013.25f), 0.01);
+        assertEquals(1000, MotionEstimator.pressureAltitude(pressureAt(1000)), 0.1);
+        // 1hPaはおよそ8m
+        assertEquals(8.3, MotionEstimator.pressureAltitude(1012.25f), 0.2);
+    }
+}
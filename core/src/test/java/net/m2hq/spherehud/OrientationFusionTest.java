@@ -0,0 +1,106 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrientationFusionTest
+{
+    // 上向きに立てた端末を方位headingに向けたときのセンサ値を与える
+    private static void feedUpright(OrientationFusion fusion, double heading, int count)
+    {
+        double h = Math.toRadians(heading);
+        for(int i = 0; i < count; i++)
+        {
+            fusion.setAccelerometer(0, 9.81f, 0);
+            fusion.setMagneticField((float)(-20 * Math.sin(h)), -40, (float)(-20 * Math.cos(h)));
+            fusion.update();
+        }
+    }
+
+    @Test
+    public void upright_facingNorth() throws Exception
+    {
+        OrientationFusion fusion = new OrientationFusion();
+        feedUpright(fusion, 0, 200);
+
+        assertEquals(0, fusion.getRoll(), 0.5);
+        assertEquals(0, fusion.getPitch(), 0.5);
+        assertEquals(0, fusion.getYaw(), 0.5);
+    }
+
+    @Test
+    public void upright_facingEast_withDeclination() throws Exception
+    {
+        OrientationFusion fusion = new OrientationFusion();
+        fusion.setDeclination(-7.0f);
+        feedUpright(fusion, 90, 200);
+
+        assertEquals(83, fusion.getYaw(), 0.5);
+    }
+
+    @Test
+    public void yaw_unwindsAcross180() throws Exception
+    {
+        OrientationFusion fusion = new OrientationFusion();
+        feedUpright(fusion, 170, 200);
+        feedUpright(fusion, 190, 200);
+
+        // -170ではなく190に収束し，途中で0付近を通らない
+        assertEquals(190, fusion.getYaw(), 0.5);
+    }
+
+    @Test
+    public void remap_rotation90() throws Exception
+    {
+        // 反時計回りに90°回した端末(x軸が上)
+        OrientationFusion fusion = new OrientationFusion();
+        fusion.setDisplayRotation(OrientationFusion.ROTATION_90);
+        for(int i = 0; i < 200; i++)
+        {
+            fusion.setAccelerometer(9.81f, 0, 0);
+            fusion.setMagneticField(-40, 0, -20);
+            fusion.update();
+        }
+
+        assertEquals(0, fusion.getRoll(), 0.5);
+        assertEquals(0, fusion.getPitch(), 0.5);
+        assertEquals(0, fusion.getYaw(), 0.5);
+    }
+
+    @Test
+    public void update_withoutBothSensors_returnsFalse() throws Exception
+    {
+        OrientationFusion fusion = new OrientationFusion();
+        fusion.setAccelerometer(0, 9.81f, 0);
+        assertFalse(fusion.update());
+
+        fusion.setMagneticField(0, -40, -20);
+        assertTrue(fusion.update());
+
+        // 自由落下
+        fusion.setAccelerometer(0, 0, 0);
+        assertFalse(fusion.update());
+    }
+
+    @Test
+    public void update_doesNotAllocate() throws Exception
+    {
+        final OrientationFusion fusion = new OrientationFusion();
+        feedUpright(fusion, 0, 10000);
+
+        assertEquals(0, AllocationProbe.bytesAllocatedBy(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for(int i = 0; i < 10000; i++)
+                {
+                    fusion.setAccelerometer(0.1f * (i % 7), 9.81f, 0);
+                    fusion.setMagneticField(-3, -40, -20);
+                    fusion.update();
+                }
+            }
+        }));
+    }
+}
@@ -0,0 +1,80 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class QuaternionFusionTest
+{
+    @Test
+    public void noiselessTrace_tracksTruth() throws Exception
+    {
+        SensorTrace trace = new SensorTraceSynthesizer().withoutNoise().generate(1, 20);
+        FusionTraceHarness.Result result = FusionTraceHarness.run(trace, FusionTraceHarness.QUATERNION, 2);
+
+        assertEquals(0, result.rollLagMillis, 10);
+        assertTrue("jitter " + result.rollJitter, result.rollJitter < 0.2);
+        assertTrue("yaw error " + result.yawMeanError, result.yawMeanError < 0.5);
+    }
+
+    @Test
+    public void noisyTrace_lessLagThanLegacy() throws Exception
+    {
+        SensorTrace trace = new SensorTraceSynthesizer().generate(2, 40);
+        FusionTraceHarness.Result legacy = FusionTraceHarness.run(trace, FusionTraceHarness.LEGACY, 5);
+        FusionTraceHarness.Result quaternion = FusionTraceHarness.run(trace, FusionTraceHarness.QUATERNION, 5);
+
+        assertTrue("legacy lag " + legacy.rollLagMillis, legacy.rollLagMillis >= 50);
+        assertTrue("quaternion lag " + quaternion.rollLagMillis, quaternion.rollLagMillis <= 20);
+        assertTrue("quaternion jitter " + quaternion.rollJitter, quaternion.rollJitter < 1.0);
+        assertTrue("quaternion yaw error " + quaternion.yawMeanError, quaternion.yawMeanError < 2.0);
+    }
+
+    @Test
+    public void traceText_roundTrip() throws Exception
+    {
+        SensorTrace trace = new SensorTraceSynthesizer().generate(3, 1);
+        StringWriter writer = new StringWriter();
+        trace.write(writer);
+
+        SensorTrace read = SensorTrace.read(new StringReader("# comment\n" + writer.toString()));
+        assertEquals(trace.size(), read.size());
+        for(int i = 0; i < trace.size(); i++)
+        {
+            assertEquals(trace.getTimestamp(i), read.getTimestamp(i));
+            assertEquals(trace.getType(i), read.getType(i));
+            assertEquals(trace.getValue(i, 2), read.getValue(i, 2), 1e-5);
+        }
+    }
+
+    @Test
+    public void onGyroscope_doesNotAllocate() throws Exception
+    {
+        final QuaternionFusion fusion = new QuaternionFusion();
+        fusion.setAccelerometer(0, 9.81f, 0);
+        fusion.setMagneticField(0, -40, -20);
+        long t = 0;
+        for(int i = 0; i < 10000; i++)
+        {
+            fusion.onGyroscope(0.01f, 0.02f, -0.01f, t += 10000000L);
+        }
+
+        final long start = t;
+        assertEquals(0, AllocationProbe.bytesAllocatedBy(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long t = start;
+                for(int i = 0; i < 10000; i++)
+                {
+                    fusion.setAccelerometer(0.1f * (i % 7), 9.81f, 0);
+                    fusion.onGyroscope(0.01f, 0.02f, -0.01f, t += 10000000L);
+                }
+            }
+        }));
+    }
+}
@@ -0,0 +1,117 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class ReadingTextTest
+{
+    // HUDViewで使っている値の範囲と境界
+    private static final int[] VALUES = new int[]{
+            0, 1, 9, 10, 11, 42, 99, 100, 101, 999, 1000, 2777, 9999, 10000, 99999, 100000,
+            -1, -9, -10, -99, -100, -12345, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1 };
+
+    @Test
+    public void appendInt_matchesIntegerToString() throws Exception
+    {
+        ReadingText text = new ReadingText(16);
+        for(int v : VALUES)
+        {
+            text.clear().appendInt(v);
+            assertEquals(Integer.toString(v), text.toString());
+        }
+        for(int v = -1000; v <= 1000; v++)
+        {
+            text.clear().appendInt(v);
+            assertTrue(text.contentEquals(Integer.toString(v)));
+        }
+    }
+
+    @Test
+    public void appendInt_matchesPaddedFormat() throws Exception
+    {
+        ReadingText text = new ReadingText(16);
+        for(int v : VALUES)
+        {
+            text.clear().appendInt(v, 2, ' ');
+            assertEquals(String.format(Locale.ROOT, "%2d", v), text.toString());
+            text.clear().appendInt(v, 2, '0');
+            assertEquals(String.format(Locale.ROOT, "%02d", v), text.toString());
+            text.clear().appendInt(v, 5, '0');
+            assertEquals(String.format(Locale.ROOT, "%05d", v), text.toString());
+        }
+    }
+
+    @Test
+    public void gpsLine_matchesFormat() throws Exception
+    {
+        ReadingText text = new ReadingText(16);
+        for(int used = 0; used <= 40; used++)
+        {
+            for(int sats = used; sats <= 120; sats += 7)
+            {
+                text.clear().append("GPS ").appendInt(used, 2, ' ').append('/').appendInt(sats, 2, ' ');
+                assertEquals(String.format(Locale.ROOT, "GPS %2d/%2d", used, sats), text.toString());
+            }
+        }
+    }
+
+    @Test
+    public void pitch_matchesFormat() throws Exception
+    {
+        ReadingText text = new ReadingText(16);
+        for(int pitch = -359; pitch <= 359; pitch++)
+        {
+            text.clear().append(pitch < 0 ? '-' : ' ').appendInt(Math.abs(pitch), 2, '0');
+            assertEquals(String.format(Locale.ROOT, "%s%02d", (pitch < 0 ? "-" : " "), Math.abs(pitch)), text.toString());
+        }
+    }
+
+    @Test
+    public void clock_matchesSimpleDateFormat() throws Exception
+    {
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try
+        {
+            String[] zones = new String[]{ "UTC", "Asia/Tokyo", "America/Los_Angeles", "Asia/Kolkata", "Australia/Adelaide", "Pacific/Chatham" };
+            for(String zone : zones)
+            {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                SimpleDateFormat df = new SimpleDateFormat("HH:mm");
+
+                ClockText clock = new ClockText();
+                // 2017年から7分ずつ，DST切り替えを含む2年分
+                long start = 1483228800000L;
+                for(long t = start; t < start + 2L * 366 * 24 * 60 * 60 * 1000; t += 7 * 60 * 1000 + 1234)
+                {
+                    clock.update(t);
+                    assertEquals(zone + " " + t, df.format(new Date(t)), clock.toString());
+                }
+
+                // 1970年以前
+                clock.update(-90061000L);
+                assertEquals(df.format(new Date(-90061000L)), clock.toString());
+            }
+        }
+        finally
+        {
+            TimeZone.setDefault(defaultTimeZone);
+        }
+    }
+
+    @Test
+    public void clock_recomputesOnlyWhenMinuteChanges() throws Exception
+    {
+        ClockText clock = new ClockText();
+        long t = 1500000000000L - (1500000000000L % 60000);
+        assertTrue(clock.update(t));
+        assertFalse(clock.update(t + 1));
+        assertFalse(clock.update(t + 59999));
+        assertTrue(clock.update(t + 60000));
+    }
+}
@@ -0,0 +1,133 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SamplingGovernorTest
+{
+    private static final long SECOND = 1000000000L;
+
+    // 加速度を1秒分(50Hz)与える．shakeは大きさの揺れ幅[m/s^2]
+    private static void accelerate(SamplingGovernor governor, double shake)
+    {
+        for(int i = 0; i < 50; i++)
+        {
+            float z = (float)(9.81 + ((i % 2 == 0) ? shake : -shake));
+            governor.onAccelerometer(0.05f, 0.1f, z);
+        }
+    }
+
+    @Test
+    public void visibleAndMoving_usesNormalRates() throws Exception
+    {
+        SamplingGovernor governor = new SamplingGovernor(SamplingGovernor.SENSOR_DELAY_GAME_US);
+        governor.onLocation(10);
+        accelerate(governor, 0.8);
+
+        assertFalse(governor.update(0));
+        assertEquals(SamplingGovernor.MODE_NORMAL, governor.getMode());
+        assertEquals(SamplingGovernor.SENSOR_DELAY_GAME_US, governor.getSensorPeriodUs());
+        assertEquals(0, governor.getMaxReportLatencyUs());
+        assertEquals(500, governor.getLocationIntervalMillis());
+    }
+
+    @Test
+    public void hidden_batchesAfterHoldAndRecoversImmediately() throws Exception
+    {
+        SamplingGovernor governor = new SamplingGovernor(SamplingGovernor.SENSOR_DELAY_UI_US);
+        governor.onLocation(10);
+        accelerate(governor, 0.8);
+
+        governor.setHudVisible(false);
+        assertFalse(governor.update(0));
+        assertFalse(governor.update(SamplingGovernor.HOLD_NANOS - 1));
+        assertEquals(SamplingGovernor.MODE_NORMAL, governor.getMode());
+
+        assertTrue(governor.update(SamplingGovernor.HOLD_NANOS));
+        assertEquals(SamplingGovernor.MODE_HIDDEN, governor.getMode());
+        assertTrue(governor.getMaxReportLatencyUs() > 0);
+        assertTrue(governor.getSensorPeriodUs() > SamplingGovernor.SENSOR_DELAY_UI_US);
+        assertFalse(governor.update(SamplingGovernor.HOLD_NANOS + SECOND));
+
+        governor.setHudVisible(true);
+        assertTrue(governor.update(SamplingGovernor.HOLD_NANOS + 2 * SECOND));
+        assertEquals(SamplingGovernor.MODE_NORMAL, governor.getMode());
+        assertEquals(0, governor.getMaxReportLatencyUs());
+    }
+
+    @Test
+    public void stationary_lowersRatesUntilMovedAgain() throws Exception
+    {
+        SamplingGovernor governor = new SamplingGovernor(SamplingGovernor.SENSOR_DELAY_GAME_US);
+        governor.onLocation(0.1f);
+        long now = 0;
+        for(int i = 0; i < 10; i++)
+        {
+            accelerate(governor, 0.01);
+            governor.update(now);
+            now += SECOND;
+        }
+        assertTrue(governor.isStationary());
+        assertEquals(SamplingGovernor.MODE_STATIONARY, governor.getMode());
+        assertEquals(SamplingGovernor.SENSOR_DELAY_UI_US, governor.getSensorPeriodUs());
+        assertTrue(governor.getLocationIntervalMillis() > 500);
+
+        // 発進
+        governor.onLocation(3);
+        assertFalse(governor.isStationary());
+        assertTrue(governor.update(now));
+        assertEquals(SamplingGovernor.MODE_NORMAL, governor.getMode());
+    }
+
+    @Test
+    public void fastOrTurning_raisesRatesUnlessBatteryIsLow() throws Exception
+    {
+        SamplingGovernor governor = new SamplingGovernor(SamplingGovernor.SENSOR_DELAY_GAME_US);
+        accelerate(governor, 0.8);
+        governor.onLocation(30);
+        assertTrue(governor.update(0));
+        assertEquals(SamplingGovernor.MODE_FAST, governor.getMode());
+        assertEquals(SamplingGovernor.SENSOR_DELAY_GAME_US / 2, governor.getSensorPeriodUs());
+        assertTrue(governor.getLocationIntervalMillis() < 500);
+
+        governor.setBatteryPercent(10);
+        governor.update(SECOND);
+        assertTrue(governor.update(SECOND + SamplingGovernor.HOLD_NANOS));
+        assertEquals(SamplingGovernor.MODE_NORMAL, governor.getMode());
+
+        // 旋回: 50°/s
+        SamplingGovernor turning = new SamplingGovernor(SamplingGovernor.SENSOR_DELAY_GAME_US);
+        accelerate(turning, 0.8);
+        turning.onLocation(10);
+        for(int i = 0; i < 50; i++)
+        {
+            turning.onYaw((i * 1.0 + 170) % 360 - 180, i * 20000000L);
+        }
+        assertTrue(turning.update(0));
+        assertEquals(SamplingGovernor.MODE_FAST, turning.getMode());
+    }
+
+    @Test
+    public void batchedDeliveries_countAsOneWakeup() throws Exception
+    {
+        SamplingGovernor governor = new SamplingGovernor(SamplingGovernor.SENSOR_DELAY_GAME_US);
+        long now = SECOND;
+        // FIFOから50件まとめて
+        for(int i = 0; i < 50; i++)
+        {
+            governor.onSensorDelivery(now + i * 10000L);
+        }
+        // 20msごとに1件ずつ
+        now += SECOND;
+        for(int i = 0; i < 50; i++)
+        {
+            governor.onSensorDelivery(now + i * 20000000L);
+        }
+        governor.onLocation(1);
+
+        assertEquals(100, governor.getSensorEventCount());
+        assertEquals(51, governor.getSensorWakeupCount());
+        assertEquals(1, governor.getLocationFixCount());
+    }
+}
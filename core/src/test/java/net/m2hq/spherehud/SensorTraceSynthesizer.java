@@ -0,0 +1,151 @@
+package net.m2hq.spherehud;
+
+import java.util.Random;
+
+/**
+ * Generates a sensor trace with known ground truth: a device held upright in a vehicle
+ * turning through a full circle while rolling and pitching.
+ */
+class SensorTraceSynthesizer
+{
+    private static final double GRAVITY = 9.81;
+    // 地磁気(東,北,上)[μT]
+    private static final double[] MAGNETIC_FIELD = new double[]{ 0, 20, -40 };
+
+    static final long GYROSCOPE_INTERVAL_NANOS = 10000000L;
+    static final long ACCELEROMETER_INTERVAL_NANOS = 20000000L;
+
+    private double mRollAmplitude = 15;
+    private double mRollFrequency = 0.5;
+    private double mPitchAmplitude = 5;
+    private double mPitchFrequency = 0.3;
+    private double mTurnRate = 12;
+
+    private double mAccelerometerNoise = 0.05;
+    private double mVibration = 0.3;
+    private double mMagneticFieldNoise = 0.3;
+    private double mGyroscopeNoise = 0.005;
+    private double[] mGyroscopeBias = new double[]{ 0.01, -0.005, 0.008 };
+
+    SensorTrace generate(long seed, double seconds)
+    {
+        Random random = new Random(seed);
+        SensorTrace trace = new SensorTrace();
+
+        double[] r = new double[9];
+        double[] r2 = new double[9];
+        float[] truthR = new float[9];
+        float[] remappedR = new float[9];
+        float[] orientation = new float[3];
+
+        long end = (long)(seconds * 1e9);
+        for(long t = 0; t <= end; t += GYROSCOPE_INTERVAL_NANOS)
+        {
+            double time = t * 1e-9;
+            attitude(time, r);
+
+            if(t % ACCELEROMETER_INTERVAL_NANOS == 0)
+            {
+                // R^T * v でデバイス座標へ
+                trace.add(t, SensorTrace.ACCELEROMETER,
+                        GRAVITY * r[6] + noise(random, mAccelerometerNoise) + noise(random, mVibration),
+                        GRAVITY * r[7] + noise(random, mAccelerometerNoise) + noise(random, mVibration),
+                        GRAVITY * r[8] + noise(random, mAccelerometerNoise) + noise(random, mVibration));
+                trace.add(t, SensorTrace.MAGNETIC_FIELD,
+                        toDevice(r, MAGNETIC_FIELD, 0) + noise(random, mMagneticFieldNoise),
+                        toDevice(r, MAGNETIC_FIELD, 1) + noise(random, mMagneticFieldNoise),
+                        toDevice(r, MAGNETIC_FIELD, 2) + noise(random, mMagneticFieldNoise));
+            }
+
+            // ω = vee(R^T dR/dt)
+            double epsilon = 1e-4;
+            attitude(time + epsilon, r2);
+            double wx = (dotColumns(r, 2, r2, 1) - dotColumns(r, 1, r2, 2)) / (2 * epsilon);
+            double wy = (dotColumns(r, 0, r2, 2) - dotColumns(r, 2, r2, 0)) / (2 * epsilon);
+            double wz = (dotColumns(r, 1, r2, 0) - dotColumns(r, 0, r2, 1)) / (2 * epsilon);
+            trace.add(t, SensorTrace.GYROSCOPE,
+                    wx + mGyroscopeBias[0] + noise(random, mGyroscopeNoise),
+                    wy + mGyroscopeBias[1] + noise(random, mGyroscopeNoise),
+                    wz + mGyroscopeBias[2] + noise(random, mGyroscopeNoise));
+
+            for(int i = 0; i < 9; i++)
+            {
+                truthR[i] = (float)r[i];
+            }
+            OrientationFusion.remapForDisplayRotation(truthR, OrientationFusion.ROTATION_0, remappedR);
+            OrientationFusion.getOrientation(remappedR, orientation);
+            trace.add(t, SensorTrace.ORIENTATION,
+                    Math.toDegrees(orientation[2]), Math.toDegrees(orientation[1]), Math.toDegrees(orientation[0]));
+        }
+        return trace;
+    }
+
+    SensorTraceSynthesizer withoutNoise()
+    {
+        mAccelerometerNoise = 0;
+        mVibration = 0;
+        mMagneticFieldNoise = 0;
+        mGyroscopeNoise = 0;
+        mGyroscopeBias = new double[3];
+        return this;
+    }
+
+    // デバイス→世界(東,北,上)の回転行列
+    private void attitude(double time, double[] r)
+    {
+        double heading = Math.toRadians(mTurnRate * time);
+        double roll = Math.toRadians(mRollAmplitude * Math.sin(2 * Math.PI * mRollFrequency * time));
+        double pitch = Math.toRadians(mPitchAmplitude * Math.sin(2 * Math.PI * mPitchFrequency * time));
+
+        // 北を向いて立てた端末: x=東, y=上, z=南
+        double[] base = new double[]{ 1, 0, 0, 0, 0, -1, 0, 1, 0 };
+        double[] yaw = rotationZ(-heading);
+        double[] deviceRoll = rotationZ(roll);
+        double[] devicePitch = rotationX(pitch);
+
+        double[] m = multiply(yaw, base);
+        m = multiply(m, deviceRoll);
+        m = multiply(m, devicePitch);
+        System.arraycopy(m, 0, r, 0, 9);
+    }
+
+    private static double toDevice(double[] r, double[] v, int axis)
+    {
+        return r[axis] * v[0] + r[3 + axis] * v[1] + r[6 + axis] * v[2];
+    }
+
+    private static double dotColumns(double[] a, int ca, double[] b, int cb)
+    {
+        return a[ca] * b[cb] + a[3 + ca] * b[3 + cb] + a[6 + ca] * b[6 + cb];
+    }
+
+    private static double[] rotationZ(double a)
+    {
+        double c = Math.cos(a), s = Math.sin(a);
+        return new double[]{ c, -s, 0, s, c, 0, 0, 0, 1 };
+    }
+
+    private static double[] rotationX(double a)
+    {
+        double c = Math.cos(a), s = Math.sin(a);
+        return new double[]{ 1, 0, 0, 0, c, -s, 0, s, c };
+    }
+
+    private static double[] multiply(double[] a, double[] b)
+    {
+        double[] m = new double[9];
+        for(int i = 0; i < 3; i++)
+        {
+            for(int j = 0; j < 3; j++)
+            {
+                m[i * 3 + j] = a[i * 3] * b[j] + a[i * 3 + 1] * b[3 + j] + a[i * 3 + 2] * b[6 + j];
+            }
+        }
+        return m;
+    }
+
+    private static double noise(Random random, double sigma)
+    {
+        return (sigma == 0 ? 0 : random.nextGaussian() * sigma);
+    }
+}
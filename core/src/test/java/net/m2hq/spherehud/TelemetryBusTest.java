@@ -0,0 +1,241 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TelemetryBusTest
+{
+    private static final long MS = 1000000L;
+
+    private static void publishAttitude(TelemetryBus bus, double[] frame, long t, double roll)
+    {
+        frame[TelemetryBus.ROLL] = roll;
+        bus.publish(t, frame);
+    }
+
+    @Test
+    public void subscribers_getTheirOwnRateAndFields() throws Exception
+    {
+        TelemetryBus bus = new TelemetryBus();
+        // HUD(描画ごとに最新だけ)，記録(全部)，外部送信(10Hz)を同時に
+        TelemetryBus.Subscription hud = bus.subscribe(TelemetryBus.ALL_FIELDS, 0, 4);
+        TelemetryBus.Subscription recorder = bus.subscribe(TelemetryBus.ATTITUDE_FIELDS, 0, 1024);
+        TelemetryBus.Subscription streamer = bus.subscribe(TelemetryBus.ALL_FIELDS, 100 * MS, 16);
+        assertEquals(3, bus.getSubscriberCount());
+
+        // 200Hzのセンサを1秒分
+        double[] frame = new double[TelemetryBus.FIELD_COUNT];
+        for(int i = 0; i < 200; i++)
+        {
+            publishAttitude(bus, frame, i * 5 * MS, i);
+        }
+
+        double[] out = new double[TelemetryBus.FIELD_COUNT];
+        int recorded = 0;
+        while(recorder.poll(out))
+        {
+            assertEquals(recorded, out[TelemetryBus.ROLL], 0);
+            assertEquals(recorded * 5 * MS, recorder.getTimestampNanos());
+            recorded++;
+        }
+        assertEquals(200, recorded);
+        assertEquals(0, recorder.getDroppedCount());
+
+        int streamed = 0;
+        while(streamer.poll(out))
+        {
+            assertEquals(streamed * 20, out[TelemetryBus.ROLL], 0);
+            streamed++;
+        }
+        assertEquals(10, streamed);
+
+        assertTrue(hud.pollLatest(out));
+        assertEquals(199, out[TelemetryBus.ROLL], 0);
+        assertFalse(hud.pollLatest(out));
+    }
+
+    @Test
+    public void poll_leavesUnsubscribedFieldsAlone() throws Exception
+    {
+        TelemetryBus bus = new TelemetryBus();
+        TelemetryBus.Subscription subscription = bus.subscribe(TelemetryBus.ATTITUDE_FIELDS, 0, 4);
+        double[] frame = new double[TelemetryBus.FIELD_COUNT];
+        frame[TelemetryBus.ROLL] = 10;
+        frame[TelemetryBus.SPEED] = 20;
+        bus.publish(0, frame);
+
+        double[] out = new double[TelemetryBus.FIELD_COUNT];
+        out[TelemetryBus.SPEED] = -1;
+        assertTrue(subscription.poll(out));
+        assertEquals(10, out[TelemetryBus.ROLL], 0);
+        assertEquals(-1, out[TelemetryBus.SPEED], 0);
+    }
+
+    @Test
+    public void publish_queuesOnlyWhenSubscribedFieldsChange() throws Exception
+    {
+        TelemetryBus bus = new TelemetryBus();
+        TelemetryBus.Subscription location = bus.subscribe(TelemetryBus.LOCATION_FIELDS, 0, 16);
+        double[] frame = new double[TelemetryBus.FIELD_COUNT];
+        double[] out = new double[TelemetryBus.FIELD_COUNT];
+
+        bus.publish(0, frame);
+        assertTrue(location.poll(out));
+        // 姿勢だけの変化は届かない
+        for(int i = 1; i <= 10; i++)
+        {
+            publishAttitude(bus, frame, i * MS, i);
+        }
+        assertFalse(location.poll(out));
+
+        frame[TelemetryBus.SPEED] = 5;
+        bus.publish(11 * MS, frame);
+        assertTrue(location.poll(out));
+        assertEquals(5, out[TelemetryBus.SPEED], 0);
+        assertEquals(TelemetryBus.maskOf(TelemetryBus.SPEED), location.getChangedMask());
+    }
+
+    @Test
+    public void throttledSubscriber_getsChangesCoalesced() throws Exception
+    {
+        TelemetryBus bus = new TelemetryBus();
+        TelemetryBus.Subscription subscription = bus.subscribe(TelemetryBus.ALL_FIELDS, 100 * MS, 16);
+        double[] frame = new double[TelemetryBus.FIELD_COUNT];
+        double[] out = new double[TelemetryBus.FIELD_COUNT];
+
+        bus.publish(0, frame);
+        assertTrue(subscription.poll(out));
+
+        // 間引かれた間の変化は次のサンプルの変化マスクにまとまる
+        frame[TelemetryBus.SPEED] = 5;
+        bus.publish(10 * MS, frame);
+        frame[TelemetryBus.ALTITUDE] = 7;
+        bus.publish(20 * MS, frame);
+        assertFalse(subscription.poll(out));
+        frame[TelemetryBus.ROLL] = 3;
+        bus.publish(100 * MS, frame);
+        assertTrue(subscription.poll(out));
+        assertEquals(5, out[TelemetryBus.SPEED], 0);
+        assertEquals(7, out[TelemetryBus.ALTITUDE], 0);
+        assertEquals(3, out[TelemetryBus.ROLL], 0);
+        assertEquals(TelemetryBus.maskOf(TelemetryBus.SPEED, TelemetryBus.ALTITUDE, TelemetryBus.ROLL), subscription.getChangedMask());
+    }
+
+    @Test
+    public void throttledChange_isDeliveredByTheNextUnchangedFrame() throws Exception
+    {
+        TelemetryBus bus = new TelemetryBus();
+        TelemetryBus.Subscription subscription = bus.subscribe(TelemetryBus.ALL_FIELDS, 100 * MS, 16);
+        double[] frame = new double[TelemetryBus.FIELD_COUNT];
+        double[] out = new double[TelemetryBus.FIELD_COUNT];
+
+        bus.publish(0, frame);
+        assertTrue(subscription.poll(out));
+
+        // 最後の変化が間引かれたあと値が変わらなくても，間隔が空いたら届く
+        frame[TelemetryBus.SPEED] = 5;
+        bus.publish(10 * MS, frame);
+        bus.publish(50 * MS, frame);
+        assertFalse(subscription.poll(out));
+        bus.publish(100 * MS, frame);
+        assertTrue(subscription.poll(out));
+        assertEquals(5, out[TelemetryBus.SPEED], 0);
+        assertEquals(100 * MS, subscription.getTimestampNanos());
+        assertEquals(TelemetryBus.maskOf(TelemetryBus.SPEED), subscription.getChangedMask());
+
+        // 送り終えたら変化のないフレームでは何も積まない
+        bus.publish(300 * MS, frame);
+        assertFalse(subscription.poll(out));
+    }
+
+    @Test
+    public void slowSubscriber_dropsTheOldestSamples() throws Exception
+    {
+        TelemetryBus bus = new TelemetryBus();
+        TelemetryBus.Subscription subscription = bus.subscribe(TelemetryBus.ALL_FIELDS, 0, 8);
+        double[] frame = new double[TelemetryBus.FIELD_COUNT];
+        for(int i = 0; i < 20; i++)
+        {
+            publishAttitude(bus, frame, i * MS, i);
+        }
+
+        double[] out = new double[TelemetryBus.FIELD_COUNT];
+        for(int i = 12; i < 20; i++)
+        {
+            assertTrue(subscription.poll(out));
+            assertEquals(i, out[TelemetryBus.ROLL], 0);
+        }
+        assertFalse(subscription.poll(out));
+        assertEquals(12, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void unsubscribe_stopsDelivery() throws Exception
+    {
+        TelemetryBus bus = new TelemetryBus();
+        TelemetryBus.Subscription first = bus.subscribe(TelemetryBus.ALL_FIELDS, 0, 4);
+        TelemetryBus.Subscription second = bus.subscribe(TelemetryBus.ALL_FIELDS, 0, 4);
+        bus.unsubscribe(first);
+        assertEquals(1, bus.getSubscriberCount());
+
+        double[] frame = new double[TelemetryBus.FIELD_COUNT];
+        publishAttitude(bus, frame, 0, 1);
+        double[] out = new double[TelemetryBus.FIELD_COUNT];
+        assertFalse(first.poll(out));
+        assertTrue(second.poll(out));
+    }
+
+    @Test
+    public void concurrentConsumer_neverSeesTornSamples() throws Exception
+    {
+        final TelemetryBus bus = new TelemetryBus();
+        TelemetryBus.Subscription subscription = bus.subscribe(TelemetryBus.ALL_FIELDS, 0, 4);
+        final int count = 200000;
+        Thread producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                double[] frame = new double[TelemetryBus.FIELD_COUNT];
+                for(int i = 1; i <= count; i++)
+                {
+                    for(int field = 0; field < TelemetryBus.FIELD_COUNT; field++)
+                    {
+                        frame[field] = i;
+                    }
+                    bus.publish(i, frame);
+                }
+            }
+        });
+        producer.start();
+
+        double[] out = new double[TelemetryBus.FIELD_COUNT];
+        long received = 0;
+        double last = 0;
+        while(true)
+        {
+            boolean isProducing = producer.isAlive();
+            if(!subscription.poll(out))
+            {
+                if(!isProducing)
+                {
+                    break;
+                }
+                continue;
+            }
+            received++;
+            // 1つのサンプルの中は全部同じ値で，順序も保たれている
+            for(int field = 1; field < TelemetryBus.FIELD_COUNT; field++)
+            {
+                assertEquals(out[0], out[field], 0);
+            }
+            assertEquals((long)out[0], subscription.getTimestampNanos());
+            assertTrue(out[0] > last);
+            last = out[0];
+        }
+        producer.join();
+        assertEquals(count, last, 0);
+        assertEquals(count, received + subscription.getDroppedCount());
+    }
+}
@@ -0,0 +1,184 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class TraceReplayerTest
+{
+    private static final long FRAME = 16666667L;
+
+    // センサのトレースに1秒ごとのGPS測位を挟んだもの
+    private static SensorTrace driveTrace(double seconds)
+    {
+        SensorTrace sensors = new SensorTraceSynthesizer().generate(7, seconds);
+        SensorTrace trace = new SensorTrace();
+        long nextFix = 0;
+        int fix = 0;
+        for(int i = 0; i < sensors.size(); i++)
+        {
+            long t = sensors.getTimestamp(i);
+            if(t >= nextFix)
+            {
+                trace.addLocation(t, 35.0 + fix * 1e-4, 139.0 + fix * 2e-4, 30 + fix, 12.5, (fix * 12) % 360, 4);
+                nextFix += 1000000000L;
+                fix++;
+            }
+            trace.add(t, sensors.getType(i), sensors.getValue(i, 0), sensors.getValue(i, 1), sensors.getValue(i, 2));
+        }
+        return trace;
+    }
+
+    /** ListenerServiceと同じようにフュージョンへ流し，出力を畳み込んでおく */
+    private static class FusionSink implements TraceReplayer.Sink
+    {
+        final QuaternionFusion fusion = new QuaternionFusion();
+        int sensorCount = 0;
+        int locationCount = 0;
+        long lastLocationTimestamp;
+        long checksum = 0;
+
+        void mix(double value)
+        {
+            checksum = checksum * 31 + Double.doubleToLongBits(value);
+        }
+
+        @Override
+        public void onSensor(int type, long timestampNanos, float v0, float v1, float v2)
+        {
+            sensorCount++;
+            switch(type)
+            {
+                case SensorTrace.ACCELEROMETER:
+                    fusion.setAccelerometer(v0, v1, v2);
+                    break;
+                case SensorTrace.MAGNETIC_FIELD:
+                    fusion.setMagneticField(v0, v1, v2);
+                    break;
+                case SensorTrace.GYROSCOPE:
+                    fusion.onGyroscope(v0, v1, v2, timestampNanos);
+                    if(fusion.isInitialized())
+                    {
+                        mix(fusion.getRoll());
+                        mix(fusion.getPitch());
+                        mix(fusion.getYaw());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onLocation(long timestampNanos, double latitude, double longitude, double altitude,
+                               float speed, float bearing, float accuracy)
+        {
+            locationCount++;
+            lastLocationTimestamp = timestampNanos;
+            mix(latitude);
+            mix(longitude);
+            mix(altitude);
+            mix(speed + bearing + accuracy);
+        }
+    }
+
+    // 60Hzのフレームごとに呼ぶ(HandlerからServiceが呼ぶのと同じ)
+    private static FusionSink playFrames(SensorTrace trace, int speed, int maxEventsPerFrame)
+    {
+        FusionSink sink = new FusionSink();
+        TraceReplayer replayer = new TraceReplayer(trace, sink, speed);
+        long now = 1000000000L;
+        replayer.start(now);
+        while(!replayer.isFinished())
+        {
+            replayer.dispatch(now, maxEventsPerFrame);
+            now += FRAME;
+        }
+        return sink;
+    }
+
+    @Test
+    public void output_doesNotDependOnSpeed() throws Exception
+    {
+        SensorTrace trace = driveTrace(10);
+
+        FusionSink realTime = playFrames(trace, 1, Integer.MAX_VALUE);
+        FusionSink fast = playFrames(trace, 10, Integer.MAX_VALUE);
+        FusionSink unlimited = playFrames(trace, TraceReplayer.SPEED_UNLIMITED, 500);
+
+        assertEquals(11, realTime.locationCount);
+        assertEquals(trace.size(), realTime.sensorCount + realTime.locationCount);
+        assertEquals(realTime.checksum, fast.checksum);
+        assertEquals(realTime.checksum, unlimited.checksum);
+        assertEquals(10000000000L, realTime.lastLocationTimestamp);
+    }
+
+    @Test
+    public void dispatch_pacesEventsByTraceTime() throws Exception
+    {
+        SensorTrace trace = driveTrace(10);
+        for(int speed : new int[]{ 1, 10 })
+        {
+            FusionSink sink = new FusionSink();
+            TraceReplayer replayer = new TraceReplayer(trace, sink, speed);
+            long start = 5000000L;
+            replayer.start(start);
+
+            // 再生開始から2秒(10倍速なら20秒分)の時点で配られているのは，それ以前の時刻のイベントだけ
+            long now = start + 2000000000L / (speed == 1 ? 1 : 10);
+            replayer.dispatch(now, Integer.MAX_VALUE);
+            long traceTime = (now - start) * speed;
+            int expected = 0;
+            while(expected < trace.size() && trace.getTimestamp(expected) - trace.getTimestamp(0) <= traceTime)
+            {
+                expected++;
+            }
+            assertEquals("speed=" + speed, expected, replayer.getDispatchedCount());
+            assertEquals("speed=" + speed, start + (trace.getTimestamp(expected) - trace.getTimestamp(0)) / speed,
+                    replayer.getNextDueTime());
+        }
+    }
+
+    @Test
+    public void unlimited_reportsEventsPerSecond() throws Exception
+    {
+        SensorTrace trace = driveTrace(5);
+        FusionSink sink = new FusionSink();
+        TraceReplayer replayer = new TraceReplayer(trace, sink, TraceReplayer.SPEED_UNLIMITED);
+
+        double eventsPerSecond = replayer.run();
+
+        assertTrue(replayer.isFinished());
+        assertEquals(Long.MAX_VALUE, replayer.getNextDueTime());
+        assertEquals(trace.size(), replayer.getDispatchedCount());
+        assertTrue("eventsPerSecond=" + eventsPerSecond, eventsPerSecond > 0);
+        assertEquals(eventsPerSecond, replayer.getEventsPerSecond(Long.MAX_VALUE), 0);
+    }
+
+    @Test
+    public void locationEvents_surviveTextRoundTrip() throws Exception
+    {
+        SensorTrace trace = new SensorTrace();
+        trace.add(0, SensorTrace.GYROSCOPE, 0.1, 0.2, 0.3);
+        trace.addLocation(500000000L, 35.6812345, -139.7671234, 40.25, 12.5, -1, 3.5);
+
+        StringWriter writer = new StringWriter();
+        trace.write(writer);
+        SensorTrace read = SensorTrace.read(new StringReader(writer.toString()));
+
+        assertEquals(2, read.size());
+        assertEquals(SensorTrace.GYROSCOPE, read.getType(0));
+        assertEquals(0, read.getValue(0, 3), 0);
+        assertEquals(SensorTrace.LOCATION, read.getType(1));
+        assertEquals(500000000L, read.getTimestamp(1));
+        assertEquals(35.6812345, read.getValue(1, 0), 1e-9);
+        assertEquals(-139.7671234, read.getValue(1, 1), 1e-9);
+        assertEquals(40.25, read.getValue(1, 2), 1e-6);
+        assertEquals(12.5, read.getValue(1, 3), 1e-6);
+        assertEquals(-1, read.getValue(1, 4), 1e-6);
+        assertEquals(3.5, read.getValue(1, 5), 1e-6);
+    }
+}
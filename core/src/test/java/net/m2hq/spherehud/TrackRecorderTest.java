@@ -0,0 +1,284 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class TrackRecorderTest
+{
+    private static final long BASE = 5000000000L;
+
+    private static File tempFile() throws Exception
+    {
+        File file = File.createTempFile("track", ".shtrk");
+        file.deleteOnExit();
+        return file;
+    }
+
+    // テストは実機のセンサより速く積むので，溢れたら書き込みを待って入れ直す
+    private static void fix(TrackRecorder recorder, long t, double latitude, double longitude, double altitude,
+                            float speed, float bearing, double yaw)
+    {
+        while(!recorder.recordFix(t, latitude, longitude, altitude, speed, bearing, 4.5f, 9, 14, -3.21, 12.5, yaw))
+        {
+            Thread.yield();
+        }
+    }
+
+    private static void attitude(TrackRecorder recorder, long t, double roll, double pitch, double yaw)
+    {
+        while(!recorder.recordAttitude(t, roll, pitch, yaw))
+        {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void roundTrip_restoresValuesWithinResolution() throws Exception
+    {
+        File file = tempFile();
+        TrackRecorder recorder = TrackRecorder.open(file, 1500000000000L, BASE);
+        for(int i = 0; i < 5000; i++)
+        {
+            long t = BASE + i * 1000000000L;
+            fix(recorder, t, 35.6812345 + i * 1e-5, 139.7671234 - i * 2e-5, 40.25 + i * 0.01, 12.34f, (i * 7) % 360, (i * 3) % 360);
+            for(int j = 1; j < 10; j++)
+            {
+                attitude(recorder, t + j * 100000000L, -j, j * 2, 359.99 - j);
+            }
+        }
+        recorder.close();
+
+        assertEquals(TrackRecorder.HEADER_SIZE + 50000L * TrackRecorder.RECORD_SIZE, file.length());
+
+        TrackReader reader = TrackReader.open(file);
+        assertEquals(1500000000000L, reader.getStartTimeMillis());
+        assertEquals(BASE, reader.getBaseTimestampNanos());
+        assertEquals(50000, reader.getRecordCount());
+        for(int i = 0; i < 5000; i++)
+        {
+            long t = BASE + i * 1000000000L;
+            assertTrue(reader.next());
+            assertEquals(TrackRecorder.TYPE_FIX, reader.getType());
+            assertEquals(t, reader.getTimestampNanos(), 1000);
+            assertEquals(35.6812345 + i * 1e-5, reader.getLatitude(), 1e-7);
+            assertEquals(139.7671234 - i * 2e-5, reader.getLongitude(), 1e-7);
+            assertEquals(40.25 + i * 0.01, reader.getAltitude(), 0.005);
+            assertEquals(12.34f, reader.getSpeed(), 0.005);
+            assertEquals((i * 7) % 360, reader.getBearing(), 0.005);
+            assertEquals(4.5f, reader.getAccuracy(), 0.05);
+            assertEquals(9, reader.getSatellitesUsedInFix());
+            assertEquals(14, reader.getSatellites());
+            assertEquals(-3.21, reader.getRoll(), 0.005);
+            assertEquals(12.5, reader.getPitch(), 0.005);
+            double yaw = (i * 3) % 360;
+            assertEquals(yaw >= 180 ? yaw - 360 : yaw, reader.getYaw(), 0.005);
+
+            for(int j = 1; j < 10; j++)
+            {
+                assertTrue(reader.next());
+                assertEquals(TrackRecorder.TYPE_ATTITUDE, reader.getType());
+                assertEquals(t + j * 100000000L, reader.getTimestampNanos(), 1000);
+                assertEquals(-j, reader.getRoll(), 0.005);
+                assertEquals(j * 2, reader.getPitch(), 0.005);
+                assertEquals(-j - 0.01, reader.getYaw(), 0.005);
+            }
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void timestamps_doNotDriftOverLongSessions() throws Exception
+    {
+        File file = tempFile();
+        TrackRecorder recorder = TrackRecorder.open(file, 0, BASE);
+        // 端数のあるサンプリング間隔で6時間分
+        long t = BASE;
+        for(int i = 0; i < 100000; i++)
+        {
+            t += 216000999L;
+            attitude(recorder, t, 0, 0, 0);
+        }
+        recorder.close();
+
+        TrackReader reader = TrackReader.open(file);
+        long last = 0;
+        while(reader.next())
+        {
+            last = reader.getTimestampNanos();
+        }
+        assertEquals(t, last, 1000);
+    }
+
+    @Test
+    public void longGapsAndAntimeridian_areEncoded() throws Exception
+    {
+        File file = tempFile();
+        TrackRecorder recorder = TrackRecorder.open(file, 0, BASE);
+        recorder.recordFix(BASE + 1000, -33.8568, 179.9999999, 5, 250, -1, 3, 8, 12, 0, 0, 0);
+        // 1時間後(intのマイクロ秒に収まらない)
+        recorder.recordFix(BASE + 3600000000000L, -33.8568, -179.9999999, -12.5, 0, 359.996f, 1000000, 300, 300, 180, -180, -0.004);
+        // 時刻が戻るセンサイベント
+        recorder.recordAttitude(BASE - 3000000L, 0, 0, 0);
+        recorder.close();
+
+        TrackReader reader = TrackReader.open(file);
+        assertTrue(reader.next());
+        assertEquals(BASE + 1000, reader.getTimestampNanos(), 1000);
+        assertEquals(179.9999999, reader.getLongitude(), 1e-7);
+        assertEquals(-1, reader.getBearing(), 0);
+        assertEquals(250, reader.getSpeed(), 0.005);
+
+        assertTrue(reader.next());
+        assertEquals(BASE + 3600000000000L, reader.getTimestampNanos(), 1000);
+        assertEquals(-33.8568, reader.getLatitude(), 1e-7);
+        assertEquals(-179.9999999, reader.getLongitude(), 1e-7);
+        assertEquals(-12.5, reader.getAltitude(), 0.005);
+        assertEquals(0, reader.getBearing(), 0.005);
+        assertEquals(6553.5, reader.getAccuracy(), 0.05);
+        assertEquals(255, reader.getSatellitesUsedInFix());
+        assertEquals(255, reader.getSatellites());
+        assertEquals(-180, reader.getRoll(), 0.005);
+        assertEquals(-180, reader.getPitch(), 0.005);
+        assertEquals(0, reader.getYaw(), 0.005);
+
+        assertTrue(reader.next());
+        assertEquals(TrackRecorder.TYPE_ATTITUDE, reader.getType());
+        assertEquals(BASE - 3000000L, reader.getTimestampNanos(), 1000);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void fullRing_dropsInsteadOfBlocking() throws Exception
+    {
+        File file = tempFile();
+        // 書き込みスレッドを起動しないで溢れさせる
+        TrackRecorder recorder = new TrackRecorder(file, 0, BASE, 16);
+        for(int i = 0; i < 20; i++)
+        {
+            assertEquals(i < 16, recorder.recordAttitude(BASE + i, 0, 0, i));
+        }
+        assertEquals(4, recorder.getDroppedCount());
+        recorder.close();
+
+        TrackReader reader = TrackReader.open(file);
+        assertEquals(16, reader.getRecordCount());
+        int count = 0;
+        while(reader.next())
+        {
+            assertEquals(count, reader.getYaw(), 0.005);
+            count++;
+        }
+        assertEquals(16, count);
+    }
+
+    @Test
+    public void attitudeSource_isMergedWithFixesInTimeOrder() throws Exception
+    {
+        File file = tempFile();
+        TelemetryBus bus = new TelemetryBus();
+        TrackRecorder recorder = new TrackRecorder(file, 0, BASE, 16);
+        recorder.setAttitudeSource(bus.subscribe(TelemetryBus.maskOf(TelemetryBus.ROLL, TelemetryBus.PITCH, TelemetryBus.YAW), 0, 64));
+
+        // 姿勢は10ms毎，測位は100ms毎(どちらも書き込み前に積んでおく)
+        double[] frame = new double[TelemetryBus.FIELD_COUNT];
+        for(int i = 0; i < 30; i++)
+        {
+            frame[TelemetryBus.ROLL] = i;
+            frame[TelemetryBus.SPEED] = i;
+            bus.publish(BASE + i * 10000000L + 5000000L, frame);
+        }
+        for(int i = 0; i < 3; i++)
+        {
+            recorder.recordFix(BASE + i * 100000000L, 35, 139, 10, 1, -1, 3, 4, 5, 0, 0, 0);
+        }
+        recorder.close();
+
+        TrackReader reader = TrackReader.open(file);
+        assertEquals(33, reader.getRecordCount());
+        int attitudes = 0;
+        int fixes = 0;
+        long last = 0;
+        while(reader.next())
+        {
+            assertTrue(reader.getTimestampNanos() > last);
+            last = reader.getTimestampNanos();
+            if(TrackRecorder.TYPE_ATTITUDE == reader.getType())
+            {
+                assertEquals(attitudes, reader.getRoll(), 0.005);
+                assertEquals(BASE + attitudes * 10000000L + 5000000L, reader.getTimestampNanos(), 1000);
+                attitudes++;
+            }
+            else
+            {
+                assertEquals(TrackRecorder.TYPE_FIX, reader.getType());
+                assertEquals(BASE + fixes * 100000000L, reader.getTimestampNanos(), 1000);
+                fixes++;
+            }
+        }
+        assertEquals(30, attitudes);
+        assertEquals(3, fixes);
+        assertEquals(0, recorder.getDroppedCount());
+    }
+
+    @Test
+    public void deleteOldSessions_keepsTheNewestWithinLimits() throws Exception
+    {
+        File dir = tempFile();
+        assertTrue(dir.delete() && dir.mkdir());
+        String[] names = {"20240101-080000", "20240101-090000", "20240102-070000", "20240103-120000", "20240104-060000"};
+        // 古い順に1000バイトずつ
+        for(String name : names)
+        {
+            RandomAccessFile file = new RandomAccessFile(new File(dir, name + TrackRecorder.FILE_EXTENSION), "rw");
+            file.setLength(1000);
+            file.close();
+        }
+        File other = new File(dir, "notes.txt");
+        assertTrue(other.createNewFile());
+
+        assertEquals(0, TrackRecorder.deleteOldSessions(dir, 5, 5000));
+        assertEquals(1, TrackRecorder.deleteOldSessions(dir, 4, 5000));
+        assertFalse(new File(dir, names[0] + TrackRecorder.FILE_EXTENSION).exists());
+        // 件数に余裕があっても容量で消す
+        assertEquals(2, TrackRecorder.deleteOldSessions(dir, 4, 2500));
+        assertFalse(new File(dir, names[2] + TrackRecorder.FILE_EXTENSION).exists());
+        assertTrue(new File(dir, names[3] + TrackRecorder.FILE_EXTENSION).exists());
+        assertTrue(new File(dir, names[4] + TrackRecorder.FILE_EXTENSION).exists());
+        assertTrue(other.exists());
+
+        for(File file : dir.listFiles())
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void record_doesNotAllocate() throws Exception
+    {
+        final TrackRecorder recorder = new TrackRecorder(tempFile(), 0, BASE, 1024);
+        // 溢れた場合も含めて測る
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for(int i = 0; i < 2000; i++)
+                {
+                    recorder.recordFix(BASE + i, 35, 139, 10, 1, 2, 3, 4, 5, 6, 7, 8);
+                    recorder.recordAttitude(BASE + i, 1, 2, 3);
+                }
+            }
+        };
+        task.run();
+
+        long allocated = AllocationProbe.bytesAllocatedBy(task);
+        recorder.close();
+
+        assertEquals(0, allocated);
+    }
+}
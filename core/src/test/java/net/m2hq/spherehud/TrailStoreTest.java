@@ -0,0 +1,153 @@
+package net.m2hq.spherehud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TrailStoreTest
+{
+    // 緯度1e-5度 ≒ 1.11m
+    private static final double METER_LATITUDE = 1.0 / 111195.0;
+
+    @Test
+    public void jitterWithinAccuracy_isRejected() throws Exception
+    {
+        TrailStore trail = new TrailStore(16);
+        assertTrue(trail.onFix(1000L, 35.0, 139.0, 5));
+        // 誤差5mどうしなら約7mまではばらつき
+        assertFalse(trail.onFix(2000L, 35.0 + 3 * METER_LATITUDE, 139.0, 5));
+        assertFalse(trail.onFix(3000L, 35.0 + 6.5 * METER_LATITUDE, 139.0, 5));
+        assertTrue(trail.onFix(4000L, 35.0 + 8 * METER_LATITUDE, 139.0, 5));
+
+        assertEquals(2, trail.getCount());
+        assertEquals(2, trail.getRejectedCount());
+        assertEquals(4000L, trail.getTimestamp(1));
+        assertEquals(1000L, trail.getTimestamp(0));
+        assertEquals(8, trail.getStepDistance(1), 0.01);
+        assertEquals(0, trail.getStepBearing(1), 0.01);
+        assertEquals(0, trail.getStepDistance(0), 0);
+    }
+
+    @Test
+    public void steps_haveDistanceAndBearing() throws Exception
+    {
+        TrailStore trail = new TrailStore(16);
+        trail.onFix(0, 0, 0, 1);
+        trail.onFix(1, 0, 0.001, 1);
+        trail.onFix(2, -0.001, 0.001, 1);
+
+        assertEquals(180, trail.getStepBearing(2), 1e-3);
+        assertEquals(90, trail.getStepBearing(1), 1e-3);
+        assertEquals(111.2, trail.getStepDistance(2), 0.1);
+        assertEquals(TrailStore.distance(0, 0, 0, 0.001), trail.getStepDistance(1), 1e-3);
+    }
+
+    @Test
+    public void ring_keepsNewestEntries() throws Exception
+    {
+        TrailStore trail = new TrailStore(8);
+        for(int i = 0; i < 20; i++)
+        {
+            trail.onFix(i, 35.0 + i * 1e-3, 139.0, 1);
+        }
+
+        assertEquals(20, trail.getCount());
+        assertEquals(12, trail.getOldestSequence(trail.getCount()));
+        assertEquals(19, trail.getTimestamp(19));
+        assertEquals(12, trail.getTimestamp(12));
+        assertEquals(35.019, trail.getLatitude(19), 1e-9);
+        // 保持していない範囲は0
+        assertEquals(0, trail.getStepDistance(11), 0);
+        assertEquals(0, trail.getStepDistance(-1), 0);
+        assertTrue(trail.getStepDistance(12) > 0);
+    }
+
+    @Test
+    public void sequenceNumbers_stayStableWhileAppending() throws Exception
+    {
+        TrailStore trail = new TrailStore(16);
+        trail.onFix(0, 35.0, 139.0, 0.1f);
+        trail.onFix(1, 35.001, 139.002, 0.1f);
+
+        // 描画側が数を読んだあとに測位が追加されても，読む点は変わらない
+        long count = trail.getCount();
+        long levelCount = trail.getLevelPointCount(0);
+        trail.onFix(2, 35.005, 139.007, 0.1f);
+        assertEquals(35.001, trail.getLatitude(count - 1), 0);
+        assertEquals(139.002, trail.getLongitude(count - 1), 0);
+        assertEquals(35.001, trail.getLevelLatitude(0, levelCount - 1), 0);
+        assertEquals(139.002, trail.getLevelLongitude(0, levelCount - 1), 0);
+        assertEquals(TrailStore.bearing(35.0, 139.0, 35.001, 139.002), trail.getStepBearing(count - 1), 1e-3);
+    }
+
+    @Test
+    public void levels_areBoundedAndSpaced() throws Exception
+    {
+        TrailStore trail = new TrailStore();
+        // 北へ1mずつ10000点(10km)
+        for(int i = 0; i < 10000; i++)
+        {
+            assertTrue(trail.onFix(i, 35.0 + i * METER_LATITUDE, 139.0, 0.1f));
+        }
+
+        for(int level = 0; level < trail.getLevelCount(); level++)
+        {
+            long count = trail.getLevelPointCount(level);
+            long oldest = trail.getOldestLevelSequence(count);
+            assertTrue(count - oldest <= TrailStore.LEVEL_POINTS);
+            assertEquals(35.0 + 9999 * METER_LATITUDE, trail.getLevelLatitude(level, count - 1), 2 * trail.getLevelSpacing(level) * METER_LATITUDE);
+            for(long i = oldest + 1; i < count; i++)
+            {
+                double d = TrailStore.distance(trail.getLevelLatitude(level, i - 1), trail.getLevelLongitude(level, i - 1),
+                        trail.getLevelLatitude(level, i), trail.getLevelLongitude(level, i));
+                assertTrue("level=" + level + " d=" + d, d >= trail.getLevelSpacing(level) - 1e-3);
+                assertTrue("level=" + level + " d=" + d, d < trail.getLevelSpacing(level) + 1.001);
+            }
+        }
+        long count0 = trail.getLevelPointCount(0);
+        assertEquals(TrailStore.LEVEL_POINTS, count0 - trail.getOldestLevelSequence(count0));
+        // 最も粗い段は全体を覆う
+        int coarsest = trail.getLevelCount() - 1;
+        assertTrue(trail.getLevelPointCount(coarsest) < TrailStore.LEVEL_POINTS);
+        assertEquals(0, trail.getOldestLevelSequence(trail.getLevelPointCount(coarsest)));
+        assertEquals(35.0, trail.getLevelLatitude(coarsest, 0), 1e-9);
+
+        assertEquals(0, trail.getLevelFor(0.1f));
+        assertEquals(1, trail.getLevelFor(trail.getLevelSpacing(0) * 2));
+        assertEquals(coarsest, trail.getLevelFor(1e6f));
+    }
+
+    @Test
+    public void recentMaxStep_followsSlidingWindow() throws Exception
+    {
+        checkRecentMaxStep(new TrailStore(64));
+    }
+
+    @Test
+    public void recentMaxStep_doesNotDependOnCapacity() throws Exception
+    {
+        // 履歴がRECENT_STEPSより短くても窓全体の最大値になる
+        checkRecentMaxStep(new TrailStore(8));
+    }
+
+    private static void checkRecentMaxStep(TrailStore trail)
+    {
+        double latitude = 35.0;
+        trail.onFix(0, latitude, 139.0, 0.1f);
+        // 増えていく区間と，減速のように単調に減っていく区間
+        float[] steps = new float[]{ 3, 50, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 2, 2, 30,
+                33, 32, 31, 30, 29, 28, 27, 26, 25, 24, 23, 22, 21, 20, 19, 18, 17, 16, 15, 14, 13, 12, 11, 10, 9, 8 };
+        for(int i = 0; i < steps.length; i++)
+        {
+            latitude += steps[i] * METER_LATITUDE;
+            trail.onFix(i + 1, latitude, 139.0, 0.1f);
+
+            float expected = 0;
+            for(int j = Math.max(0, i - TrailStore.RECENT_STEPS + 1); j <= i; j++)
+            {
+                expected = Math.max(expected, steps[j]);
+            }
+            assertEquals("i=" + i, expected, trail.getRecentMaxStep(), 0.01);
+        }
+    }
+}